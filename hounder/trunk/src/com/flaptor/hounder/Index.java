@@ -52,6 +52,9 @@ import com.flaptor.util.Execute;
  */
 public class Index {
     private static final Logger logger = Logger.getLogger(Execute.whoAmI());
+    // The field the index was last sorted by, and the version of the index after sorting it.
+    private static final String STATIC_RANK_FIELD_PROPERTY = "staticRankSortField";
+    private static final String STATIC_RANK_VERSION_PROPERTY = "staticRankSortVersion";
 
     protected volatile State state = State.closed;
     protected final File path;
@@ -132,6 +135,52 @@ public class Index {
 
     }
 
+    /**
+     * Rewrites the index as a single segment with its documents in descending order of
+     * a numeric field, so searches can stop collecting hits once the remaining documents
+     * can not make it to the top results. Deleted documents are dropped, as in an optimize.
+     * The sort is recorded in the index properties (@see #isSortedByStaticRank).
+     * It takes as long as an optimize: the indexer only sorts when optimizing.
+     * ALL WRITERS MUST BE CLOSED BEFORE CALLING THIS METHOD.
+     * @param field an indexed field with a single numeric value per document, usually its static rank.
+     * @throws RuntimeException if there was a problem rewriting the index.
+     * @throws IllegalStateException if the index has been closed.
+     */
+    public void sortByStaticRank(final String field) {
+        if (state == State.closed) {
+            throw new IllegalStateException("Can't sort: the index is closed.");
+        }
+        IndexReader reader = null;
+        try {
+            // A writer created over an index only replaces it when it commits, and the
+            // open reader keeps seeing the old files until then.
+            reader = IndexReader.open(directory);
+            IndexWriter writer = new IndexWriter(directory, analyzer, true, IndexWriter.MaxFieldLength.UNLIMITED);
+            try {
+                writer.addIndexes(new IndexReader[] {new StaticRankSortingReader(reader, field)});
+            } finally {
+                writer.close();
+            }
+            setIndexProperty(STATIC_RANK_FIELD_PROPERTY, field);
+            setIndexProperty(STATIC_RANK_VERSION_PROPERTY, String.valueOf(IndexReader.getCurrentVersion(directory)));
+        } catch (IOException e) {
+            logger.fatal("Error while sorting the index by " + field, e);
+            throw new RuntimeException(e);
+        } finally {
+            com.flaptor.util.Execute.close(reader, logger);
+        }
+    }
+
+    /**
+     * Tells whether the documents of the index are in descending order of a field: the index
+     * was sorted by it with sortByStaticRank, and has not been modified since.
+     * @param reader a reader of this index.
+     */
+    public boolean isSortedByStaticRank(final String field, final IndexReader reader) {
+        return field.equals(getIndexProperty(STATIC_RANK_FIELD_PROPERTY))
+            && String.valueOf(reader.getVersion()).equals(getIndexProperty(STATIC_RANK_VERSION_PROPERTY));
+    }
+
     /**
      * Gets a _NEW_ reader to read/erase over the index.
      * @return a new lucene IndexReader. The caller has to remember closing it after use.
@@ -0,0 +1,373 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.index.FilterIndexReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.index.TermFreqVector;
+import org.apache.lucene.index.TermPositions;
+import org.apache.lucene.index.TermVectorMapper;
+import org.apache.lucene.search.DefaultSimilarity;
+import org.apache.lucene.search.FieldCache;
+
+/**
+ * A read only view of an index with its documents renumbered in descending order of the
+ * numeric value of a field, and without its deleted documents. Documents with the same
+ * value keep their relative order.
+ *
+ * Adding it to an empty IndexWriter writes a copy of the index sorted by that field. The
+ * postings of a term are streamed: only its document ids are kept in memory, and its
+ * positions and payloads are read {@link #WINDOW} documents at a time.
+ *
+ * @author Flaptor Development Team
+ */
+final class StaticRankSortingReader extends FilterIndexReader {
+
+    // How many documents of a term have their positions and payloads in memory at a time.
+    static final int WINDOW = 4096;
+
+    // new doc id -> old doc id
+    private final int[] oldIds;
+    // old doc id -> new doc id, -1 for deleted documents.
+    private final int[] newIds;
+
+    /**
+     * @param in the reader to sort.
+     * @param field an indexed field with a single numeric value per document. Documents
+     *  without it are sorted last.
+     */
+    StaticRankSortingReader(IndexReader in, String field) throws IOException {
+        super(in);
+        float[] ranks = FieldCache.DEFAULT.getFloats(in, field);
+        int maxDoc = in.maxDoc();
+        // Sorting the rank and the doc id packed in a long avoids boxing every document.
+        // The bits of a non negative float sort as the float does.
+        long[] keys = new long[in.numDocs()];
+        int count = 0;
+        for (int doc = 0; doc < maxDoc; doc++) {
+            if (!in.isDeleted(doc)) {
+                long rankBits = Integer.MAX_VALUE - Float.floatToIntBits(Math.max(ranks[doc], 0f));
+                keys[count++] = (rankBits << 32) | doc;
+            }
+        }
+        Arrays.sort(keys, 0, count);
+        oldIds = new int[count];
+        newIds = new int[maxDoc];
+        Arrays.fill(newIds, -1);
+        for (int i = 0; i < count; i++) {
+            oldIds[i] = (int) keys[i];
+            newIds[oldIds[i]] = i;
+        }
+    }
+
+    @Override
+    public int numDocs() {
+        return oldIds.length;
+    }
+
+    @Override
+    public int maxDoc() {
+        return oldIds.length;
+    }
+
+    @Override
+    public boolean isDeleted(int n) {
+        return false;
+    }
+
+    @Override
+    public boolean hasDeletions() {
+        return false;
+    }
+
+    @Override
+    public Document document(int n, FieldSelector fieldSelector) throws IOException {
+        return in.document(oldIds[n], fieldSelector);
+    }
+
+    @Override
+    public TermFreqVector[] getTermFreqVectors(int docNumber) throws IOException {
+        return in.getTermFreqVectors(oldIds[docNumber]);
+    }
+
+    @Override
+    public TermFreqVector getTermFreqVector(int docNumber, String field) throws IOException {
+        return in.getTermFreqVector(oldIds[docNumber], field);
+    }
+
+    @Override
+    public void getTermFreqVector(int docNumber, String field, TermVectorMapper mapper) throws IOException {
+        in.getTermFreqVector(oldIds[docNumber], field, mapper);
+    }
+
+    @Override
+    public void getTermFreqVector(int docNumber, TermVectorMapper mapper) throws IOException {
+        in.getTermFreqVector(oldIds[docNumber], mapper);
+    }
+
+    @Override
+    public byte[] norms(String field) throws IOException {
+        byte[] norms = in.norms(field);
+        if (null == norms) {
+            return null;
+        }
+        byte[] sorted = new byte[oldIds.length];
+        for (int i = 0; i < oldIds.length; i++) {
+            sorted[i] = norms[oldIds[i]];
+        }
+        return sorted;
+    }
+
+    @Override
+    public void norms(String field, byte[] result, int offset) throws IOException {
+        byte[] sorted = norms(field);
+        if (null == sorted) {
+            Arrays.fill(result, offset, offset + oldIds.length, DefaultSimilarity.encodeNorm(1.0f));
+        } else {
+            System.arraycopy(sorted, 0, result, offset, sorted.length);
+        }
+    }
+
+    @Override
+    public TermDocs termDocs() throws IOException {
+        return termPositions();
+    }
+
+    @Override
+    public TermPositions termPositions() throws IOException {
+        return new SortingTermPositions(in.termDocs(), in.termPositions());
+    }
+
+    @Override
+    protected void doDelete(int n) {
+        throw new UnsupportedOperationException("the sorted view of an index is read only.");
+    }
+
+    @Override
+    protected void doUndeleteAll() {
+        throw new UnsupportedOperationException("the sorted view of an index is read only.");
+    }
+
+    @Override
+    protected void doSetNorm(int d, String f, byte b) {
+        throw new UnsupportedOperationException("the sorted view of an index is read only.");
+    }
+
+    /**
+     * Returns the postings of a term in the new document order. Seeking to a term only reads
+     * its document ids. Their positions and payloads are read a window of documents at a
+     * time, skipping in a single pass over the postings to the documents of the window in
+     * their old order, so the memory taken does not grow with the length of the postings.
+     */
+    private final class SortingTermPositions implements TermPositions {
+        private final TermDocs docsInOldOrder;
+        private final TermPositions postings;
+        private Term term;
+
+        // (new doc id << 32 | old doc id) of the documents of the term, sorted.
+        private long[] order = new long[16];
+        private int count = 0;
+        private int current;
+
+        // The window of documents with their positions loaded, starting at windowStart.
+        // Per document of the window: its frequency, and where its positions start.
+        private int windowStart;
+        private int windowSize;
+        private final int[] freqs = new int[WINDOW];
+        private final int[] firstPositions = new int[WINDOW];
+        // (old doc id << 32 | index in the window), to read the window in the old order.
+        private final long[] byOldDoc = new long[WINDOW];
+        // one entry per position of the window.
+        private int positionCount = 0;
+        private int[] positions = new int[16];
+        private int[] payloadOffsets = new int[16];
+        private int[] payloadLengths = new int[16];
+        private byte[] payloads = new byte[64];
+        private int payloadsLength = 0;
+
+        private int nextPosition;
+        private boolean payloadRead;
+
+        SortingTermPositions(TermDocs docsInOldOrder, TermPositions postings) {
+            this.docsInOldOrder = docsInOldOrder;
+            this.postings = postings;
+        }
+
+        public void seek(Term term) throws IOException {
+            this.term = term;
+            load();
+        }
+
+        public void seek(TermEnum termEnum) throws IOException {
+            seek(termEnum.term());
+        }
+
+        private void load() throws IOException {
+            count = 0;
+            if (null != term) {
+                docsInOldOrder.seek(term);
+                while (docsInOldOrder.next()) {
+                    int oldDoc = docsInOldOrder.doc();
+                    int newDoc = newIds[oldDoc];
+                    if (newDoc < 0) {
+                        continue;
+                    }
+                    if (count == order.length) {
+                        long[] newOrder = new long[order.length * 2];
+                        System.arraycopy(order, 0, newOrder, 0, count);
+                        order = newOrder;
+                    }
+                    order[count++] = ((long) newDoc << 32) | oldDoc;
+                }
+            }
+            Arrays.sort(order, 0, count);
+            current = -1;
+            windowStart = 0;
+            windowSize = 0;
+        }
+
+        // Reads the positions and payloads of the documents of the window that starts at start.
+        private void loadWindow(int start) throws IOException {
+            windowStart = start;
+            windowSize = Math.min(WINDOW, count - start);
+            for (int i = 0; i < windowSize; i++) {
+                byOldDoc[i] = ((order[start + i] & 0xFFFFFFFFL) << 32) | i;
+            }
+            Arrays.sort(byOldDoc, 0, windowSize);
+            positionCount = 0;
+            payloadsLength = 0;
+            postings.seek(term);
+            for (int i = 0; i < windowSize; i++) {
+                int oldDoc = (int) (byOldDoc[i] >>> 32);
+                int slot = (int) byOldDoc[i];
+                if (!postings.skipTo(oldDoc) || postings.doc() != oldDoc) {
+                    throw new IOException("document " + oldDoc + " is missing from the postings of " + term);
+                }
+                int freq = postings.freq();
+                freqs[slot] = freq;
+                firstPositions[slot] = positionCount;
+                for (int j = 0; j < freq; j++) {
+                    if (positionCount == positions.length) {
+                        positions = grow(positions);
+                        payloadOffsets = grow(payloadOffsets);
+                        payloadLengths = grow(payloadLengths);
+                    }
+                    positions[positionCount] = postings.nextPosition();
+                    int length = postings.isPayloadAvailable() ? postings.getPayloadLength() : 0;
+                    if (length > 0) {
+                        while (payloadsLength + length > payloads.length) {
+                            byte[] newPayloads = new byte[payloads.length * 2];
+                            System.arraycopy(payloads, 0, newPayloads, 0, payloadsLength);
+                            payloads = newPayloads;
+                        }
+                        postings.getPayload(payloads, payloadsLength);
+                    }
+                    payloadOffsets[positionCount] = payloadsLength;
+                    payloadLengths[positionCount] = length;
+                    payloadsLength += length;
+                    positionCount++;
+                }
+            }
+        }
+
+        private int[] grow(int[] array) {
+            int[] grown = new int[array.length * 2];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            return grown;
+        }
+
+        public boolean next() throws IOException {
+            if (current + 1 >= count) {
+                current = count;
+                return false;
+            }
+            current++;
+            if (current >= windowStart + windowSize) {
+                loadWindow(current);
+            }
+            nextPosition = firstPositions[current - windowStart];
+            payloadRead = true;
+            return true;
+        }
+
+        public int doc() {
+            return (int) (order[current] >>> 32);
+        }
+
+        public int freq() {
+            return freqs[current - windowStart];
+        }
+
+        public int read(int[] docsOut, int[] freqsOut) throws IOException {
+            int i = 0;
+            while (i < docsOut.length && next()) {
+                docsOut[i] = doc();
+                freqsOut[i] = freq();
+                i++;
+            }
+            return i;
+        }
+
+        public boolean skipTo(int target) throws IOException {
+            do {
+                if (!next()) {
+                    return false;
+                }
+            } while (target > doc());
+            return true;
+        }
+
+        public int nextPosition() {
+            payloadRead = false;
+            return positions[nextPosition++];
+        }
+
+        public int getPayloadLength() {
+            return payloadLengths[nextPosition - 1];
+        }
+
+        public byte[] getPayload(byte[] data, int offset) {
+            int position = nextPosition - 1;
+            int length = payloadLengths[position];
+            byte[] result = data;
+            int resultOffset = offset;
+            if (null == data || data.length - offset < length) {
+                result = new byte[length];
+                resultOffset = 0;
+            }
+            System.arraycopy(payloads, payloadOffsets[position], result, resultOffset, length);
+            payloadRead = true;
+            return result;
+        }
+
+        public boolean isPayloadAvailable() {
+            return !payloadRead && payloadLengths[nextPosition - 1] > 0;
+        }
+
+        public void close() throws IOException {
+            docsInOldOrder.close();
+            postings.close();
+        }
+    }
+}
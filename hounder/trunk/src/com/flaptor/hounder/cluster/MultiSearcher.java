@@ -16,23 +16,38 @@ limitations under the License.
 package com.flaptor.hounder.cluster;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.Vector;
 import java.util.Map.Entry;
 
 import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
 
 import com.flaptor.hounder.searcher.GroupedSearchResults;
 import com.flaptor.hounder.searcher.IRemoteSearcher;
 import com.flaptor.hounder.searcher.ISearcher;
+import com.flaptor.hounder.searcher.MultiSearchResults;
 import com.flaptor.hounder.searcher.QueryParams;
 import com.flaptor.hounder.searcher.RmiSearcherStub;
+import com.flaptor.hounder.searcher.SearchCursor;
+import com.flaptor.hounder.searcher.SearcherException;
 import com.flaptor.hounder.searcher.filter.AFilter;
 import com.flaptor.hounder.searcher.group.AGroup;
 import com.flaptor.hounder.searcher.group.AResultsGrouper;
 import com.flaptor.hounder.searcher.group.GroupedSearchResultsDocumentProvider;
+import com.flaptor.hounder.searcher.group.NoGroup;
 import com.flaptor.hounder.searcher.query.AQuery;
+import com.flaptor.hounder.searcher.query.FetchDocumentsQuery;
+import com.flaptor.hounder.searcher.query.HitKeysQuery;
+import com.flaptor.hounder.searcher.query.SearchAfterQuery;
 import com.flaptor.hounder.searcher.sort.ASort;
 import com.flaptor.util.CallableWithId;
 import com.flaptor.util.Config;
@@ -58,8 +73,11 @@ public class MultiSearcher implements ISearcher {
 
     private List<IRemoteSearcher> searchers = new ArrayList<IRemoteSearcher>();
     private MultiExecutor<GroupedSearchResults> multiQueryExecutor;
+    private MultiExecutor<Integer> countExecutor;
+    private MultiExecutor<MultiSearchResults> batchExecutor;
     private List<String> searcherIPs = new ArrayList<String>();
     private long timeout;
+    private final boolean twoPhase;
 
     public MultiSearcher() {
     	this(new ExponentialFallbackPolicy());
@@ -80,7 +98,10 @@ public class MultiSearcher implements ISearcher {
         }
         timeout = config.getLong("multiSearcher.timeout");
         logger.info("init: timeout set to " + timeout + "ms (from config file).");
+        twoPhase = config.getBoolean("multiSearcher.twoPhase");
         multiQueryExecutor = new MultiExecutor<GroupedSearchResults>(workerThreads, "multiSearcher");
+        countExecutor = new MultiExecutor<Integer>(workerThreads, "multiSearcherCount");
+        batchExecutor = new MultiExecutor<MultiSearchResults>(workerThreads, "multiSearcherBatch");
     }
 
 
@@ -92,6 +113,14 @@ public class MultiSearcher implements ISearcher {
      * With this list, the first <i>firstResult</i> are discarded, and the <i>count</i>
      * results on the head are returned.
      *
+     * An ungrouped query after a cursor asks each searcher only for <i>count</i> results
+     * after its own position in the cursor, see {@link Page}.
+     *
+     * In two phases, the searchers are first asked only for the keys of their results (see
+     * {@link HitKeysQuery}), and then each searcher is asked for the documents it found that
+     * are in the merged page (see {@link #fetchDocuments(List, List, List, long)}). If some of them
+     * can not be fetched, the page is searched again in a single phase. Both phases and the
+     * search again share the timeout of the search.
      */
     @SuppressWarnings("unchecked")
     public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup group, int groupSize, AFilter filter, ASort sort) {
@@ -99,14 +128,20 @@ public class MultiSearcher implements ISearcher {
     }
 
     public MultiGSR msearch(AQuery query, int firstResult, int count, AGroup group, int groupSize, AFilter filter, ASort sort) {
+        return msearch(new Page(query, firstResult, group, twoPhase), count, group, groupSize, filter, sort, System.currentTimeMillis() + timeout);
+    }
 
-        final QueryParams queryParams = new QueryParams(query, 0, firstResult + count, group, 1, filter, sort);
+    /**
+     * @param deadline the time by which the search has to be answered, in milliseconds.
+     */
+    private MultiGSR msearch(Page page, int count, AGroup group, int groupSize, AFilter filter, ASort sort, long deadline) {
 
 
         Execution<GroupedSearchResults> execution= new Execution<GroupedSearchResults>();
         for (int i = 0; i < searchers.size(); ++i) {
         	final int numSearcher = i;
         	final IRemoteSearcher searcher = searchers.get(numSearcher);
+        	final QueryParams queryParams = page.searcherParams(numSearcher, count, group, filter, sort);
             execution.addTask(new CallableWithId<GroupedSearchResults, Integer>(numSearcher) {
                 public GroupedSearchResults call() throws Exception {
                     return queryParams.executeInRemoteSearcher(searcher);
@@ -117,7 +152,7 @@ public class MultiSearcher implements ISearcher {
 
         long start = System.currentTimeMillis();
         try {
-            execution.waitFor(timeout);
+            execution.waitFor(timeLeft(deadline));
         } catch (InterruptedException e) {
             execution.forget();
             logger.warn("timeout of some searchers");
@@ -126,7 +161,6 @@ public class MultiSearcher implements ISearcher {
         //a treeMap for sorting values according to the searcher number
         Map<Integer, GroupedSearchResults> goodResultsMap = new TreeMap<Integer, GroupedSearchResults>();
         Map<Integer, String> badResultsMap = new TreeMap<Integer, String>();
-        List<GroupedSearchResults> goodResults = new ArrayList<GroupedSearchResults>();
         int badResults = 0;
 
 
@@ -154,12 +188,40 @@ public class MultiSearcher implements ISearcher {
         }
 
 
+        logger.debug("obtained " + totalDocuments + " documents in "+ goodResultsMap.size() + " good responses and " +  badResults + " exceptions in " + (System.currentTimeMillis() - start) + " ms ");
+        MultiGSR result = merge(goodResultsMap, badResultsMap, page, count, group, groupSize, sort);
+        if (page.keysOnly) {
+            boolean fetched = fetchDocuments(Collections.singletonList(page.query), Collections.singletonList(result.getGsr()),
+                    Collections.singletonList(goodResultsMap), deadline)[0];
+            Statistics.getStatistics().notifyEventValue("two phase search fallback", fetched ? 0 : 1);
+            if (!fetched) {
+                return msearch(page.inOnePhase(), count, group, groupSize, filter, sort, deadline);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns how many milliseconds are left until the deadline, at least 1: waiting for 0
+     * milliseconds would wait forever.
+     */
+    private static long timeLeft(long deadline) {
+        return Math.max(1, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * Merges the results of the searchers that answered a query into the requested page.
+     * @param goodResultsMap the results of each searcher that answered, by searcher number.
+     * @param badResultsMap the error message of each searcher that failed, by searcher number.
+     * @param page the page the searchers were asked for.
+     */
+    private MultiGSR merge(Map<Integer, GroupedSearchResults> goodResultsMap, Map<Integer, String> badResultsMap, Page page, int count, AGroup group, int groupSize, ASort sort) {
         //move (sorted) entries to a list
+        List<GroupedSearchResults> goodResults = new ArrayList<GroupedSearchResults>();
         for (Map.Entry<Integer, GroupedSearchResults> entry : goodResultsMap.entrySet()) {
         	goodResults.add(entry.getValue());
         }
-        int resultsSize = goodResults.size();
-        logger.debug("obtained " + totalDocuments + " documents in "+ resultsSize + " good responses and " +  badResults + " exceptions in " + (System.currentTimeMillis() - start) + " ms ");
+        int badResults = badResultsMap.size();
 
         GroupedSearchResults gsr= null;
         if (goodResults.size() == 0) {
@@ -169,7 +231,20 @@ public class MultiSearcher implements ISearcher {
         	//done collecting results, either because we have results from all the searchers or because we timed out
         	//now we generate a result vector with the top results of each set
         	AResultsGrouper grouper = group.getGrouper(new GroupedSearchResultsDocumentProvider(goodResults,sort));
-        	gsr = grouper.group(count,groupSize,firstResult);
+        	gsr = grouper.group(count,groupSize,page.firstResult);
+        	for (GroupedSearchResults good : goodResults) {
+        	    if (good.isPartial()) {
+        	        gsr.setPartial(true);
+        	    }
+        	}
+        	if (null == page.start || !setCursors(gsr, goodResultsMap, page.start)) {
+        	    // the grouped results of the next page start at the first hit not checked.
+        	    int next = page.offset() + gsr.groups();
+        	    if (!(group instanceof NoGroup)) {
+        	        next = (gsr.lastDocumentOffset() < 0) ? gsr.totalResults() : gsr.lastDocumentOffset();
+        	    }
+        	    gsr.setNextCursor(new SearchCursor(new SearchCursor.Position(0, next, 0, SearchCursor.Position.NO_DOC)));
+        	}
         }
 
         MultiGSR result = new MultiGSR(gsr,searchers.size());
@@ -200,14 +275,435 @@ public class MultiSearcher implements ISearcher {
         return result;
     }
 
+    /**
+     * Sets the cursor after each result of a merged page of ungrouped results, and the cursor
+     * after the page. The results of each searcher in the page are the first of the results it
+     * returned, so the position of each searcher after a result is the one after the last of its
+     * results up to it.
+     * @param start the cursor before the page.
+     * @return false if some searcher did not return the cursors of its results.
+     */
+    private boolean setCursors(GroupedSearchResults gsr, Map<Integer, GroupedSearchResults> goodResultsMap, SearchCursor start) {
+        Map<Document, Pair<Integer, SearchCursor.Position>> positions = new IdentityHashMap<Document, Pair<Integer, SearchCursor.Position>>();
+        for (Map.Entry<Integer, GroupedSearchResults> entry : goodResultsMap.entrySet()) {
+            GroupedSearchResults results = entry.getValue();
+            for (int i = 0; i < results.groups(); i++) {
+                if (null == results.getCursor(i)) {
+                    return false;
+                }
+                for (Document doc : results.getGroup(i).last()) {
+                    positions.put(doc, new Pair<Integer, SearchCursor.Position>(entry.getKey(), results.getCursor(i).getPosition(0)));
+                }
+            }
+        }
+        SearchCursor.Position[] current = new SearchCursor.Position[start.size()];
+        for (int i = 0; i < current.length; i++) {
+            current[i] = start.getPosition(i);
+        }
+        Vector<SearchCursor> cursors = new Vector<SearchCursor>(gsr.groups());
+        for (int i = 0; i < gsr.groups(); i++) {
+            for (Document doc : gsr.getGroup(i).last()) {
+                Pair<Integer, SearchCursor.Position> position = positions.get(doc);
+                current[position.first()] = position.last();
+            }
+            cursors.add(new SearchCursor(current));
+        }
+        gsr.setCursors(cursors);
+        gsr.setNextCursor(cursors.isEmpty() ? start : cursors.lastElement());
+        return true;
+    }
+
+    /**
+     * A page of results, as each searcher is asked for it.
+     *
+     * Ungrouped pages after a cursor with a position for each searcher ask each searcher for
+     * <code>count</code> results after its own position, and the merged page starts at the first
+     * of them. Any other page asks each searcher for all the results up to the end of the page,
+     * and skips the first <code>firstResult</code> of the merged results. The cursor of any other
+     * searcher only gives the offset of the page.
+     */
+    private class Page {
+        // the query, without the cursor.
+        final AQuery query;
+        // the first merged result of the page.
+        final int firstResult;
+        // the cursor the page asks for, with a position for each searcher.
+        final SearchCursor cursor;
+        // the cursor before the first merged result, or null if unknown.
+        final SearchCursor start;
+        // whether the searchers are asked only for the keys of their results.
+        final boolean keysOnly;
+        // the page as asked for, to search it again.
+        private final AQuery askedQuery;
+        private final int askedFirstResult;
+        private final AGroup group;
+
+        Page(AQuery query, int firstResult, AGroup group, boolean keysOnly) {
+            this.askedQuery = query;
+            this.askedFirstResult = firstResult;
+            this.group = group;
+            this.keysOnly = keysOnly;
+            boolean ungrouped = (null == group) || (group instanceof NoGroup);
+            SearchCursor cursor = null;
+            if (query instanceof SearchAfterQuery) {
+                cursor = ((SearchAfterQuery) query).getCursor();
+                query = ((SearchAfterQuery) query).getQuery();
+                if (!ungrouped || cursor.size() != searchers.size()) {
+                    firstResult = cursor.getOffset();
+                    cursor = null;
+                } else {
+                    firstResult = 0;
+                }
+            }
+            this.query = query;
+            this.firstResult = firstResult;
+            this.cursor = cursor;
+            if (null != cursor) {
+                start = cursor;
+            } else if (ungrouped && 0 == firstResult) {
+                SearchCursor.Position[] positions = new SearchCursor.Position[searchers.size()];
+                Arrays.fill(positions, new SearchCursor.Position(0, 0, 0, SearchCursor.Position.NO_DOC));
+                start = new SearchCursor(positions);
+            } else {
+                start = null;
+            }
+        }
+
+        /**
+         * @return the number of merged results before the page.
+         */
+        int offset() {
+            return (null == cursor) ? firstResult : cursor.getOffset();
+        }
+
+        /**
+         * @return the same page, searched in a single phase.
+         */
+        Page inOnePhase() {
+            return new Page(askedQuery, askedFirstResult, group, false);
+        }
+
+        QueryParams searcherParams(int searcher, int count, AGroup group, AFilter filter, ASort sort) {
+            AQuery searcherQuery = query;
+            int searcherCount = firstResult + count;
+            if (null != cursor) {
+                searcherQuery = new SearchAfterQuery(query, new SearchCursor(cursor.getPosition(searcher)));
+                searcherCount = count;
+            }
+            if (keysOnly) {
+                searcherQuery = new HitKeysQuery(searcherQuery);
+            }
+            return new QueryParams(searcherQuery, 0, searcherCount, group, 1, filter, sort);
+        }
+    }
+
+    /**
+     * Sends the whole batch to every searcher at the same time, each query as in
+     * {@link #search}, and merges the results of each query on its own. A query fails only
+     * if no searcher answered it.
+     */
+    public MultiSearchResults multiSearch(List<QueryParams> queries) {
+        long deadline = System.currentTimeMillis() + timeout;
+        final List<Page> pages = new ArrayList<Page>(queries.size());
+        for (QueryParams params : queries) {
+            pages.add(new Page(params.getQuery(), params.getFirstResult(), params.getGroup(), twoPhase));
+        }
+
+        Execution<MultiSearchResults> execution = new Execution<MultiSearchResults>();
+        for (int i = 0; i < searchers.size(); ++i) {
+            final IRemoteSearcher searcher = searchers.get(i);
+            final List<QueryParams> searcherQueries = new ArrayList<QueryParams>(queries.size());
+            for (int q = 0; q < queries.size(); q++) {
+                QueryParams params = queries.get(q);
+                searcherQueries.add(pages.get(q).searcherParams(i, params.getCount(), params.getGroup(), params.getFilter(), params.getSort()));
+            }
+            execution.addTask(new CallableWithId<MultiSearchResults, Integer>(i) {
+                public MultiSearchResults call() throws Exception {
+                    return searcher.multiSearch(searcherQueries);
+                }
+            });
+        }
+        batchExecutor.addExecution(execution);
+        try {
+            execution.waitFor(timeLeft(deadline));
+        } catch (InterruptedException e) {
+            execution.forget();
+            logger.warn("timeout of some searchers in a batch");
+        }
+
+        Map<Integer, MultiSearchResults> goodBatches = new TreeMap<Integer, MultiSearchResults>();
+        Map<Integer, String> badBatches = new TreeMap<Integer, String>();
+        synchronized(execution) {
+            for (Results<MultiSearchResults> result : execution.getResultsList()) {
+                @SuppressWarnings("unchecked")
+                int numSearcher = ((CallableWithId<MultiSearchResults, Integer>)result.getTask()).getId();
+                if (result.isFinishedOk()) {
+                    goodBatches.put(numSearcher, result.getResults());
+                } else {
+                    logger.warn("Exception from remote searcher " + numSearcher + " in a batch", result.getException());
+                    badBatches.put(numSearcher, result.getException().getMessage());
+                }
+            }
+        }
+        MultiSearchResults res = new MultiSearchResults(queries.size());
+        // the merged pages of the second phase, with what they were merged from.
+        List<Integer> merged = new ArrayList<Integer>();
+        List<AQuery> mergedQueries = new ArrayList<AQuery>();
+        List<GroupedSearchResults> mergedPages = new ArrayList<GroupedSearchResults>();
+        List<Map<Integer, GroupedSearchResults>> mergedFrom = new ArrayList<Map<Integer, GroupedSearchResults>>();
+        for (int q = 0; q < queries.size(); q++) {
+            Map<Integer, GroupedSearchResults> goodResultsMap = new TreeMap<Integer, GroupedSearchResults>();
+            Map<Integer, String> badResultsMap = new TreeMap<Integer, String>(badBatches);
+            for (Map.Entry<Integer, MultiSearchResults> batch : goodBatches.entrySet()) {
+                if (batch.getValue().isOk(q)) {
+                    goodResultsMap.put(batch.getKey(), batch.getValue().getResults(q));
+                } else {
+                    badResultsMap.put(batch.getKey(), batch.getValue().getException(q).getMessage());
+                }
+            }
+            if (goodResultsMap.isEmpty()) {
+                res.setException(q, new SearcherException("no searcher answered the query (" + badResultsMap.size() + " failed)"));
+                continue;
+            }
+            QueryParams params = queries.get(q);
+            GroupedSearchResults page = merge(goodResultsMap, badResultsMap, pages.get(q), params.getCount(), params.getGroup(), params.getGroupSize(), params.getSort()).getGsr();
+            res.setResults(q, page);
+            if (pages.get(q).keysOnly) {
+                merged.add(q);
+                mergedQueries.add(pages.get(q).query);
+                mergedPages.add(page);
+                mergedFrom.add(goodResultsMap);
+            }
+        }
+        if (!merged.isEmpty()) {
+            boolean[] fetched = fetchDocuments(mergedQueries, mergedPages, mergedFrom, deadline);
+            for (int m = 0; m < fetched.length; m++) {
+                Statistics.getStatistics().notifyEventValue("two phase search fallback", fetched[m] ? 0 : 1);
+                if (!fetched[m]) {
+                    int q = merged.get(m);
+                    QueryParams params = queries.get(q);
+                    res.setResults(q, msearch(pages.get(q).inOnePhase(), params.getCount(), params.getGroup(), params.getGroupSize(), params.getFilter(), params.getSort(), deadline).getGsr());
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * The second phase of a search: replaces the documents of merged pages, which only have
+     * their keys, by the whole documents. Each searcher is sent a single batch, with a
+     * {@link FetchDocumentsQuery} for the documents it found in each page, so their snippets
+     * are made as in a single phase search.
+     * @param queries the query of each page.
+     * @param pages the merged pages.
+     * @param searcherResults the results of each searcher each page was merged from, by searcher number.
+     * @param deadline the time by which the documents have to be fetched, in milliseconds.
+     * @return whether all the documents of each page were fetched. The pages that were not may
+     *  have only some of their documents replaced.
+     */
+    private boolean[] fetchDocuments(List<AQuery> queries, List<GroupedSearchResults> pages, List<Map<Integer, GroupedSearchResults>> searcherResults, long deadline) {
+        boolean[] fetched = new boolean[pages.size()];
+        Arrays.fill(fetched, true);
+        // the documents to fetch from each searcher, by page.
+        Map<Integer, List<Fetch>> fetches = new TreeMap<Integer, List<Fetch>>();
+        for (int p = 0; p < pages.size(); p++) {
+            Map<Document, Pair<Integer, Integer>> owners = new IdentityHashMap<Document, Pair<Integer, Integer>>();
+            for (Map.Entry<Integer, GroupedSearchResults> entry : searcherResults.get(p).entrySet()) {
+                GroupedSearchResults results = entry.getValue();
+                for (int i = 0; i < results.groups(); i++) {
+                    Vector<Document> docs = results.getGroup(i).last();
+                    int[] ids = results.getDocumentIds(i);
+                    if (null == ids || ids.length != docs.size()) {
+                        fetched[p] = false;
+                        break;
+                    }
+                    for (int j = 0; j < ids.length; j++) {
+                        owners.put(docs.get(j), new Pair<Integer, Integer>(entry.getKey(), ids[j]));
+                    }
+                }
+            }
+            if (!fetched[p]) {
+                continue;
+            }
+            Map<Integer, Fetch> pageFetches = new TreeMap<Integer, Fetch>();
+            GroupedSearchResults page = pages.get(p);
+            for (int i = 0; i < page.groups(); i++) {
+                Vector<Document> docs = page.getGroup(i).last();
+                for (int j = 0; j < docs.size(); j++) {
+                    Pair<Integer, Integer> owner = owners.get(docs.get(j));
+                    Fetch fetch = pageFetches.get(owner.first());
+                    if (null == fetch) {
+                        fetch = new Fetch(p, searcherResults.get(p).get(owner.first()).getIndexGeneration());
+                        pageFetches.put(owner.first(), fetch);
+                    }
+                    fetch.add(docs, j, owner.last());
+                }
+            }
+            for (Map.Entry<Integer, Fetch> entry : pageFetches.entrySet()) {
+                List<Fetch> searcherFetches = fetches.get(entry.getKey());
+                if (null == searcherFetches) {
+                    searcherFetches = new ArrayList<Fetch>();
+                    fetches.put(entry.getKey(), searcherFetches);
+                }
+                searcherFetches.add(entry.getValue());
+            }
+        }
+
+        Execution<MultiSearchResults> execution = new Execution<MultiSearchResults>();
+        for (Map.Entry<Integer, List<Fetch>> entry : fetches.entrySet()) {
+            final IRemoteSearcher searcher = searchers.get(entry.getKey());
+            final List<QueryParams> fetchQueries = new ArrayList<QueryParams>(entry.getValue().size());
+            for (Fetch fetch : entry.getValue()) {
+                int[] ids = fetch.getIds();
+                fetchQueries.add(new QueryParams(new FetchDocumentsQuery(queries.get(fetch.page), fetch.generation, ids), 0, ids.length, new NoGroup(), 1, null, null));
+            }
+            execution.addTask(new CallableWithId<MultiSearchResults, Integer>(entry.getKey()) {
+                public MultiSearchResults call() throws Exception {
+                    return searcher.multiSearch(fetchQueries);
+                }
+            });
+        }
+        batchExecutor.addExecution(execution);
+        try {
+            execution.waitFor(timeLeft(deadline));
+        } catch (InterruptedException e) {
+            execution.forget();
+            logger.warn("timeout of some searchers while fetching documents");
+        }
+
+        Set<Integer> answered = new HashSet<Integer>();
+        synchronized(execution) {
+            for (Results<MultiSearchResults> result : execution.getResultsList()) {
+                @SuppressWarnings("unchecked")
+                int numSearcher = ((CallableWithId<MultiSearchResults, Integer>)result.getTask()).getId();
+                if (!result.isFinishedOk()) {
+                    logger.warn("Exception from remote searcher " + numSearcher + " while fetching documents", result.getException());
+                    continue;
+                }
+                answered.add(numSearcher);
+                MultiSearchResults documents = result.getResults();
+                List<Fetch> searcherFetches = fetches.get(numSearcher);
+                for (int f = 0; f < searcherFetches.size(); f++) {
+                    Fetch fetch = searcherFetches.get(f);
+                    if (!documents.isOk(f) || !fetch.replace(documents.getResults(f))) {
+                        logger.debug("could not fetch documents from searcher " + numSearcher + ": " + (documents.isOk(f) ? "wrong number of documents" : documents.getException(f).getMessage()));
+                        fetched[fetch.page] = false;
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Integer, List<Fetch>> entry : fetches.entrySet()) {
+            if (!answered.contains(entry.getKey())) {
+                for (Fetch fetch : entry.getValue()) {
+                    fetched[fetch.page] = false;
+                }
+            }
+        }
+        return fetched;
+    }
+
+    /**
+     * The documents of a merged page found by a searcher, to fetch from it.
+     */
+    private static class Fetch {
+        // the number of the page.
+        final int page;
+        // the index generation of the results of the searcher.
+        final long generation;
+        // where each document is in the page, and its lucene id.
+        private final List<Vector<Document>> groups = new ArrayList<Vector<Document>>();
+        private final List<Integer> positions = new ArrayList<Integer>();
+        private final List<Integer> ids = new ArrayList<Integer>();
+
+        Fetch(int page, long generation) {
+            this.page = page;
+            this.generation = generation;
+        }
+
+        void add(Vector<Document> group, int position, int id) {
+            groups.add(group);
+            positions.add(position);
+            ids.add(id);
+        }
+
+        int[] getIds() {
+            int[] res = new int[ids.size()];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = ids.get(i);
+            }
+            return res;
+        }
+
+        /**
+         * Puts the fetched documents in their places of the page. They keep the key fields
+         * the documents they replace were merged by.
+         * @return false if the results do not have a document for each id.
+         */
+        boolean replace(GroupedSearchResults documents) {
+            if (documents.groups() != ids.size()) {
+                return false;
+            }
+            for (int i = 0; i < documents.groups(); i++) {
+                Document doc = documents.getGroup(i).last().get(0);
+                Document keys = groups.get(i).get(positions.get(i));
+                for (Object field : keys.getFields()) {
+                    String name = ((Fieldable) field).name();
+                    if (null == doc.getFieldable(name)) {
+                        doc.add((Fieldable) field);
+                    }
+                }
+                groups.get(i).set(positions.get(i), doc);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Counts the hits of the query in all searchers at the same time, and adds them up.
+     * The searchers that fail or time out are left out of the count.
+     */
+    public int countHits(final AQuery query, final AFilter filter) {
+        Execution<Integer> execution = new Execution<Integer>();
+        for (int i = 0; i < searchers.size(); ++i) {
+            final IRemoteSearcher searcher = searchers.get(i);
+            execution.addTask(new CallableWithId<Integer, Integer>(i) {
+                public Integer call() throws Exception {
+                    return searcher.countHits(query, filter);
+                }
+            });
+        }
+        countExecutor.addExecution(execution);
+        try {
+            execution.waitFor(timeout);
+        } catch (InterruptedException e) {
+            execution.forget();
+            logger.warn("timeout of some searchers while counting hits");
+        }
+        int hits = 0;
+        synchronized(execution) {
+            for (Results<Integer> result : execution.getResultsList()) {
+                if (result.isFinishedOk()) {
+                    hits += result.getResults();
+                } else {
+                    @SuppressWarnings("unchecked")
+                    int numSearcher = ((CallableWithId<Integer, Integer>)result.getTask()).getId();
+                    logger.warn("Exception from remote searcher " + numSearcher + " while counting hits", result.getException());
+                }
+            }
+        }
+        return hits;
+    }
+
     @Override
     public void requestStop() {
         multiQueryExecutor.requestStop();
+        countExecutor.requestStop();
+        batchExecutor.requestStop();
     }
 
     @Override
     public boolean isStopped() {
-        return multiQueryExecutor.isStopped();
+        return multiQueryExecutor.isStopped() && countExecutor.isStopped() && batchExecutor.isStopped();
     }
 
 }
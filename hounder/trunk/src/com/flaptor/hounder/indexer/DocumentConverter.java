@@ -15,8 +15,10 @@ limitations under the License.
 */
 package com.flaptor.hounder.indexer;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -25,6 +27,7 @@ import org.dom4j.Document;
 import org.dom4j.Element;
 import org.dom4j.Node;
 
+import com.flaptor.hounder.util.SimHash;
 import com.flaptor.util.Config;
 import com.flaptor.util.Execute;
 
@@ -47,8 +50,12 @@ public class DocumentConverter {
     private HashSet<String> requiredFields;   // mandatory fields for a document
     private HashSet<String> compressedFields; // mandatory fields for a document
     private HashSet<String> requiredPayloads; // mandatory fields for a document
+    private HashSet<String> simHashFields;    // fields to fingerprint for near duplicate grouping
+    private HashSet<String> termVectorFields; // fields to store with term positions and offsets
 
     private String docIdName = null;
+    // The field where the document boost is indexed as its static rank, or null.
+    private String staticRankField = null;
 
 
     
@@ -63,6 +70,8 @@ public class DocumentConverter {
 		requiredFields = new HashSet<String>();
 		compressedFields = new HashSet<String>();
 		requiredPayloads = new HashSet<String>();
+		simHashFields = new HashSet<String>();
+		termVectorFields = new HashSet<String>();
 
 		String[] fields = config.getStringArray("Writer.compressedFields");
 		for (int j = 0; j < fields.length; j++) {
@@ -79,6 +88,29 @@ public class DocumentConverter {
 			logger.info("The field \"" + fields[j] + "\" will be checked for in every document.");
 		}
 
+		fields = config.getStringArray("Writer.simHashFields");
+		for (int j = 0; j < fields.length; j++) {
+			if (fields[j].trim().length() > 0) {
+				simHashFields.add(fields[j].trim());
+				logger.info("The field \"" + fields[j].trim() + "\" will be fingerprinted in " + SimHash.fieldName(fields[j].trim()) + ".");
+			}
+		}
+
+		fields = config.getStringArray("Writer.termVectorFields");
+		for (int j = 0; j < fields.length; j++) {
+			if (fields[j].trim().length() > 0) {
+				termVectorFields.add(fields[j].trim());
+				logger.info("The field \"" + fields[j].trim() + "\" will be stored with its term offsets, for snippeting.");
+			}
+		}
+
+        staticRankField = config.getString("Writer.staticRankField").trim();
+        if (staticRankField.length() == 0) {
+            staticRankField = null;
+        } else {
+            logger.info("The document boost will be indexed as the static rank, in the field \"" + staticRankField + "\".");
+        }
+
         String[] payloads = config.getStringArray("Writer.payloads");
         for (String payload: payloads) {
             if ("".equals(payload)) {
@@ -128,10 +160,15 @@ public class DocumentConverter {
 
         org.apache.lucene.document.Document ldoc = new org.apache.lucene.document.Document();
         ldoc.setBoost(documentBoost);
+        if (null != staticRankField) {
+            ldoc.add(new Field(staticRankField, Float.toString(documentBoost), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+        }
 		
 		// For comparison with the required fields we keep track of the added
 		// fields.
 		HashSet<String> providedFields = new HashSet<String>();
+		// The text of the fields to fingerprint.
+		HashMap<String, StringBuilder> simHashTexts = new HashMap<String, StringBuilder>();
 
 		//First, we add the documentId as a field under the name provided in the configuration (docIdName)
         node = e.selectSingleNode("documentId");
@@ -213,18 +250,38 @@ public class DocumentConverter {
 					storeType = Field.Store.YES;
 				}
 			}
-			lfield = new Field(fieldName, fieldText, storeType, indexType);
+			if (indexed && termVectorFields.contains(fieldName)) {
+				lfield = new Field(fieldName, fieldText, storeType, indexType, Field.TermVector.WITH_POSITIONS_OFFSETS);
+			} else {
+				lfield = new Field(fieldName, fieldText, storeType, indexType);
+			}
 
 			lfield.setBoost(boost);
 			providedFields.add(fieldName); // for later comparison with the required fields
 
 			ldoc.add(lfield);
+			if (simHashFields.contains(fieldName)) {
+				StringBuilder text = simHashTexts.get(fieldName);
+				if (null == text) {
+					simHashTexts.put(fieldName, new StringBuilder(fieldText));
+				} else {
+					text.append(' ').append(fieldText);
+				}
+			}
             if ( logger.isEnabledFor(Level.DEBUG)) { 
                 logger.debug("Writer - adding field:" + fieldName + ", index:" + indexed + ", store:" + stored + ", token:" + tokenized
                         + " ,boost: " + boost + ", text: " + fieldText);
             }
 		} // for  (field iterator)
 
+		// Fingerprints of the fields, for near duplicate grouping.
+		for (Map.Entry<String, StringBuilder> text : simHashTexts.entrySet()) {
+			long fingerprint = SimHash.fingerprint(text.getValue().toString());
+			if (0 != fingerprint) {
+				ldoc.add(new Field(SimHash.fieldName(text.getKey()), SimHash.toString(fingerprint), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+			}
+		}
+
        
 
         HashSet<String> providedPayloads = new HashSet<String>();
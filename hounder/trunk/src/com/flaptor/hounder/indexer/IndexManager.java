@@ -70,6 +70,8 @@ public final class IndexManager implements IndexWriteProvider, Stoppable {
 
     private Indexer indexer;
     private final boolean optimizeForBatch;
+    // If not null, the index is sorted by this field on every checkpoint.
+    private final String staticRankField;
 
 	//Lucene related variables.
     private Index workIndex;
@@ -135,6 +137,9 @@ public final class IndexManager implements IndexWriteProvider, Stoppable {
                 + " adds will not be checked for duplicated documentIds. BE CAREFUL.");
         }
 
+        String rankField = config.getString("Writer.staticRankField").trim();
+        staticRankField = (rankField.length() == 0) ? null : rankField;
+
 		setBaseDirectory();
 		setIndexDirectory();
 		setLatestCopyAsIndex();
@@ -466,10 +471,16 @@ public final class IndexManager implements IndexWriteProvider, Stoppable {
 		if (optimizeScheduled) {
 			logger.info("Beginning index optimization..");
 			try {
-                // make sure that the writer is open to optimize.
-                openWriter();
-				// If optimize() fails, optimization signal keeps schedules.
-				writer.optimize();
+                if (null != staticRankField) {
+                    // Sorting also merges the index into a single segment, as an optimize would.
+                    logger.info("Sorting the index by " + staticRankField + "..");
+                    workIndex.sortByStaticRank(staticRankField);
+                } else {
+                    // make sure that the writer is open to optimize.
+                    openWriter();
+                    // If optimize() fails, optimization signal keeps schedules.
+                    writer.optimize();
+                }
                 workIndex.setIndexProperty("lastOptimization", String.valueOf(System.currentTimeMillis()));
                 IndexerMonitoredNode.getInstance().setProperty(LAST_OPTIMIZE,System.currentTimeMillis());
 				optimizeScheduled = false;
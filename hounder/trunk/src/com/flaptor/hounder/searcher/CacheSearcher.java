@@ -15,6 +15,9 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.log4j.Logger;
 
 import com.flaptor.hounder.searcher.filter.AFilter;
@@ -54,6 +57,9 @@ public class CacheSearcher implements ISearcher{
     }
 
     public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup groupBy, int groupSize, AFilter afilter, ASort asort)  throws SearcherException{        
+        if (QueryParams.isSearchPhase(query)) {
+            return searcher.search(query, firstResult, count, groupBy, groupSize, afilter, asort);
+        }
     	boolean hit = true;
     	long start = System.currentTimeMillis();
     	
@@ -65,7 +71,9 @@ public class CacheSearcher implements ISearcher{
         if (res == null) { //if it is not in the cache
         	hit = false;
             res = queryParams.executeInSearcher(searcher);
-            cache.put(queryParams, res);            //tell the cache to maybe store the results (we don't control whether it does it or not)
+            if (!res.isPartial()) { // a later search may have the time to find all of them
+                cache.put(queryParams, res);            //tell the cache to maybe store the results (we don't control whether it does it or not)
+            }
         }
         
         long end = System.currentTimeMillis();
@@ -74,6 +82,56 @@ public class CacheSearcher implements ISearcher{
         return res;
     }
 
+    /**
+     * Answers the queries found in the cache, and sends the rest to the base searcher
+     * as a single batch. The phases of distributed searches are never cached.
+     */
+    public MultiSearchResults multiSearch(List<QueryParams> queries) throws SearcherException {
+        long start = System.currentTimeMillis();
+        MultiSearchResults res = new MultiSearchResults(queries.size());
+        List<Integer> misses = new ArrayList<Integer>();
+        List<QueryParams> missedQueries = new ArrayList<QueryParams>();
+        for (int i = 0; i < queries.size(); i++) {
+            GroupedSearchResults cached = QueryParams.isSearchPhase(queries.get(i).getQuery()) ? null : cache.get(queries.get(i));
+            if (null == cached) {
+                misses.add(i);
+                missedQueries.add(queries.get(i));
+            } else {
+                res.setResults(i, cached);
+            }
+        }
+        if (!missedQueries.isEmpty()) {
+            MultiSearchResults searched = searcher.multiSearch(missedQueries);
+            for (int j = 0; j < misses.size(); j++) {
+                int i = misses.get(j);
+                if (searched.isOk(j)) {
+                    GroupedSearchResults results = searched.getResults(j);
+                    res.setResults(i, results);
+                    if (!results.isPartial() && !QueryParams.isSearchPhase(queries.get(i).getQuery())) {
+                        cache.put(queries.get(i), results);
+                    }
+                } else {
+                    res.setException(i, searched.getException(j));
+                }
+            }
+        }
+        long end = System.currentTimeMillis();
+        Statistics stats = Statistics.getStatistics();
+        for (int i = 0; i < queries.size() - misses.size(); i++) {
+            stats.notifyEventValue("cacheHit", (end-start)/1000.0f);
+        }
+        for (int i : misses) {
+            if (!QueryParams.isSearchPhase(queries.get(i).getQuery())) {
+                stats.notifyEventValue("cacheMiss", (end-start)/1000.0f);
+            }
+        }
+        return res;
+    }
+
+    public int countHits(AQuery query, AFilter filter) throws SearcherException {
+        return searcher.countHits(query, filter);
+    }
+
     @Override
     public void requestStop() {
         searcher.requestStop();
@@ -16,6 +16,7 @@ limitations under the License.
 package com.flaptor.hounder.searcher;
 
 import java.io.File;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
@@ -32,9 +33,7 @@ import com.flaptor.hounder.searcher.query.AQuery;
 import com.flaptor.hounder.searcher.query.SynonymQuerySuggestor;
 import com.flaptor.hounder.searcher.query.WordQuerySuggestor;
 import com.flaptor.hounder.searcher.sort.ASort;
-import com.flaptor.util.Cache;
 import com.flaptor.util.Config;
-import com.flaptor.util.LRUCache;
 import com.flaptor.util.PortUtil;
 import com.flaptor.util.Execute;
 
@@ -85,22 +84,47 @@ public class CompositeSearcher implements ISearcher {
         if (searcherConfig.getBoolean("compositeSearcher.useSnippetSearcher")) {
             searcher= new SnippetSearcher(searcher,searcherConfig);
         }
+        // the cache warms new generations here, so warming takes no traffic slots and
+        // is never merged with the user queries in progress.
+        ISearcher warmingSearcher = searcher;
         if (searcherConfig.getBoolean("compositeSearcher.useTrafficLimiting")) {
+            int minSimultaneousQueries = searcherConfig.getInt("searcher.trafficLimiting.minSimultaneousQueries");
             int maxSimultaneousQueries = searcherConfig.getInt("searcher.trafficLimiting.maxSimultaneousQueries");
             int maxTimeInQueue = searcherConfig.getInt("searcher.trafficLimiting.maxTimeInQueue");
-            trafficLimitingSearcher = new TrafficLimitingSearcher(searcher, maxSimultaneousQueries, maxTimeInQueue);
+            float latencyTolerance = searcherConfig.getFloat("searcher.trafficLimiting.latencyTolerance");
+            String[] laneCostsConfig = searcherConfig.getStringArray("searcher.trafficLimiting.laneCosts");
+            String[] laneWeightsConfig = searcherConfig.getStringArray("searcher.trafficLimiting.laneWeights");
+            // a local searcher runs the queries of a batch on batchThreads threads, a multi searcher all at once.
+            int batchThreads = (baseSearcher instanceof Searcher) ? searcherConfig.getInt("ReloadableIndexSearcher.batchThreads") : Integer.MAX_VALUE;
+            if (laneCostsConfig.length > 0 && laneCostsConfig[0].trim().length() > 0) {
+                long[] laneCosts = new long[laneCostsConfig.length];
+                for (int i = 0; i < laneCosts.length; i++) {
+                    laneCosts[i] = Long.parseLong(laneCostsConfig[i].trim());
+                }
+                int[] laneWeights = new int[laneWeightsConfig.length];
+                for (int i = 0; i < laneWeights.length; i++) {
+                    laneWeights[i] = Integer.parseInt(laneWeightsConfig[i].trim());
+                }
+                Searcher local = (baseSearcher instanceof Searcher) ? (Searcher) baseSearcher : null;
+                trafficLimitingSearcher = new TrafficLimitingSearcher(searcher, minSimultaneousQueries, maxSimultaneousQueries, maxTimeInQueue,
+                        latencyTolerance, new QueryCostEstimator(local, laneCosts), laneWeights, batchThreads);
+            } else {
+                trafficLimitingSearcher = new TrafficLimitingSearcher(searcher, minSimultaneousQueries, maxSimultaneousQueries, maxTimeInQueue,
+                        latencyTolerance, null, new int[] {1}, batchThreads);
+            }
             searcher = trafficLimitingSearcher;
         }
         if (searcherConfig.getBoolean("compositeSearcher.useQueriesInProgress")) {
-            searcher = new QueriesInProgressSearcher(searcher);
+            searcher = new QueriesInProgressSearcher(searcher, searcherConfig.getInt("searcher.queriesInProgress.maxWindow"));
         }
 
         if (searcherConfig.getBoolean("compositeSearcher.useCache") && !searcherConfig.getBoolean("searcher.isMultiSearcher")) {
         //if it's a multiSearcher, nobody will ever flush the cache
         	int cacheSize = searcherConfig.getInt("compositeSearcher.resultsCacheSize");
-            Cache<QueryParams, GroupedSearchResults> cache = new LRUCache<QueryParams, GroupedSearchResults>(cacheSize);
+        	int queriesToWarm = searcherConfig.getInt("compositeSearcher.resultsCacheWarmQueries");
+            GenerationalResultsCache cache = new GenerationalResultsCache(cacheSize, warmingSearcher, queriesToWarm);
             if (baseSearcher instanceof Searcher) {
-            	((Searcher)baseSearcher).addCache(cache);
+            	((Searcher)baseSearcher).addGenerationListener(cache);
             }
             searcher = new CacheSearcher(searcher, cache);
         }
@@ -110,7 +134,9 @@ public class CompositeSearcher implements ISearcher {
                             new SynonymQuerySuggestor(new File(searcherConfig.getString("searcher.suggestQuerySearcher.synonymFile"))),
                             searcherConfig.getInt("searcher.suggestQuerySearcher.minResults"),
                             searcherConfig.getFloat("searcher.suggestQuerySearcher.suggestionBetterByFactor"),
-                            searcherConfig.getInt("searcher.suggestQuerySearcher.maxSuggestionsToTry"));
+                            searcherConfig.getInt("searcher.suggestQuerySearcher.maxSuggestionsToTry"),
+                            searcherConfig.getInt("searcher.suggestQuerySearcher.workerThreads"),
+                            searcherConfig.getLong("searcher.suggestQuerySearcher.timeout"));
             } catch (java.io.IOException e) {
                 logger.error("While creating WordQuerySuggestor:"+e,e);
                 throw new RuntimeException(e.getMessage(),e);
@@ -120,10 +146,13 @@ public class CompositeSearcher implements ISearcher {
         if (searcherConfig.getBoolean("compositeSearcher.useSpellCheckSuggestQuery")) {
             try {
                 searcher = new SuggestQuerySearcher(searcher,
-                        new WordQuerySuggestor(new File(searcherConfig.getString("searcher.suggestQuerySearcher.dictionaryDir"))),
+                        new WordQuerySuggestor(new File(searcherConfig.getString("searcher.suggestQuerySearcher.dictionaryDir")),
+                                searcherConfig.getLong("searcher.suggestQuerySearcher.dictionaryReloadInterval")),
                         searcherConfig.getInt("searcher.suggestQuerySearcher.minResults"),
                         searcherConfig.getFloat("searcher.suggestQuerySearcher.suggestionBetterByFactor"),
-                        searcherConfig.getInt("searcher.suggestQuerySearcher.maxSuggestionsToTry"));
+                        searcherConfig.getInt("searcher.suggestQuerySearcher.maxSuggestionsToTry"),
+                        searcherConfig.getInt("searcher.suggestQuerySearcher.workerThreads"),
+                        searcherConfig.getLong("searcher.suggestQuerySearcher.timeout"));
             } catch (java.io.IOException e) {
                 logger.error("While creating WordQuerySuggestor:"+e,e);
                 throw new RuntimeException(e.getMessage(),e);
@@ -139,6 +168,14 @@ public class CompositeSearcher implements ISearcher {
     	return searcher.search(query, firstResult, count, group, groupSize, filter, sort);
     }
 
+    public MultiSearchResults multiSearch(List<QueryParams> queries) throws SearcherException {
+        return searcher.multiSearch(queries);
+    }
+
+    public int countHits(AQuery query, AFilter filter) throws SearcherException {
+        return searcher.countHits(query, filter);
+    }
+
     public ISearcher getBaseSearcher() {
         return baseSearcher;
     }
@@ -0,0 +1,401 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import com.flaptor.util.Execute;
+import com.flaptor.util.Statistics;
+
+/**
+ * Limits how many queries run at the same time, and how many may wait for their turn,
+ * adapting both limits to the latency of the queries.
+ *
+ * Two latencies are tracked: a short term average of the recent queries, and an estimate
+ * of the latency without queueing, which follows the short term average down right away
+ * and up only slowly. After every query the limit is recalculated as
+ * <code>limit * gradient + sqrt(limit)</code>, where the gradient is
+ * <code>tolerance * noQueueingLatency / recentLatency</code>, kept between 0.5 and 1.
+ * While the queries are as fast as without queueing the limit grows by its square root,
+ * and once they get slower than <code>tolerance</code> times that, it shrinks, so the
+ * load is shed before the queries pile up in the base searcher. The limit does not grow
+ * while less than half of it is in use, and always stays between <code>minLimit</code>
+ * and <code>maxLimit</code>.
+ *
+ * The waiting queries are at most as many as can be served within
+ * <code>maxTimeInQueue</code> at the recent latency. Queries arriving to a full queue are
+ * rejected right away (early drop), and those that wait more than
+ * <code>maxTimeInQueue</code> are rejected when their time is up (late drop).
+ * Waiting queries are kept in lanes, each with its own weight. When a query ends, the
+ * next one to run comes from the lane with the lowest pass, and that lane's pass grows by
+ * the inverse of its weight (stride scheduling), so busy lanes share the turns in
+ * proportion to their weights, and a lane with few queries gets them through quickly.
+ * Within a lane, queries are served in arrival order.
+ *
+ * A query may take several slots, as a batch that runs some of its queries at the same
+ * time does. It takes at most as many as the limit, and its lane's pass grows once per slot.
+ *
+ * @author Flaptor Development Team
+ */
+final class ConcurrencyLimiter {
+
+    private static final Logger logger = Logger.getLogger(Execute.whoAmI());
+    private static final Statistics statistics = Statistics.getStatistics();
+
+    // How many queries the recent and the no queueing latencies average.
+    private static final double RECENT_WINDOW = 10;
+    private static final double NO_QUEUEING_WINDOW = 500;
+    // Weight of each new limit calculation, to smooth its changes.
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+    // The queue always has room for at least this many queries.
+    static final int MIN_QUEUE_SIZE = 5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long maxTimeInQueue;
+    private final double tolerance;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private double limit;
+    private int maxQueueSize;
+    private int inFlight = 0;
+
+    // A query waiting for its turn. Once given, it has the slots it took.
+    private final class Waiter {
+        final int slots;
+        final Condition turn = lock.newCondition();
+        int taken = 0;
+
+        Waiter(int slots) {
+            this.slots = slots;
+        }
+    }
+
+    // Per lane: how much its pass grows with each slot, its pass, and the queries waiting
+    // in it, in arrival order.
+    private final double[] strides;
+    private final double[] passes;
+    private final List<LinkedList<Waiter>> queues;
+    private int totalWaiting = 0;
+    // The pass of the last lane that got a turn. Lanes that were empty start from it.
+    private double virtualTime = 0;
+    private long rejected = 0;
+    // Latencies in nanoseconds, 0 until the first query finishes.
+    private double recentLatency = 0;
+    private double noQueueingLatency = 0;
+
+    /**
+     * Constructor.
+     * @param minLimit the minimum number of simultaneous queries.
+     * @param maxLimit the maximum number of simultaneous queries. The limit starts here.
+     * @param maxTimeInQueue the max time a query may wait for its turn, in milliseconds.
+     * @param tolerance how many times slower than without queueing the queries may get before
+     *  the limit shrinks. Must be at least 1.
+     */
+    ConcurrencyLimiter(int minLimit, int maxLimit, long maxTimeInQueue, double tolerance) {
+        this(minLimit, maxLimit, maxTimeInQueue, tolerance, new int[] {1});
+    }
+
+    /**
+     * Constructor.
+     * @param minLimit the minimum number of simultaneous queries.
+     * @param maxLimit the maximum number of simultaneous queries. The limit starts here.
+     * @param maxTimeInQueue the max time a query may wait for its turn, in milliseconds.
+     * @param tolerance how many times slower than without queueing the queries may get before
+     *  the limit shrinks. Must be at least 1.
+     * @param laneWeights the weight of each lane of waiting queries.
+     */
+    ConcurrencyLimiter(int minLimit, int maxLimit, long maxTimeInQueue, double tolerance, int[] laneWeights) {
+        if (null == laneWeights || laneWeights.length == 0) {
+            throw new IllegalArgumentException("there must be at least one lane.");
+        }
+        strides = new double[laneWeights.length];
+        passes = new double[laneWeights.length];
+        queues = new ArrayList<LinkedList<Waiter>>(laneWeights.length);
+        for (int i = 0; i < laneWeights.length; i++) {
+            if (laneWeights[i] <= 0) {
+                throw new IllegalArgumentException("lane weights must be positive (" + laneWeights[i] + ")");
+            }
+            strides[i] = 1.0 / laneWeights[i];
+            queues.add(new LinkedList<Waiter>());
+        }
+        if (minLimit <= 0 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("invalid limits (" + minLimit + ", " + maxLimit + ")");
+        }
+        if (tolerance < 1) {
+            throw new IllegalArgumentException("tolerance must be at least 1 (" + tolerance + ")");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxTimeInQueue = maxTimeInQueue;
+        this.tolerance = tolerance;
+        limit = maxLimit;
+        maxQueueSize = MIN_QUEUE_SIZE + 2 * maxLimit;
+        logger.info("ConcurrencyLimiter: simultaneous queries between " + minLimit + " and " + maxLimit
+                + ", max time in queue " + maxTimeInQueue + " ms, latency tolerance " + tolerance);
+    }
+
+    /**
+     * Waits for the turn of a query in the first lane.
+     * @throws SearchTimeoutException if the queue is full or the query waited too long.
+     * @throws SearcherException if the thread was interrupted while waiting.
+     */
+    void acquire() throws SearchTimeoutException, SearcherException {
+        acquire(0);
+    }
+
+    /**
+     * Waits for the turn of a query.
+     * @param lane the lane to wait in.
+     * @throws SearchTimeoutException if the queue is full or the query waited too long.
+     * @throws SearcherException if the thread was interrupted while waiting.
+     */
+    void acquire(int lane) throws SearchTimeoutException, SearcherException {
+        acquire(lane, 1);
+    }
+
+    /**
+     * Waits for the turn of a query that takes several slots.
+     * @param lane the lane to wait in.
+     * @param slots how many slots the query would like to take.
+     * @return how many slots it took, to be given back with {@link #release(int, long)}.
+     *  At most the limit when it got its turn.
+     * @throws SearchTimeoutException if the queue is full or the query waited too long.
+     * @throws SearcherException if the thread was interrupted while waiting.
+     */
+    int acquire(int lane, int slots) throws SearchTimeoutException, SearcherException {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (totalWaiting == 0 && inFlight + slotsFor(slots) <= (int) limit) {
+                int taken = slotsFor(slots);
+                inFlight += taken;
+                statistics.notifyEventValue("queriesRejected", 0);
+                return taken;
+            }
+            if (totalWaiting >= maxQueueSize) {
+                reject();
+                throw new SearchTimeoutException(-1, "The search was discarded by TrafficLimitingSearcher - "
+                        + "there is no place in the queue of " + maxQueueSize + " queries (earlyDrop)");
+            }
+            LinkedList<Waiter> queue = queues.get(lane);
+            if (queue.isEmpty()) {
+                passes[lane] = Math.max(passes[lane], virtualTime);
+            }
+            Waiter waiter = new Waiter(slots);
+            queue.add(waiter);
+            totalWaiting++;
+            // the queries ahead may have been given their turns already.
+            dispatch();
+            boolean served = false;
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(maxTimeInQueue);
+                while (0 == waiter.taken) {
+                    if (remaining <= 0) {
+                        reject();
+                        throw new SearchTimeoutException(maxTimeInQueue, "The search was discarded by TrafficLimitingSearcher - "
+                                + "the query was too much time on queue (lateDrop). maxTimeInQ: " + maxTimeInQueue
+                                + ", waited: " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    }
+                    remaining = waiter.turn.awaitNanos(remaining);
+                }
+                served = true;
+            } catch (InterruptedException e) {
+                throw new SearcherException("The search was discarded by TrafficLimitingSearcher - interrupted while waiting in queue");
+            } finally {
+                if (!served) {
+                    if (waiter.taken > 0) {
+                        // a turn was given to a query that left without taking it.
+                        inFlight -= waiter.taken;
+                    } else {
+                        queue.remove(waiter);
+                        totalWaiting--;
+                    }
+                    dispatch();
+                }
+            }
+            statistics.notifyEventValue("queriesRejected", 0);
+            return waiter.taken;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The slots a query that asks for them can take. Must be called with the lock held.
+    private int slotsFor(int slots) {
+        return Math.max(1, Math.min(slots, (int) limit));
+    }
+
+    private void reject() {
+        rejected++;
+        statistics.notifyEventValue("queriesRejected", 1);
+    }
+
+    /**
+     * Ends the turn of a query taken with {@link #acquire()}.
+     * @param latency how long the query took, in nanoseconds, or a negative number if it
+     *  failed and its latency should not be taken into account.
+     */
+    void release(long latency) {
+        release(1, latency);
+    }
+
+    /**
+     * Ends the turn of a query taken with {@link #acquire(int, int)}.
+     * @param slots the slots the query took.
+     * @param latency how long a query took, in nanoseconds, or a negative number if it
+     *  failed and its latency should not be taken into account.
+     */
+    void release(int slots, long latency) {
+        lock.lock();
+        try {
+            inFlight -= slots;
+            if (latency >= 0) {
+                update(latency, slots);
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Gives the free slots to the waiting queries. The next query waits for as many slots
+    // as it takes, so the ones behind it do not starve it. Must be called with the lock held.
+    private void dispatch() {
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < queues.size(); i++) {
+                if (!queues.get(i).isEmpty() && (next < 0 || passes[i] < passes[next])) {
+                    next = i;
+                }
+            }
+            if (next < 0) {
+                return;
+            }
+            Waiter waiter = queues.get(next).getFirst();
+            int slots = slotsFor(waiter.slots);
+            if (inFlight + slots > (int) limit) {
+                return;
+            }
+            queues.get(next).removeFirst();
+            totalWaiting--;
+            waiter.taken = slots;
+            inFlight += slots;
+            virtualTime = passes[next];
+            passes[next] += strides[next] * slots;
+            waiter.turn.signal();
+        }
+    }
+
+    // slots are those of the query that ended. Must be called with the lock held.
+    private void update(long latency, int slots) {
+        if (0 == recentLatency) {
+            recentLatency = Math.max(1, latency);
+            noQueueingLatency = recentLatency;
+            return;
+        }
+        recentLatency += (latency - recentLatency) / RECENT_WINDOW;
+        recentLatency = Math.max(1, recentLatency);
+        if (recentLatency < noQueueingLatency) {
+            noQueueingLatency = recentLatency;
+        } else {
+            noQueueingLatency += (recentLatency - noQueueingLatency) / NO_QUEUEING_WINDOW;
+        }
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, tolerance * noQueueingLatency / recentLatency));
+        // a limit that is not in use says nothing about whether a higher one would be too high.
+        if (gradient < 1.0 || inFlight + slots >= limit / 2) {
+            double newLimit = limit * gradient + Math.sqrt(limit);
+            limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+        }
+        maxQueueSize = Math.max(MIN_QUEUE_SIZE, (int) (limit * TimeUnit.MILLISECONDS.toNanos(maxTimeInQueue) / recentLatency));
+        statistics.notifyEventValue("concurrencyLimit", (float) limit);
+    }
+
+    /**
+     * @return the current maximum number of simultaneous queries.
+     */
+    int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the current maximum number of waiting queries.
+     */
+    int getMaxQueueSize() {
+        lock.lock();
+        try {
+            return maxQueueSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of lanes.
+     */
+    int getLanes() {
+        return queues.size();
+    }
+
+    /**
+     * @return the number of slots taken by the queries running.
+     */
+    int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of queries rejected so far, early or late.
+     */
+    long getRejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the estimated latency of a query without queueing, in milliseconds.
+     */
+    double getNoQueueingLatency() {
+        lock.lock();
+        try {
+            return noQueueingLatency / TimeUnit.MILLISECONDS.toNanos(1);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
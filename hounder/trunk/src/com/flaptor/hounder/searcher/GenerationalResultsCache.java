@@ -0,0 +1,206 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.flaptor.util.Cache;
+import com.flaptor.util.Execute;
+
+/**
+ * A results cache that survives index updates.
+ *
+ * Results are kept together with the generation of the index they come from, and only
+ * results of the live generation are returned. When a new generation is about to go live,
+ * the most used cached queries are executed again on it, and once it is live their results
+ * replace the old ones, so the hot part of the cache is carried across index updates instead
+ * of being rebuilt by user traffic.
+ *
+ * It should be registered as an {@link IndexGenerationListener} of the searcher whose index
+ * it caches, and its queries are executed again on the searcher passed to the constructor.
+ * That searcher must run the queries on the index generation being warmed, so it should not
+ * be decorated by a {@link QueriesInProgressSearcher}, which could answer them with the
+ * results of a user query on the live generation, nor by a {@link TrafficLimitingSearcher},
+ * since warming should not take the slots of user queries.
+ *
+ * @author Flaptor Development Team
+ */
+public class GenerationalResultsCache extends Cache<QueryParams, GroupedSearchResults> implements IndexGenerationListener {
+
+    private static final Logger logger = Logger.getLogger(Execute.whoAmI());
+
+    private final ISearcher searcher;
+    private final int maxSize;
+    private final int queriesToWarm;
+
+    private final LinkedHashMap<QueryParams, CachedResults> entries;
+    // Results of the incoming generation, waiting for it to go live.
+    private final Map<QueryParams, CachedResults> incoming = new HashMap<QueryParams, CachedResults>();
+    private long generation = 0;
+    private long incomingGeneration = 0;
+
+    /**
+     * Constructor.
+     * @param maxSize the max number of results to keep.
+     * @param searcher the searcher to execute the cached queries on a new index generation,
+     *   below the queries in progress and the traffic limiting searchers.
+     * @param queriesToWarm how many of the most used queries to execute on each new generation.
+     */
+    public GenerationalResultsCache(final int maxSize, ISearcher searcher, int queriesToWarm) {
+        if (null == searcher) {
+            throw new IllegalArgumentException("searcher cannot be null.");
+        }
+        this.maxSize = maxSize;
+        this.searcher = searcher;
+        this.queriesToWarm = queriesToWarm;
+        entries = new LinkedHashMap<QueryParams, CachedResults>(maxSize, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            protected boolean removeEldestEntry(Map.Entry<QueryParams, CachedResults> eldest) {
+                return size() > GenerationalResultsCache.this.maxSize;
+            }
+        };
+    }
+
+    @Override
+    public synchronized GroupedSearchResults get(QueryParams key) {
+        CachedResults entry = entries.get(key);
+        if (null == entry || entry.generation != generation) {
+            markMiss();
+            return null;
+        }
+        entry.hits++;
+        markHit();
+        return entry.results;
+    }
+
+    /**
+     * Stores the results, unless they come from an index generation that is no longer live.
+     */
+    @Override
+    public synchronized GroupedSearchResults put(QueryParams key, GroupedSearchResults value) {
+        long resultsGeneration = value.getIndexGeneration();
+        if (0 != resultsGeneration && resultsGeneration != generation) {
+            return null;
+        }
+        CachedResults old = entries.put(key, new CachedResults(value, generation, 1));
+        return (null == old) ? null : old.results;
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        entries.clear();
+        incoming.clear();
+    }
+
+    /**
+     * Returns tasks that execute the most used queries of the live generation again.
+     * Their results are kept apart until the new generation goes live.
+     */
+    public List<Runnable> getWarmingTasks(final long newGeneration) {
+        List<Map.Entry<QueryParams, CachedResults>> hottest;
+        synchronized (this) {
+            incoming.clear();
+            incomingGeneration = newGeneration;
+            hottest = new ArrayList<Map.Entry<QueryParams, CachedResults>>();
+            for (Map.Entry<QueryParams, CachedResults> e : entries.entrySet()) {
+                if (e.getValue().generation == generation) {
+                    hottest.add(e);
+                }
+            }
+            Collections.sort(hottest, new Comparator<Map.Entry<QueryParams, CachedResults>>() {
+                public int compare(Map.Entry<QueryParams, CachedResults> e1, Map.Entry<QueryParams, CachedResults> e2) {
+                    return e2.getValue().hits - e1.getValue().hits;
+                }
+            });
+            if (hottest.size() > queriesToWarm) {
+                hottest = hottest.subList(0, queriesToWarm);
+            }
+        }
+        List<Runnable> tasks = new ArrayList<Runnable>(hottest.size());
+        for (Map.Entry<QueryParams, CachedResults> e : hottest) {
+            final QueryParams params = e.getKey();
+            final int hits = e.getValue().hits;
+            tasks.add(new Runnable() {
+                public void run() {
+                    try {
+                        promote(params, params.executeInSearcher(searcher), hits);
+                    } catch (SearcherException e) {
+                        logger.debug("warming query failed: " + e.getMessage());
+                    }
+                }
+            });
+        }
+        return tasks;
+    }
+
+    /**
+     * Makes the warmed results of the new generation the live ones. The hit counts of
+     * the warmed queries are halved, so queries that are no longer used cool down.
+     */
+    public synchronized void generationChanged(long newGeneration) {
+        logger.info("generationChanged: " + incoming.size() + " warm results carried to generation " + newGeneration
+                + ", hit ratio since last generation was " + getRecentHitRatio());
+        super.clear();
+        generation = newGeneration;
+        entries.clear();
+        if (incomingGeneration == newGeneration) {
+            entries.putAll(incoming);
+        }
+        incoming.clear();
+    }
+
+    private synchronized void promote(QueryParams key, GroupedSearchResults results, int hits) {
+        if (results.isPartial()) {
+            return;
+        }
+        long resultsGeneration = results.getIndexGeneration();
+        CachedResults entry = new CachedResults(results, resultsGeneration, Math.max(1, hits / 2));
+        if (resultsGeneration == incomingGeneration && resultsGeneration != generation) {
+            incoming.put(key, entry);
+        } else if (resultsGeneration == generation) {
+            // the warming task finished after the generation went live.
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * @return the number of results currently cached.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static class CachedResults {
+        private final GroupedSearchResults results;
+        private final long generation;
+        private int hits;
+
+        CachedResults(GroupedSearchResults results, long generation, int hits) {
+            this.results = results;
+            this.generation = generation;
+            this.hits = hits;
+        }
+    }
+}
@@ -42,6 +42,13 @@ public final class GroupedSearchResults implements java.io.Serializable {
 	private final Vector<Vector<Float>> scores;
     private AQuery suggestedQuery = null;
     private long responseTime = 0;
+    private long indexGeneration = 0;
+    private boolean partial = false;
+    private SearchCursor nextCursor = null;
+    // The cursor after each group, for ungrouped results.
+    private Vector<SearchCursor> cursors = null;
+    // The lucene ids of the documents of each group, for the results of a HitKeysQuery.
+    private Vector<int[]> documentIds = null;
 
 	/**
 	 * Construct a new empty GroupedSearchResults.
@@ -187,5 +194,81 @@ public final class GroupedSearchResults implements java.io.Serializable {
     public long getResponseTime() {
     	return responseTime;
     }
+
+    /**
+     * Sets the generation of the index these results come from.
+     */
+    public void setIndexGeneration(long indexGeneration) {
+        this.indexGeneration = indexGeneration;
+    }
+
+    /**
+     * Returns the generation of the index these results come from, or 0 if unknown (for
+     * example, if they were merged from many searchers).
+     */
+    public long getIndexGeneration() {
+        return indexGeneration;
+    }
+
+    /**
+     * Marks these results as partial: the search ran out of time before checking every
+     * matching document, so they are the best found until then.
+     */
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+
+    /**
+     * Returns true if the search ran out of time, and these are only the best results it found.
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * Sets the cursor to ask for the page after these results.
+     */
+    public void setNextCursor(SearchCursor nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Returns the cursor to ask for the page after these results, see
+     * {@link com.flaptor.hounder.searcher.query.SearchAfterQuery}, or null if there is none.
+     */
+    public SearchCursor getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Sets the cursor after each group, so that a part of these results, or a page merged
+     * from them, knows where it ends.
+     */
+    public void setCursors(Vector<SearchCursor> cursors) {
+        this.cursors = cursors;
+    }
+
+    /**
+     * Returns the cursor to ask for the results after the group, or null if unknown.
+     * Only ungrouped results have one.
+     */
+    public SearchCursor getCursor(int group) {
+        return (null == cursors) ? null : cursors.get(group);
+    }
+
+    /**
+     * Sets the lucene ids of the documents of each group, in the index generation of the results.
+     */
+    public void setDocumentIds(Vector<int[]> documentIds) {
+        this.documentIds = documentIds;
+    }
+
+    /**
+     * Returns the lucene ids of the documents of the group, in the same order, or null if unknown.
+     * Only the results of a {@link com.flaptor.hounder.searcher.query.HitKeysQuery} have them.
+     */
+    public int[] getDocumentIds(int group) {
+        return (null == documentIds) ? null : documentIds.get(group);
+    }
     
 }
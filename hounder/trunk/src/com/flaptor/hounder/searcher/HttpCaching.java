@@ -0,0 +1,206 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.flaptor.hounder.searcher.filter.AFilter;
+import com.flaptor.hounder.searcher.group.AGroup;
+import com.flaptor.hounder.searcher.query.AQuery;
+import com.flaptor.hounder.searcher.sort.ASort;
+import com.flaptor.util.Config;
+import com.flaptor.util.TranscodeUtil;
+
+/**
+ * Lets http clients and caches reuse the results they already have until the index changes.
+ *
+ * Each response carries an ETag made of the request parameters and the generation of the
+ * index that answered it, and a Cache-Control lifetime that lasts until the next index is
+ * expected, according to the configured index update interval. A request whose If-None-Match
+ * holds the ETag of the live generation is answered with a 304, without searching.
+ *
+ * Failed and partial results are not given caching headers.
+ *
+ * @author Flaptor Development Team
+ */
+final class HttpCaching implements IndexGenerationListener {
+
+    // Generations are numbered from 1 on every start, so the ETags carry the start time too.
+    private static final String START = Long.toString(System.currentTimeMillis(), 36);
+
+    private final long updateInterval;
+    private volatile long generation = 0;
+    private volatile long liveSince = 0;
+
+    /**
+     * @param updateInterval how often a new index is expected, in milliseconds. 0 if unknown,
+     *  in which case the clients must revalidate every time.
+     */
+    HttpCaching(long updateInterval) {
+        this.updateInterval = updateInterval;
+    }
+
+    /**
+     * Creates the caching for the http handlers of a searcher, as configured in searcher.properties.
+     * @return null if the searcher does not search a local index, so its generations are unknown.
+     */
+    static HttpCaching forSearcher(ISearcher searcher) {
+        if (searcher instanceof CompositeSearcher) {
+            searcher = ((CompositeSearcher) searcher).getBaseSearcher();
+        }
+        if (!(searcher instanceof Searcher)) {
+            return null;
+        }
+        HttpCaching caching = new HttpCaching(Config.getConfig("searcher.properties").getLong("searcher.http.indexUpdateInterval"));
+        ((Searcher) searcher).addGenerationListener(caching);
+        return caching;
+    }
+
+    public List<Runnable> getWarmingTasks(long generation) {
+        return Collections.emptyList();
+    }
+
+    public void generationChanged(long generation) {
+        liveSince = System.currentTimeMillis();
+        this.generation = generation;
+    }
+
+    /**
+     * Answers the request with a 304 if the client already has the results of the live generation.
+     * @return true if the response was sent, false if the request has to be searched.
+     */
+    boolean notModified(HttpServletRequest request, HttpServletResponse response) {
+        long live = generation;
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (0 == live || null == ifNoneMatch) {
+            return false;
+        }
+        String etag = etag(request, live);
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (etag.equals(tag) || etag.substring(2).equals(tag) || "*".equals(tag)) {
+                setHeaders(response, etag);
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a searcher for a single request, that sets the caching headers of its response
+     * once the search succeeds, before the results are written.
+     */
+    ISearcher forRequest(final ISearcher searcher, final HttpServletRequest request, final HttpServletResponse response) {
+        return new ISearcher() {
+            public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup group, int groupSize, AFilter filter, ASort sort) throws SearcherException {
+                GroupedSearchResults results = searcher.search(query, firstResult, count, group, groupSize, filter, sort);
+                long resultsGeneration = (0 == results.getIndexGeneration()) ? generation : results.getIndexGeneration();
+                if (!results.isPartial() && 0 != resultsGeneration) {
+                    setHeaders(response, etag(request, resultsGeneration));
+                }
+                return results;
+            }
+
+            // A batch is tagged only if all of its queries were fully answered from the same generation.
+            public MultiSearchResults multiSearch(List<QueryParams> queries) throws SearcherException {
+                MultiSearchResults results = searcher.multiSearch(queries);
+                long batchGeneration = 0;
+                for (int i = 0; i < results.size(); i++) {
+                    if (!results.isOk(i) || results.getResults(i).isPartial()) {
+                        return results;
+                    }
+                    long resultsGeneration = (0 == results.getResults(i).getIndexGeneration()) ? generation : results.getResults(i).getIndexGeneration();
+                    if (0 == resultsGeneration || (0 != batchGeneration && batchGeneration != resultsGeneration)) {
+                        return results;
+                    }
+                    batchGeneration = resultsGeneration;
+                }
+                if (0 != batchGeneration) {
+                    setHeaders(response, etag(request, batchGeneration));
+                }
+                return results;
+            }
+
+            public int countHits(AQuery query, AFilter filter) throws SearcherException {
+                return searcher.countHits(query, filter);
+            }
+
+            public void requestStop() {
+                searcher.requestStop();
+            }
+
+            public boolean isStopped() {
+                return searcher.isStopped();
+            }
+        };
+    }
+
+    // The same results are sent gzipped or not, so the ETag is weak. The request is identified
+    // by the md5 of its path and sorted parameters, url encoded so no two requests share a key.
+    private String etag(HttpServletRequest request, long generation) {
+        StringBuilder key = new StringBuilder(encode(String.valueOf(request.getPathInfo())));
+        @SuppressWarnings("unchecked")
+        Map<String,String[]> params = new TreeMap<String,String[]>(request.getParameterMap());
+        for (Map.Entry<String,String[]> param : params.entrySet()) {
+            for (String value : param.getValue()) {
+                key.append('&').append(encode(param.getKey())).append('=').append(encode(value));
+            }
+        }
+        return "W/\"" + START + "-" + generation + "-" + md5(key.toString()) + "\"";
+    }
+
+    private static String encode(String text) {
+        try {
+            return URLEncoder.encode(text, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // every jvm has utf-8.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String md5(String key) {
+        try {
+            return TranscodeUtil.binToHex(MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            // every jvm has md5.
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            // every jvm has utf-8.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void setHeaders(HttpServletResponse response, String etag) {
+        response.setHeader("ETag", etag);
+        long maxAge = (updateInterval - (System.currentTimeMillis() - liveSince)) / 1000;
+        if (updateInterval > 0 && maxAge > 0) {
+            response.setHeader("Cache-Control", "public, max-age=" + maxAge);
+        } else {
+            response.setHeader("Cache-Control", "no-cache");
+        }
+    }
+}
@@ -15,6 +15,8 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher;
 
+import java.util.List;
+
 import com.flaptor.hounder.searcher.filter.AFilter;
 import com.flaptor.hounder.searcher.group.AGroup;
 import com.flaptor.hounder.searcher.query.AQuery;
@@ -29,6 +31,16 @@ import com.flaptor.util.remote.RpcException;
 public interface IRemoteSearcher {
     /*@fixme writeme*/
 	public GroupedSearchResults search(AQuery query, int firstResult, int count,  AGroup group, int groupSize, AFilter filter, ASort sort) throws RpcException;
+
+    /**
+     * Returns the number of documents matching a query, see {@link ISearcher#countHits(AQuery, AFilter)}.
+     */
+    public int countHits(AQuery query, AFilter filter) throws RpcException;
+
+    /**
+     * Runs a batch of queries, see {@link ISearcher#multiSearch(List)}.
+     */
+    public MultiSearchResults multiSearch(List<QueryParams> queries) throws RpcException;
     
     // This method should return a String that identifies the remote searcher univocally, for example "host:port"
     public String getTextualIdentifier();
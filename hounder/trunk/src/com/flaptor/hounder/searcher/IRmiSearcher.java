@@ -17,6 +17,7 @@ package com.flaptor.hounder.searcher;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 import com.flaptor.hounder.searcher.filter.AFilter;
 import com.flaptor.hounder.searcher.group.AGroup;
@@ -30,5 +31,9 @@ import com.flaptor.hounder.searcher.sort.ASort;
 public interface IRmiSearcher extends Remote {
     /*@fixme writeme*/
     public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup group, int groupSize, AFilter filter, ASort sort) throws RemoteException;
+
+    public int countHits(AQuery query, AFilter filter) throws RemoteException;
+
+    public MultiSearchResults multiSearch(List<QueryParams> queries) throws RemoteException;
 }
 
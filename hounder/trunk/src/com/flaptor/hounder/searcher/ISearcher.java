@@ -15,6 +15,8 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher;
 
+import java.util.List;
+
 import com.flaptor.hounder.searcher.filter.AFilter;
 import com.flaptor.hounder.searcher.group.AGroup;
 import com.flaptor.hounder.searcher.query.AQuery;
@@ -29,5 +31,19 @@ public interface ISearcher extends Stoppable {
 
     /*@fixme writeme*/
 	public GroupedSearchResults search(AQuery query, int firstResult, int count,  AGroup group, int groupSize, AFilter filter, ASort sort) throws SearcherException;
+
+    /**
+     * Returns the number of documents matching a query, without scoring, grouping or
+     * loading them.
+     * @param filter the filter to use, or null.
+     */
+    public int countHits(AQuery query, AFilter filter) throws SearcherException;
+
+    /**
+     * Runs a batch of queries, admitted together and run in parallel where the searcher can.
+     * A query that fails does not fail the others: its exception is returned in its place.
+     * @throws SearcherException if the whole batch failed, e.g. if it was not admitted.
+     */
+    public MultiSearchResults multiSearch(List<QueryParams> queries) throws SearcherException;
 }
 
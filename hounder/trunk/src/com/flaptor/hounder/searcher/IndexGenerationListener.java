@@ -0,0 +1,47 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.util.List;
+
+/**
+ * Receives notice of the index generations loaded by the searcher.
+ *
+ * Every index loaded by the searcher is a new generation, identified by an increasing
+ * number. Before a generation goes live the searcher asks its listeners for warming tasks,
+ * and runs them in parallel with every search they make directed to the incoming
+ * generation. Once the generation is live, the listeners are notified.
+ *
+ * @author Flaptor Development Team
+ */
+public interface IndexGenerationListener {
+
+    /**
+     * Returns the tasks to run against a new generation before it goes live.
+     * The searches made by these tasks run against the new generation, even though
+     * it is not live yet. Tasks that do not finish within the warming time budget
+     * are abandoned.
+     * @param generation the number of the incoming generation.
+     * @return the warming tasks, may be empty.
+     */
+    public List<Runnable> getWarmingTasks(long generation);
+
+    /**
+     * Called once the generation is the one answering the searches.
+     * @param generation the number of the live generation.
+     */
+    public void generationChanged(long generation);
+}
@@ -0,0 +1,219 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+import com.flaptor.hounder.searcher.group.AGroup;
+import com.flaptor.hounder.util.HeavyHitters;
+import com.flaptor.util.Execute;
+import com.flaptor.util.Pair;
+import com.flaptor.util.Statistics;
+
+/**
+ * Warms a new index generation before it goes live.
+ *
+ * One every <code>samplePeriod</code> searches is counted in a sketch of the most frequent
+ * recent queries. Before a new generation goes live, the most frequent of them are executed
+ * on it, and the FieldCache of every field used to sort is loaded, so the first users of the
+ * new index do not pay for loading its lazy data structures.
+ *
+ * After each warming, the coverage (the fraction of the sampled query frequency that was
+ * executed on the new index) is logged and reported to the statistics.
+ *
+ * @author Flaptor Development Team
+ */
+final class IndexWarmer implements IndexGenerationListener {
+
+    private static final Logger logger = Logger.getLogger(Execute.whoAmI());
+    private static final Statistics statistics = Statistics.getStatistics();
+
+    private final ReloadableIndexHandler handler;
+    private final int samplePeriod;
+    private final int queriesToWarm;
+    private final AtomicInteger queriesInPeriod = new AtomicInteger(0);
+    private final HeavyHitters<SavedQuery> sampledQueries;
+    // The fields used to sort, with their SortField types.
+    private final ConcurrentHashMap<Pair<String, Integer>, Boolean> sortFields = new ConcurrentHashMap<Pair<String, Integer>, Boolean>();
+
+    // Progress of the last warming.
+    private final AtomicLong warmedFrequency = new AtomicLong(0);
+    private volatile long totalFrequency = 0;
+
+    /**
+     * Constructor.
+     * @param handler the handler whose searches are sampled, and on which they are replayed.
+     * @param samplePeriod one every samplePeriod searches is sampled. 0 disables the sampling.
+     * @param sampleSize how many different queries to keep track of.
+     * @param queriesToWarm how many of the most frequent queries to execute on a new generation.
+     *  0 means all the tracked ones.
+     */
+    IndexWarmer(ReloadableIndexHandler handler, int samplePeriod, int sampleSize, int queriesToWarm) {
+        this.handler = handler;
+        this.samplePeriod = (sampleSize > 0) ? samplePeriod : 0;
+        this.queriesToWarm = (queriesToWarm > 0) ? queriesToWarm : sampleSize;
+        sampledQueries = (this.samplePeriod > 0) ? new HeavyHitters<SavedQuery>(sampleSize) : null;
+    }
+
+    /**
+     * Registers a search. It is sampled if the time has come to take another sample.
+     */
+    void sample(Query query, Filter filter, Sort sort, int offset, int groupCount, AGroup groupBy, int groupSize) {
+        if (null != sort) {
+            for (SortField field : sort.getSort()) {
+                if (null != field.getField()) {
+                    sortFields.putIfAbsent(new Pair<String, Integer>(field.getField(), field.getType()), Boolean.TRUE);
+                }
+            }
+        }
+        if (samplePeriod > 0 && queriesInPeriod.incrementAndGet() % samplePeriod == 0) {
+            sampledQueries.add(new SavedQuery(query, filter, sort, offset, groupCount, groupBy, groupSize));
+        }
+    }
+
+    /**
+     * Loads the FieldCache of a field on every new generation, even if no search sorts by it.
+     * @param type the type of the field, as defined in SortField.
+     */
+    void warmField(String field, int type) {
+        sortFields.putIfAbsent(new Pair<String, Integer>(field, type), Boolean.TRUE);
+    }
+
+    public List<Runnable> getWarmingTasks(long generation) {
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (final Pair<String, Integer> field : sortFields.keySet()) {
+            tasks.add(new Runnable() {
+                public void run() {
+                    try {
+                        handler.loadFieldCache(field.first(), field.last().intValue());
+                    } catch (Exception e) {
+                        logger.warn("could not load the FieldCache of " + field.first() + ": " + e.getMessage());
+                    }
+                }
+            });
+        }
+        warmedFrequency.set(0);
+        totalFrequency = 0;
+        if (null != sampledQueries) {
+            totalFrequency = sampledQueries.total();
+            for (Pair<SavedQuery, Long> sampled : sampledQueries.top(queriesToWarm)) {
+                final SavedQuery query = sampled.first();
+                final long frequency = sampled.last().longValue();
+                tasks.add(new Runnable() {
+                    public void run() {
+                        if (query.replay()) {
+                            warmedFrequency.addAndGet(frequency);
+                        }
+                    }
+                });
+            }
+        }
+        return tasks;
+    }
+
+    public void generationChanged(long generation) {
+        if (null == sampledQueries) {
+            return;
+        }
+        if (totalFrequency > 0) {
+            float coverage = (float) warmedFrequency.get() / totalFrequency;
+            statistics.notifyEventValue("index warming coverage", coverage);
+            logger.info("generationChanged: warmed generation " + generation + " with a coverage of " + coverage
+                    + " of the sampled query frequency.");
+        }
+        // Older queries weigh less in the next warming.
+        sampledQueries.decay();
+    }
+
+    /**
+     * A search, as received by the ReloadableIndexHandler.
+     */
+    private class SavedQuery {
+    	private final Query query;
+    	private final Filter filter;
+    	private final Sort sort;
+    	private final int offset;
+    	private final int groupCount;
+    	private final AGroup groupBy;
+    	private final int groupSize;
+
+    	public SavedQuery(Query query, Filter filter, Sort sort, int offset, int groupCount, AGroup groupBy, int groupSize) {
+    		this.query = query;
+    		this.filter = filter;
+    		this.sort = sort;
+    		this.offset = offset;
+    		this.groupCount = groupCount;
+    		this.groupBy = groupBy;
+    		this.groupSize = groupSize;
+    	}
+
+    	/**
+    	 * Executes the search again.
+    	 * @return true if it was successful.
+    	 */
+    	public boolean replay() {
+    		try {
+				handler.search(query, filter, sort, offset, groupCount, groupBy, groupSize);
+				return true;
+			} catch (Exception e) {
+				logger.debug("replay: " + e.getMessage());
+				return false;
+			}
+    	}
+
+    	// Lucene sorts do not implement equals, their string representation lists their fields.
+    	private String sortKey() {
+    	    return (null == sort) ? "" : sort.toString();
+    	}
+
+    	@Override
+    	public boolean equals(Object obj) {
+    	    if (this == obj) {
+    	        return true;
+    	    }
+    	    if (!(obj instanceof SavedQuery)) {
+    	        return false;
+    	    }
+    	    SavedQuery q = (SavedQuery) obj;
+    	    return query.equals(q.query) && offset == q.offset && groupCount == q.groupCount && groupSize == q.groupSize
+    	        && (null == filter ? null == q.filter : filter.equals(q.filter))
+    	        && (null == groupBy ? null == q.groupBy : groupBy.equals(q.groupBy))
+    	        && sortKey().equals(q.sortKey());
+    	}
+
+    	@Override
+    	public int hashCode() {
+    	    int hash = query.hashCode();
+    	    hash = 31 * hash + offset;
+    	    hash = 31 * hash + groupCount;
+    	    hash = 31 * hash + groupSize;
+    	    hash = 31 * hash + (null == filter ? 0 : filter.hashCode());
+    	    hash = 31 * hash + (null == groupBy ? 0 : groupBy.hashCode());
+    	    hash = 31 * hash + sortKey().hashCode();
+    	    return hash;
+    	}
+    }
+}
@@ -0,0 +1,187 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import com.flaptor.util.Execute;
+import com.flaptor.util.Statistics;
+
+/**
+ * Limits how many searches may use the shared index searcher at the same time.
+ *
+ * The limit starts at the number of available cores, and is periodically
+ * recalculated from the observed ratio between the wall clock time and the cpu
+ * time of the searches (cores * wall / cpu), so searches that spend most of their
+ * time waiting for the disk get more concurrent leases than cpu bound ones.
+ * The limit is always kept between <code>minLeases</code> and <code>maxLeases</code>.
+ *
+ * Acquiring and releasing a lease does not take any lock: the number of leases in
+ * use is kept in an atomic counter, and waiters park with an exponential backoff
+ * until a lease becomes available or their timeout expires.
+ *
+ * @author Flaptor Development Team
+ */
+final class LeaseLimiter {
+
+    private static final Logger logger = Logger.getLogger(Execute.whoAmI());
+    private static final Statistics statistics = Statistics.getStatistics();
+
+    // How many released leases between recalculations of the limit.
+    private static final int SAMPLE_WINDOW = 128;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final int cores;
+    private final int minLeases;
+    private final int maxLeases;
+    private volatile int limit;
+
+    private final AtomicInteger inUse = new AtomicInteger(0);
+
+    private final ThreadMXBean threads;
+    private final boolean measureCpu;
+    private final AtomicInteger samples = new AtomicInteger(0);
+    private final AtomicLong wallNanos = new AtomicLong(0);
+    private final AtomicLong cpuNanos = new AtomicLong(0);
+
+    /**
+     * Constructor.
+     * @param minLeases the minimum number of simultaneous leases. If 0, the number of
+     *  available cores is used.
+     * @param maxLeases the maximum number of simultaneous leases. If 0, four times the
+     *  number of available cores is used.
+     */
+    LeaseLimiter(int minLeases, int maxLeases) {
+        this(Runtime.getRuntime().availableProcessors(), minLeases, maxLeases);
+    }
+
+    LeaseLimiter(int cores, int minLeases, int maxLeases) {
+        if (cores <= 0) {
+            throw new IllegalArgumentException("cores must be positive (" + cores + ")");
+        }
+        if (minLeases < 0 || maxLeases < 0) {
+            throw new IllegalArgumentException("lease limits cannot be negative (" + minLeases + ", " + maxLeases + ")");
+        }
+        this.cores = cores;
+        this.minLeases = (0 == minLeases) ? cores : minLeases;
+        this.maxLeases = Math.max(this.minLeases, (0 == maxLeases) ? 4 * cores : maxLeases);
+        this.limit = Math.max(this.minLeases, Math.min(cores, this.maxLeases));
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        boolean cpu = false;
+        try {
+            cpu = bean.isCurrentThreadCpuTimeSupported() && bean.isThreadCpuTimeEnabled();
+        } catch (UnsupportedOperationException e) {
+            cpu = false;
+        }
+        threads = bean;
+        measureCpu = cpu;
+        logger.info("LeaseLimiter: " + cores + " cores, leases between " + this.minLeases + " and " + this.maxLeases
+                + ", starting at " + limit + (measureCpu ? "" : " (cpu time not available, limit will not adapt)"));
+    }
+
+    /**
+     * Waits until a lease is available and takes it.
+     * @param timeout max time to wait for the lease, in milliseconds. 0 means wait forever.
+     * @throws SearchTimeoutException if the timeout expired before getting a lease.
+     * @throws SearcherException if the thread was interrupted while waiting.
+     */
+    void acquire(long timeout) throws SearchTimeoutException, SearcherException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        long park = MIN_PARK_NANOS;
+        while (true) {
+            int current = inUse.get();
+            if (current < limit) {
+                if (inUse.compareAndSet(current, current + 1)) {
+                    return;
+                }
+                continue;
+            }
+            if (timeout > 0 && System.nanoTime() - deadline >= 0) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("acquire: timed out with " + current + " leases in use, limit is " + limit);
+                }
+                throw new SearchTimeoutException(timeout, "timeout exceeded while waiting for an indexSearcher");
+            }
+            LockSupport.parkNanos(park);
+            park = Math.min(park * 2, MAX_PARK_NANOS);
+            if (Thread.interrupted()) {
+                throw new SearcherException("interrupted while waiting for an indexSearcher");
+            }
+        }
+    }
+
+    /**
+     * Returns a lease taken with {@link #acquire(long)}, recording how long it was held.
+     * @param wall the wall clock time the lease was held, in nanoseconds.
+     * @param cpu the cpu time used by the thread while holding the lease, in nanoseconds,
+     *  or a negative number if not known.
+     */
+    void release(long wall, long cpu) {
+        inUse.decrementAndGet();
+        if (!measureCpu || cpu < 0) {
+            return;
+        }
+        wallNanos.addAndGet(wall);
+        cpuNanos.addAndGet(cpu);
+        if (samples.incrementAndGet() % SAMPLE_WINDOW == 0) {
+            adjustLimit(wallNanos.getAndSet(0), cpuNanos.getAndSet(0));
+        }
+    }
+
+    /**
+     * @return the cpu time of the current thread in nanoseconds, or -1 if not available.
+     */
+    long currentThreadCpuTime() {
+        return measureCpu ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    private void adjustLimit(long wall, long cpu) {
+        if (cpu <= 0 || wall <= 0) {
+            return;
+        }
+        double ratio = Math.max(1.0, (double) wall / cpu);
+        int newLimit = (int) Math.round(cores * ratio);
+        newLimit = Math.max(minLeases, Math.min(maxLeases, newLimit));
+        if (newLimit != limit) {
+            logger.info("adjustLimit: wall/cpu ratio is " + ratio + ", changing the lease limit from " + limit + " to " + newLimit);
+            limit = newLimit;
+        }
+        statistics.notifyEventValue("searcher lease limit", newLimit);
+    }
+
+    /**
+     * @return the current maximum number of simultaneous leases.
+     */
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of leases currently taken.
+     */
+    int getLeasesInUse() {
+        return inUse.get();
+    }
+}
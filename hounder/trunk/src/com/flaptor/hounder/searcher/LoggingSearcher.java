@@ -24,6 +24,7 @@ import com.flaptor.hounder.searcher.query.LazyParsedQuery;
 import com.flaptor.hounder.searcher.sort.ASort;
 import com.flaptor.util.Execute;
 import java.util.Enumeration;
+import java.util.List;
 import org.apache.log4j.Appender;
 import org.apache.log4j.DailyRollingFileAppender;
 import org.apache.log4j.Level;
@@ -85,14 +86,31 @@ public class LoggingSearcher implements ISearcher {
     @Override
     public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup group, int groupSize, AFilter filter, ASort sort) throws SearcherException{
         GroupedSearchResults results = searcher.search(query, firstResult, count, group, groupSize, filter, sort);
+        log(query, results);
+		return results;		
+	}
+
+    public MultiSearchResults multiSearch(List<QueryParams> queries) throws SearcherException {
+        MultiSearchResults results = searcher.multiSearch(queries);
+        for (int i = 0; i < results.size(); i++) {
+            log(queries.get(i).getQuery(), results.getResults(i));
+        }
+        return results;
+    }
+
+    // Logs the queries that found something.
+    private void log(AQuery query, GroupedSearchResults results) {
         if (null != results && results.totalResults() > 0) {
             LazyParsedQuery lazyParsedQuery = LazyParsedQuery.findLazyParsedQuery(query);
             if (null != lazyParsedQuery) {
                 logger.info(lazyParsedQuery.getQueryString().toLowerCase().trim());
             }
         }
-		return results;		
-	}
+    }
+
+    public int countHits(AQuery query, AFilter filter) throws SearcherException {
+        return searcher.countHits(query, filter);
+    }
 
     @Override
     public void requestStop() {
@@ -0,0 +1,97 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The results of a batch of queries, see {@link ISearcher#multiSearch(List)}.
+ * Each query has either its results or the exception that made it fail, so a
+ * failed query does not fail the rest of the batch.
+ *
+ * @author Flaptor Development Team
+ */
+public class MultiSearchResults implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final GroupedSearchResults[] results;
+    private final Exception[] exceptions;
+
+    /**
+     * @param size the number of queries in the batch.
+     */
+    public MultiSearchResults(int size) {
+        results = new GroupedSearchResults[size];
+        exceptions = new Exception[size];
+    }
+
+    /**
+     * Runs the queries one after the other, for searchers that have no better way to run a batch.
+     */
+    public static MultiSearchResults searchEach(ISearcher searcher, List<QueryParams> queries) {
+        MultiSearchResults batch = new MultiSearchResults(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            try {
+                batch.setResults(i, queries.get(i).executeInSearcher(searcher));
+            } catch (SearcherException e) {
+                batch.setException(i, e);
+            } catch (RuntimeException e) {
+                batch.setException(i, e);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * @return the number of queries in the batch.
+     */
+    public int size() {
+        return results.length;
+    }
+
+    public void setResults(int query, GroupedSearchResults queryResults) {
+        results[query] = queryResults;
+        exceptions[query] = null;
+    }
+
+    public void setException(int query, Exception exception) {
+        exceptions[query] = exception;
+        results[query] = null;
+    }
+
+    /**
+     * @return true if the query was answered.
+     */
+    public boolean isOk(int query) {
+        return null != results[query];
+    }
+
+    /**
+     * @return the results of the query, or null if it failed.
+     */
+    public GroupedSearchResults getResults(int query) {
+        return results[query];
+    }
+
+    /**
+     * @return the exception that made the query fail, or null if it was answered.
+     */
+    public Exception getException(int query) {
+        return exceptions[query];
+    }
+}
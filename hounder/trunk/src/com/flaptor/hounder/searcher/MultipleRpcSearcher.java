@@ -15,6 +15,8 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher;
 
+import java.util.List;
+
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 
@@ -121,6 +123,14 @@ public class MultipleRpcSearcher implements ISearcher {
         return baseSearcher.search(query, firstResult, count, group, groupSize, filter, sort);
     }
 
+    public MultiSearchResults multiSearch(List<QueryParams> queries) throws SearcherException {
+        return baseSearcher.multiSearch(queries);
+    }
+
+    public int countHits(AQuery query, AFilter filter) throws SearcherException {
+        return baseSearcher.countHits(query, filter);
+    }
+
     public static void main(String[] args) {
 
         String log4jConfigPath = FileUtil.getFilePathFromClasspath("log4j.properties");
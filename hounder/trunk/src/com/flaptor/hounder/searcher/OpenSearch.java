@@ -15,9 +15,11 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
@@ -27,12 +29,10 @@ import java.util.HashMap;
 
 import org.apache.lucene.document.Field;
 import org.dom4j.Document;
-import org.dom4j.DocumentHelper;
-import org.dom4j.Element;
-import org.dom4j.Namespace;
-import org.dom4j.QName;
 
 import com.flaptor.hounder.searcher.query.AQuery;
+import com.flaptor.hounder.util.DomXmlSink;
+import com.flaptor.hounder.util.XmlSink;
 import com.flaptor.util.Config;
 import com.flaptor.util.DomUtil;
 import com.flaptor.util.StringUtil;
@@ -47,6 +47,11 @@ public class OpenSearch {
 
     private static final Set<String> fieldsToShow = new HashSet<String>();
 
+    /**
+     * The elements that repeat in the OpenSearch document, written as arrays in JSON.
+     */
+    public static final Set<String> LIST_ELEMENTS = Collections.singleton("item");
+
     /**
      * OpenSearch standard, forces to have 3 fields: title, link, description
      * The name in the index of those fields might be different so we have to
@@ -95,6 +100,23 @@ public class OpenSearch {
      * <br>An empty sr argument means that no results were found.
      */
     public static final Document buildDom_1_0(String baseUrl, String htmlSearcher, String opensearchSearcher, String extraParams, String queryString, int start, int count, GroupedSearchResults sr, int status, String statusMessage, boolean useXslt) {
+        DomXmlSink sink = new DomXmlSink();
+        try {
+            write_1_0(sink, baseUrl, htmlSearcher, opensearchSearcher, extraParams, queryString, start, count, sr, status, statusMessage, useXslt);
+        } catch (IOException e) {
+            // Should never happen, nothing is written.
+            throw new IllegalStateException(e);
+        }
+        return sink.getDocument();
+    }
+
+    /**
+     * Sends the OpenSearch document to a sink, element by element.
+     * The parameters are those of {@link #buildDom_1_0(String, String, String, String, String, int, int, GroupedSearchResults, int, String, boolean)},
+     * with the addition of:
+     * @param sink where to send the document, e.g. an XmlStreamWriter to write it to the response stream.
+     */
+    public static final void write_1_0(XmlSink sink, String baseUrl, String htmlSearcher, String opensearchSearcher, String extraParams, String queryString, int start, int count, GroupedSearchResults sr, int status, String statusMessage, boolean useXslt) throws IOException {
 
         String encodedQuery = null;
         try {
@@ -103,66 +125,75 @@ public class OpenSearch {
             // Should never happen!
             encodedQuery = "";
         }
-        Document dom = DocumentHelper.createDocument();
         if (useXslt) {
             Map<String,String> map = new HashMap<String,String>();
             map.put("type", "text/xsl");
             map.put("href", xsltPath);
-            dom.addProcessingInstruction("xml-stylesheet", map);
+            sink.processingInstruction("xml-stylesheet", map);
         }
 
-        Namespace opensearchNs = DocumentHelper.createNamespace("opensearch", XMLNS_A9_OPENSEARCH_1_0);
-        Namespace hounderNs = DocumentHelper.createNamespace("hounder", XMLNS_HOUNDER_OPENSEARCH_1_0);
-        Element root;
-        Element channel;
         if (!useXslt) {
-            root = dom.addElement("rss").
-            addAttribute("version", "2.0");
-            channel = root.addElement("channel");
+            sink.startElement("rss");
+            sink.namespace("opensearch", XMLNS_A9_OPENSEARCH_1_0);
+            sink.namespace("hounder", XMLNS_HOUNDER_OPENSEARCH_1_0);
+            sink.attribute("version", "2.0");
+            sink.startElement("channel");
         } else {
-            channel = dom.addElement("searchResults");
-            root = channel;
-        } 
-        root.add(opensearchNs);
-        root.add(hounderNs);
-
-        channel.addElement("title").addText(titlePrefix+" "+DomUtil.filterXml(queryString));
-        channel.addElement("link").addText(baseUrl + "/" + htmlSearcher +
+            sink.startElement("searchResults");
+            sink.namespace("opensearch", XMLNS_A9_OPENSEARCH_1_0);
+            sink.namespace("hounder", XMLNS_HOUNDER_OPENSEARCH_1_0);
+        }
+
+        addElement(sink, "title", titlePrefix+" "+DomUtil.filterXml(queryString));
+        addElement(sink, "link", baseUrl + "/" + htmlSearcher +
                 "?query=" +encodedQuery + "&start=" + start + extraParams);
-        channel.addElement("description").addText(descPrefix+" "+DomUtil.filterXml(queryString));
-        channel.addElement(QName.get("totalResults", opensearchNs)).addText(Integer.toString(sr.totalGroupsEstimation()));
-        channel.addElement(QName.get("startIndex", opensearchNs)).addText(Integer.toString(start));
-        channel.addElement(QName.get("itemsPerPage", opensearchNs)).addText(Integer.toString(count));
-        channel.addElement(QName.get("query",hounderNs)).addText(DomUtil.filterXml(queryString));
+        addElement(sink, "description", descPrefix+" "+DomUtil.filterXml(queryString));
+        addElement(sink, "opensearch:totalResults", Integer.toString(sr.totalGroupsEstimation()));
+        addElement(sink, "opensearch:startIndex", Integer.toString(start));
+        addElement(sink, "opensearch:itemsPerPage", Integer.toString(count));
+        addElement(sink, "hounder:query", DomUtil.filterXml(queryString));
         AQuery suggestedQuery = sr.getSuggestedQuery();
         if (null != suggestedQuery) {
-            channel.addElement(QName.get("suggestedQuery",hounderNs)).addText(DomUtil.filterXml(suggestedQuery.toString()));
+            addElement(sink, "hounder:suggestedQuery", DomUtil.filterXml(suggestedQuery.toString()));
+        }
+        if (sr.isPartial()) {
+            addElement(sink, "hounder:partial", "true");
         }
-        channel.addElement(QName.get("status",hounderNs)).addText(Integer.toString(status));
-        channel.addElement(QName.get("statusDesc",hounderNs)).addText(statusMessage);
+        addElement(sink, "hounder:status", Integer.toString(status));
+        addElement(sink, "hounder:statusDesc", statusMessage);
         if (sr.lastDocumentOffset() > 0) {
-            channel.addElement(QName.get("nextPage",hounderNs)).addText(baseUrl + "/" + opensearchSearcher + 
+            addElement(sink, "hounder:nextPage", baseUrl + "/" + opensearchSearcher + 
                     "?query=" + encodedQuery + "&start=" + (sr.lastDocumentOffset()) + extraParams);
         }
 
         for (int i=0; i< sr.groups(); i++) {
             Vector<org.apache.lucene.document.Document> docs= sr.getGroup(i).last();
-            Element parent= null;
             for (int j = 0; j < docs.size(); j++) {
-                org.apache.lucene.document.Document doc = sr.getGroup(i).last().get(j);                
-                if (0 == j) {// j=0 is head of group. j>0 is tail
-                    parent= createAndAddElement(doc, channel, hounderNs);
-                } else {
-                    createAndAddElement(doc, parent, hounderNs);
+                // j=0 is head of group, the tail goes inside it.
+                writeItem(sink, docs.get(j));
+                if (0 != j) {
+                    sink.endElement();
                 }
-
+            }
+            if (docs.size() > 0) {
+                sink.endElement();
             }
         }
-        return dom;
+        if (!useXslt) {
+            sink.endElement();
+        }
+        sink.endElement();
+        sink.endDocument();
+    }
+
+    private static void addElement(XmlSink sink, String name, String text) throws IOException {
+        sink.startElement(name);
+        sink.text(text);
+        sink.endElement();
     }
 
-    private static Element createAndAddElement( org.apache.lucene.document.Document doc, 
-            Element parent, Namespace hounderNs){
+    // Leaves the item open, so the tail of its group can be added to it.
+    private static void writeItem(XmlSink sink, org.apache.lucene.document.Document doc) throws IOException {
         String link= StringUtil.nullToEmpty(doc.get(linkField)).trim();
         String description= StringUtil.nullToEmpty(doc.get(descField)).trim();
         String title= StringUtil.nullToEmpty(doc.get(titleField)).trim();           
@@ -170,24 +201,17 @@ public class OpenSearch {
             title=link;
         }            
 
-        Element item = parent.addElement("item");            
-        item.addElement("title").addText(DomUtil.filterXml(title));
-        item.addElement("link").addText(linkPrefix + DomUtil.filterXml(link));
-        String desc = DomUtil.filterXml(description);
-        System.out.println("===================================================================================");
-        System.out.println("description: " + description);
-        System.out.println("-----------------------------------------------------------------------------------");
-        System.out.println("desc: " + desc);
-        System.out.println("===================================================================================");
-        item.addElement("description").addText(desc);
+        sink.startElement("item");
+        addElement(sink, "title", DomUtil.filterXml(title));
+        addElement(sink, "link", linkPrefix + DomUtil.filterXml(link));
+        addElement(sink, "description", DomUtil.filterXml(description));
 
         for (Iterator iter = doc.getFields().iterator(); iter.hasNext(); ) {
             Field f = (Field) iter.next();
             if (fieldsToShow.contains(f.name())) {
-                item.addElement(QName.get(f.name(),hounderNs)).addText(DomUtil.filterXml(f.stringValue()));
+                addElement(sink, "hounder:" + f.name(), DomUtil.filterXml(f.stringValue()));
             }
         }
-        return item;
     }
 }
 
@@ -16,8 +16,8 @@ limitations under the License.
 package com.flaptor.hounder.searcher;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.util.Map;
 
 import javax.servlet.ServletException;
@@ -38,10 +38,14 @@ import com.flaptor.hounder.searcher.query.AQuery;
 import com.flaptor.hounder.searcher.query.AndQuery;
 import com.flaptor.hounder.searcher.query.LazyParsedQuery;
 import com.flaptor.hounder.searcher.query.PayloadQuery;
+import com.flaptor.hounder.searcher.query.TimeBudgetQuery;
+import com.flaptor.hounder.searcher.query.FieldsQuery;
 import com.flaptor.hounder.searcher.sort.ASort;
 import com.flaptor.hounder.searcher.sort.FieldSort;
 import com.flaptor.hounder.searcher.sort.ScoreSort;
-import com.flaptor.util.DomUtil;
+import com.flaptor.hounder.util.DomXmlSink;
+import com.flaptor.hounder.util.XmlSink;
+import com.flaptor.util.Config;
 import com.flaptor.util.Execute;
 
 
@@ -54,6 +58,8 @@ public class OpenSearchHandler extends AbstractHandler {
 
     private static final Logger logger = Logger.getLogger(Execute.whoAmI());
     private final ISearcher searcher;
+    private final boolean gzip;
+    private final HttpCaching caching;
 
 
     /**
@@ -61,7 +67,7 @@ public class OpenSearchHandler extends AbstractHandler {
      * Internally constructs a new CompositeSearcher to search.
      */
     public OpenSearchHandler() {
-        searcher = new CompositeSearcher();
+        this(new CompositeSearcher());
     }
     
     /**
@@ -73,6 +79,8 @@ public class OpenSearchHandler extends AbstractHandler {
             throw new RuntimeException("OpenSearchHandler constructor: base searcher cannot be null.");
         }
         searcher = s;
+        gzip = Config.getConfig("searcher.properties").getBoolean("searcher.http.gzip");
+        caching = HttpCaching.forSearcher(s);
     }
 
     /**
@@ -88,6 +96,8 @@ public class OpenSearchHandler extends AbstractHandler {
      * group = < "site" | "signature">
      * orderBy
      * crawl
+     * timeBudget
+     * fields
      *
      */
     @SuppressWarnings("unchecked")
@@ -126,6 +136,24 @@ public class OpenSearchHandler extends AbstractHandler {
      * @throws UnsupportedEncodingException
      */
     public static Document doQuery(HttpServletRequest request, ISearcher searcher, Map<String,String[]> params) throws UnsupportedEncodingException {
+        DomXmlSink sink = new DomXmlSink();
+        try {
+            doQuery(request, searcher, params, sink);
+        } catch (UnsupportedEncodingException e) {
+            throw e;
+        } catch (IOException e) {
+            // Should never happen, nothing is written.
+            throw new IllegalStateException(e);
+        }
+        return sink.getDocument();
+    }
+
+    /**
+     * Similar to {@link #doQuery(HttpServletRequest, ISearcher, Map)} but the
+     * results are sent to a sink instead of being returned as a document.
+     * @param sink where to send the results, e.g. an XmlStreamWriter on the response stream.
+     */
+    public static void doQuery(HttpServletRequest request, ISearcher searcher, Map<String,String[]> params, XmlSink sink) throws IOException {
         request.setCharacterEncoding("utf-8");
         
         // Parameter processing
@@ -138,6 +166,8 @@ public class OpenSearchHandler extends AbstractHandler {
         // hitsPerPage (int) the number of results to be returned
         // orderBy (string)  the order in which to return the results: <field>:(int|long|float)[:reverse]
         // tz (int)	         the timezone for displaying the date
+        // timeBudget (long) the max milliseconds to collect the hits, up to the searcher's default
+        // fields (string)   comma separated list of the stored fields to return, overrides the searcher's default
         
         // Query String
         String queryString = getParameter(params,"query");
@@ -284,9 +314,16 @@ public class OpenSearchHandler extends AbstractHandler {
         	}
         }
 
+        // Time budget (uni-valued), can only shorten the searcher's default
+        long timeBudget = XmlSearchHandler.parseTimeBudget(getParameter(params, "timeBudget"));
+
         // Payload (uni-valued)
         String payloadFieldName = getParameter(params,"payload");
 
+        // Fields to return (comma separated)
+        String fieldsParam = getParameter(params, "fields");
+        String[] fields = XmlSearchHandler.parseFields(fieldsParam);
+
         
         boolean useXslt = false;
         String useXsltStr = getParameter(params, "useXslt");
@@ -323,6 +360,10 @@ public class OpenSearchHandler extends AbstractHandler {
             extraParams.append("&tz=");
             extraParams.append(tzParam);
         }
+        if (fields != null) {
+            extraParams.append("&fields=");
+            extraParams.append(fieldsParam);
+        }
 
         GroupedSearchResults sr = null;
         int status = 0;
@@ -332,6 +373,12 @@ public class OpenSearchHandler extends AbstractHandler {
             if (null != payloadFieldName) {
                 query = new AndQuery(query, new PayloadQuery(payloadFieldName));
             }
+            if (timeBudget > 0) {
+                query = new TimeBudgetQuery(query, timeBudget);
+            }
+            if (null != fields) {
+                query = new FieldsQuery(query, fields);
+            }
             sr = searcher.search(query, start, hitsPerPage, group, groupSize, andFilter, sort);
         } catch (SearcherException e) {
             logger.error("SEARCHING",e);
@@ -345,9 +392,8 @@ public class OpenSearchHandler extends AbstractHandler {
             sr = new GroupedSearchResults();
         }
 
-        Document dom = OpenSearch.buildDom_1_0(baseUrl, "search.jsp", "opensearch.jsp", extraParams.toString(), queryString,
+        OpenSearch.write_1_0(sink, baseUrl, "search.jsp", "opensearch.jsp", extraParams.toString(), queryString,
             start, hitsPerPage, sr, status, statusMessage, useXslt);
-        return dom;
     }
     
 
@@ -362,19 +408,25 @@ public class OpenSearchHandler extends AbstractHandler {
      * group = < "site" | "signature">
      * orderBy
      * crawl
+     * timeBudget
+     * fields
+     * format xml|json
      *
      * this method is a merge of search-base.jsp, opensearch.jsp and http://docs.codehaus.org/display/JETTY/Embedding+Jetty
      */
+    @SuppressWarnings("unchecked")
     public void handle(String target, HttpServletRequest request, HttpServletResponse response, int dispatch) throws IOException, ServletException {
-        Document dom = doQuery(request, searcher);
-        String openSearchResults = DomUtil.domToString(dom);
-        //response.setContentType("text/xml");
-        response.setContentType("text/xml");
-//        response.setContentLength(openSearchResults.getBytes().length); <-- failed and was replaced in version 2721
-//        response.setContentLength(openSearchResults.length()); <-- failed and was commented out in version 4408
-        response.setCharacterEncoding("utf-8");
-        PrintWriter pw = response.getWriter();
-        pw.print(openSearchResults);
-        pw.flush();
+        request.setCharacterEncoding("utf-8");
+        if (null != caching && caching.notModified(request, response)) {
+            return;
+        }
+        ISearcher requestSearcher = (null == caching) ? searcher : caching.forRequest(searcher, request, response);
+        // The results are written to the response as they are generated.
+        Writer writer = ResponseStreams.open(request, response, gzip);
+        try {
+            doQuery(request, requestSearcher, request.getParameterMap(), ResponseStreams.sink(request, writer, OpenSearch.LIST_ELEMENTS));
+        } finally {
+            writer.close();
+        }
     }
 }
@@ -15,25 +15,38 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.Semaphore;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
 
 import com.flaptor.hounder.searcher.filter.AFilter;
 import com.flaptor.hounder.searcher.group.AGroup;
+import com.flaptor.hounder.searcher.group.NoGroup;
 import com.flaptor.hounder.searcher.query.AQuery;
+import com.flaptor.hounder.searcher.query.SearchAfterQuery;
 import com.flaptor.hounder.searcher.sort.ASort;
+import com.flaptor.util.Pair;
 import com.flaptor.util.Statistics;
 
 /**
  * This class keeps track of the queries in progress, and avoids sending the
  * same query more than once.
  * Once a query is running, all queries with the same arguments are not send
- * to the base searcher, but they are internally stored until the result of
- * the first one returns.
+ * to the base searcher, but they wait for the result of the first one.
  *
+ * Ungrouped queries that only differ in the page they ask for are merged too:
+ * a query whose page is not covered by the one in progress starts a search of
+ * the smallest window covering both pages (up to maxWindow results), and every
+ * query waiting on it gets its own page sliced from the shared results.
+ *
+ * The queries in progress are kept in a concurrent map, so starting and
+ * finishing a query takes no lock.
  *
  * @author Martin Massera, Spike.
  */
@@ -43,61 +56,76 @@ public class QueriesInProgressSearcher implements ISearcher {
     private Statistics stats = Statistics.getStatistics();
 
     final private ISearcher baseSearcher;
-    Map<QueryParams, QueryResults> inProgress = new HashMap<QueryParams, QueryResults>();
+    final private int maxWindow;
+    final ConcurrentHashMap<QueryParams, Search> inProgress = new ConcurrentHashMap<QueryParams, Search>();
 
+    /**
+     * Creates a searcher that only merges identical queries.
+     */
     public QueriesInProgressSearcher(ISearcher baseSearcher) {
+        this(baseSearcher, 0);
+    }
+
+    /**
+     * @param maxWindow the max number of results a search started to serve
+     *      many pages of the same query can ask for. 0 merges only identical queries.
+     */
+    public QueriesInProgressSearcher(ISearcher baseSearcher, int maxWindow) {
         if (null == baseSearcher) {
             throw new IllegalArgumentException("baseSearcher cannot be null.");
         }
         this.baseSearcher = baseSearcher;
+        this.maxWindow = maxWindow;
     }
 
     public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup group, int groupSize, AFilter filter, ASort sort)  throws SearcherException{
-        QueryParams params = new QueryParams(query, firstResult, count, group, groupSize, filter, sort);
-        boolean execute;
-        QueryResults results;
-        synchronized (inProgress) {
-            if (!inProgress.containsKey(params)) {
-                inProgress.put(params, new QueryResults());
-                execute = true;
+        // Ungrouped queries are keyed without their page, so that every page shares the same entry.
+        // A page after a cursor is not at a fixed offset, so it can only share an identical search.
+        boolean pageable = maxWindow > 0 && (null == group || group instanceof NoGroup) && !(query instanceof SearchAfterQuery);
+        QueryParams key = pageable ? new QueryParams(query, 0, 0, group, groupSize, filter, sort)
+                                   : new QueryParams(query, firstResult, count, group, groupSize, filter, sort);
+        while (true) {
+            Search running = inProgress.get(key);
+            if (null != running && running.covers(firstResult, count)) {
+                stats.notifyEventValue("mergedQueries", 1);
+                GroupedSearchResults results = running.results();
+                if (firstResult > results.totalResults()) {
+                    // The page is past the end of the results, let the base searcher report it.
+                    return baseSearcher.search(query, firstResult, count, group, groupSize, filter, sort);
+                }
+                return running.slice(results, firstResult, count);
+            }
+            Search search;
+            if (null != running && running.widened(firstResult, count) <= maxWindow) {
+                int first = Math.min(firstResult, running.first);
+                search = new Search(query, first, running.end(firstResult, count) - first, group, groupSize, filter, sort);
             } else {
-                execute = false;
+                search = new Search(query, firstResult, count, group, groupSize, filter, sort);
+            }
+            boolean started = (null == running) ? (null == inProgress.putIfAbsent(key, search)) : inProgress.replace(key, running, search);
+            if (!started) {
+                // Another query got there first, look again.
+                continue;
             }
-            results = inProgress.get(params);
-        }
-
-        GroupedSearchResults retvalue = null;
-        if (execute) {
             stats.notifyEventValue("mergedQueries", 0);
-            SearcherException searcherException = null;
-        	RuntimeException runtimeException = null;
             try {
-                retvalue = baseSearcher.search(query, firstResult, count, group, groupSize, filter, sort);
-            } catch (SearcherException e) {
-                searcherException = e;
-            } catch (RuntimeException e) {
-                runtimeException = e;
+                search.run();
+            } finally {
+                inProgress.remove(key, search);
             }
+            return search.slice(search.results(), firstResult, count);
+        }
+    }
 
-            synchronized (inProgress) {
-                inProgress.remove(params);
-            }
+    /**
+     * Batches are sent as they come: they are already a single search of the base searcher.
+     */
+    public MultiSearchResults multiSearch(List<QueryParams> queries) throws SearcherException {
+        return baseSearcher.multiSearch(queries);
+    }
 
-            results.setResults(retvalue, searcherException, runtimeException);
-            results.valid.release(Integer.MAX_VALUE);
-        } else {
-            stats.notifyEventValue("mergedQueries", 1);
-            try {
-                results.valid.acquire();
-            } catch (InterruptedException e) {
-                logger.error("Interrupted while sleeping", e);
-            }
-        }
-        if (results.getResults() != null) return results.getResults();
-        else {
-            if (results.getSearcherException() != null) throw results.getSearcherException();
-            else throw results.getRuntimeException();
-        }
+    public int countHits(AQuery query, AFilter filter) throws SearcherException {
+        return baseSearcher.countHits(query, filter);
     }
 
     @Override
@@ -109,28 +137,94 @@ public class QueriesInProgressSearcher implements ISearcher {
         public boolean isStopped() {
             return baseSearcher.isStopped();
         }
-    private static class QueryResults {
-        private volatile GroupedSearchResults results = null;
-        private volatile SearcherException searcherException = null;
-        private volatile RuntimeException runtimeException = null;
-        public Semaphore valid = new Semaphore(0);
-
-        public GroupedSearchResults getResults() {
-            return results;
+
+    /**
+     * A search sent to the base searcher, for a window of results. It runs in the
+     * thread of the query that started it, the others wait for its future.
+     */
+    private class Search extends FutureTask<GroupedSearchResults> {
+        private final int first;
+        private final int count;
+
+        Search(final AQuery query, final int first, final int count, final AGroup group, final int groupSize, final AFilter filter, final ASort sort) {
+            super(new Callable<GroupedSearchResults>() {
+                public GroupedSearchResults call() throws SearcherException {
+                    return baseSearcher.search(query, first, count, group, groupSize, filter, sort);
+                }
+            });
+            this.first = first;
+            this.count = count;
+        }
+
+        boolean covers(int firstResult, int count) {
+            return firstResult >= first && firstResult + count <= first + this.count;
+        }
+
+        int end(int firstResult, int count) {
+            return Math.max(firstResult + count, first + this.count);
         }
 
-        public SearcherException getSearcherException() {
-            return searcherException;
+        // The size of the window covering this search and the given page.
+        int widened(int firstResult, int count) {
+            return end(firstResult, count) - Math.min(firstResult, first);
         }
 
-        public RuntimeException getRuntimeException() {
-            return runtimeException;
+        /**
+         * Waits for the results, throwing the exceptions the base searcher threw.
+         */
+        GroupedSearchResults results() throws SearcherException {
+            try {
+                return get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("Interrupted while waiting for a query in progress", e);
+                throw new SearcherException("Interrupted while waiting for a query in progress", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SearcherException) {
+                    throw (SearcherException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new SearcherException(cause);
+            }
         }
 
-        public void setResults(GroupedSearchResults results, SearcherException searcherException, RuntimeException runtimeException) {
-            this.results = results;
-            this.searcherException = searcherException;
-            this.runtimeException = runtimeException;
+        /**
+         * Returns the page of the results of this search asked by a query. Each result of an
+         * ungrouped search is a group of its own, so the page is a range of its groups.
+         */
+        GroupedSearchResults slice(GroupedSearchResults results, int firstResult, int count) {
+            if (firstResult == first && count == this.count) {
+                return results;
+            }
+            int from = Math.min(firstResult - first, results.groups());
+            int to = Math.min(from + count, results.groups());
+            Vector<Pair<String,Vector<Document>>> groups = new Vector<Pair<String,Vector<Document>>>(to - from);
+            Vector<Vector<Float>> scores = new Vector<Vector<Float>>(to - from);
+            Vector<SearchCursor> cursors = new Vector<SearchCursor>(to - from);
+            Vector<int[]> documentIds = new Vector<int[]>(to - from);
+            for (int i = from; i < to; i++) {
+                groups.add(results.getGroup(i));
+                scores.add(results.getGroupScore(i));
+                cursors.add(results.getCursor(i));
+                documentIds.add(results.getDocumentIds(i));
+            }
+            GroupedSearchResults page = new GroupedSearchResults(groups, results.totalResults(), firstResult, firstResult + groups.size(), scores);
+            if (to > from && null != results.getCursor(from)) {
+                page.setCursors(cursors);
+                page.setNextCursor(cursors.lastElement());
+            }
+            if (to > from && null != results.getDocumentIds(from)) {
+                page.setDocumentIds(documentIds);
+            }
+            page.setSuggestedQuery(results.getSuggestedQuery());
+            page.setResponseTime(results.getResponseTime());
+            page.setIndexGeneration(results.getIndexGeneration());
+            page.setPartial(results.isPartial());
+            return page;
         }
     }
 }
@@ -0,0 +1,136 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.Term;
+
+import com.flaptor.hounder.searcher.query.AQuery;
+import com.flaptor.hounder.searcher.query.FetchDocumentsQuery;
+import com.flaptor.util.Execute;
+
+/**
+ * Estimates the cost of a query before running it, and sorts queries into lanes by cost.
+ *
+ * The cost is measured in postings: the sum of the document frequencies of the query terms,
+ * plus DOCUMENT_COST for each stored document the results need (the offset, and every
+ * document of every group returned). Queries whose terms are not known until they are
+ * rewritten (ranges, prefixes) are assumed to match the whole index.
+ *
+ * The document frequencies come from the local index. When searching remote indexes, every
+ * term is assumed to match UNKNOWN_DOC_FREQ documents, and every range all of them.
+ *
+ * @author Flaptor Development Team
+ */
+public class QueryCostEstimator {
+    private static final Logger logger = Logger.getLogger(Execute.whoAmI());
+
+    // Reading a stored document costs about as much as scanning this many postings.
+    static final long DOCUMENT_COST = 100;
+    // The document frequency assumed for the terms when the index is not local.
+    static final long UNKNOWN_DOC_FREQ = 10000;
+
+    private final Searcher searcher;
+    private final long[] laneCosts;
+
+    /**
+     * @param searcher the local searcher to take the document frequencies from, or null if
+     *  the index is not local.
+     * @param laneCosts the max cost of the queries of each lane but the last, in ascending
+     *  order. Queries costing more go to the last lane.
+     */
+    public QueryCostEstimator(Searcher searcher, long[] laneCosts) {
+        for (int i = 1; i < laneCosts.length; i++) {
+            if (laneCosts[i] < laneCosts[i - 1]) {
+                throw new IllegalArgumentException("lane costs must be in ascending order.");
+            }
+        }
+        this.searcher = searcher;
+        this.laneCosts = laneCosts.clone();
+    }
+
+    /**
+     * @return the number of lanes.
+     */
+    public int getLanes() {
+        return laneCosts.length + 1;
+    }
+
+    /**
+     * Returns the lane of a query of the given cost. The cheapest queries go to lane 0.
+     */
+    public int getLane(long cost) {
+        int lane = 0;
+        while (lane < laneCosts.length && cost > laneCosts[lane]) {
+            lane++;
+        }
+        return lane;
+    }
+
+    /**
+     * Estimates the cost of a search, in postings.
+     */
+    public long estimate(AQuery query, int firstResult, int count, int groupSize) {
+        long cost = DOCUMENT_COST * (firstResult + (long) count * Math.max(1, groupSize));
+        if (null == query) {
+            return cost;
+        }
+        if (query instanceof FetchDocumentsQuery) {
+            // the documents are only loaded.
+            return DOCUMENT_COST * ((FetchDocumentsQuery) query).getDocumentIds().length;
+        }
+        Set<Term> terms = new HashSet<Term>();
+        try {
+            query.getLuceneQuery().extractTerms(terms);
+        } catch (UnsupportedOperationException e) {
+            // a multi term query, its terms are only known once rewritten.
+            return cost + numDocs();
+        }
+        for (Term term : terms) {
+            cost += docFreq(term);
+        }
+        return cost;
+    }
+
+    private long docFreq(Term term) {
+        if (null == searcher) {
+            return UNKNOWN_DOC_FREQ;
+        }
+        try {
+            return searcher.docFreq(term);
+        } catch (NoIndexActiveException e) {
+            return 0;
+        } catch (IOException e) {
+            logger.warn("docFreq: could not read the frequency of " + term + ": " + e.getMessage());
+            return UNKNOWN_DOC_FREQ;
+        }
+    }
+
+    private long numDocs() {
+        if (null == searcher) {
+            return Integer.MAX_VALUE;
+        }
+        try {
+            return searcher.numDocs();
+        } catch (NoIndexActiveException e) {
+            return 0;
+        }
+    }
+}
@@ -21,6 +21,8 @@ import java.util.Vector;
 import com.flaptor.hounder.searcher.filter.AFilter;
 import com.flaptor.hounder.searcher.group.AGroup;
 import com.flaptor.hounder.searcher.query.AQuery;
+import com.flaptor.hounder.searcher.query.FetchDocumentsQuery;
+import com.flaptor.hounder.searcher.query.HitKeysQuery;
 import com.flaptor.hounder.searcher.sort.ASort;
 import com.flaptor.util.remote.RpcException;
 
@@ -61,6 +63,43 @@ public class QueryParams implements Serializable {
         return params.hashCode();
     }
     
+    public AQuery getQuery() {
+        return (AQuery)params.get(0);
+    }
+
+    public int getFirstResult() {
+        return (Integer)params.get(1);
+    }
+
+    public int getCount() {
+        return (Integer)params.get(2);
+    }
+
+    public AGroup getGroup() {
+        return (AGroup)params.get(3);
+    }
+
+    public int getGroupSize() {
+        return (Integer)params.get(4);
+    }
+
+    public AFilter getFilter() {
+        return (AFilter)params.get(5);
+    }
+
+    public ASort getSort() {
+        return (ASort)params.get(6);
+    }
+
+    /**
+     * Whether a query is a phase of a distributed search, a {@link HitKeysQuery} or a
+     * {@link FetchDocumentsQuery}. Its results are only valid in the index generation that
+     * found them, and are not shown as they are, so they are not cached nor given suggestions.
+     */
+    public static boolean isSearchPhase(AQuery query) {
+        return (query instanceof HitKeysQuery) || (query instanceof FetchDocumentsQuery);
+    }
+
     /**
      * @return the vector containing all params, useful for storing the query in collections 
      */
@@ -17,26 +17,52 @@ package com.flaptor.hounder.searcher;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.HitCollector;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocCollector;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocCollector;
 
 import com.flaptor.hounder.Index;
+import com.flaptor.hounder.lucene.CountingHitCollector;
 import com.flaptor.hounder.searcher.group.AGroup;
 import com.flaptor.hounder.searcher.group.AResultsGrouper;
+import com.flaptor.hounder.searcher.group.DocumentProvider;
 import com.flaptor.hounder.searcher.group.NoGroup;
 import com.flaptor.hounder.searcher.group.TopDocsDocumentProvider;
 import com.flaptor.hounder.searcher.payload.SimilarityForwarder;
+import com.flaptor.hounder.util.DaemonThreadFactory;
 import com.flaptor.util.Cache;
 import com.flaptor.util.Config;
 import com.flaptor.util.Execute;
@@ -63,6 +89,16 @@ final class ReloadableIndexHandler implements Stoppable {
     // The similarity to use when compairing documents. It is very useful for boosting on searchtime.
     private final org.apache.lucene.search.Similarity similarity;
 
+    // Limits the simultaneous searches over the shared index searcher.
+    private final LeaseLimiter leaseLimiter;
+    // Max time to wait for a lease, in milliseconds. 0 means wait forever.
+    private final long leaseTimeout;
+
+    // The stored fields loaded for the returned documents, or null to load them all.
+    private final Set<String> displayFields;
+    // The fields whose snippets are built from the offsets of their term vectors, if they have them.
+    private final String[] snippetFields;
+
     //State related te the shutdown sequence.
     private RunningState state = RunningState.RUNNING;
 
@@ -71,14 +107,31 @@ final class ReloadableIndexHandler implements Stoppable {
 
     private IndexLibrary library;
     AtomicReference<IndexRepository> currentIndexRepository = new AtomicReference<IndexRepository>(null);
+    private final AtomicLong lastGeneration = new AtomicLong(0);
+
+    // Listeners that warm each new generation before it goes live.
+    private final List<IndexGenerationListener> generationListeners = new CopyOnWriteArrayList<IndexGenerationListener>();
+    private final int warmingThreads = config.getInt("ReloadableIndexSearcher.warmingThreads");
+    private final long warmingTimeout = config.getLong("ReloadableIndexSearcher.warmingTimeout");
+    private ExecutorService warmingPool = null;
+    // The generation the searches of a warming thread are directed to.
+    private final ThreadLocal<IndexRepository> pinnedRepository = new ThreadLocal<IndexRepository>();
+
+    // Runs the searches of the batches, see searchBatch.
+    private final int batchThreads = config.getInt("ReloadableIndexSearcher.batchThreads");
+    private ExecutorService batchPool = null;
+    // The lease shared by the searches of a batch, in the threads that run them.
+    private final ThreadLocal<SearcherLease> batchLease = new ThreadLocal<SearcherLease>();
 
 
-    // Sample one every N queries
-    private int querySamplePeriod = 0;
-    private int queriesInPeriod = 0;
-    private int savedQueryindex = 0;
-    private int numberOfSavedQueries = 0;
-    private SavedQuery[] savedQueries = null;
+    // Samples the searches, to warm new generations with the most frequent ones.
+    private final IndexWarmer warmer;
+
+    // The field the index is sorted by, to stop collecting hits early, or null.
+    private final String staticRankField;
+
+    // The default max time to collect the hits of a search, 0 for no limit.
+    private final long timeBudget = config.getLong("ReloadableIndexSearcher.timeBudget");
 
 
     /**
@@ -98,9 +151,27 @@ final class ReloadableIndexHandler implements Stoppable {
         slackFactor = config.getInt("ReloadableIndexSearcher.lookupLimit");
 
         similarity = new SimilarityForwarder();
-        querySamplePeriod = config.getInt("Searcher.query.sample.period");
-        numberOfSavedQueries = config.getInt("Searcher.query.sample.size");
-        savedQueries = new SavedQuery[numberOfSavedQueries];
+        leaseLimiter = new LeaseLimiter(config.getInt("ReloadableIndexSearcher.minLeases"), config.getInt("ReloadableIndexSearcher.maxLeases"));
+        if (config.getBoolean("compositeSearcher.useTrafficLimiting")) {
+            leaseTimeout = config.getInt("searcher.trafficLimiting.maxTimeInQueue");
+            if (leaseTimeout < 0L) {
+                throw new IllegalArgumentException("timeout is a negative number (" + leaseTimeout + ")");
+            }
+            logger.info("constructor: setting the max time to wait for an available index searcher to " + leaseTimeout);
+        } else {
+            leaseTimeout = 0L;
+            logger.info("constructor: setting the max time to wait for an available index searcher to infinity.");
+        }
+        displayFields = loadDisplayFields();
+        snippetFields = config.getBoolean("compositeSearcher.useSnippetSearcher") ? config.getStringArray("Searcher.snippetOfFields") : new String[0];
+        warmer = new IndexWarmer(this, config.getInt("Searcher.query.sample.period"), config.getInt("Searcher.query.sample.size"), config.getInt("Searcher.query.warmQueries"));
+        generationListeners.add(warmer);
+        String rankField = config.getString("Searcher.staticRankField").trim();
+        staticRankField = (rankField.length() == 0) ? null : rankField;
+        if (null != staticRankField) {
+            warmer.warmField(staticRankField, SortField.FLOAT);
+            logger.info("constructor: searches without sort will stop early on indexes sorted by " + staticRankField);
+        }
 
         //FIXME: This is a potential but unlikely race condition, as we are publishing "this" to another thread
         //	before the object is fully constructed (the constructor hasn't ended yet).
@@ -109,51 +180,72 @@ final class ReloadableIndexHandler implements Stoppable {
 
 
 
-	/**
-	 * Determine if the time has come to save another query
-	 * as a sample for future use for re-heating the searcher.
-	 * @return true if it is time to take another query sample.
-	 */
-	private boolean shouldSaveQuery() {
-		boolean should = false;
-		if (querySamplePeriod > 0) {
-			queriesInPeriod++;
-			if (queriesInPeriod >= querySamplePeriod) {
-				queriesInPeriod = 0;
-				should = true;
-			}
-		}
-		return should;
-	}
-
-	/**
-	 * Save a query for future use in re-heating the searcher after a new index has been loaded.
-	 */
-	private void saveQuery(Query query, Filter filter, Sort sort, int offset, int groupCount, AGroup groupBy, int groupSize) {
-		if (savedQueryindex >= numberOfSavedQueries) savedQueryindex = 0;
-	    savedQueries[savedQueryindex] = new SavedQuery(query, filter, sort, offset, groupCount, groupBy, groupSize);
-	    savedQueryindex++;
-	}
+    /**
+     * Reads the stored fields the returned documents need. The fields snippeted by the
+     * SnippetSearcher are added to the configured ones.
+     * @return the fields, or null if all of them should be loaded.
+     */
+    private static Set<String> loadDisplayFields() {
+        Set<String> fields = new HashSet<String>();
+        for (String field : config.getStringArray("ReloadableIndexSearcher.displayFields")) {
+            if (field.trim().length() > 0) {
+                fields.add(field.trim());
+            }
+        }
+        if (fields.isEmpty()) {
+            return null;
+        }
+        if (config.getBoolean("compositeSearcher.useSnippetSearcher")) {
+            for (String field : config.getStringArray("Searcher.snippetOfFields")) {
+                fields.add(field.trim());
+            }
+        }
+        logger.info("loadDisplayFields: only the stored fields " + fields + " will be returned.");
+        return fields;
+    }
 
-	/**
-	 * This method will be called whenever a new index is read.
-	 * The purpose of this is to make a search to cause the new index to be used for the first
-	 * time and avoid a user the honor of waiting for the searcher to load and prepare its
-	 * internal (lazy) data structures.
-	 */
-	public void executeSavedQueries() {
-        if (null != savedQueries && null != currentIndexRepository.get()) {
-        	int savePeriod = querySamplePeriod;
-        	querySamplePeriod = 0;
-        	for (SavedQuery query : savedQueries) {
-        		if (null != query) {
-			    	query.replay();
-        		}
-        	}
-        	querySamplePeriod = savePeriod;
-		}
-	}
+    /**
+     * Returns the selector of the fields to sort by, as the results of a search are sorted
+     * again when merged with the results of other searchers. The groupers add the fields they
+     * group by.
+     */
+    private FieldSelector getKeysSelector(Sort sort) {
+        Set<String> fields = new HashSet<String>();
+        if (null != sort) {
+            for (SortField field : sort.getSort()) {
+                if (null != field.getField()) {
+                    fields.add(field.getField());
+                }
+            }
+        }
+        return new MapFieldSelector(fields.toArray(new String[fields.size()]));
+    }
 
+    /**
+     * Returns the selector of the fields to load for the returned documents. The fields of
+     * the sort are included, as results are merged by them when coming from many searchers.
+     * @param requestedFields the fields asked for by the search, overriding the configured
+     *  ones, or null (see {@link com.flaptor.hounder.searcher.query.FieldsQuery}).
+     */
+    private FieldSelector getDisplaySelector(Sort sort, Set<String> requestedFields) {
+        Set<String> fields = displayFields;
+        if (null != requestedFields) {
+            fields = new HashSet<String>(requestedFields);
+            fields.addAll(Arrays.asList(snippetFields));
+        }
+        if (null == fields) {
+            return null;
+        }
+        if (null != sort) {
+            fields = new HashSet<String>(fields);
+            for (SortField field : sort.getSort()) {
+                if (null != field.getField()) {
+                    fields.add(field.getField());
+                }
+            }
+        }
+        return new MapFieldSelector(fields.toArray(new String[fields.size()]));
+    }
 
     /**
      * Executes <code>IndexSearch.search(Query query, Filter filter, Sort sort)</code> on current index in a
@@ -172,41 +264,280 @@ final class ReloadableIndexHandler implements Stoppable {
      * See #org.apache.lucene.search.IndexSearcher for details.
      */
 	public Pair<GroupedSearchResults, Query> search(final Query query, final Filter filter, final Sort sort, final int offset, final int groupCount, AGroup groupBy, int groupSize) throws IOException, NoIndexActiveException, SearchTimeoutException, SearcherException {
-		IndexRepository ir = currentIndexRepository.get();
-		if (null == ir) {
-			throw new NoIndexActiveException();
-		}
-		IndexSearcher searcher = ir.getIndexSearcher();
+		return search(query, filter, sort, offset, groupCount, groupBy, groupSize, timeBudget);
+	}
+
+    /**
+     * Same as {@link #search(Query, Filter, Sort, int, int, AGroup, int)}, but the hits are collected
+     * for at most <code>timeBudget</code> milliseconds. If the time runs out, the results are the best
+     * found until then, and are marked as partial.
+     * @param timeBudget the max number of milliseconds to collect hits. 0 means no limit.
+     */
+	public Pair<GroupedSearchResults, Query> search(final Query query, final Filter filter, final Sort sort, final int offset, final int groupCount, AGroup groupBy, int groupSize, long timeBudget) throws IOException, NoIndexActiveException, SearchTimeoutException, SearcherException {
+		return search(query, filter, sort, offset, groupCount, groupBy, groupSize, timeBudget, null, false, null);
+	}
+
+    /**
+     * Same as {@link #search(Query, Filter, Sort, int, int, AGroup, int)}, but for the page after a cursor.
+     * @param after the position of the cursor in the results of this searcher, or null for the
+     *  page at the given offset.
+     * @param keysOnly if true, the documents only have the fields to sort and group them, and the
+     *  results have their lucene ids, see {@link com.flaptor.hounder.searcher.query.HitKeysQuery}.
+     * @param fields the stored fields of the returned documents, or null for the configured ones.
+     */
+	public Pair<GroupedSearchResults, Query> search(final Query query, final Filter filter, final Sort sort, final int offset, final int groupCount, AGroup groupBy, int groupSize, SearchCursor.Position after, boolean keysOnly, Set<String> fields) throws IOException, NoIndexActiveException, SearchTimeoutException, SearcherException {
+		return search(query, filter, sort, offset, groupCount, groupBy, groupSize, timeBudget, after, keysOnly, fields);
+	}
+
+    /**
+     * Same as {@link #search(Query, Filter, Sort, int, int, AGroup, int, long)}, but for the page after a cursor.
+     * Only the hits after the cursor are collected if it points to a document of the current generation
+     * and the results are not grouped. Otherwise the page starts at the offset of the cursor.
+     * @param after the position of the cursor in the results of this searcher, or null for the
+     *  page at the given offset.
+     * @param keysOnly if true, the documents only have the fields to sort and group them, and the
+     *  results have their lucene ids, see {@link com.flaptor.hounder.searcher.query.HitKeysQuery}.
+     * @param fields the stored fields of the returned documents, or null for the configured ones.
+     */
+	public Pair<GroupedSearchResults, Query> search(final Query query, final Filter filter, final Sort sort, int offset, final int groupCount, AGroup groupBy, int groupSize, long timeBudget, SearchCursor.Position after, boolean keysOnly, Set<String> fields) throws IOException, NoIndexActiveException, SearchTimeoutException, SearcherException {
+		SearcherLease lease = leaseSearcher();
+		IndexSearcher searcher = lease.getIndexSearcher();
 		try {
-			if (shouldSaveQuery()) {
-				saveQuery(query, filter, sort, offset, groupCount, groupBy, groupSize);
+			boolean ungrouped = (null == groupBy) || (groupBy instanceof NoGroup);
+			boolean searchAfter = false;
+			// the number of results of this searcher before the page.
+			int pageStart = offset;
+			if (null != after) {
+				searchAfter = ungrouped && SearchCursor.Position.NO_DOC != after.getDoc() && after.getGeneration() == lease.getGeneration();
+				pageStart = after.getOffset();
+				offset = searchAfter ? 0 : after.getOffset();
+				statistics.notifyEventValue("search after cursor", searchAfter ? 1 : 0);
 			}
 
-			TopDocs tdocs;
+			// warming searches are not sampled.
+			if (null == pinnedRepository.get() && !searchAfter) {
+				warmer.sample(query, filter, sort, offset, groupCount, groupBy, groupSize);
+			}
+
+			int numHits = offset + groupSize * groupCount * slackFactor;
+			Query rewrittenQuery = searcher.rewrite(query);
+			TopDocCollector collector = createCollector(lease, rewrittenQuery, sort, numHits);
+			SearchAfterCollector afterCollector = searchAfter ? new SearchAfterCollector(collector, after.getDoc(), after.getScore(), searcher.getIndexReader(), sort) : null;
+			HitCollector hitCollector = searchAfter ? afterCollector : collector;
+			boolean partial = false;
 			long startTime = System.currentTimeMillis();
-			if (null == sort) { //Lucene's documentation is not clear about whether search may take a null sort, so...
-				tdocs= searcher.search(query,filter, offset + groupSize * groupCount * slackFactor);
+			try {
+				searcher.search(query, filter, (timeBudget > 0) ? new TimeBudgetCollector(hitCollector, timeBudget) : hitCollector);
+			} catch (StaticRankCollector.TerminatedException e) {
+				// the top hits are already collected.
+			} catch (TimeBudgetCollector.TimeExceededException e) {
+				partial = true;
+			}
+			TopDocs tdocs;
+			int skipped = searchAfter ? afterCollector.getSkipped() : 0;
+			if (collector instanceof StaticRankCollector) {
+				StaticRankCollector rankCollector = (StaticRankCollector) collector;
+				statistics.notifyEventValue("static rank early termination", rankCollector.isTerminated() ? 1 : 0);
+				tdocs = rankCollector.topDocs(searcher.getIndexReader().maxDoc());
+				skipped = rankCollector.extrapolate(skipped, searcher.getIndexReader().maxDoc());
 			} else {
-				tdocs= searcher.search(query,filter, offset + groupSize * groupCount * slackFactor, sort);
+				tdocs = collector.topDocs();
 			}
+			// the hits before the cursor are hits too.
+			tdocs.totalHits += skipped;
+			statistics.notifyEventValue("search time budget exceeded", partial ? 1 : 0);
 			statistics.notifyEventValue("lucene work time", System.currentTimeMillis() - startTime);
 
 			// Exceptions are thrown to upper layer, but if we got here, assume everything is ok.
-			Query rewrittenQuery = searcher.rewrite(query);
-			GroupedSearchResults results = pageResults(tdocs, searcher, offset, groupCount, groupBy, groupSize);
+			TermVectorOffsets offsets = (snippetFields.length > 0 && !keysOnly) ? new TermVectorOffsets(rewrittenQuery, snippetFields) : null;
+			FieldSelector selector = keysOnly ? getKeysSelector(sort) : getDisplaySelector(sort, fields);
+			GroupedSearchResults results = pageResults(tdocs, searcher, selector, offsets, offset, groupCount, groupBy, groupSize, keysOnly);
 			if (null == results) {
 				throw new RuntimeException("GroupedSearchResults is NULL");
 			}
+			results.setIndexGeneration(lease.getGeneration());
+			results.setPartial(partial);
+			setCursors(results, tdocs, lease.getGeneration(), offset, pageStart, ungrouped, after);
 			return(new Pair<GroupedSearchResults, Query>(results, rewrittenQuery));
 		} catch (IOException e) {
 			statistics.notifyEventError("lucene work time");
 			throw e;
 		} finally {
-			ir.releaseIndexSearcher(searcher);
+			lease.release();
 		}
 
     }
 
+    /**
+     * Sets the cursor after the results, and the cursor after each of them if they are
+     * not grouped. Grouped results only get the offset of the next page, as their documents
+     * are not in the order of the hits.
+     * @param offset the index of the first hit of the page in the TopDocs.
+     * @param pageStart the number of results before the page.
+     * @param after the cursor of the page, or null.
+     */
+    private void setCursors(GroupedSearchResults results, TopDocs tdocs, long generation, int offset, int pageStart, boolean ungrouped, SearchCursor.Position after) {
+        int groups = results.groups();
+        if (ungrouped) {
+            Vector<SearchCursor> cursors = new Vector<SearchCursor>(groups);
+            for (int i = 0; i < groups; i++) {
+                ScoreDoc hit = tdocs.scoreDocs[offset + i];
+                cursors.add(new SearchCursor(new SearchCursor.Position(generation, pageStart + i + 1, hit.score, hit.doc)));
+            }
+            results.setCursors(cursors);
+            if (groups > 0) {
+                results.setNextCursor(cursors.get(groups - 1));
+            } else if (null != after) {
+                results.setNextCursor(new SearchCursor(after));
+            }
+        } else {
+            // the grouped results of the next page start at the first hit not checked.
+            int next = (results.lastDocumentOffset() < 0) ? results.totalResults() : results.lastDocumentOffset();
+            results.setNextCursor(new SearchCursor(new SearchCursor.Position(generation, next, 0, SearchCursor.Position.NO_DOC)));
+        }
+    }
+
+    /**
+     * Returns the number of documents of the current index matching a query. The documents
+     * are only counted: they are not ranked nor loaded. If counting takes longer than the
+     * time budget, the documents counted until then are returned.
+     * @throws NoIndexActiveException if there is no index active.
+     */
+    public int countHits(final Query query, final Filter filter) throws IOException, NoIndexActiveException, SearchTimeoutException, SearcherException {
+        SearcherLease lease = leaseSearcher();
+        try {
+            CountingHitCollector collector = new CountingHitCollector();
+            long startTime = System.currentTimeMillis();
+            try {
+                lease.getIndexSearcher().search(query, filter, (timeBudget > 0) ? new TimeBudgetCollector(collector, timeBudget) : collector);
+            } catch (TimeBudgetCollector.TimeExceededException e) {
+                statistics.notifyEventValue("count time budget exceeded", 1);
+            }
+            statistics.notifyEventValue("lucene count time", System.currentTimeMillis() - startTime);
+            return collector.getDocCount();
+        } finally {
+            lease.release();
+        }
+    }
+
+    /**
+     * Runs a batch of searches in parallel, under a single lease: the batch waits for a lease
+     * only once, and all its searches see the same generation of the index. The tasks must
+     * search through the methods of this handler.
+     * @return the futures of the tasks, in the same order, all of them done.
+     * @throws NoIndexActiveException if there is no index active.
+     */
+    public <T> List<Future<T>> searchBatch(List<Callable<T>> searches) throws NoIndexActiveException, SearchTimeoutException, SearcherException {
+        final SearcherLease lease = leaseSearcher();
+        try {
+            synchronized (this) {
+                if (null == batchPool) {
+                    batchPool = Executors.newFixedThreadPool(batchThreads, new DaemonThreadFactory("SearchBatch"));
+                }
+            }
+            List<Future<T>> futures = new ArrayList<Future<T>>(searches.size());
+            for (final Callable<T> search : searches) {
+                futures.add(batchPool.submit(new Callable<T>() {
+                    public T call() throws Exception {
+                        long startCpu = leaseLimiter.currentThreadCpuTime();
+                        batchLease.set(lease);
+                        try {
+                            return search.call();
+                        } finally {
+                            batchLease.remove();
+                            lease.addCpu((startCpu < 0) ? -1 : leaseLimiter.currentThreadCpuTime() - startCpu);
+                        }
+                    }
+                }));
+            }
+            // The lease can not be released while any of the searches may still be using it,
+            // so an interruption is only passed on after all of them are done.
+            boolean interrupted = false;
+            for (Future<T> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (ExecutionException e) {
+                        // the caller gets it from the future.
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            statistics.notifyEventValue("search batch size", searches.size());
+            return futures;
+        } finally {
+            lease.release();
+        }
+    }
+
+    /**
+     * Returns the collector for the top hits of a search. Searches without a sort on an index
+     * sorted by static rank stop once the rest of the documents can not make it to the top hits,
+     * if the score of the query can be bounded.
+     * @param query the rewritten query.
+     */
+    private TopDocCollector createCollector(SearcherLease lease, Query query, Sort sort, int numHits) throws IOException {
+        IndexSearcher searcher = lease.getIndexSearcher();
+        if (null != sort) {
+            return new TopFieldDocCollector(searcher.getIndexReader(), sort, numHits);
+        }
+        if (lease.isSortedByStaticRank()) {
+            float[] ranks = FieldCache.DEFAULT.getFloats(searcher.getIndexReader(), staticRankField);
+            float maxRatio = StaticRankBound.get(searcher, query, ranks);
+            statistics.notifyEventValue("static rank bound", (maxRatio >= 0 && !Float.isInfinite(maxRatio)) ? 1 : 0);
+            if (maxRatio >= 0 && !Float.isInfinite(maxRatio)) {
+                return new StaticRankCollector(numHits, ranks, maxRatio);
+            }
+        }
+        return new TopDocCollector(numHits);
+    }
+
+    /**
+     * Takes a reference to the current index generation, retrying if it gets retired
+     * in the middle.
+     * @throws NoIndexActiveException if there is no index active.
+     */
+    private IndexRepository acquireRepository() throws NoIndexActiveException {
+        IndexRepository pinned = pinnedRepository.get();
+        if (null != pinned && pinned.incRef()) {
+            return pinned;
+        }
+        while (true) {
+            IndexRepository ir = currentIndexRepository.get();
+            if (null == ir) {
+                throw new NoIndexActiveException();
+            }
+            if (ir.incRef()) {
+                return ir;
+            }
+            // ir was swapped out and closed after we read it, a newer one is already current.
+        }
+    }
+
+    /**
+     * Waits for a lease and takes a reference to the current index generation.
+     * The returned lease must be released after use.
+     */
+    private SearcherLease leaseSearcher() throws NoIndexActiveException, SearchTimeoutException, SearcherException {
+        SearcherLease shared = batchLease.get();
+        if (null != shared) {
+            return shared.share();
+        }
+        leaseLimiter.acquire(leaseTimeout);
+        try {
+            return new SearcherLease(acquireRepository());
+        } catch (NoIndexActiveException e) {
+            leaseLimiter.release(0, -1);
+            throw e;
+        }
+    }
+
 
     /**
 	  Fetches the actual documents for the requested interval.
@@ -240,18 +571,101 @@ final class ReloadableIndexHandler implements Stoppable {
 
 
 
-    private GroupedSearchResults pageResults (final TopDocs tdocs, final org.apache.lucene.search.Searcher searcher, final int offset, int groupCount, AGroup groupBy, int groupSize) {
+    /**
+     * @param keysOnly if true, the lucene ids of the documents are set in the results.
+     */
+    private GroupedSearchResults pageResults (final TopDocs tdocs, final IndexSearcher searcher, final FieldSelector displaySelector, final TermVectorOffsets offsets, final int offset, int groupCount, AGroup groupBy, int groupSize, boolean keysOnly) {
 
         checkQueryParameters(tdocs, offset, groupCount);
 
+        // the lucene id of each document returned by the provider.
+        final Map<Document, Integer> ids = keysOnly ? new IdentityHashMap<Document, Integer>() : null;
+        DocumentProvider provider;
+        if (null == offsets && null == ids) {
+            provider = new TopDocsDocumentProvider(tdocs,searcher,displaySelector);
+        } else {
+            // the returned documents carry the offsets of the query terms, for the SnippetSearcher.
+            provider = new TopDocsDocumentProvider(tdocs,searcher,displaySelector) {
+                public Document getDocument(int i) throws IOException {
+                    Document doc = super.getDocument(i);
+                    if (null != offsets) {
+                        offsets.addOffsets(searcher.getIndexReader(), getDocId(i), doc);
+                    }
+                    if (null != ids) {
+                        ids.put(doc, getDocId(i));
+                    }
+                    return doc;
+                }
+            };
+        }
 
         AResultsGrouper grouper;
         if (null == groupBy ) {
-            grouper = (new NoGroup()).getGrouper(new TopDocsDocumentProvider(tdocs,searcher));
+            grouper = (new NoGroup()).getGrouper(provider);
         } else {
-            grouper = groupBy.getGrouper(new TopDocsDocumentProvider(tdocs,searcher));
+            grouper = groupBy.getGrouper(provider);
+        }
+        GroupedSearchResults results = grouper.group(groupCount,groupSize,offset);
+        if (null != ids) {
+            Vector<int[]> documentIds = new Vector<int[]>(results.groups());
+            for (int i = 0; i < results.groups(); i++) {
+                Vector<Document> docs = results.getGroup(i).last();
+                int[] groupIds = new int[docs.size()];
+                for (int j = 0; j < groupIds.length; j++) {
+                    groupIds[j] = ids.get(docs.get(j));
+                }
+                documentIds.add(groupIds);
+            }
+            results.setDocumentIds(documentIds);
+        }
+        return results;
+    }
+
+    /**
+     * Loads some documents of the current index, as they are displayed, with the offsets
+     * of the terms of a query for their snippets.
+     * @param query the query to make the snippets for.
+     * @param generation the index generation the ids belong to.
+     * @param documentIds the lucene ids of the documents.
+     * @param fields the stored fields of the documents, or null for the configured ones.
+     * @return results with a group for each document, in the order of the ids.
+     * @throws SearcherException if the generation is no longer the current one.
+     */
+    public GroupedSearchResults fetchDocuments(Query query, long generation, int[] documentIds, Set<String> fields) throws IOException, NoIndexActiveException, SearcherException {
+        SearcherLease lease = leaseSearcher();
+        try {
+            if (lease.getGeneration() != generation) {
+                statistics.notifyEventValue("fetch documents of old generation", 1);
+                throw new SearcherException("the index generation " + generation + " is no longer active, it was replaced by " + lease.getGeneration());
+            }
+            statistics.notifyEventValue("fetch documents of old generation", 0);
+            IndexSearcher searcher = lease.getIndexSearcher();
+            IndexReader reader = searcher.getIndexReader();
+            TermVectorOffsets offsets = (snippetFields.length > 0) ? new TermVectorOffsets(searcher.rewrite(query), snippetFields) : null;
+            FieldSelector selector = getDisplaySelector(null, fields);
+            Vector<Pair<String,Vector<Document>>> groups = new Vector<Pair<String,Vector<Document>>>(documentIds.length);
+            Vector<Vector<Float>> scores = new Vector<Vector<Float>>(documentIds.length);
+            for (int id : documentIds) {
+                if (id < 0 || id >= reader.maxDoc()) {
+                    throw new SearcherException("there is no document " + id + " in the index generation " + generation);
+                }
+                Document doc = (null == selector) ? searcher.doc(id) : searcher.doc(id, selector);
+                if (null != offsets) {
+                    offsets.addOffsets(reader, id, doc);
+                }
+                Vector<Document> group = new Vector<Document>(1);
+                group.add(doc);
+                groups.add(new Pair<String,Vector<Document>>("", group));
+                Vector<Float> score = new Vector<Float>(1);
+                score.add(0f);
+                scores.add(score);
+            }
+            GroupedSearchResults results = new GroupedSearchResults(groups, documentIds.length, 0, documentIds.length, scores);
+            results.setIndexGeneration(generation);
+            return results;
+        } finally {
+            lease.release();
         }
-        return grouper.group(groupCount,groupSize,offset);
     }
 
 
@@ -265,15 +679,93 @@ final class ReloadableIndexHandler implements Stoppable {
      * @throws NoIndexActiveException if there is no index active.
      */
     public int getNumDocs() throws NoIndexActiveException, SearchTimeoutException, SearcherException {
-		IndexRepository ir = currentIndexRepository.get();
-		if (null == ir) {
-			throw new NoIndexActiveException();
-		}
-		IndexSearcher searcher = ir.getIndexSearcher();
+		IndexRepository ir = acquireRepository();
         try {
-            return searcher.getIndexReader().numDocs();
+            return ir.getIndexSearcher().getIndexReader().numDocs();
         } finally {
-        	ir.releaseIndexSearcher(searcher);
+        	ir.decRef();
+        }
+    }
+
+    /**
+     * Loads the FieldCache of a field of the current index, as a sort on the field would.
+     * @param field the field to load.
+     * @param type the type of the field, as defined in SortField.
+     * @throws NoIndexActiveException if there is no index active.
+     */
+    void loadFieldCache(String field, int type) throws IOException, NoIndexActiveException {
+        IndexRepository ir = acquireRepository();
+        try {
+            IndexReader reader = ir.getIndexSearcher().getIndexReader();
+            switch (type) {
+                case SortField.INT:
+                    FieldCache.DEFAULT.getInts(reader, field);
+                    break;
+                case SortField.FLOAT:
+                    FieldCache.DEFAULT.getFloats(reader, field);
+                    break;
+                case SortField.STRING:
+                    FieldCache.DEFAULT.getStringIndex(reader, field);
+                    break;
+                default:
+                    // other types are not cached in a way we can load in advance.
+                    break;
+            }
+        } finally {
+            ir.decRef();
+        }
+    }
+
+    /**
+     * Returns the number of documents of the current index containing a term.
+     * @throws NoIndexActiveException if there is no index active.
+     */
+    int docFreq(Term term) throws IOException, NoIndexActiveException {
+        IndexRepository ir = acquireRepository();
+        try {
+            return ir.getIndexSearcher().getIndexReader().docFreq(term);
+        } finally {
+            ir.decRef();
+        }
+    }
+
+    /**
+     * Returns the number of documents of the current index.
+     * @throws NoIndexActiveException if there is no index active.
+     */
+    int numDocs() throws NoIndexActiveException {
+        IndexRepository ir = acquireRepository();
+        try {
+            return ir.getIndexSearcher().getIndexReader().numDocs();
+        } finally {
+            ir.decRef();
+        }
+    }
+
+    /**
+     * Returns the generation of the current index. Generations are numbered from 1 in the
+     * order they are loaded.
+     * @throws NoIndexActiveException if there is no index active.
+     */
+    public long getCurrentGeneration() throws NoIndexActiveException {
+        IndexRepository ir = currentIndexRepository.get();
+        if (null == ir) {
+            throw new NoIndexActiveException();
+        }
+        return ir.generation;
+    }
+
+    /**
+     * Adds a listener to be notified of new index generations, and to warm them
+     * before they go live.
+     */
+    public void addGenerationListener(IndexGenerationListener listener) {
+        synchronized (currentIndexRepository) {
+            generationListeners.add(listener);
+            IndexRepository ir = currentIndexRepository.get();
+            if (null != ir) {
+                listener.generationChanged(ir.generation);
+            }
         }
     }
 
@@ -301,6 +793,8 @@ final class ReloadableIndexHandler implements Stoppable {
      * Sets the new index searcher.
      * There should be only one thread doing this, synchronize changes just in
      * case.
+     * The previous index is retired: its reader is closed as soon as the searches
+     * still running on it finish.
      * @return the index reference for log records.
      * @throws IOException
      *             if there are too many indexes open and there is no room for
@@ -311,13 +805,15 @@ final class ReloadableIndexHandler implements Stoppable {
     	//currentIndexRepository as a semaphore. Note that the advantage of AtomicReference is not
     	//lost since currentIndexRepository users (search and getNumDocs) don't sync against it.
     	synchronized (currentIndexRepository) {
-	    	IndexRepository newRepository = new IndexRepository(newIndex);
+	    	IndexRepository newRepository = new IndexRepository(newIndex, lastGeneration.incrementAndGet());
+	    	warmGeneration(newRepository);
             IndexRepository oldIndexRepository = currentIndexRepository.get();
 	    	currentIndexRepository.set(newRepository);
 	        //invalidate the cache, if any
 	        clearCaches();
-	        //extensive index warming, if enabled.
-	 		executeSavedQueries();
+	        for (IndexGenerationListener listener : generationListeners) {
+	            listener.generationChanged(newRepository.generation);
+	        }
             if (null != oldIndexRepository) {
                 oldIndexRepository.close();
             }
@@ -325,6 +821,55 @@ final class ReloadableIndexHandler implements Stoppable {
     }
 
 
+    /**
+     * Runs the warming tasks of the generation listeners against a generation that is not
+     * live yet, in parallel, for at most <code>warmingTimeout</code> milliseconds.
+     */
+    private void warmGeneration(final IndexRepository repository) {
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (IndexGenerationListener listener : generationListeners) {
+            tasks.addAll(listener.getWarmingTasks(repository.generation));
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+        if (null == warmingPool) {
+            warmingPool = Executors.newFixedThreadPool(warmingThreads, new DaemonThreadFactory("IndexWarmer"));
+        }
+        long start = System.currentTimeMillis();
+        long deadline = start + warmingTimeout;
+        List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+        for (final Runnable task : tasks) {
+            futures.add(warmingPool.submit(new Runnable() {
+                public void run() {
+                    pinnedRepository.set(repository);
+                    try {
+                        task.run();
+                    } finally {
+                        pinnedRepository.remove();
+                    }
+                }
+            }));
+        }
+        int done = 0;
+        for (Future<?> future : futures) {
+            try {
+                future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                done++;
+            } catch (TimeoutException e) {
+                future.cancel(false);
+            } catch (ExecutionException e) {
+                logger.debug("warmGeneration: a warming task failed.", e.getCause());
+            } catch (InterruptedException e) {
+                logger.warn("warmGeneration: interrupted while warming generation " + repository.generation);
+                future.cancel(false);
+            }
+        }
+        long time = System.currentTimeMillis() - start;
+        statistics.notifyEventValue("index warming time", time);
+        logger.info("warmGeneration: " + done + " of " + tasks.size() + " warming tasks finished in " + time + " ms for generation " + repository.generation);
+    }
+
     /**
      * Clear the caches.
      * Invalidates all the caches, after printing statistics about their hitrate.
@@ -407,36 +952,32 @@ final class ReloadableIndexHandler implements Stoppable {
         }
     }
 
+    /**
+     * A generation of the index. All the searches over it share a single IndexReader and
+     * IndexSearcher, which are reference counted: the handler holds one reference while the
+     * generation is the current one, and every search holds another while it runs. The reader
+     * is closed, and the index discarded, when the last reference is released.
+     */
     private class IndexRepository {
-    	private static final int POOL_SIZE = 3;
         private final Index index;
-    	BlockingQueue<IndexSearcher> searcherPool;
-        private final long timeout;
-
-    	public IndexRepository(final Index index) throws SearcherException {
+        private final long generation;
+        private final IndexSearcher searcher;
+        // Whether the index was sorted by the static rank field, and not modified since.
+        private final boolean sortedByStaticRank;
+        // Starts at 1, the reference held by the handler while this is the current index.
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+    	public IndexRepository(final Index index, final long generation) throws SearcherException {
             this.index = index;
-    	    Config conf = Config.getConfig("searcher.properties");
-    	    if (conf.getBoolean("compositeSearcher.useTrafficLimiting")) {
-    		    timeout = conf.getInt("searcher.trafficLimiting.maxTimeInQueue");
-    		    if (timeout < 0L) {
-    		        throw new IllegalArgumentException("timeout is a negative number (" + timeout + ")");
-    		    }
-    		    logger.info("IndexRepository constructor: setting the max time to wait for an available index searcher to " + timeout);
-    		} else {
-    		    timeout = 0L;
-    		    logger.info(" IndexRepository constructor: setting the max time to wait for an available index searcher to infinity.");
-    		}
-    	    preheatIndex(index);
-    		searcherPool = new ArrayBlockingQueue<IndexSearcher>(POOL_SIZE, true);
-    		for (int i = 0; i < POOL_SIZE; i++) {
-    			IndexSearcher is = new IndexSearcher(index.getReader());
-    			is.setSimilarity(similarity);
-    			searcherPool.add(is);
-    		}
+            this.generation = generation;
+            IndexReader reader = index.getReader();
+    	    preheatIndex(reader);
+    	    searcher = new IndexSearcher(reader);
+    	    searcher.setSimilarity(similarity);
+    	    sortedByStaticRank = (null != staticRankField) && index.isSortedByStaticRank(staticRankField, reader);
     	}
 
-    	private void preheatIndex(final Index index) throws SearcherException {
-	    	IndexReader reader = index.getReader();
+    	private void preheatIndex(final IndexReader reader) throws SearcherException {
 	    	try {
 	    		reader.terms(); // for heating the index.
 	    	} catch (IOException e) {
@@ -444,88 +985,110 @@ final class ReloadableIndexHandler implements Stoppable {
 	    	}
     	}
 
-    	IndexSearcher getIndexSearcher() throws SearcherException {
-            IndexSearcher retVal;
-            if (logger.isDebugEnabled()) {
-                logger.debug("getIndexSearcher: remaining capacity is " + searcherPool.remainingCapacity() + " , with a max size of " + POOL_SIZE);
-            }
-            try {
-    		    if (timeout == 0L) {
-    		        retVal = searcherPool.take();
-    		    } else {
-    		        retVal = searcherPool.poll(timeout, TimeUnit.MILLISECONDS);
-    		    }
-    		    if (null == retVal) {
-    	            if (logger.isDebugEnabled()) {
-    	                logger.debug("getIndexSearcher: (retVal is null) remaining capacity is " + searcherPool.remainingCapacity() + " , with a max size of " + POOL_SIZE);
-    	            }
-    		        throw new SearchTimeoutException(timeout ,"timeout exceeded while waiting for an indexSearcher");
-    		    }
-    		} catch (InterruptedException e) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("getIndexSearcher: (interrupted while waiting) remaining capacity is " + searcherPool.remainingCapacity() + " , with a max size of " + POOL_SIZE);
-                }
-    			throw new SearcherException(e);
-    		}
-    		return retVal;
+    	IndexSearcher getIndexSearcher() {
+    	    return searcher;
     	}
 
-    	void releaseIndexSearcher(IndexSearcher s) {
-            if (logger.isDebugEnabled()) {
-                logger.debug("releaseIndexSearcher: remaining capacity is " + searcherPool.remainingCapacity() + " , with a max size of " + POOL_SIZE);
-            }
-    		if (!searcherPool.offer(s)) {
-                logger.debug("release: remaining capacity is " + searcherPool.remainingCapacity() + " , with a max size of " + POOL_SIZE);
-                logger.fatal("releaseIndexSearcher: could not return an indexSearcher to the queue");
-                System.exit(-1);
-    		}
+    	/**
+    	 * Takes a reference to this generation.
+    	 * @return false if the generation has already been retired and closed.
+    	 */
+    	boolean incRef() {
+    	    while (true) {
+    	        int count = refCount.get();
+    	        if (count <= 0) {
+    	            return false;
+    	        }
+    	        if (refCount.compareAndSet(count, count + 1)) {
+    	            return true;
+    	        }
+    	    }
+    	}
+
+    	void decRef() {
+    	    int count = refCount.decrementAndGet();
+    	    if (0 == count) {
+    	        doClose();
+    	    } else if (count < 0) {
+    	        logger.error("decRef: reference count of index " + index + " dropped below zero.");
+    	    }
     	}
 
+    	/**
+    	 * Releases the reference held by the handler. The reader is closed as soon as the
+    	 * searches still running on it finish.
+    	 */
     	public void close() {
-    		for (int i = 0; i < POOL_SIZE; i++) {
-    		    boolean done= false;
-    		    while (!done){
-    		        try {
-    		            IndexReader cir = searcherPool.take().getIndexReader();
-    		            cir.close();
-    		            done=true;
-    		        } catch (IOException e) {
-    		            logger.error("Exception while closing an indexReader.", e);
-    		            done=true;
-    		        } catch (InterruptedException e) {
-    		            done=false;
-    		            logger.error("InterruptedException while closing an indexReader.", e);
-    		        }
-    		    }
-    		}
+    	    decRef();
+    	}
+
+    	private void doClose() {
+    	    try {
+    	        searcher.getIndexReader().close();
+    	    } catch (IOException e) {
+    	        logger.error("Exception while closing an indexReader.", e);
+    	    }
             library.discardIndex(index);
     	}
     }
 
-    private class SavedQuery {
-    	Query query;
-    	Filter filter;
-    	Sort sort;
-    	int offset;
-    	int groupCount;
-    	AGroup groupBy;
-    	int groupSize;
-    	public SavedQuery(Query query, Filter filter, Sort sort, int offset, int groupCount, AGroup groupBy, int groupSize) {
-    		this.query = query;
-    		this.filter = filter;
-    		this.sort = sort;
-    		this.offset = offset;
-    		this.groupCount = groupCount;
-    		this.groupBy = groupBy;
-    		this.groupSize = groupSize;
-    	}
-    	public void replay() {
-    		try {
-				search(query, filter, sort, offset, groupCount, groupBy, groupSize);
-			} catch (Exception e) {
-				// ignore.
-			}
-    	}
+    /**
+     * A lease on the current index searcher. Holds a reference to the index generation and
+     * one of the limited leases, both returned by {@link #release()}.
+     * The searches of a batch share the lease of the batch, and releasing their shares does nothing.
+     */
+    private class SearcherLease {
+        private final IndexRepository repository;
+        private final boolean owner;
+        private final long startTime;
+        private final long startCpu;
+        // The cpu time used by the threads that share the lease.
+        private final AtomicLong sharedCpu = new AtomicLong(0);
+
+        SearcherLease(IndexRepository repository) {
+            this(repository, true);
+        }
+
+        private SearcherLease(IndexRepository repository, boolean owner) {
+            this.repository = repository;
+            this.owner = owner;
+            this.startTime = System.nanoTime();
+            this.startCpu = owner ? leaseLimiter.currentThreadCpuTime() : -1;
+        }
+
+        SearcherLease share() {
+            return new SearcherLease(repository, false);
+        }
+
+        /**
+         * Adds the cpu time used by a thread that shares the lease, or -1 if it is not available.
+         */
+        void addCpu(long cpu) {
+            if (cpu >= 0) {
+                sharedCpu.addAndGet(cpu);
+            }
+        }
+
+        IndexSearcher getIndexSearcher() {
+            return repository.getIndexSearcher();
+        }
+
+        long getGeneration() {
+            return repository.generation;
+        }
+
+        boolean isSortedByStaticRank() {
+            return repository.sortedByStaticRank;
+        }
+
+        void release() {
+            if (!owner) {
+                return;
+            }
+            long cpu = (startCpu < 0) ? -1 : leaseLimiter.currentThreadCpuTime() - startCpu + sharedCpu.get();
+            repository.decRef();
+            leaseLimiter.release(System.nanoTime() - startTime, cpu);
+        }
     }
 
 }
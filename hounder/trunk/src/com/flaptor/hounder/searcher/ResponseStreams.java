@@ -0,0 +1,110 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.flaptor.hounder.util.JsonStreamWriter;
+import com.flaptor.hounder.util.XmlSink;
+import com.flaptor.hounder.util.XmlStreamWriter;
+
+/**
+ * Opens the response stream of the http search handlers, so they can write their
+ * results to it as they go instead of building them in memory first.
+ *
+ * The results are written as XML, or as compact JSON if the request has the parameter
+ * format=json, and they are compressed with gzip if the client accepts it.
+ *
+ * @author Flaptor Development Team
+ */
+final class ResponseStreams {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private ResponseStreams() {}
+
+    /**
+     * @return true if the request asks for the results in JSON.
+     */
+    static boolean wantsJson(HttpServletRequest request) {
+        return "json".equalsIgnoreCase(request.getParameter("format"));
+    }
+
+    /**
+     * @return true if the Accept-Encoding header of the request accepts gzip.
+     */
+    static boolean acceptsGzip(HttpServletRequest request) {
+        String header = request.getHeader("Accept-Encoding");
+        if (null == header) {
+            return false;
+        }
+        for (String coding : header.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if ("gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name) || "*".equals(name)) {
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            return Float.parseFloat(param.substring(2)) > 0;
+                        } catch (NumberFormatException e) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the content type and encoding of the response, and opens its stream.
+     * The writer must be closed once the results are written, to finish the compression.
+     * @param gzip whether to compress the response if the client accepts it.
+     * @return a buffered writer that encodes in UTF-8.
+     */
+    static Writer open(HttpServletRequest request, HttpServletResponse response, boolean gzip) throws IOException {
+        response.setCharacterEncoding("utf-8");
+        response.setContentType(wantsJson(request) ? "application/json" : "text/xml");
+        OutputStream out = response.getOutputStream();
+        if (gzip) {
+            response.addHeader("Vary", "Accept-Encoding");
+            if (acceptsGzip(request)) {
+                response.setHeader("Content-Encoding", "gzip");
+                out = new GZIPOutputStream(out, BUFFER_SIZE);
+            }
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+    }
+
+    /**
+     * @param listElements the elements that repeat in the document, written as arrays in JSON.
+     * @return a sink that writes the document to the writer in the format asked by the request.
+     */
+    static XmlSink sink(HttpServletRequest request, Writer writer, Set<String> listElements) {
+        return wantsJson(request) ? new JsonStreamWriter(writer, listElements) : new XmlStreamWriter(writer);
+    }
+}
@@ -17,6 +17,7 @@ package com.flaptor.hounder.searcher;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
@@ -103,6 +104,55 @@ public class RmiSearcherStub extends ARmiClientStub implements IRemoteSearcher {
         }
     }
 
+    public int countHits(AQuery query, AFilter filter) throws RpcException {
+        int requests = requestsInProgress.incrementAndGet();
+        try {
+            if ( requests > maxSimultaneousRequests) {
+                throw new RpcException("There are too many requests in progress( current: " + requests + ", max: " + maxSimultaneousRequests
+                        + "). Server call skipped.");
+            }
+            try {
+                if (super.checkConnection()) {
+                    int hits = remoteSearcher.countHits(query, filter);
+                    super.connectionSuccess();
+                    return hits;
+                } else {
+                    throw new RpcException("The recconection policy requested not to contact the server. Server call skipped.");
+                }
+            } catch (RemoteException e) {
+                logger.error("countHits: exception caught.", e);
+                super.connectionFailure();
+                throw new RpcException(e);
+            }
+        } finally {
+            requestsInProgress.decrementAndGet();
+        }
+    }
+
+    public MultiSearchResults multiSearch(List<QueryParams> queries) throws RpcException {
+        int requests = requestsInProgress.incrementAndGet();
+        try {
+            if ( requests > maxSimultaneousRequests) {
+                throw new RpcException("There are too many requests in progress( current: " + requests + ", max: " + maxSimultaneousRequests
+                        + "). Server call skipped.");
+            }
+            try {
+                if (super.checkConnection()) {
+                    MultiSearchResults res = remoteSearcher.multiSearch(queries);
+                    super.connectionSuccess();
+                    return res;
+                } else {
+                    throw new RpcException("The recconection policy requested not to contact the server. Server call skipped.");
+                }
+            } catch (RemoteException e) {
+                logger.error("multiSearch: exception caught.", e);
+                super.connectionFailure();
+                throw new RpcException(e);
+            }
+        } finally {
+            requestsInProgress.decrementAndGet();
+        }
+    }
 
     //@Override
     protected void setRemote(Remote remote) {
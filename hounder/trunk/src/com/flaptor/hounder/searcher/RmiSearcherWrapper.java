@@ -16,6 +16,7 @@ limitations under the License.
 package com.flaptor.hounder.searcher;
 
 import java.rmi.RemoteException;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
@@ -45,4 +46,22 @@ public class RmiSearcherWrapper implements IRmiSearcher {
 			throw new RemoteException("Exception on remote searcher", e);
 		}
 	}
+
+	public int countHits(AQuery query, AFilter filter) throws RemoteException {
+		try {
+			return searcher.countHits(query, filter);
+		} catch (Exception e) {
+            logger.error("countHits: exception caught. I will re-throw it as a RemoteException. Original exception is: ", e);
+			throw new RemoteException("Exception on remote searcher", e);
+		}
+	}
+
+	public MultiSearchResults multiSearch(List<QueryParams> queries) throws RemoteException {
+		try {
+			return searcher.multiSearch(queries);
+		} catch (Exception e) {
+            logger.error("multiSearch: exception caught. I will re-throw it as a RemoteException. Original exception is: ", e);
+			throw new RemoteException("Exception on remote searcher", e);
+		}
+	}
 }
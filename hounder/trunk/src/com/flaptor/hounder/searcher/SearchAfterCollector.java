@@ -0,0 +1,90 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldSortedHitQueue;
+import org.apache.lucene.search.HitCollector;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+
+/**
+ * Forwards to another collector only the hits that rank after a given hit, so that
+ * collecting the page after it costs as much as collecting the first page.
+ * The hits are ranked as by a TopDocCollector (by descending score) or, if there is
+ * a sort, as by a TopFieldDocCollector; ties are broken by ascending document id.
+ * The hits skipped are counted, to report the total number of hits.
+ *
+ * @author Flaptor Development Team
+ */
+final class SearchAfterCollector extends HitCollector {
+
+    private final HitCollector collector;
+    private final ScoreDoc after;
+    private final CursorQueue queue;
+    private final ScoreDoc hit = new ScoreDoc(0, 0);
+    private int skipped = 0;
+
+    /**
+     * @param collector the collector to forward the hits after the given one to.
+     * @param afterDoc the lucene document id of the hit after which to collect.
+     * @param afterScore the score of that hit.
+     * @param reader the reader searched, for the values of the sort fields.
+     * @param sort the sort of the search, or null to rank by score.
+     */
+    SearchAfterCollector(HitCollector collector, int afterDoc, float afterScore, IndexReader reader, Sort sort) throws IOException {
+        this.collector = collector;
+        this.after = new ScoreDoc(afterDoc, afterScore);
+        this.queue = (null == sort) ? null : new CursorQueue(reader, sort);
+    }
+
+    @Override
+    public void collect(int doc, float score) {
+        boolean isAfter;
+        if (null == queue) {
+            isAfter = score < after.score || (score == after.score && doc > after.doc);
+        } else {
+            hit.doc = doc;
+            hit.score = score;
+            isAfter = queue.ranksAfter(hit, after);
+        }
+        if (isAfter) {
+            collector.collect(doc, score);
+        } else {
+            skipped++;
+        }
+    }
+
+    /**
+     * @return the number of hits that ranked before the given one, or were the given one.
+     */
+    int getSkipped() {
+        return skipped;
+    }
+
+    // Gives access to the comparison of the hits of a sort, including its ties.
+    private static final class CursorQueue extends FieldSortedHitQueue {
+        CursorQueue(IndexReader reader, Sort sort) throws IOException {
+            super(reader, sort.getSort(), 1);
+        }
+
+        boolean ranksAfter(ScoreDoc a, ScoreDoc b) {
+            return lessThan(a, b);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * An opaque position in the results of a query, to ask for the page after it without
+ * collecting all the hits before it (see {@link com.flaptor.hounder.searcher.query.SearchAfterQuery}).
+ *
+ * It has a {@link Position} per searcher the results come from: one for a single searcher,
+ * one per shard for the results merged by a MultiSearcher. A position holds the score and the
+ * lucene document id of the last result taken from its searcher, and the generation of the index
+ * they belong to. Document ids are only valid in their generation: once it is replaced, the
+ * searcher falls back to skipping the number of results taken before, as with an offset.
+ *
+ * Its string representation is URL-safe, and can be parsed back with {@link #parse(String)}.
+ *
+ * @author Flaptor Development Team
+ */
+public final class SearchCursor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Position[] positions;
+
+    /**
+     * @param positions the position in the results of each searcher, in the order of the searchers.
+     */
+    public SearchCursor(Position[] positions) {
+        if (null == positions || positions.length == 0) {
+            throw new IllegalArgumentException("a cursor needs at least one position.");
+        }
+        this.positions = positions.clone();
+    }
+
+    /**
+     * Creates the cursor of a single searcher.
+     */
+    public SearchCursor(Position position) {
+        this(new Position[] {position});
+    }
+
+    /**
+     * @return the number of searchers the cursor has a position for.
+     */
+    public int size() {
+        return positions.length;
+    }
+
+    public Position getPosition(int searcher) {
+        return positions[searcher];
+    }
+
+    /**
+     * @return the number of results before the cursor, adding those of all the searchers.
+     */
+    public int getOffset() {
+        int offset = 0;
+        for (Position position : positions) {
+            offset += position.getOffset();
+        }
+        return offset;
+    }
+
+    /**
+     * Parses the string representation of a cursor.
+     * @throws IllegalArgumentException if it is not a cursor.
+     */
+    public static SearchCursor parse(String cursor) {
+        String[] parts = cursor.split("_");
+        Position[] positions = new Position[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                String[] fields = parts[i].split("\\.");
+                if (fields.length != 4) {
+                    throw new IllegalArgumentException("invalid cursor: " + cursor);
+                }
+                positions[i] = new Position(Long.parseLong(fields[0], Character.MAX_RADIX), Integer.parseInt(fields[1], Character.MAX_RADIX),
+                        Float.intBitsToFloat(Integer.parseInt(fields[2], Character.MAX_RADIX)), Integer.parseInt(fields[3], Character.MAX_RADIX));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid cursor: " + cursor, e);
+        }
+        return new SearchCursor(positions);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        for (Position position : positions) {
+            if (buf.length() > 0) {
+                buf.append('_');
+            }
+            buf.append(Long.toString(position.generation, Character.MAX_RADIX)).append('.')
+               .append(Integer.toString(position.offset, Character.MAX_RADIX)).append('.')
+               .append(Integer.toString(Float.floatToIntBits(position.score), Character.MAX_RADIX)).append('.')
+               .append(Integer.toString(position.doc, Character.MAX_RADIX));
+        }
+        return buf.toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SearchCursor)) {
+            return false;
+        }
+        return Arrays.equals(positions, ((SearchCursor) obj).positions);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(positions);
+    }
+
+    /**
+     * The position of a cursor in the results of a searcher: just after the result with the
+     * given score and document id.
+     */
+    public static final class Position implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The document id of a position that only knows how many results were taken.
+         */
+        public static final int NO_DOC = -1;
+
+        private final long generation;
+        private final int offset;
+        private final float score;
+        private final int doc;
+
+        /**
+         * @param generation the generation of the index the document id belongs to.
+         * @param offset the number of results taken from the searcher, up to this position.
+         * @param score the score of the last result taken.
+         * @param doc the lucene document id of the last result taken, or NO_DOC.
+         */
+        public Position(long generation, int offset, float score, int doc) {
+            this.generation = generation;
+            this.offset = offset;
+            this.score = score;
+            this.doc = doc;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public float getScore() {
+            return score;
+        }
+
+        public int getDoc() {
+            return doc;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Position)) {
+                return false;
+            }
+            Position p = (Position) obj;
+            return generation == p.generation && offset == p.offset && doc == p.doc
+                && Float.floatToIntBits(score) == Float.floatToIntBits(p.score);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = (int) (generation ^ (generation >>> 32));
+            hash = 31 * hash + offset;
+            hash = 31 * hash + Float.floatToIntBits(score);
+            hash = 31 * hash + doc;
+            return hash;
+        }
+    }
+}
@@ -16,6 +16,12 @@ limitations under the License.
 package com.flaptor.hounder.searcher;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.index.Term;
@@ -29,6 +35,11 @@ import com.flaptor.hounder.searcher.group.AGroup;
 import com.flaptor.hounder.searcher.group.NoGroup;
 import com.flaptor.hounder.searcher.query.AQuery;
 import com.flaptor.hounder.searcher.query.LazyParsedQuery;
+import com.flaptor.hounder.searcher.query.FetchDocumentsQuery;
+import com.flaptor.hounder.searcher.query.FieldsQuery;
+import com.flaptor.hounder.searcher.query.HitKeysQuery;
+import com.flaptor.hounder.searcher.query.SearchAfterQuery;
+import com.flaptor.hounder.searcher.query.TimeBudgetQuery;
 import com.flaptor.hounder.searcher.sort.ASort;
 import com.flaptor.util.Cache;
 import com.flaptor.util.Config;
@@ -80,6 +91,36 @@ public class Searcher implements ISearcher {
         ris.addCache(cache);
     }
 
+    /**
+     * from ReloadableIndexHandler.addGenerationListener:
+     * 
+     * Adds a listener to be notified of new index generations, and to warm them
+     * before they go live.
+     */
+    public void addGenerationListener(IndexGenerationListener listener) {
+        ris.addGenerationListener(listener);
+    }
+
+    /**
+     * from ReloadableIndexHandler.docFreq:
+     *
+     * Returns the number of documents of the current index containing a term.
+     * @throws NoIndexActiveException if there is no index active.
+     */
+    public int docFreq(Term term) throws IOException, NoIndexActiveException {
+        return ris.docFreq(term);
+    }
+
+    /**
+     * from ReloadableIndexHandler.numDocs:
+     *
+     * Returns the number of documents of the current index.
+     * @throws NoIndexActiveException if there is no index active.
+     */
+    public int numDocs() throws NoIndexActiveException {
+        return ris.numDocs();
+    }
+
     /**
      * Advanced search method.
      * parameters:
@@ -96,6 +137,58 @@ public class Searcher implements ISearcher {
     }
 
 
+    /**
+     * Runs the queries in parallel, under a single lease of the ReloadableIndexHandler, so all
+     * of them search the same generation of the index.
+     * @throws NoIndexActiveException if there is no index active, for any of the queries.
+     */
+    public MultiSearchResults multiSearch(List<QueryParams> queries) throws SearcherException {
+        List<Callable<GroupedSearchResults>> searches = new ArrayList<Callable<GroupedSearchResults>>(queries.size());
+        for (final QueryParams params : queries) {
+            searches.add(new Callable<GroupedSearchResults>() {
+                public GroupedSearchResults call() throws SearcherException {
+                    return params.executeInSearcher(Searcher.this);
+                }
+            });
+        }
+        List<Future<GroupedSearchResults>> futures = ris.searchBatch(searches);
+        MultiSearchResults res = new MultiSearchResults(queries.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                res.setResults(i, futures.get(i).get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof NoIndexActiveException) {
+                    throw (NoIndexActiveException) cause;
+                } else if (cause instanceof Exception) {
+                    res.setException(i, (Exception) cause);
+                } else {
+                    logger.error("multiSearch: error running query " + i, cause);
+                    res.setException(i, new SearcherException(cause));
+                }
+            } catch (InterruptedException e) {
+                // searchBatch returns done futures.
+                throw new IllegalStateException(e);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * from ReloadableIndexHandler.countHits:
+     *
+     * Returns the number of documents matching a query, without ranking nor loading them.
+     */
+    public int countHits(final AQuery query, final AFilter filter) throws SearcherException {
+        try {
+            return ris.countHits(query.getLuceneQuery(), (null == filter) ? null : filter.getLuceneFilter());
+        } catch (IOException e) {
+            //something bad happened to the index on disk, nothing we can do
+            logger.error(e.getMessage());
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Implementation of main search method.
      * This method performs the search over the cache and, in the case the cache doesn't have the required SearchResults,
@@ -127,7 +220,40 @@ public class Searcher implements ISearcher {
             // Construct boosting query with payloads
             Query luceneQuery = query.getLuceneQuery();
 
-            Pair<GroupedSearchResults, org.apache.lucene.search.Query> resultPair = ris.search(luceneQuery, filter, sort, firstResult, count,groupBy,groupSize);
+            // the time budget, the cursor, the keys only mark and the fields may wrap the query
+            // in any order. The documents fetched have the fields of the query they were found by.
+            Long timeBudget = null;
+            SearchCursor.Position after = null;
+            boolean keysOnly = false;
+            Set<String> fields = null;
+            AQuery wrapped = (query instanceof FetchDocumentsQuery) ? ((FetchDocumentsQuery) query).getQuery() : query;
+            while (wrapped instanceof TimeBudgetQuery || wrapped instanceof SearchAfterQuery || wrapped instanceof HitKeysQuery || wrapped instanceof FieldsQuery) {
+                if (wrapped instanceof TimeBudgetQuery) {
+                    timeBudget = ((TimeBudgetQuery) wrapped).getTimeBudget();
+                    wrapped = ((TimeBudgetQuery) wrapped).getQuery();
+                } else if (wrapped instanceof SearchAfterQuery) {
+                    after = localPosition(((SearchAfterQuery) wrapped).getCursor());
+                    wrapped = ((SearchAfterQuery) wrapped).getQuery();
+                } else if (wrapped instanceof FieldsQuery) {
+                    fields = ((FieldsQuery) wrapped).getFields();
+                    wrapped = ((FieldsQuery) wrapped).getQuery();
+                } else {
+                    keysOnly = true;
+                    wrapped = ((HitKeysQuery) wrapped).getQuery();
+                }
+            }
+
+            if (query instanceof FetchDocumentsQuery) {
+                FetchDocumentsQuery fetch = (FetchDocumentsQuery) query;
+                return ris.fetchDocuments(luceneQuery, fetch.getGeneration(), fetch.getDocumentIds(), fields);
+            }
+
+            Pair<GroupedSearchResults, org.apache.lucene.search.Query> resultPair;
+            if (null != timeBudget) {
+                resultPair = ris.search(luceneQuery, filter, sort, firstResult, count, groupBy, groupSize, timeBudget.longValue(), after, keysOnly, fields);
+            } else {
+                resultPair = ris.search(luceneQuery, filter, sort, firstResult, count, groupBy, groupSize, after, keysOnly, fields);
+            }
             res = resultPair.first();
             if (null == res) {
                 throw new SearcherException("GroupedSearchResults is NULL");
@@ -141,6 +267,18 @@ public class Searcher implements ISearcher {
     }
 
 
+    /**
+     * Returns the position of a cursor in the results of this searcher. A cursor over
+     * several searchers only gives the number of results before it.
+     */
+    private static SearchCursor.Position localPosition(SearchCursor cursor) {
+        if (cursor.size() == 1) {
+            return cursor.getPosition(0);
+        }
+        return new SearchCursor.Position(0, cursor.getOffset(), 0, SearchCursor.Position.NO_DOC);
+    }
+
+
     /**
      * Call this method just before releasing the object for GC.
      */
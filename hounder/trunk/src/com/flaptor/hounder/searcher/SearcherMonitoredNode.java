@@ -43,6 +43,9 @@ public class SearcherMonitoredNode extends HounderMonitoreable {
 		if (null != tls) {
 			setProperty("maxSimultaneousQueries", String.valueOf(tls.getMaxSimultaneousQueries()));
 			setProperty("simultaneousQueries", String.valueOf(tls.getSimultaneousQueries()));
+			setProperty("concurrencyLimit", String.valueOf(tls.getConcurrencyLimit()));
+			setProperty("maxQueueSize", String.valueOf(tls.getMaxQueueSize()));
+			setProperty("rejectedQueries", String.valueOf(tls.getRejectedQueries()));
 		}
 		try {
             setProperty("searcherException", null);
@@ -26,6 +26,13 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -33,7 +40,6 @@ import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.search.highlight.Formatter;
 import org.apache.lucene.search.highlight.Fragmenter;
 import org.apache.lucene.search.highlight.Highlighter;
 import org.apache.lucene.search.highlight.NullFragmenter;
@@ -46,8 +52,10 @@ import com.google.common.base.Preconditions;
 import com.flaptor.hounder.searcher.filter.AFilter;
 import com.flaptor.hounder.searcher.group.AGroup;
 import com.flaptor.hounder.searcher.query.AQuery;
+import com.flaptor.hounder.searcher.query.HitKeysQuery;
 import com.flaptor.hounder.searcher.query.QueryParser;
 import com.flaptor.hounder.searcher.sort.ASort;
+import com.flaptor.hounder.util.DaemonThreadFactory;
 import com.flaptor.util.Config;
 import com.flaptor.util.Statistics;
 
@@ -60,7 +68,6 @@ public class SnippetSearcher implements ISearcher{
     private static final Logger logger = Logger.getLogger(com.flaptor.util.Execute.whoAmI());
 
     private final ISearcher searcher;
-    private final QueryParser queryParser;
 
     /**
      * The generated snippet field will be SNIPPET_FIELDNAME_PREFIX<field_name>
@@ -70,6 +77,19 @@ public class SnippetSearcher implements ISearcher{
      */
     public static final String SNIPPET_FIELDNAME_PREFIX = "snippet_";
 
+    /**
+     * The offsets of the query terms in a field, found in its term vector by the
+     * searcher, are in OFFSETS_FIELDNAME_PREFIX<field_name>. This field is
+     * removed from the results once the snippet is built.
+     */
+    public static final String OFFSETS_FIELDNAME_PREFIX = "snippetoffsets_";
+
+    /**
+     * Max number of windows around the query terms to build a snippet from
+     * term offsets. Each window spans at most 4 times the snippet length.
+     */
+    private static final int MAX_OFFSET_WINDOWS = 8;
+
 
 
     /** Name of the field contained the stored data used to generate the snippets */
@@ -131,6 +151,16 @@ public class SnippetSearcher implements ISearcher{
      */
     private static final float BAD_SNIPPET_THRESHOLD= (float) 0.1;
 
+    /**
+     * Threads that build the snippets of the documents in parallel. If null,
+     * they are built on the thread of the search.
+     */
+    private final ExecutorService snippetPool;
+    /**
+     * Max time (in ms) to build the snippets of a search. 0 means no limit.
+     */
+    private final long snippetTimeout;
+
     /**
      * Creates the searcher
      * @param searcher the base searcher
@@ -142,7 +172,9 @@ public class SnippetSearcher implements ISearcher{
                 config.getString("Searcher.snippetFragmentBoundary"),
                 config.getBoolean("Searcher.emptySnippetsAllowed"),
                 config.getString("Searcher.highlighterPrefix"),
-                config.getString("Searcher.highlighterSuffix"));        
+                config.getString("Searcher.highlighterSuffix"),
+                config.getInt("Searcher.snippetThreads"),
+                config.getLong("Searcher.snippetTimeout"));        
     }
 
     /**
@@ -158,6 +190,23 @@ public class SnippetSearcher implements ISearcher{
             int[] snippetsLength,
             String fragmentSeparator, String fragmentBoundary,
             boolean emptySnippetsAllowed, String highlighterPrefix, String highlighterSuffix ) {
+        this(searcher, snippetOfFields, snippetsLength, fragmentSeparator, fragmentBoundary,
+                emptySnippetsAllowed, highlighterPrefix, highlighterSuffix, 0, 0);
+    }
+
+    /**
+     * @param snippetThreads the number of threads that build snippets in parallel,
+     *   shared by all the searches. 0 means the snippets are built on the thread of
+     *   the search.
+     * @param snippetTimeout max time (in ms) to build the snippets of a search. The
+     *   documents whose snippets are not ready by then get the leading text of the
+     *   field. 0 means no limit.
+     */
+    public SnippetSearcher(ISearcher searcher, String[] snippetOfFields, 
+            int[] snippetsLength,
+            String fragmentSeparator, String fragmentBoundary,
+            boolean emptySnippetsAllowed, String highlighterPrefix, String highlighterSuffix,
+            int snippetThreads, long snippetTimeout) {
 
         if (null == searcher) {
             throw new IllegalArgumentException("searcher cannot be null.");
@@ -167,7 +216,6 @@ public class SnippetSearcher implements ISearcher{
         Preconditions.checkNotNull(highlighterSuffix, "highlighter suffix cannot be null. Use \"\" instead.");
         HIGHLIGHTER_SUFFIX = highlighterSuffix;
         this.searcher = searcher;
-        this.queryParser = new QueryParser();
 
         if ( 0 == snippetOfFields.length){
             String msg= "Creating a SnippetSearcher, but Searcher.snippetOfFields is empty";
@@ -190,93 +238,235 @@ public class SnippetSearcher implements ISearcher{
         this.posfixPattern= Pattern.compile(".*" + HIGHLIGHTER_SUFFIX + fragmentBoundary + "?$");
 
         this.fragmentPat= Pattern.compile( "^.*(" + fragmentBoundary+ ")+" + "$");
+
+        if (snippetThreads < 0 || snippetTimeout < 0) {
+            throw new IllegalArgumentException("snippetThreads and snippetTimeout cannot be negative.");
+        }
+        this.snippetTimeout = snippetTimeout;
+        if (snippetThreads > 0) {
+            // when the queue is full, the search thread builds the snippet itself. The tasks
+            // check the deadline when they start, so the search thread only goes past it by
+            // the time of the snippet it started last.
+            snippetPool = new ThreadPoolExecutor(snippetThreads, snippetThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(snippetThreads * 16), new DaemonThreadFactory("SnippetSearcher"),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        } else {
+            snippetPool = null;
+        }
     }
 
 
 
     public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup groupBy, int groupSize, AFilter afilter, ASort asort)  throws SearcherException{        
         GroupedSearchResults res = searcher.search(query, firstResult, count, groupBy, groupSize, afilter, asort);
-        long start=0;
-        long end=0;
-        try {
-            start= System.currentTimeMillis();
-            addSnippets(res, query.getLuceneQuery());
-            end = System.currentTimeMillis();
-            Statistics.getStatistics().notifyEventValue("SnippetSearcher", (end-start)/1000.0f);
-        } catch (IOException e) {
-            end = System.currentTimeMillis();
-            logger.warn(e);
-            Statistics.getStatistics().notifyEventValue("SnippetSearcherException", (end-start)/1000.0f);
-        }        
+        if (query instanceof HitKeysQuery) {
+            // only the documents fetched later get snippets.
+            return res;
+        }
+        long start= System.currentTimeMillis();
+        // errors building a snippet are logged, and the leading text is used instead.
+        addSnippets(res, query.getLuceneQuery());
+        long end = System.currentTimeMillis();
+        Statistics.getStatistics().notifyEventValue("SnippetSearcher", (end-start)/1000.0f);
         return res;
     }
 
-    /**
-     * Add snippets to the search-results. It adds a new field 
-     * SNIPPET_FIELDNAME_PREFIX_field with the snippet for each field
-     */
-    private void addSnippets (GroupedSearchResults res, org.apache.lucene.search.Query query) throws IOException {    
-        Formatter simpleHtmlFormatter= new SimpleHTMLFormatter(HIGHLIGHTER_PREFIX, HIGHLIGHTER_SUFFIX);
-        for (int i= 0; i < snippetOfFields.length; i++) {
-            String fieldToSnippet = snippetOfFields[i];   
-            int snippetLength= snippetsLength[i];
-            QueryScorer scorer= new QueryScorer(query, fieldToSnippet);
-            addSnippets(res, fieldToSnippet, snippetLength, scorer, simpleHtmlFormatter);
+    public MultiSearchResults multiSearch(List<QueryParams> queries) throws SearcherException {
+        MultiSearchResults res = searcher.multiSearch(queries);
+        long start= System.currentTimeMillis();
+        for (int i = 0; i < res.size(); i++) {
+            if (res.isOk(i) && !(queries.get(i).getQuery() instanceof HitKeysQuery)) {
+                addSnippets(res.getResults(i), queries.get(i).getQuery().getLuceneQuery());
+            }
         }
+        long end = System.currentTimeMillis();
+        Statistics.getStatistics().notifyEventValue("SnippetSearcher", (end-start)/1000.0f);
+        return res;
     }
 
-
+    public int countHits(AQuery query, AFilter filter) throws SearcherException {
+        return searcher.countHits(query, filter);
+    }
 
     /**
-     * Adds snippets to the search results.
+     * Add snippets to the search-results. It adds a new field 
+     * SNIPPET_FIELDNAME_PREFIX_field with the snippet for each field
+     * 
      * How stuff works:
-     * For each 'group g' in provided GroupedSearchResults:
-     *   For each result in 'g':
-     *     Use the lucene highlighter to get the terms highlighted on the required field.
-     *     Then call getSnippet(...) to get the resulting snippet
-     */    
-    private void addSnippets (GroupedSearchResults res, String snippetOfField,
-            int snippetLength, QueryScorer scorer, Formatter simpleHtmlFormatter) throws IOException {       
-
-        Highlighter highlighter = new Highlighter(simpleHtmlFormatter, scorer);
-        highlighter.setTextFragmenter(NULL_FRAGMENTER);
-        highlighter.setMaxDocCharsToAnalyze(Integer.MAX_VALUE); // make sure the whole text will be analyzed
-        // Here we store every seen phrase. It is used to give less score to
-        // recurrying phrases
-        Set<String> usedSnippets= new HashSet<String>();
-
-        for (int j = 0; j < res.groups() ; j++) {  // for each group
-            Vector<Document> resDocs = res.getGroup(j).last();
-            int docsLen= resDocs.size();
-            for (int i = 0; i < docsLen; i++) { // for each document on that group               
-                Document doc = resDocs.get(i); // get the document i
-                String text = doc.get(snippetOfField);  // text to be snippeted
-                if (null == text){
-                    logger.warn("Asked to snippet an unexisting field: " + snippetOfField );
-                    continue;
+     *   A task is created for each field of each document on the results.
+     *   The tasks run on the snippet threads (or on this thread, if there are
+     *     none) until the snippet deadline. Each one splits the text of its
+     *     document in scored phrases.
+     *   Then, in the order of the documents, the phrases already used by the
+     *     previous documents get a low score, and the snippets are built. So
+     *     the snippets do not depend on which task ran first.
+     *   The documents whose snippets were not ready by the deadline get the
+     *     leading text of the field as snippet.
+     */
+    private void addSnippets (GroupedSearchResults res, org.apache.lucene.search.Query query) {    
+        long deadline = (snippetTimeout > 0) ? System.currentTimeMillis() + snippetTimeout : Long.MAX_VALUE;
+        List<SnippetTask> tasks = new ArrayList<SnippetTask>();
+        for (int f= 0; f < snippetOfFields.length; f++) {
+            String snippetOfField = snippetOfFields[f];   
+            for (int j = 0; j < res.groups() ; j++) {  // for each group
+                Vector<Document> resDocs = res.getGroup(j).last();
+                int docsLen= resDocs.size();
+                for (int i = 0; i < docsLen; i++) { // for each document on that group               
+                    Document doc = resDocs.get(i); // get the document i
+                    String offsets = doc.get(OFFSETS_FIELDNAME_PREFIX + snippetOfField);
+                    if (null != offsets) {
+                        doc.removeFields(OFFSETS_FIELDNAME_PREFIX + snippetOfField);
+                    }
+                    String text = doc.get(snippetOfField);  // text to be snippeted
+                    if (null == text){
+                        logger.warn("Asked to snippet an unexisting field: " + snippetOfField );
+                        continue;
+                    }
+                    tasks.add(new SnippetTask(doc, f, snippetsLength[f], text, offsets, query, deadline));
                 }
+            }
+        }
+
+        if (null == snippetPool) {
+            for (SnippetTask task : tasks) {
+                task.run();
+            }
+        } else {
+            List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+            for (SnippetTask task : tasks) {
+                futures.add(snippetPool.submit(task));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    future.cancel(false);
+                } catch (InterruptedException e) {
+                    future.cancel(false);
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    logger.warn("addSnippets: " + e.getCause());
+                }
+            }
+        }
+        // Here we store every seen phrase of each field. It is used to give less
+        // score to recurrying phrases
+        List<Set<String>> usedSnippets= new ArrayList<Set<String>>(snippetOfFields.length);
+        for (int f= 0; f < snippetOfFields.length; f++) {
+            usedSnippets.add(new HashSet<String>());
+        }
+        int late = 0;
+        for (SnippetTask task : tasks) {
+            if (!task.addSnippet(usedSnippets.get(task.field))) {
+                late++;
+            }
+        }
+        if (snippetTimeout > 0) {
+            Statistics.getStatistics().notifyEventValue("SnippetSearcher deadline expired", (late > 0) ? 1 : 0);
+            if (late > 0) {
+                logger.debug("addSnippets: the deadline expired before " + late + " of " + tasks.size() + " snippets were built.");
+            }
+        }
+    }
 
-                TokenStream tokenStream = queryParser.tokenStream(snippetOfField, new StringReader(text));               
-                TextFragment[] fragments = highlighter.getBestTextFragments(tokenStream, text, false, 1);
+    /**
+     * Splits the text of a field of a document in scored phrases.
+     * The snippet is only built and added to the document when asked to, in the
+     * order of the documents, as the task may still be running when the deadline
+     * expires.
+     */
+    private class SnippetTask implements Runnable {
+        private final Document doc;
+        private final int field;
+        private final String snippetOfField;
+        private final int snippetLength;
+        private final String text;
+        private final String offsets;
+        private final org.apache.lucene.search.Query query;
+        private final long deadline;
+        // the phrases of this document that are not to be repeated by the next ones.
+        private final Set<String> phrases= new HashSet<String>();
+        private ArrayList<Fragment> frags= null;
+        private volatile boolean done= false;
+
+        SnippetTask(Document doc, int field, int snippetLength, String text, String offsets,
+                org.apache.lucene.search.Query query, long deadline) {
+            this.doc = doc;
+            this.field = field;
+            this.snippetOfField = snippetOfFields[field];
+            this.snippetLength = snippetLength;
+            this.text = text;
+            this.offsets = offsets;
+            this.query = query;
+            this.deadline = deadline;
+        }
 
-                String result= null;
-                if ( null != fragments  && 0 < fragments.length) {
-                    result= getSnippet(fragments[0].toString(), snippetLength, scorer, usedSnippets);
+        /**
+         * Uses the offsets of the query terms if the field has term vectors, or
+         * the lucene highlighter to get the terms highlighted on the field. Then
+         * calls getPhrases(...) to split them in scored phrases.
+         * Does nothing if the deadline has expired.
+         */
+        public void run() {
+            if (System.currentTimeMillis() >= deadline) {
+                return;
+            }
+            try {
+                if (null != offsets) {
+                    // the field has term vectors, only the text around the query terms is used.
+                    frags= getPhrases(text, TermVectorOffsets.decode(offsets), snippetLength, phrases);
+                } else {
+                    QueryScorer scorer= new QueryScorer(query, snippetOfField);
+                    Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter(HIGHLIGHTER_PREFIX, HIGHLIGHTER_SUFFIX), scorer);
+                    highlighter.setTextFragmenter(NULL_FRAGMENTER);
+                    highlighter.setMaxDocCharsToAnalyze(Integer.MAX_VALUE); // make sure the whole text will be analyzed
+                    TokenStream tokenStream = QueryParser.getSharedInstance().tokenStream(snippetOfField, new StringReader(text));               
+                    TextFragment[] fragments = highlighter.getBestTextFragments(tokenStream, text, false, 1);
+                    if ( null != fragments  && 0 < fragments.length) {
+                        frags= getPhrases(fragments[0].toString(), phrases);
+                    }
                 }
+            } catch (IOException e) {
+                logger.warn(e);
+                Statistics.getStatistics().notifyEventError("SnippetSearcher");
+            }
+            done= true;
+        }
 
-                if ( null == result || 0 == result.length() ){ // 
-                    if(emptySnippetsAllowed) {
-                        result= "";
-                    } else {
-                        result= text.substring(0,Math.min(text.length(), snippetLength));
+        /**
+         * Builds the snippet and adds it to the document, or the leading text of the
+         * field if the phrases are not ready.
+         * @param usedSnippets the phrases used by the previous documents. The ones of
+         *   this document are added to it.
+         * @return false if the phrases were not ready.
+         */
+        boolean addSnippet(Set<String> usedSnippets) {
+            boolean ready= done;
+            String snippet= null;
+            if (ready && null != frags) {
+                for (Fragment frag: frags) {
+                    if (usedSnippets.contains(frag.getText())) {
+                        frag.score= BAD_SNIPPET_THRESHOLD;
                     }
                 }
-                String snippetF= SNIPPET_FIELDNAME_PREFIX + snippetOfField;
-                doc.add(new Field(snippetF, result.toString(), Field.Store.YES, Field.Index.NO));
+                usedSnippets.addAll(phrases);
+                snippet= getSnippet(frags, snippetLength);
+            }
+            if ( null == snippet || 0 == snippet.length() ){ // 
+                if(ready && emptySnippetsAllowed) {
+                    snippet= "";
+                } else {
+                    snippet= leadingText();
+                }
             }
+            doc.add(new Field(SNIPPET_FIELDNAME_PREFIX + snippetOfField, snippet, Field.Store.YES, Field.Index.NO));
+            return ready;
         }
-    }
 
+        private String leadingText() {
+            return text.substring(0,Math.min(text.length(), snippetLength));
+        }
+    }
 
 
 
@@ -729,20 +919,94 @@ private int getNext(List<Integer> lst, int pos, boolean forward){
 
 
     /**
-     * Returns a snippet of the text
+     * Splits the text around the offsets of the query terms in phrases.
      * 
      * How stuff works:
-     *   1- Use the getPhrases() to get the text splited in phrases, highlighted 
-     *   and scored. (Fragment class)
+     *   The query terms close to each other are put in the same window, that
+     *     spans requiredlength chars before and after them (cut to whole words).
+     *   The terms in each window are highlighted, and the window is split in
+     *     phrases as getPhrases does. An empty phrase separates the windows.
+     *   The snippet is built from those phrases, as for the whole text.
+     * So the cost depends on the number of query terms found, not on the
+     * length of the text.
+     * 
+     * @param offsets the start and end offsets of the query terms, alternated
+     *   and sorted.
+     */
+    private ArrayList<Fragment> getPhrases(String text, int[] offsets, int requiredlength, Set<String> usedSnippets){
+        ArrayList<Fragment> frags= new ArrayList<Fragment>();
+        int maxWindowLength= 4 * requiredlength;
+        int i= 0;
+        for (int windows= 0; i < offsets.length && windows < MAX_OFFSET_WINDOWS; windows++) {
+            // skip offsets that do not fit the stored text
+            while (i < offsets.length && (offsets[i + 1] > text.length() || offsets[i] >= offsets[i + 1])) {
+                i += 2;
+            }
+            if (i >= offsets.length) {
+                break;
+            }
+            int first= i;
+            int from= Math.max(0, offsets[i] - requiredlength);
+            int to= Math.min(text.length(), offsets[i + 1] + requiredlength);
+            int lastEnd= offsets[i + 1];
+            i += 2;
+            while (i < offsets.length && offsets[i] < to && offsets[i + 1] <= text.length() && offsets[i + 1] - from <= maxWindowLength) {
+                lastEnd= Math.max(lastEnd, offsets[i + 1]);
+                to= Math.max(to, Math.min(text.length(), offsets[i + 1] + requiredlength));
+                i += 2;
+            }
+            // do not show partial words at the edges of the window.
+            if (from > 0) {
+                for (int c= from; c < offsets[first]; c++) {
+                    if (Character.isWhitespace(text.charAt(c))) {
+                        from= c + 1;
+                        break;
+                    }
+                }
+            }
+            if (to < text.length()) {
+                for (int c= to - 1; c > lastEnd; c--) {
+                    if (Character.isWhitespace(text.charAt(c))) {
+                        to= c;
+                        break;
+                    }
+                }
+            }
+            StringBuilder window= new StringBuilder(to - from + 16);
+            int pos= from;
+            for (int t= first; t < i; t += 2) {
+                if (offsets[t] < pos || offsets[t + 1] > to) {
+                    continue; // overlaps the previous term
+                }
+                window.append(text, pos, offsets[t]);
+                window.append(HIGHLIGHTER_PREFIX).append(text, offsets[t], offsets[t + 1]).append(HIGHLIGHTER_SUFFIX);
+                pos= offsets[t + 1];
+            }
+            window.append(text, pos, to);
+
+            if (0 < frags.size()) {
+                frags.add(new Fragment("", frags.size(), 0));
+            }
+            for (Fragment frag: getPhrases(window.toString(), usedSnippets)) {
+                frag.pos= frags.size();
+                frags.add(frag);
+            }
+        }
+        return frags;
+    }
+
+    /**
+     * Returns a snippet of the text, from its phrases.
+     * 
+     * How stuff works:
+     *   1- The phrases come from getPhrases(), splited, highlighted and scored.
+     *   (Fragment class)
      *   2- If none of the Fragments is good enough (score > BAD_SNIPPET_THRESHOLD)
      *     then use selectRandomFragments() to select some random fragments 
      *      Else use selectFragments() to select the best fragments
      *   3- Concatenate the fragments (adding '..' if necessary) and return it. 
      */
-    private String getSnippet(String text, int requiredlength, 
-            QueryScorer scorer, Set<String> usedSnippets){               
-
-        ArrayList<Fragment> frags= getPhrases(text, usedSnippets);       
+    private String getSnippet(ArrayList<Fragment> frags, int requiredlength) {
         Collections.sort(frags, COMPARE_BY_SCORE);
 
         if (0 == frags.size() || 0 == frags.get(0).getScore() ){
@@ -781,6 +1045,9 @@ private int getNext(List<Integer> lst, int pos, boolean forward){
 
     @Override
     public void requestStop() {
+        if (null != snippetPool) {
+            snippetPool.shutdown();
+        }
         searcher.requestStop();
     }
 
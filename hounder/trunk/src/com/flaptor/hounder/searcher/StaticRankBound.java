@@ -0,0 +1,159 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DefaultSimilarity;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Similarity;
+import org.apache.lucene.search.TermQuery;
+
+import com.flaptor.util.LRUCache;
+
+/**
+ * Computes an upper bound of the score to static rank ratio of the documents that match
+ * a query, so a {@link StaticRankCollector} knows when the documents left can not make it
+ * to the top hits.
+ *
+ * The score of a term in a document is tf(freq) * weight * norm, where the weight depends
+ * only on the query. For each term, the largest tf(freq) * norm / rank of its postings is
+ * computed once per index reader, and cached. The bound of a query is the sum of those,
+ * times the weights of its terms, as a boolean query scores at most the sum of the scores
+ * of its clauses (the coord factor of the DefaultSimilarity is at most 1).
+ *
+ * The first search of a term on an index reader reads all of its postings to compute its
+ * bound, the next ones stop early. The index warmer replays the most frequent queries on
+ * each new index, so their bounds are ready when it goes live.
+ *
+ * Only term queries and boolean queries of them can be bounded.
+ *
+ * @author Flaptor Development Team
+ */
+final class StaticRankBound {
+
+    // How many term bounds to keep for each index reader.
+    private static final int TERMS_PER_READER = 10000;
+
+    private static final Map<IndexReader, LRUCache<Term, Float>> termBounds = new WeakHashMap<IndexReader, LRUCache<Term, Float>>();
+
+    private StaticRankBound() {}
+
+    /**
+     * Returns the largest score to static rank ratio that a document of the searcher can get
+     * for the query.
+     * @param query a rewritten query.
+     * @param ranks the static rank of each document of the searcher.
+     * @return the bound, or -1 if the query can not be bounded.
+     */
+    static float get(IndexSearcher searcher, Query query, float[] ranks) throws IOException {
+        Similarity similarity = searcher.getSimilarity();
+        if (!(similarity instanceof DefaultSimilarity)) {
+            return -1;
+        }
+        float sumOfSquaredWeights = sumOfSquaredWeights(searcher, query);
+        if (sumOfSquaredWeights < 0) {
+            return -1;
+        }
+        return bound(searcher, query, ranks, similarity.queryNorm(sumOfSquaredWeights));
+    }
+
+    // As the lucene Weights compute it, or -1 if the query can not be bounded.
+    private static float sumOfSquaredWeights(IndexSearcher searcher, Query query) throws IOException {
+        if (query instanceof TermQuery) {
+            float weight = searcher.getSimilarity().idf(((TermQuery) query).getTerm(), searcher) * query.getBoost();
+            return weight * weight;
+        }
+        if (query instanceof BooleanQuery) {
+            float sum = 0;
+            for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+                if (clause.isProhibited()) {
+                    continue;
+                }
+                float clauseSum = sumOfSquaredWeights(searcher, clause.getQuery());
+                if (clauseSum < 0) {
+                    return -1;
+                }
+                sum += clauseSum;
+            }
+            return sum * query.getBoost() * query.getBoost();
+        }
+        return -1;
+    }
+
+    private static float bound(IndexSearcher searcher, Query query, float[] ranks, float norm) throws IOException {
+        if (query instanceof TermQuery) {
+            Term term = ((TermQuery) query).getTerm();
+            float idf = searcher.getSimilarity().idf(term, searcher);
+            return idf * query.getBoost() * norm * idf * termBound(searcher, term, ranks);
+        }
+        float sum = 0;
+        for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+            if (!clause.isProhibited()) {
+                sum += bound(searcher, clause.getQuery(), ranks, norm * query.getBoost());
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the largest tf(freq) * norm / rank of the postings of the term.
+     */
+    private static float termBound(IndexSearcher searcher, Term term, float[] ranks) throws IOException {
+        IndexReader reader = searcher.getIndexReader();
+        LRUCache<Term, Float> bounds;
+        synchronized (termBounds) {
+            bounds = termBounds.get(reader);
+            if (null == bounds) {
+                bounds = new LRUCache<Term, Float>(TERMS_PER_READER);
+                termBounds.put(reader, bounds);
+            }
+        }
+        Float bound = bounds.get(term);
+        if (null == bound) {
+            bound = computeTermBound(searcher.getSimilarity(), reader, term, ranks);
+            bounds.put(term, bound);
+        }
+        return bound.floatValue();
+    }
+
+    private static float computeTermBound(Similarity similarity, IndexReader reader, Term term, float[] ranks) throws IOException {
+        byte[] norms = reader.norms(term.field());
+        float bound = 0;
+        TermDocs docs = reader.termDocs(term);
+        try {
+            while (docs.next()) {
+                int doc = docs.doc();
+                if (ranks[doc] <= 0) {
+                    return Float.POSITIVE_INFINITY;
+                }
+                float norm = (null == norms) ? 1.0f : Similarity.decodeNorm(norms[doc]);
+                bound = Math.max(bound, similarity.tf(docs.freq()) * norm / ranks[doc]);
+            }
+        } finally {
+            docs.close();
+        }
+        return bound;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocCollector;
+import org.apache.lucene.search.TopDocs;
+
+/**
+ * Collects the top hits of an index whose documents are sorted by descending static rank,
+ * stopping as soon as the documents left can not make it to the top hits.
+ *
+ * It is given an upper bound of the score to static rank ratio of the documents that match
+ * the query (@see StaticRankBound). Once it has enough hits, it stops when the static rank
+ * of the current document times that bound is lower than the lowest of the top scores: the
+ * documents after it have a lower static rank, so they can not score more than that.
+ *
+ * It should only be used on indexes sorted by static rank (@see Index#isSortedByStaticRank).
+ * Even then, if it finds static ranks that are not in descending order, it does not stop,
+ * and behaves as a TopDocCollector.
+ *
+ * When it stops, it throws {@link TerminatedException} out of the search, and the total
+ * number of hits is extrapolated from the fraction of the index scanned.
+ *
+ * @author Flaptor Development Team
+ */
+final class StaticRankCollector extends TopDocCollector {
+
+    private static final float ROUNDING_ERROR = 1.001f;
+
+    private final int numHits;
+    private final float[] ranks;
+    private final float maxRatio;
+
+    private float lastRank = Float.POSITIVE_INFINITY;
+    private boolean sorted = true;
+    private int lastDoc = -1;
+    private boolean terminated = false;
+
+    /**
+     * Thrown to stop a search once the top hits are known.
+     */
+    static final class TerminatedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TerminatedException() {
+            super("the rest of the documents can not make it to the top hits.");
+        }
+    }
+
+    /**
+     * @param numHits the number of top hits to collect.
+     * @param ranks the static rank of each document of the index searched.
+     * @param maxRatio the largest score to static rank ratio of the documents that match.
+     */
+    StaticRankCollector(int numHits, float[] ranks, float maxRatio) {
+        super(numHits);
+        this.numHits = numHits;
+        this.ranks = ranks;
+        // the scores are computed in another order, allow for their rounding.
+        this.maxRatio = maxRatio * ROUNDING_ERROR;
+    }
+
+    @Override
+    public void collect(int doc, float score) {
+        super.collect(doc, score);
+        lastDoc = doc;
+        if (!sorted) {
+            return;
+        }
+        float rank = ranks[doc];
+        if (rank <= 0 || rank > lastRank) {
+            sorted = false;
+            return;
+        }
+        lastRank = rank;
+        if (getTotalHits() >= numHits && maxRatio * rank < ((ScoreDoc) hq.top()).score) {
+            terminated = true;
+            throw new TerminatedException();
+        }
+    }
+
+    /**
+     * @return true if the search was stopped before the end of the index.
+     */
+    boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Returns the top hits. If the search was stopped, the total number of hits is
+     * estimated assuming the hits are evenly spread in the index.
+     * @param maxDoc the number of documents of the index searched.
+     */
+    TopDocs topDocs(int maxDoc) {
+        totalHits = extrapolate(totalHits, maxDoc);
+        return topDocs();
+    }
+
+    /**
+     * Estimates how many of some hits would have been found in the whole index,
+     * from how many were found in the part scanned.
+     * @param maxDoc the number of documents of the index searched.
+     */
+    int extrapolate(int hits, int maxDoc) {
+        if (!terminated) {
+            return hits;
+        }
+        return (int) Math.min(maxDoc, (long) hits * maxDoc / (lastDoc + 1));
+    }
+}
@@ -15,6 +15,8 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher;
 
+import java.util.List;
+
 import org.apache.log4j.Logger;
 
 import com.flaptor.hounder.searcher.filter.AFilter;
@@ -68,6 +70,37 @@ public class StatisticSearcher implements ISearcher {
 		return results;		
 	}
 
+    public MultiSearchResults multiSearch(List<QueryParams> queries) throws SearcherException {
+        long start = System.currentTimeMillis();
+        MultiSearchResults results = null;
+        try {
+            results = searcher.multiSearch(queries);
+        } finally {
+            if (null == results) {
+                stats.notifyEventError("batchResponseTimes");
+                logger.debug("Query statistics: responding to a batch of " + queries.size() + " queries (failure)");
+            }
+        }
+        long time = System.currentTimeMillis() - start;
+        stats.notifyEventValue("batchResponseTimes", time);
+        stats.notifyEventValue("batchSize", queries.size());
+        for (int i = 0; i < results.size(); i++) {
+            if (results.isOk(i)) {
+                results.getResults(i).setResponseTime(time);
+            } else {
+                stats.notifyEventError("responseTimes");
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Query statistics: responding to a batch of " + queries.size() + " queries (success, response time " + time + " ms)");
+        }
+        return results;
+    }
+
+    public int countHits(AQuery query, AFilter filter) throws SearcherException {
+        return searcher.countHits(query, filter);
+    }
+
     @Override
     public void requestStop() {
         searcher.requestStop();
@@ -24,11 +24,18 @@ import com.flaptor.hounder.searcher.group.AGroup;
 import com.flaptor.hounder.searcher.query.AQuery;
 import com.flaptor.hounder.searcher.query.AQuerySuggestor;
 import com.flaptor.hounder.searcher.sort.ASort;
+import com.flaptor.util.CallableWithId;
+import com.flaptor.util.Execution;
+import com.flaptor.util.MultiExecutor;
 import com.flaptor.util.Statistics;
+import com.flaptor.util.Execution.Results;
 
 /**
  * This searcher tries a suggested query and if the suggested results
  * are significant (> original results * factor) it makes the suggestion
+ *
+ * The suggested queries are only counted, not searched, and they are all
+ * counted at the same time.
  * 
  * @author Martin Massera
  */
@@ -40,6 +47,11 @@ public class SuggestQuerySearcher implements ISearcher{
     private float suggestionBetterByFactor;
     private int groupsThreshold;
     private int maxSuggestionsToTry;
+    private final MultiExecutor<Integer> executor;
+    private final long timeout;
+
+    // How long to wait for the suggestions to be counted, by default.
+    private static final long DEFAULT_TIMEOUT = 1000;
 
     /**
      * @param searcher the base searcher
@@ -47,6 +59,15 @@ public class SuggestQuerySearcher implements ISearcher{
      * @param factor if (suggested results > original results * factor) it suggests the results
      */
     public SuggestQuerySearcher(ISearcher searcher, AQuerySuggestor suggestor, int groupsThreshold, float suggestionBetterByFactor, int maxSuggestionsToTry) {
+        this(searcher, suggestor, groupsThreshold, suggestionBetterByFactor, maxSuggestionsToTry, maxSuggestionsToTry, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param workerThreads the number of threads counting the hits of suggested queries,
+     *      shared by all the queries.
+     * @param timeout how many milliseconds to wait for the hits of the suggested queries.
+     */
+    public SuggestQuerySearcher(ISearcher searcher, AQuerySuggestor suggestor, int groupsThreshold, float suggestionBetterByFactor, int maxSuggestionsToTry, int workerThreads, long timeout) {
         if (null == searcher) {
             throw new IllegalArgumentException("searcher cannot be null.");
         }
@@ -58,51 +79,111 @@ public class SuggestQuerySearcher implements ISearcher{
         this.suggestionBetterByFactor = suggestionBetterByFactor;
         this.groupsThreshold = groupsThreshold;
         this.maxSuggestionsToTry = maxSuggestionsToTry;
+        this.timeout = timeout;
+        executor = new MultiExecutor<Integer>(workerThreads, "suggestQuerySearcher");
     }
 
     public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup groupBy, int groupSize, AFilter afilter, ASort asort)  throws SearcherException{        
         GroupedSearchResults res = searcher.search(query, firstResult, count, groupBy, groupSize, afilter, asort);
         if (null == res) { throw new SearcherException("GroupedSearchResults is NULL"); }
+        if (!QueryParams.isSearchPhase(query)) {
+            suggest(res, query, afilter);
+        }
+        return res;
+    }
 
+    public MultiSearchResults multiSearch(List<QueryParams> queries) throws SearcherException {
+        MultiSearchResults res = searcher.multiSearch(queries);
+        for (int i = 0; i < res.size(); i++) {
+            if (res.isOk(i) && !QueryParams.isSearchPhase(queries.get(i).getQuery())) {
+                suggest(res.getResults(i), queries.get(i).getQuery(), queries.get(i).getFilter());
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Sets the suggested query of the results, if they are few and a suggestion finds enough more.
+     */
+    private void suggest(GroupedSearchResults res, AQuery query, AFilter afilter) {
         // Check if there's the need to find a suggested query.
         if (res.totalGroupsEstimation() < groupsThreshold) {  
             if (logger.isDebugEnabled()) { logger.debug("did not get enough results for query " + query.toString() + ". Will try to suggest."); }
             long start = System.currentTimeMillis();
             // suggest queries for this query
             List<AQuery> suggestions = suggestor.suggest(query);
+            int[] hits = countSuggestions(suggestions, afilter);
             int bestSuggestion = -1;
-            float minResultCount = res.totalGroupsEstimation() * suggestionBetterByFactor;
-// System.out.println("Suggestion for query ["+query.toString()+"]: "+suggestions.toString());
-            for (int i=0; i<suggestions.size() && i<maxSuggestionsToTry; i++) {
-// System.out.println("  "+suggestions.get(i).toString());
-                if (logger.isDebugEnabled()) { logger.debug("trying suggested query " + suggestions.get(i).toString() + " for query " + query.toString()); }
-                // Do the search with the suggested query, using the same filter and grouping and ignoring 
-                // sorting as it doesn't affect the number of results and slows down the operation.
-                GroupedSearchResults resSuggested = searcher.search(suggestions.get(i), 0, 1, groupBy, groupSize, afilter, null);
+            float minResultCount = res.totalResults() * suggestionBetterByFactor;
+            for (int i = 0; i < hits.length; i++) {
                 // check that there are enough results for suggestion
-// System.out.println("  ..."+resSuggested.totalGroupsEstimation()+" results");
-                if (resSuggested.totalGroupsEstimation() > minResultCount) {
+                if (hits[i] > minResultCount) {
                     bestSuggestion = i;
-                    minResultCount = resSuggested.totalGroupsEstimation();
+                    minResultCount = hits[i];
                 }
             }
-// System.out.println("  best: "+bestSuggestion);
             if (bestSuggestion >= 0) {
                 res.setSuggestedQuery(suggestions.get(bestSuggestion));
             }
             long end = System.currentTimeMillis();
             Statistics.getStatistics().notifyEventValue("suggestQuery", (end - start)/1000.0f);
         }
-        return res;
+    }
+
+    /**
+     * Counts the hits of the first maxSuggestionsToTry suggestions at the same time, with the
+     * same filter as the original query. Grouping and sorting are ignored, as they do not
+     * change how the suggestions compare. The suggestions that fail or are not counted in
+     * time get 0 hits.
+     */
+    private int[] countSuggestions(List<AQuery> suggestions, final AFilter afilter) {
+        int[] hits = new int[Math.min(suggestions.size(), maxSuggestionsToTry)];
+        if (0 == hits.length) {
+            return hits;
+        }
+        Execution<Integer> execution = new Execution<Integer>();
+        for (int i = 0; i < hits.length; i++) {
+            final AQuery suggestion = suggestions.get(i);
+            if (logger.isDebugEnabled()) { logger.debug("trying suggested query " + suggestion.toString()); }
+            execution.addTask(new CallableWithId<Integer, Integer>(i) {
+                public Integer call() throws Exception {
+                    return searcher.countHits(suggestion, afilter);
+                }
+            });
+        }
+        executor.addExecution(execution);
+        try {
+            execution.waitFor(timeout);
+        } catch (InterruptedException e) {
+            execution.forget();
+            logger.warn("timeout counting the hits of some suggested queries");
+        }
+        synchronized (execution) {
+            for (Results<Integer> result : execution.getResultsList()) {
+                @SuppressWarnings("unchecked")
+                int i = ((CallableWithId<Integer, Integer>) result.getTask()).getId();
+                if (result.isFinishedOk()) {
+                    hits[i] = result.getResults();
+                } else {
+                    logger.warn("could not count the hits of suggested query " + suggestions.get(i), result.getException());
+                }
+            }
+        }
+        return hits;
+    }
+
+    public int countHits(AQuery query, AFilter filter) throws SearcherException {
+        return searcher.countHits(query, filter);
     }
 
     @Override
     public void requestStop() {
+        executor.requestStop();
         searcher.requestStop();
     }
 
     @Override
     public boolean isStopped() {
-        return searcher.isStopped();
+        return executor.isStopped() && searcher.isStopped();
     }
 }
@@ -0,0 +1,147 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermVectorMapper;
+import org.apache.lucene.index.TermVectorOffsetInfo;
+import org.apache.lucene.search.Query;
+
+/**
+ * Finds the offsets of the query terms in the fields of a document, using the
+ * term vectors stored at index time, so snippets can be built without analyzing
+ * the text again.
+ *
+ * The offsets are added to the document in a field named
+ * {@link SnippetSearcher#OFFSETS_FIELDNAME_PREFIX}&lt;field&gt;, as a list of
+ * start:end pairs sorted by start. Fields without term vectors get no such field.
+ *
+ * @author Flaptor Development Team
+ */
+final class TermVectorOffsets {
+
+    private final String[] fields;
+    // The query terms of each field.
+    private final Map<String, Set<String>> terms = new HashMap<String, Set<String>>();
+
+    /**
+     * @param query the rewritten query, whose terms will be looked for.
+     * @param fields the fields to find the offsets of.
+     */
+    TermVectorOffsets(Query query, String[] fields) {
+        this.fields = fields;
+        Set<Term> queryTerms = new HashSet<Term>();
+        try {
+            query.extractTerms(queryTerms);
+        } catch (UnsupportedOperationException e) {
+            // the query does not know its terms, snippets will be built analyzing the text.
+            queryTerms.clear();
+        }
+        for (String field : fields) {
+            terms.put(field, new HashSet<String>());
+        }
+        for (Term term : queryTerms) {
+            Set<String> fieldTerms = terms.get(term.field());
+            if (null != fieldTerms) {
+                fieldTerms.add(term.text());
+            }
+        }
+    }
+
+    /**
+     * Adds the offsets of the query terms in the fields of the document.
+     */
+    void addOffsets(IndexReader reader, int docId, Document doc) throws IOException {
+        for (String field : fields) {
+            OffsetsMapper mapper = new OffsetsMapper(terms.get(field));
+            reader.getTermFreqVector(docId, field, mapper);
+            if (mapper.hasVector) {
+                doc.add(new Field(SnippetSearcher.OFFSETS_FIELDNAME_PREFIX + field, mapper.encode(), Field.Store.YES, Field.Index.NO));
+            }
+        }
+    }
+
+    /**
+     * Decodes the offsets added by addOffsets.
+     * @return start and end offsets, alternated and sorted.
+     */
+    static int[] decode(String encoded) {
+        if (encoded.length() == 0) {
+            return new int[0];
+        }
+        String[] pairs = encoded.split(",");
+        int[] offsets = new int[pairs.length * 2];
+        for (int i = 0; i < pairs.length; i++) {
+            int colon = pairs[i].indexOf(':');
+            offsets[2 * i] = Integer.parseInt(pairs[i].substring(0, colon));
+            offsets[2 * i + 1] = Integer.parseInt(pairs[i].substring(colon + 1));
+        }
+        return offsets;
+    }
+
+    // Keeps the offsets of the query terms, ignoring the other terms of the vector.
+    private static class OffsetsMapper extends TermVectorMapper {
+        private final Set<String> wanted;
+        private boolean hasVector = false;
+        private long[] found = new long[8];
+        private int count = 0;
+
+        OffsetsMapper(Set<String> wanted) {
+            this.wanted = wanted;
+        }
+
+        public void setExpectations(String field, int numTerms, boolean storeOffsets, boolean storePositions) {
+            hasVector = storeOffsets;
+        }
+
+        public void map(String term, int frequency, TermVectorOffsetInfo[] offsets, int[] positions) {
+            if (null == offsets || !wanted.contains(term)) {
+                return;
+            }
+            for (TermVectorOffsetInfo offset : offsets) {
+                if (count == found.length) {
+                    long[] grown = new long[count * 2];
+                    System.arraycopy(found, 0, grown, 0, count);
+                    found = grown;
+                }
+                // start in the high bits, so sorting the longs sorts by start.
+                found[count++] = ((long) offset.getStartOffset() << 32) | offset.getEndOffset();
+            }
+        }
+
+        String encode() {
+            Arrays.sort(found, 0, count);
+            StringBuilder sb = new StringBuilder(count * 10);
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append((int) (found[i] >>> 32)).append(':').append((int) found[i]);
+            }
+            return sb.toString();
+        }
+    }
+}
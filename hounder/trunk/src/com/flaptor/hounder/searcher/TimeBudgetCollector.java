@@ -0,0 +1,73 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import org.apache.lucene.search.HitCollector;
+
+/**
+ * Forwards the hits of a search to another collector until a deadline, checking the clock
+ * once every CHECK_INTERVAL hits. When the deadline has passed it throws
+ * {@link TimeExceededException} out of the search, and the collector it wraps keeps the best
+ * hits found until then.
+ *
+ * @author Flaptor Development Team
+ */
+final class TimeBudgetCollector extends HitCollector {
+
+    // Reading the clock on every hit would cost more than scoring most of them.
+    static final int CHECK_INTERVAL = 256;
+
+    private final HitCollector collector;
+    private final long deadline;
+    private int hits = 0;
+    private boolean exceeded = false;
+
+    /**
+     * Thrown to stop a search when its time is up.
+     */
+    static final class TimeExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TimeExceededException() {
+            super("the search ran out of time.");
+        }
+    }
+
+    /**
+     * @param collector the collector to forward the hits to.
+     * @param timeBudget the max number of milliseconds to collect hits, from now.
+     */
+    TimeBudgetCollector(HitCollector collector, long timeBudget) {
+        this.collector = collector;
+        this.deadline = System.currentTimeMillis() + timeBudget;
+    }
+
+    @Override
+    public void collect(int doc, float score) {
+        collector.collect(doc, score);
+        if (++hits % CHECK_INTERVAL == 0 && System.currentTimeMillis() > deadline) {
+            exceeded = true;
+            throw new TimeExceededException();
+        }
+    }
+
+    /**
+     * @return true if the search was stopped because its time was up.
+     */
+    boolean isExceeded() {
+        return exceeded;
+    }
+}
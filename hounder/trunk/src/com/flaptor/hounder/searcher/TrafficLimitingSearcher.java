@@ -15,12 +15,7 @@ limitations under the License.
  */
 package com.flaptor.hounder.searcher;
 
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
@@ -32,153 +27,201 @@ import com.flaptor.util.Statistics;
 
 /**
  * This class limits the number of simultaneous queries
- * and manages the waiting queue size according to throughput
- * estimates.
+ * and the size of the waiting queue, adapting both to the
+ * latency of the queries (see {@link ConcurrencyLimiter}).
+ *
+ * If it has a {@link QueryCostEstimator}, the queries wait in a lane according to their
+ * estimated cost, and the lanes share the turns in proportion to their weights, so a burst
+ * of expensive queries does not hold back the cheap ones.
  *
  * The waiting time in queue is enforced using 2 different algorithms:
  * <dl>
  *  <dt> Early drop </dt>
- *      <dd>Calculates the throughput, and based on that calculates how many queries
- *      can be answered before <code>maxTimeInQueue</code>. It then drops from the
- *      queue all the queries that will not be answered</dd>
+ *      <dd>The queue only has room for the queries that can be answered before
+ *      <code>maxTimeInQueue</code> at the recent latency. Queries arriving to a full
+ *      queue are dropped</dd>
  *  <dt> Late drop</dt>
- *      <dd>Right after the query arrives, we log the arriving time. Right
- *      before executing the query, we check how long the query was in this queue.
- *      If it was more than <code>maxTimeInQueue</code> it will be discarded. </dd>
+ *      <dd>Queries that wait in the queue for more than <code>maxTimeInQueue</code>
+ *      are discarded. </dd>
  *  </dl>
+ * Hit counts are limited too, in the last lane.
+ * A batch of queries is let through or dropped as a whole, in the lane of its total cost. It takes
+ * a slot for each query the base searcher runs at the same time, up to <code>batchThreads</code>.
  * @author Martin Massera, Spike
  * @author rafa
  */
 public class TrafficLimitingSearcher implements ISearcher {
     private static final Logger logger = Logger.getLogger(com.flaptor.util.Execute.whoAmI());
 
+    private static final double DEFAULT_LATENCY_TOLERANCE = 2;
+
     private final Statistics stats = Statistics.getStatistics();
     final private ISearcher baseSearcher;
 
-    private final int maxTimeInQueue;
     private final int maxSimultaneousQueries;
-    private volatile int maxQueueSize;
-
-    private int queriesInProgress = 0;
-
-    private static final int QUEUE_THRESHOLD = 5; // if the threshold is exceeded start calculating the throughput
+    private final ConcurrencyLimiter limiter;
+    private final QueryCostEstimator estimator;
+    private final int batchThreads;
 
-    private int queryCount = 0; // for counting and making statistics
-    private final Object queryCountMutex = new Object();
+    /**
+     * Creates a TrafficLimitingSearcher whose limit adapts between 1 and
+     * <code>maxSimultaneousQueries</code>.
+     *
+     * @param baseSearcher the base searcher that executes the searches
+     * @param maxSimultaneousQueries maximum number of simultaneous queries
+     * @param maxTimeInQueue maximum time of a query spent in the queue.
+     */
+    public TrafficLimitingSearcher(ISearcher baseSearcher, int maxSimultaneousQueries,
+            int maxTimeInQueue) {
+        this(baseSearcher, 1, maxSimultaneousQueries, maxTimeInQueue, DEFAULT_LATENCY_TOLERANCE);
+    }
 
+    /**
+     * Creates a TrafficLimitingSearcher
+     *
+     * @param baseSearcher the base searcher that executes the searches
+     * @param minSimultaneousQueries the limit of simultaneous queries never goes below this.
+     * @param maxSimultaneousQueries maximum number of simultaneous queries
+     * @param maxTimeInQueue maximum time of a query spent in the queue.
+     * @param latencyTolerance how many times slower than without queueing the queries
+     *  may get before the limit of simultaneous queries goes down.
+     */
+    public TrafficLimitingSearcher(ISearcher baseSearcher, int minSimultaneousQueries, int maxSimultaneousQueries,
+            int maxTimeInQueue, double latencyTolerance) {
+        this(baseSearcher, minSimultaneousQueries, maxSimultaneousQueries, maxTimeInQueue, latencyTolerance, null, new int[] {1});
+    }
 
-    private final Semaphore sem;
-    private AtomicInteger queueSize= new AtomicInteger(0);
+    /**
+     * Creates a TrafficLimitingSearcher that sorts the queries into lanes by cost.
+     *
+     * @param baseSearcher the base searcher that executes the searches
+     * @param minSimultaneousQueries the limit of simultaneous queries never goes below this.
+     * @param maxSimultaneousQueries maximum number of simultaneous queries
+     * @param maxTimeInQueue maximum time of a query spent in the queue.
+     * @param latencyTolerance how many times slower than without queueing the queries
+     *  may get before the limit of simultaneous queries goes down.
+     * @param estimator estimates the cost of the queries to choose their lane. If null,
+     *  all the queries share a single lane.
+     * @param laneWeights the weight of each lane, cheapest first. There must be one per
+     *  lane of the estimator.
+     */
+    public TrafficLimitingSearcher(ISearcher baseSearcher, int minSimultaneousQueries, int maxSimultaneousQueries,
+            int maxTimeInQueue, double latencyTolerance, QueryCostEstimator estimator, int[] laneWeights) {
+        this(baseSearcher, minSimultaneousQueries, maxSimultaneousQueries, maxTimeInQueue, latencyTolerance, estimator, laneWeights, Integer.MAX_VALUE);
+    }
 
     /**
-     * Creates a TrafficLimitingSearcher
+     * Creates a TrafficLimitingSearcher that sorts the queries into lanes by cost.
      *
      * @param baseSearcher the base searcher that executes the searches
+     * @param minSimultaneousQueries the limit of simultaneous queries never goes below this.
      * @param maxSimultaneousQueries maximum number of simultaneous queries
      * @param maxTimeInQueue maximum time of a query spent in the queue.
-     * The restriction is enforced twice:
-     * <ol>
-     *   <li>  The time is checked when the query arrives, by calculating the
-     * time will pass in the queue based on throuhgput estimation. </li>
-     *   <li> The time is checked right before executing the query.</li>
-     * </ol>
+     * @param latencyTolerance how many times slower than without queueing the queries
+     *  may get before the limit of simultaneous queries goes down.
+     * @param estimator estimates the cost of the queries to choose their lane. If null,
+     *  all the queries share a single lane.
+     * @param laneWeights the weight of each lane, cheapest first. There must be one per
+     *  lane of the estimator.
+     * @param batchThreads how many queries of a batch the base searcher runs at the same time.
      */
-    public TrafficLimitingSearcher(ISearcher baseSearcher, int maxSimultaneousQueries,
-            int maxTimeInQueue) {
+    public TrafficLimitingSearcher(ISearcher baseSearcher, int minSimultaneousQueries, int maxSimultaneousQueries,
+            int maxTimeInQueue, double latencyTolerance, QueryCostEstimator estimator, int[] laneWeights, int batchThreads) {
         if (null == baseSearcher) {
             throw new IllegalArgumentException("baseSearcher cannot be null.");
         }
+        if (laneWeights.length != ((null == estimator) ? 1 : estimator.getLanes())) {
+            throw new IllegalArgumentException("there must be a weight for each lane (" + laneWeights.length + " weights).");
+        }
         this.baseSearcher = baseSearcher;
         this.maxSimultaneousQueries = maxSimultaneousQueries;
-        this.maxQueueSize = QUEUE_THRESHOLD + maxSimultaneousQueries * 2;
-        this.sem= new Semaphore(maxSimultaneousQueries, true);
-        this.maxTimeInQueue = maxTimeInQueue;
-        new Timer().schedule(new QueueSizeCalculator(), 0, 1000);
+        this.estimator = estimator;
+        this.batchThreads = Math.max(1, batchThreads);
+        this.limiter = new ConcurrencyLimiter(Math.min(minSimultaneousQueries, maxSimultaneousQueries), maxSimultaneousQueries,
+                maxTimeInQueue, latencyTolerance, laneWeights);
     }
 
     public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup group, int groupSize, AFilter filter, ASort sort)  throws SearcherException{
-        long enqueuedTime= System.currentTimeMillis();
-        int qs= queueSize.incrementAndGet();
-        if (qs > maxQueueSize){  // if there is not enough space in queue, drop it
-            queueSize.decrementAndGet();
-            logger.info("TrafficLimitingSearcher: dropping a query, the query queue reached " +
-                    "the maximum of " + maxQueueSize + " queries." );
-            //TODO:change the SearchTimeoutException class to reflect the reality of an early drop.
-            throw new SearchTimeoutException(-1 ,"The search was discarded by TrafficLimitingSearcher - " +
-            		"there is no place in the queue (earlyDrop)");
+        int lane = 0;
+        if (null != estimator) {
+            long cost = estimator.estimate(query, firstResult, count, groupSize);
+            lane = estimator.getLane(cost);
+            stats.notifyEventValue("query cost estimate", cost);
         }
+        acquire(lane);
 
-        try { // Wait here, till one of the maxSimultaneousQueries permissions is available
-            sem.acquire();
-        } catch (InterruptedException e) {
-            logger.error("Interrupted while waiting in q", e);
-            throw new SearcherException("The search was discarded by TrafficLimitingSearcher - interrupted while waiting in queue");
-        } finally{
-            queueSize.decrementAndGet();
+        long start = System.nanoTime();
+        long latency = -1;
+        try {
+            GroupedSearchResults results = baseSearcher.search(query, firstResult, count, group, groupSize, filter, sort);
+            latency = System.nanoTime() - start;
+            return results;
+        } finally {
+            limiter.release(latency);
         }
 
-        stats.notifyEventValue("queriesInProgress", maxSimultaneousQueries - sem.availablePermits());
+    }
 
-        long now = System.currentTimeMillis();
-        if (now - enqueuedTime > maxTimeInQueue) {
-            sem.release();
-            throw new SearchTimeoutException(maxTimeInQueue ,"The search was discarded by TrafficLimitingSearcher - " +
-            		"the query was too much time on queue (lateDrop). " +
-                    "maxTimeInQ: " + maxTimeInQueue+", in: " +  enqueuedTime +
-                    ", now: " + now + " --> " + (now - enqueuedTime));
-        }
-        synchronized (queryCountMutex) {
-            queryCount++;
+    public MultiSearchResults multiSearch(List<QueryParams> queries) throws SearcherException {
+        int lane = 0;
+        if (null != estimator) {
+            long cost = 0;
+            for (QueryParams params : queries) {
+                cost += estimator.estimate(params.getQuery(), params.getFirstResult(), params.getCount(), params.getGroupSize());
+            }
+            lane = estimator.getLane(cost);
+            stats.notifyEventValue("query cost estimate", cost);
         }
+        int slots = acquire(lane, Math.min(queries.size(), batchThreads));
+
+        long start = System.nanoTime();
+        long latency = -1;
         try {
-            GroupedSearchResults results = baseSearcher.search(query, firstResult, count, group, groupSize, filter, sort);
+            MultiSearchResults results = baseSearcher.multiSearch(queries);
+            // the limiter adapts to the latency of single queries: each slot was busy during
+            // the whole batch, running its share of the queries one after the other.
+            latency = (System.nanoTime() - start) * slots / Math.max(1, queries.size());
             return results;
         } finally {
-            sem.release();
+            limiter.release(slots, latency);
         }
+    }
+
+    // Waits for a turn in the lane, or throws if the limiter drops the query.
+    private void acquire(int lane) throws SearcherException {
+        acquire(lane, 1);
+    }
 
+    // Waits for a turn in the lane to take the slots, or throws if the limiter drops the query.
+    // Returns the slots taken.
+    private int acquire(int lane, int slots) throws SearcherException {
+        long enqueued = System.currentTimeMillis();
+        int taken;
+        try {
+            taken = limiter.acquire(lane, slots);
+        } catch (SearchTimeoutException e) {
+            logger.info(e.getMessage());
+            throw e;
+        }
+        stats.notifyEventValue("timeInQueue_lane" + lane, System.currentTimeMillis() - enqueued);
+        stats.notifyEventValue("queriesInProgress", limiter.getInFlight());
+        return taken;
     }
 
     /**
-     * timer task that calculates the throughput. The throughput is calculated
-     * whenever there is enough traffic (the queue is over the queue threshold)
+     * Counts wait in the last lane, the one for the most expensive queries: they run the
+     * query over all its matches, as a search does, and they come straight from the clients.
+     * Their latency is left out of the limiter's, which adapts to that of the searches.
      */
-    private class QueueSizeCalculator extends TimerTask {
-        final private static int SAMPLES = 10;
-        private Queue<Integer> queryCounts = new LinkedList<Integer>();
-        private int totalSum=0;
-        private long lastRun= System.currentTimeMillis();
-        public void run() {
-            if (queueSize.get() > QUEUE_THRESHOLD) {
-                while (queryCounts.size() >= SAMPLES){
-                    Integer val = queryCounts.remove();
-                    totalSum -= val.intValue();
-                }
-                float windowTime;
-                int qC;
-                synchronized (queryCountMutex) {
-                    windowTime= System.currentTimeMillis() - lastRun;
-                    qC= queryCount;
-                    queryCount = 0;
-                    lastRun= System.currentTimeMillis();
-                }
-                totalSum += qC;
-                queryCounts.add(qC);
-
-                float throughput = 0; // how many queries we served
-                throughput = totalSum /  queryCounts.size();
-
-                maxQueueSize = Math.max(QUEUE_THRESHOLD +1, (int) ( maxTimeInQueue * (throughput/windowTime)));
-            } else {
-                synchronized (queryCountMutex) {
-                    queryCount = 0;
-                    lastRun= System.currentTimeMillis();
-                }
-            }
+    public int countHits(AQuery query, AFilter filter) throws SearcherException {
+        acquire(limiter.getLanes() - 1);
+        try {
+            return baseSearcher.countHits(query, filter);
+        } finally {
+            limiter.release(-1);
         }
     }
 
-
     /**
      * @return the maximum number of simultaneous queries
      */
@@ -186,11 +229,33 @@ public class TrafficLimitingSearcher implements ISearcher {
         return maxSimultaneousQueries;
     }
 
+    /**
+     * @return the current limit of simultaneous queries, as adapted to the latency.
+     */
+    public int getConcurrencyLimit() {
+        return limiter.getLimit();
+    }
+
+    /**
+     * @return the current limit of queries waiting for their turn.
+     */
+    public int getMaxQueueSize() {
+        return limiter.getMaxQueueSize();
+    }
+
+    /**
+     * @return the number of queries rejected so far, because the queue was full
+     *  or they waited too long.
+     */
+    public long getRejectedQueries() {
+        return limiter.getRejected();
+    }
+
     /**
      * @return the number of queries in progress
      */
     public int getSimultaneousQueries() {
-        return queriesInProgress;
+        return limiter.getInFlight();
     }
 
     @Override
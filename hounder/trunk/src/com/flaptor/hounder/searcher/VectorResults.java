@@ -37,6 +37,7 @@ import com.flaptor.hounder.searcher.query.LazyParsedQuery;
 import com.flaptor.hounder.searcher.sort.ASort;
 import com.flaptor.hounder.searcher.sort.FieldSort;
 import com.flaptor.hounder.searcher.sort.ScoreSort;
+import com.flaptor.hounder.util.SimHash;
 import com.flaptor.util.Execute;
 import com.flaptor.util.Pair;
 
@@ -366,6 +367,10 @@ public class VectorResults {
                 Hashtable<String,String> fh = new Hashtable<String,String>();
                 for (Iterator iter = d.getFields().iterator(); iter.hasNext();) {
                     Field f = (Field) iter.next();
+                    if (SimHash.isFieldName(f.name())) {
+                        // only used to merge grouped results.
+                        continue;
+                    }
                     fh.put(f.name(),f.stringValue());
                 }
                 vGroup.add(fh);
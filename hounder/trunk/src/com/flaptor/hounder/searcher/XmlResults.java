@@ -15,18 +15,24 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.Vector;
 import java.util.Map;
 import java.util.HashMap;
 
 import org.apache.lucene.document.Field;
 import org.dom4j.Document;
-import org.dom4j.DocumentHelper;
-import org.dom4j.Element;
 
 import com.flaptor.hounder.searcher.query.AQuery;
 import com.flaptor.hounder.searcher.query.LazyParsedQuery;
+import com.flaptor.hounder.util.DomXmlSink;
+import com.flaptor.hounder.util.SimHash;
+import com.flaptor.hounder.util.XmlSink;
 import com.flaptor.util.DomUtil;
 
 /**
@@ -34,6 +40,10 @@ import com.flaptor.util.DomUtil;
  */
 public class XmlResults {
 
+    /**
+     * The elements that repeat in the results document, written as arrays in JSON.
+     */
+    public static final Set<String> LIST_ELEMENTS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("group", "result")));
 
     /**
      * Private empty default constructor to prevent inheritance and instantiation.
@@ -71,63 +81,111 @@ public class XmlResults {
      * <br>An empty sr argument means that no results were found.
      */
     public static final Document buildXml(String queryString, int start, int count, String orderBy, GroupedSearchResults sr, int status, String statusMsg, String xsltUri, String rangeField, String rangeStart, String rangeEnd, Map<String,String[]> params) {
+        DomXmlSink sink = new DomXmlSink();
+        try {
+            write(sink, queryString, start, count, orderBy, sr, status, statusMsg, xsltUri, rangeField, rangeStart, rangeEnd, params, null);
+        } catch (IOException e) {
+            // Should never happen, nothing is written.
+            throw new IllegalStateException(e);
+        }
+        return sink.getDocument();
+    }
 
-        Document dom = DocumentHelper.createDocument();
+    /**
+     * Sends the XML search results document to a sink, element by element.
+     * The parameters are those of {@link #buildXml(String, int, int, String, GroupedSearchResults, int, String, String, String, String, String, Map)},
+     * with the addition of:
+     * @param sink where to send the document, e.g. an XmlStreamWriter to write it to the response stream.
+     * @param rootAttributes attributes to add to the root element, or null.
+     */
+    public static final void write(XmlSink sink, String queryString, int start, int count, String orderBy, GroupedSearchResults sr, int status, String statusMsg, String xsltUri, String rangeField, String rangeStart, String rangeEnd, Map<String,String[]> params, Map<String,String> rootAttributes) throws IOException {
         if (null != xsltUri) {
             Map<String,String> map = new HashMap<String,String>();
             map.put("type", "text/xsl");
             map.put("href", xsltUri);
-            dom.addProcessingInstruction("xml-stylesheet", map);
+            sink.processingInstruction("xml-stylesheet", map);
         }
-        Element root;
-        Element group;
-        root = dom.addElement("SearchResults");
-        root.addElement("totalResults").addText(Integer.toString(sr.totalResults()));
-        root.addElement("totalGroupsEstimation").addText(Integer.toString(sr.totalGroupsEstimation()));
-        if (count > 0) { root.addElement("startIndex").addText(Integer.toString(start)); }
-        if (count > 0) { root.addElement("itemsPerPage").addText(Integer.toString(count)); }
-        if (null != orderBy) { root.addElement("orderBy").addText(DomUtil.filterXml(orderBy)); }
-        if (null != queryString) { root.addElement("query").addText(DomUtil.filterXml(queryString)); }
+        writeSearchResults(sink, queryString, start, count, orderBy, sr, status, statusMsg, rangeField, rangeStart, rangeEnd, params, rootAttributes);
+        sink.endDocument();
+    }
+
+    /**
+     * Sends only the SearchResults element to a sink, so that the results of many queries
+     * can be written in the same document. The parameters are those of
+     * {@link #write(XmlSink, String, int, int, String, GroupedSearchResults, int, String, String, String, String, String, Map, Map)}.
+     */
+    public static final void writeSearchResults(XmlSink sink, String queryString, int start, int count, String orderBy, GroupedSearchResults sr, int status, String statusMsg, String rangeField, String rangeStart, String rangeEnd, Map<String,String[]> params, Map<String,String> rootAttributes) throws IOException {
+        sink.startElement("SearchResults");
+        if (null != rootAttributes) {
+            for (Map.Entry<String,String> attribute : rootAttributes.entrySet()) {
+                sink.attribute(attribute.getKey(), attribute.getValue());
+            }
+        }
+        // The names of the elements added so far, so a request parameter does not repeat one.
+        Set<String> names = new HashSet<String>();
+        addElement(sink, names, "totalResults", Integer.toString(sr.totalResults()));
+        addElement(sink, names, "totalGroupsEstimation", Integer.toString(sr.totalGroupsEstimation()));
+        if (count > 0) { addElement(sink, names, "startIndex", Integer.toString(start)); }
+        if (count > 0) { addElement(sink, names, "itemsPerPage", Integer.toString(count)); }
+        if (null != orderBy) { addElement(sink, names, "orderBy", DomUtil.filterXml(orderBy)); }
+        if (null != queryString) { addElement(sink, names, "query", DomUtil.filterXml(queryString)); }
+        if (null != sr.getNextCursor()) { addElement(sink, names, "nextCursor", sr.getNextCursor().toString()); }
         if (null != rangeField) {
-            root.addElement("filter").
-                    addAttribute("field",rangeField).
-                    addAttribute("start",rangeStart).
-                    addAttribute("end",rangeEnd);
+            sink.startElement("filter");
+            sink.attribute("field", rangeField);
+            sink.attribute("start", rangeStart);
+            sink.attribute("end", rangeEnd);
+            sink.endElement();
+            names.add("filter");
         }
         if (null != params) {
             for (String key : params.keySet()) {
-                if (null == root.selectSingleNode(key)) {
+                if (!names.contains(key)) {
                     String val = params.get(key)[0];
-                    root.addElement(key).addText(val);
+                    addElement(sink, names, key, val);
                 }
             }
         }
         AQuery suggestedQuery = sr.getSuggestedQuery();
         if (null != suggestedQuery) {
-            root.addElement("suggestedQuery").addText(DomUtil.filterXml(((LazyParsedQuery)suggestedQuery).getQueryString()));
+            addElement(sink, names, "suggestedQuery", DomUtil.filterXml(((LazyParsedQuery)suggestedQuery).getQueryString()));
         }
-        root.addElement("status").addText(Integer.toString(status));
-        root.addElement("statusDesc").addText(statusMsg);
+        if (sr.isPartial()) { addElement(sink, names, "partial", "true"); }
+        addElement(sink, names, "status", Integer.toString(status));
+        addElement(sink, names, "statusDesc", statusMsg);
 
         for (int i=0; i<sr.groups(); i++) {
-            String name = sr.getGroup(i).first();
-            group = root.addElement("group").addAttribute("name", name);
+            sink.startElement("group");
+            sink.attribute("name", sr.getGroup(i).first());
             Vector<org.apache.lucene.document.Document> docs = sr.getGroup(i).last();
             for (int j = 0; j < docs.size(); j++) {
-                org.apache.lucene.document.Document doc = sr.getGroup(i).last().get(j);                
-                createAndAddElement(doc, group);
+                writeResult(sink, docs.get(j));
             }
+            sink.endElement();
         }
-        return dom;
+        sink.endElement();
     }
 
-    private static Element createAndAddElement(org.apache.lucene.document.Document doc, Element parent) {
-        Element item = parent.addElement("result");            
+    private static void addElement(XmlSink sink, Set<String> names, String name, String text) throws IOException {
+        sink.startElement(name);
+        sink.text(text);
+        sink.endElement();
+        names.add(name);
+    }
+
+    private static void writeResult(XmlSink sink, org.apache.lucene.document.Document doc) throws IOException {
+        sink.startElement("result");
         for (Iterator iter = doc.getFields().iterator(); iter.hasNext(); ) {
             Field f = (Field) iter.next();
-            item.addElement(f.name()).addText(f.stringValue());
+            if (SimHash.isFieldName(f.name())) {
+                // only used to merge grouped results.
+                continue;
+            }
+            sink.startElement(f.name());
+            sink.text(f.stringValue());
+            sink.endElement();
         }
-        return item;
+        sink.endElement();
     }
 
 }
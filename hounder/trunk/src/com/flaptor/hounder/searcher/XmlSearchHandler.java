@@ -18,8 +18,19 @@ package com.flaptor.hounder.searcher;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -46,11 +57,16 @@ import com.flaptor.hounder.searcher.group.TextSignatureGroup;
 import com.flaptor.hounder.searcher.query.AQuery;
 import com.flaptor.hounder.searcher.query.AndQuery;
 import com.flaptor.hounder.searcher.query.LazyParsedQuery;
+import com.flaptor.hounder.searcher.query.FieldsQuery;
 import com.flaptor.hounder.searcher.query.PayloadQuery;
+import com.flaptor.hounder.searcher.query.SearchAfterQuery;
+import com.flaptor.hounder.searcher.query.TimeBudgetQuery;
 import com.flaptor.hounder.searcher.query.RangeQuery;
 import com.flaptor.hounder.searcher.sort.ASort;
 import com.flaptor.hounder.searcher.sort.FieldSort;
 import com.flaptor.hounder.searcher.sort.ScoreSort;
+import com.flaptor.hounder.util.DomXmlSink;
+import com.flaptor.hounder.util.XmlSink;
 import com.flaptor.util.Config;
 import com.flaptor.util.DomUtil;
 import com.flaptor.util.Execute;
@@ -72,6 +88,23 @@ public class XmlSearchHandler extends AbstractHandler {
     private final ISearcher searcher;
     private Map<String, Pair<Transformer, String>> transformMap;
     private static SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMdd-HHmmss");
+    private static final Map<String,String> ROOT_ATTRIBUTES = new LinkedHashMap<String,String>();
+    static {
+        ROOT_ATTRIBUTES.put("SearchEngine","Hounder (hounder.org)");
+        ROOT_ATTRIBUTES.put("DevelopedBy","Flaptor (flaptor.com)");
+    }
+    // The parameters of the queries of a batch: name.N
+    private static final Pattern BATCH_PARAM = Pattern.compile("(.+)\\.(\\d+)");
+    // In JSON, the results of a batch are an array of results.
+    private static final Set<String> BATCH_LIST_ELEMENTS;
+    static {
+        Set<String> names = new HashSet<String>(XmlResults.LIST_ELEMENTS);
+        names.add("SearchResults");
+        BATCH_LIST_ELEMENTS = Collections.unmodifiableSet(names);
+    }
+    private final boolean gzip;
+    private final int maxBatchSize;
+    private final HttpCaching caching;
     
     /**
      * Constructor.
@@ -94,6 +127,9 @@ public class XmlSearchHandler extends AbstractHandler {
         }
         this.searcher = searcher;
         Config config = Config.getConfig("searcher.properties");
+        gzip = config.getBoolean("searcher.http.gzip");
+        maxBatchSize = config.getInt("searcher.http.maxBatchSize");
+        caching = HttpCaching.forSearcher(searcher);
         transformMap = new HashMap<String, Pair<Transformer, String>>();
         String[] mappings = config.getStringArray("xmlsearch.transformMap");
         System.setProperty("javax.xml.transform.TransformerFactory", "net.sf.saxon.TransformerFactoryImpl");
@@ -130,6 +166,8 @@ public class XmlSearchHandler extends AbstractHandler {
      * group = < "site" | "signature">
      * orderBy
      * xsltUri
+     * timeBudget
+     * fields
      */
     @SuppressWarnings("unchecked")
     public static Document doQuery(HttpServletRequest request, ISearcher searcher) throws UnsupportedEncodingException {
@@ -167,210 +205,427 @@ public class XmlSearchHandler extends AbstractHandler {
      * @throws UnsupportedEncodingException
      */
     public static Document doQuery(HttpServletRequest request, ISearcher searcher, Map<String,String[]> params) throws UnsupportedEncodingException {
+        DomXmlSink sink = new DomXmlSink();
+        try {
+            doQuery(request, searcher, params, sink, null);
+        } catch (UnsupportedEncodingException e) {
+            throw e;
+        } catch (IOException e) {
+            // Should never happen, nothing is written.
+            throw new IllegalStateException(e);
+        }
+        return sink.getDocument();
+    }
+
+    /**
+     * Similar to {@link #doQuery(HttpServletRequest, ISearcher, Map)} but the
+     * results are sent to a sink instead of being returned as a document.
+     * @param sink where to send the results, e.g. an XmlStreamWriter on the response stream.
+     * @param rootAttributes attributes to add to the root element, or null.
+     */
+    public static void doQuery(HttpServletRequest request, ISearcher searcher, Map<String,String[]> params, XmlSink sink, Map<String,String> rootAttributes) throws IOException {
         request.setCharacterEncoding("utf-8");
-        
-        // Parameter processing
-        int minHitsPerPage=3;
-        int maxHitsPerPage=50;
-        int maxOffset=1000;       // Max number of hit the results page can start with
-        // parameters:
-        // query (string)    the query string
-        // start (int)       the offset of the first result
-        // hitsPerPage (int) the number of results to be returned
-        // orderBy (string)  the order in which to return the results: <field>:(int|long|float)[:reverse]
-        // tz (int)	         the timezone for displaying the date
-        
-        // Query String
-        String queryString = getParameter(params,"query");
-        if ((null == queryString) || (queryString.trim().equals(""))) {
-            queryString = "";
+        QueryRequest queryRequest = new QueryRequest(params);
+
+        GroupedSearchResults sr = null;
+        int status = 0;
+        String statusMessage = "OK";
+        try {
+            sr = queryRequest.toQueryParams().executeInSearcher(searcher);
+        } catch (SearcherException e) {
+            logger.error("SEARCHING",e);
+            status = 200;
+            statusMessage = e.getMessage();
+            sr = new GroupedSearchResults();
+        } catch (RuntimeException e) {
+            logger.error("SEARCHING",e);
+            status = 100;
+            statusMessage = "Internal error in XmlSearchHandler: " +e.getMessage();
+            sr = new GroupedSearchResults();
         }
 
-        // First hit to display
-        int start = 0;        // Default value
-        String startParam = getParameter(params, "start");
-        if (null != startParam) {
-            try {
-                start = Integer.parseInt(startParam);
-                if (start < 0) start = 0;
-                if (start > maxOffset) start = maxOffset;
-            } catch (java.lang.NumberFormatException e) {
-                // ignore garbage
-            }
+        XmlResults.write(sink, queryRequest.queryString, queryRequest.start, queryRequest.hitsPerPage, queryRequest.orderByParam, sr, status, statusMessage, queryRequest.xsltUri, queryRequest.rangeField, queryRequest.rangeStart, queryRequest.rangeEnd, params, rootAttributes);
+    }
+
+    /**
+     * Runs a batch of queries with a single call to {@link ISearcher#multiSearch(List)}, and sends
+     * their results to a sink as a MultiSearchResults element with a SearchResults element per
+     * query, in the same order. Each query has its own status.
+     * @param queries the parameters of each query, see {@link #batchParams(Map)}.
+     * @param xsltUri the uri for the xslt used to process the xml on the client side, or null.
+     */
+    public static void doMultiQuery(HttpServletRequest request, ISearcher searcher, List<Map<String,String[]>> queries, String xsltUri, XmlSink sink, Map<String,String> rootAttributes) throws IOException {
+        request.setCharacterEncoding("utf-8");
+        List<QueryRequest> queryRequests = new ArrayList<QueryRequest>(queries.size());
+        List<QueryParams> queryParams = new ArrayList<QueryParams>(queries.size());
+        for (Map<String,String[]> params : queries) {
+            QueryRequest queryRequest = new QueryRequest(params);
+            queryRequests.add(queryRequest);
+            queryParams.add(queryRequest.toQueryParams());
         }
 
-        // Number of hits to display
-        int hitsPerPage = 10;
-        String hitsPerPageParam = getParameter(params,"hitsPerPage");
-        if (null != hitsPerPageParam) {
-            try {
-                hitsPerPage = Integer.parseInt(hitsPerPageParam);
-                if (hitsPerPage < minHitsPerPage) hitsPerPage = minHitsPerPage;
-                if (hitsPerPage > maxHitsPerPage) hitsPerPage = maxHitsPerPage;
-            } catch (java.lang.NumberFormatException e) {
-                //ignore garbage
-            }
+        MultiSearchResults results = null;
+        int batchStatus = 0;
+        String batchStatusMessage = "OK";
+        try {
+            results = searcher.multiSearch(queryParams);
+        } catch (SearcherException e) {
+            logger.error("SEARCHING",e);
+            batchStatus = 200;
+            batchStatusMessage = e.getMessage();
+        } catch (RuntimeException e) {
+            logger.error("SEARCHING",e);
+            batchStatus = 100;
+            batchStatusMessage = "Internal error in XmlSearchHandler: " +e.getMessage();
         }
 
-        // orderBy param
-        ASort sort = null;
-        String orderByParam = getParameter(params,"orderBy");
-        if ((orderByParam != null) && !"".equals(orderByParam)) {
-            String[] sortingCriteria = orderByParam.split(",");
-            sort = new ScoreSort();
-            for (int i = (sortingCriteria.length-1); i >= 0; i--) {
-                String sortingCriterion = sortingCriteria[i];
-                String parts[] = sortingCriterion.split(":");
-                String sortField = parts[0];
-                FieldSort.OrderType orderType = FieldSort.OrderType.STRING;
-                boolean reverse = false;
-                for (int p = 1; p < parts.length; p++) {
-                	String part = parts[p].toLowerCase();
-                	if ("reverse".equals(part) || "reversed".equals(part)) {
-                		reverse = true;
-                		continue;
-                	}
-                	if ("int".equals(part)) {
-                		orderType = FieldSort.OrderType.INT;
-                		continue;
-                	}
-                	if ("long".equals(part)) {
-                		orderType = FieldSort.OrderType.LONG;
-                		continue;
-                	}
-                    if ("float".equals(part)) {
-                		orderType = FieldSort.OrderType.FLOAT;
-                		continue;
-                	}
-                }
-                if ("score".equals(sortField)) {
-                    sort = new ScoreSort();
-                } else {
-                    sort = new FieldSort(reverse, sortField, orderType, sort);
-                }
+        if (null != xsltUri) {
+            Map<String,String> map = new HashMap<String,String>();
+            map.put("type", "text/xsl");
+            map.put("href", xsltUri);
+            sink.processingInstruction("xml-stylesheet", map);
+        }
+        sink.startElement("MultiSearchResults");
+        if (null != rootAttributes) {
+            for (Map.Entry<String,String> attribute : rootAttributes.entrySet()) {
+                sink.attribute(attribute.getKey(), attribute.getValue());
             }
         }
-
-        // Filtering
-
-        // Categories (multi-valued)
-        String[] categoriesParams = params.get("categories");
-        BooleanFilter andFilter = null;
-        if (categoriesParams != null) {
-            andFilter = new BooleanFilter(BooleanFilter.Type.AND);
-            for (String categoriesParam : categoriesParams) {
-                String[] oredCategories = categoriesParam.split(",");
-                BooleanFilter orFilter = new BooleanFilter(BooleanFilter.Type.OR);
-                for (String oredCategory : oredCategories) {
-                    orFilter.addFilter(new ValueFilter("categories", oredCategory));
+        for (int i = 0; i < queryRequests.size(); i++) {
+            QueryRequest queryRequest = queryRequests.get(i);
+            GroupedSearchResults sr = null;
+            int status = batchStatus;
+            String statusMessage = batchStatusMessage;
+            if (null != results) {
+                sr = results.getResults(i);
+                Exception e = results.getException(i);
+                if (e instanceof SearcherException) {
+                    status = 200;
+                    statusMessage = e.getMessage();
+                } else if (null != e) {
+                    status = 100;
+                    statusMessage = "Internal error in XmlSearchHandler: " +e.getMessage();
                 }
-                andFilter.addFilter(orFilter);
             }
+            if (null == sr) {
+                sr = new GroupedSearchResults();
+            }
+            XmlResults.writeSearchResults(sink, queryRequest.queryString, queryRequest.start, queryRequest.hitsPerPage, queryRequest.orderByParam, sr, status, statusMessage, queryRequest.rangeField, queryRequest.rangeStart, queryRequest.rangeEnd, queries.get(i), null);
         }
-        
-        // Range filter
-        String rangeParam = getParameter(params,"range");
-        String rangeField = null;
-        String rangeStart = null;
-        String rangeEnd = null;
-        if (null != rangeParam) {
-            String parts[] = rangeParam.split(":");
-            if (parts.length > 1) {
-                rangeField = parts[0];
-                String limits[] = parts[1].split("-");
-                if (limits.length > 1) {
-                    rangeStart = limits[0];
-                    rangeEnd = limits[1];
+        sink.endElement();
+        sink.endDocument();
+    }
+
+    /**
+     * Splits the parameters of a batch request into the parameters of each query.
+     * The parameters of the N-th query have the suffix ".N" (e.g. query.0, query.1), and
+     * the parameters without a suffix are shared by all the queries that do not override them.
+     * @return the parameters of each query, ordered by N, or null if the request is not a batch.
+     */
+    static List<Map<String,String[]>> batchParams(Map<String,String[]> params) {
+        Map<String,String[]> shared = new HashMap<String,String[]>();
+        SortedMap<Integer,Map<String,String[]>> queries = new TreeMap<Integer,Map<String,String[]>>();
+        for (Map.Entry<String,String[]> param : params.entrySet()) {
+            Matcher m = BATCH_PARAM.matcher(param.getKey());
+            if (m.matches()) {
+                Integer n = Integer.valueOf(m.group(2));
+                Map<String,String[]> query = queries.get(n);
+                if (null == query) {
+                    query = new HashMap<String,String[]>();
+                    queries.put(n, query);
                 }
+                query.put(m.group(1), param.getValue());
+            } else {
+                shared.put(param.getKey(), param.getValue());
             }
         }
+        if (queries.isEmpty()) {
+            return null;
+        }
+        List<Map<String,String[]>> batch = new ArrayList<Map<String,String[]>>(queries.size());
+        for (Map<String,String[]> query : queries.values()) {
+            Map<String,String[]> merged = new HashMap<String,String[]>(shared);
+            merged.putAll(query);
+            batch.add(merged);
+        }
+        return batch;
+    }
 
-        // Date filter
-        String pastParam = getParameter(params,"past");
-        if (null != pastParam) {
-            String parts[] = pastParam.split(":");
-            if (parts.length > 2) {
-                rangeField = parts[0];
-                int days = Integer.parseInt(parts[1]);
-                SimpleDateFormat dateFormatter = new SimpleDateFormat(parts[2]);
-                Calendar cal = new GregorianCalendar();
-                rangeEnd = dateFormatter.format(cal.getTime());
-                cal.add(Calendar.DAY_OF_YEAR, -days);
-                rangeStart = dateFormatter.format(cal.getTime());
+    /**
+     * Parses the timeBudget parameter, capped by the searcher's default budget
+     * (ReloadableIndexSearcher.timeBudget) so that a request can shorten its search but not
+     * make it longer than the searcher allows.
+     * @return the budget in milliseconds, or -1 if the parameter is missing, is not a
+     *      positive number, or the default budget is to be used.
+     */
+    static long parseTimeBudget(String timeBudgetParam) {
+        return parseTimeBudget(timeBudgetParam, Config.getConfig("searcher.properties").getLong("ReloadableIndexSearcher.timeBudget"));
+    }
+
+    /**
+     * @param maxTimeBudget the max budget a request can ask for, 0 if there is no limit.
+     */
+    static long parseTimeBudget(String timeBudgetParam, long maxTimeBudget) {
+        if (null == timeBudgetParam) {
+            return -1;
+        }
+        long timeBudget;
+        try {
+            timeBudget = Long.parseLong(timeBudgetParam.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Error parsing timeBudget", e);
+            return -1;
+        }
+        if (timeBudget <= 0) {
+            logger.warn("Ignoring timeBudget " + timeBudget + ", it must be positive");
+            return -1;
+        }
+        if (maxTimeBudget > 0 && timeBudget >= maxTimeBudget) {
+            return -1;
+        }
+        return timeBudget;
+    }
+
+    /**
+     * Splits the comma separated names of the fields parameter.
+     * @return the names, or null if there are none.
+     */
+    static String[] parseFields(String fieldsParam) {
+        if (null == fieldsParam) {
+            return null;
+        }
+        List<String> fields = new ArrayList<String>();
+        for (String field : fieldsParam.split(",")) {
+            if (field.trim().length() > 0) {
+                fields.add(field.trim());
             }
         }
+        return fields.isEmpty() ? null : fields.toArray(new String[fields.size()]);
+    }
 
+    /**
+     * The parameters of a query, as received in the request.
+     */
+    private static class QueryRequest {
+        String queryString;
+        int start;
+        int hitsPerPage;
+        String orderByParam;
+        ASort sort;
+        BooleanFilter andFilter;
+        String rangeField;
+        String rangeStart;
+        String rangeEnd;
+        AGroup group;
+        int groupSize;
+        long timeBudget;
+        SearchCursor after;
+        String[] payloadFields;
+        String[] fields;
+        String xsltUri;
+
+        QueryRequest(Map<String,String[]> params) {
+            // Parameter processing
+            int minHitsPerPage=3;
+            int maxHitsPerPage=50;
+            int maxOffset=1000;       // Max number of hit the results page can start with
+            // parameters:
+            // query (string)    the query string
+            // start (int)       the offset of the first result
+            // hitsPerPage (int) the number of results to be returned
+            // orderBy (string)  the order in which to return the results: <field>:(int|long|float)[:reverse]
+            // tz (int)	         the timezone for displaying the date
+            // timeBudget (long) the max milliseconds to collect the hits, up to the searcher's default
+            // after (string)    the nextCursor of the previous page, to get the page after it at any depth
+            // fields (string)   comma separated list of the stored fields to return, overrides the searcher's default
+
+            // Query String
+            queryString = getParameter(params,"query");
+            if ((null == queryString) || (queryString.trim().equals(""))) {
+                queryString = "";
+            }
 
+            // First hit to display
+            start = 0;        // Default value
+            String startParam = getParameter(params, "start");
+            if (null != startParam) {
+                try {
+                    start = Integer.parseInt(startParam);
+                    if (start < 0) start = 0;
+                    if (start > maxOffset) start = maxOffset;
+                } catch (java.lang.NumberFormatException e) {
+                    // ignore garbage
+                }
+            }
 
+            // Number of hits to display
+            hitsPerPage = 10;
+            String hitsPerPageParam = getParameter(params,"hitsPerPage");
+            if (null != hitsPerPageParam) {
+                try {
+                    hitsPerPage = Integer.parseInt(hitsPerPageParam);
+                    if (hitsPerPage < minHitsPerPage) hitsPerPage = minHitsPerPage;
+                    if (hitsPerPage > maxHitsPerPage) hitsPerPage = maxHitsPerPage;
+                } catch (java.lang.NumberFormatException e) {
+                    //ignore garbage
+                }
+            }
 
-        // Group (uni-valued)
-        String groupParam = getParameter(params,"groupBy");
-        AGroup group = new NoGroup();
-        if (groupParam != null) {
-            if (groupParam.equals("signature")) {
-                group = new TextSignatureGroup("text");
-            } else {
-                group = new StoredFieldGroup(groupParam);
+            // orderBy param
+            sort = null;
+            orderByParam = getParameter(params,"orderBy");
+            if ((orderByParam != null) && !"".equals(orderByParam)) {
+                String[] sortingCriteria = orderByParam.split(",");
+                sort = new ScoreSort();
+                for (int i = (sortingCriteria.length-1); i >= 0; i--) {
+                    String sortingCriterion = sortingCriteria[i];
+                    String parts[] = sortingCriterion.split(":");
+                    String sortField = parts[0];
+                    FieldSort.OrderType orderType = FieldSort.OrderType.STRING;
+                    boolean reverse = false;
+                    for (int p = 1; p < parts.length; p++) {
+                    	String part = parts[p].toLowerCase();
+                    	if ("reverse".equals(part) || "reversed".equals(part)) {
+                    		reverse = true;
+                    		continue;
+                    	}
+                    	if ("int".equals(part)) {
+                    		orderType = FieldSort.OrderType.INT;
+                    		continue;
+                    	}
+                    	if ("long".equals(part)) {
+                    		orderType = FieldSort.OrderType.LONG;
+                    		continue;
+                    	}
+                        if ("float".equals(part)) {
+                    		orderType = FieldSort.OrderType.FLOAT;
+                    		continue;
+                    	}
+                    }
+                    if ("score".equals(sortField)) {
+                        sort = new ScoreSort();
+                    } else {
+                        sort = new FieldSort(reverse, sortField, orderType, sort);
+                    }
+                }
             }
-        }
-        int groupSize=1;
-        String groupSizeParam = getParameter(params,"group_size");
-        if (groupSizeParam != null) {
-            try{
-                groupSize= Integer.parseInt(groupSizeParam);
-            }catch (Exception e) {
-                logger.warn("Error parsing group_size", e);
-                groupSize=1;
+
+            // Filtering
+
+            // Categories (multi-valued)
+            String[] categoriesParams = params.get("categories");
+            andFilter = null;
+            if (categoriesParams != null) {
+                andFilter = new BooleanFilter(BooleanFilter.Type.AND);
+                for (String categoriesParam : categoriesParams) {
+                    String[] oredCategories = categoriesParam.split(",");
+                    BooleanFilter orFilter = new BooleanFilter(BooleanFilter.Type.OR);
+                    for (String oredCategory : oredCategories) {
+                        orFilter.addFilter(new ValueFilter("categories", oredCategory));
+                    }
+                    andFilter.addFilter(orFilter);
+                }
             }
-        } 
 
-        // Timezone (uni-valued)
-        int timezone = 0;
-        String tzParam = getParameter(params, "tz");
-        if (tzParam != null) {
-            try {
-                timezone = Integer.parseInt(tzParam);
-            } catch (Exception e) {
-                logger.warn("Error parsing timezone", e);        		
+            // Range filter
+            String rangeParam = getParameter(params,"range");
+            rangeField = null;
+            rangeStart = null;
+            rangeEnd = null;
+            if (null != rangeParam) {
+                String parts[] = rangeParam.split(":");
+                if (parts.length > 1) {
+                    rangeField = parts[0];
+                    String limits[] = parts[1].split("-");
+                    if (limits.length > 1) {
+                        rangeStart = limits[0];
+                        rangeEnd = limits[1];
+                    }
+                }
             }
-        }
 
-        // Payloads
-        String payloadParam = getParameter(params,"payload");
-        String[] payloadFields = null;
-        if (null != payloadParam) {
-            payloadFields = payloadParam.split(",");
-        }
+            // Date filter
+            String pastParam = getParameter(params,"past");
+            if (null != pastParam) {
+                String parts[] = pastParam.split(":");
+                if (parts.length > 2) {
+                    rangeField = parts[0];
+                    int days = Integer.parseInt(parts[1]);
+                    SimpleDateFormat dateFormatter = new SimpleDateFormat(parts[2]);
+                    Calendar cal = new GregorianCalendar();
+                    rangeEnd = dateFormatter.format(cal.getTime());
+                    cal.add(Calendar.DAY_OF_YEAR, -days);
+                    rangeStart = dateFormatter.format(cal.getTime());
+                }
+            }
 
 
-        //If useXsltStr is null, it means we should not include the directive to transform the
-        //xml with an xslt
-        String xsltUri = getParameter(params, "xsltUri");
 
-        String requestUrl = request.getRequestURL().toString();
-        String baseUrl = requestUrl.substring(0,requestUrl.lastIndexOf('/'));
-        StringBuffer extraParams = new StringBuffer();
-        extraParams.append("&hitsPerPage=");
-        extraParams.append(hitsPerPage);
-        if (orderByParam != null) {
-            extraParams.append("&orderBy=");
-            extraParams.append(orderByParam);
-        }
-        if (categoriesParams != null) {
-            for (String p : categoriesParams) {
-                extraParams.append("&categories=");
-                extraParams.append(p);
+
+            // Group (uni-valued)
+            String groupParam = getParameter(params,"groupBy");
+            group = new NoGroup();
+            if (groupParam != null) {
+                if (groupParam.equals("signature")) {
+                    group = new TextSignatureGroup("text");
+                } else {
+                    group = new StoredFieldGroup(groupParam);
+                }
             }
-        }
-        if (tzParam != null) {
-            extraParams.append("&tz=");
-            extraParams.append(tzParam);
+            groupSize=1;
+            String groupSizeParam = getParameter(params,"group_size");
+            if (groupSizeParam != null) {
+                try{
+                    groupSize= Integer.parseInt(groupSizeParam);
+                }catch (Exception e) {
+                    logger.warn("Error parsing group_size", e);
+                    groupSize=1;
+                }
+            } 
+
+            // Timezone (uni-valued)
+            int timezone = 0;
+            String tzParam = getParameter(params, "tz");
+            if (tzParam != null) {
+                try {
+                    timezone = Integer.parseInt(tzParam);
+                } catch (Exception e) {
+                    logger.warn("Error parsing timezone", e);        		
+                }
+            }
+
+            // Time budget (uni-valued), can only shorten the searcher's default
+            timeBudget = parseTimeBudget(getParameter(params, "timeBudget"));
+
+            // Cursor (uni-valued), the page starts after it instead of at the start param
+            after = null;
+            String afterParam = getParameter(params, "after");
+            if (null != afterParam && !"".equals(afterParam)) {
+                try {
+                    after = SearchCursor.parse(afterParam);
+                    start = after.getOffset();
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Error parsing after", e);
+                }
+            }
+
+            // Payloads
+            String payloadParam = getParameter(params,"payload");
+            payloadFields = null;
+            if (null != payloadParam) {
+                payloadFields = payloadParam.split(",");
+            }
+
+
+            // Fields to return (comma separated)
+            fields = parseFields(getParameter(params, "fields"));
+
+            //If useXsltStr is null, it means we should not include the directive to transform the
+            //xml with an xslt
+            xsltUri = getParameter(params, "xsltUri");
         }
 
-        GroupedSearchResults sr = null;
-        int status = 0;
-        String statusMessage = "OK";
-        try {
+        QueryParams toQueryParams() {
             AQuery query = new LazyParsedQuery(queryString);
             if (null != payloadFields) {
                 for (String fieldName : payloadFields) {
@@ -380,21 +635,17 @@ public class XmlSearchHandler extends AbstractHandler {
             if (null != rangeField) {
                 query = new AndQuery(query, new RangeQuery(rangeField,rangeStart,rangeEnd,true,true));
             }
-            sr = searcher.search(query, start, hitsPerPage, group, groupSize, andFilter, sort);
-        } catch (SearcherException e) {
-            logger.error("SEARCHING",e);
-            status = 200;
-            statusMessage = e.getMessage();
-            sr = new GroupedSearchResults();
-        } catch (RuntimeException e) {
-            logger.error("SEARCHING",e);
-            status = 100;
-            statusMessage = "Internal error in XmlSearchHandler: " +e.getMessage();
-            sr = new GroupedSearchResults();
+            if (timeBudget > 0) {
+                query = new TimeBudgetQuery(query, timeBudget);
+            }
+            if (null != after) {
+                query = new SearchAfterQuery(query, after);
+            }
+            if (null != fields) {
+                query = new FieldsQuery(query, fields);
+            }
+            return new QueryParams(query, start, hitsPerPage, group, groupSize, andFilter, sort);
         }
-
-        Document dom = XmlResults.buildXml(queryString, start, hitsPerPage, orderByParam, sr, status, statusMessage, xsltUri, rangeField, rangeStart, rangeEnd, params);
-        return dom;
     }
 
     /**
@@ -408,27 +659,55 @@ public class XmlSearchHandler extends AbstractHandler {
      * group = < "site" | "signature">
      * orderBy
      * crawl
+     * timeBudget
+     * after
+     * fields
      * xsltUri
      * raw true|false
+     * format xml|json
+     * Any of them with the suffix .N (query.0, query.1, ...) makes it a batch, see {@link #batchParams(Map)}.
+     * Batches are always written as they are generated, without server-side xslt.
      * this method is a merge of search-base.jsp, opensearch.jsp and http://docs.codehaus.org/display/JETTY/Embedding+Jetty
      */
+    @SuppressWarnings("unchecked")
     public void handle(String target, HttpServletRequest request, HttpServletResponse response, int dispatch) throws IOException, ServletException {
-        response.setCharacterEncoding("utf-8");
-        PrintWriter pw = response.getWriter();
-
-        Document originalDom = doQuery(request, searcher);
-        originalDom.getRootElement()
-                .addAttribute("SearchEngine","Hounder (hounder.org)")
-                .addAttribute("DevelopedBy","Flaptor (flaptor.com)");
-
-        @SuppressWarnings("unchecked")
-        String rawStr = getParameter(request.getParameterMap(), "raw");
+        request.setCharacterEncoding("utf-8");
+        if (null != caching && caching.notModified(request, response)) {
+            return;
+        }
+        ISearcher requestSearcher = (null == caching) ? searcher : caching.forRequest(searcher, request, response);
+        Map<String,String[]> params = request.getParameterMap();
+        List<Map<String,String[]>> batch = batchParams(params);
+        if (null != batch) {
+            if (batch.size() > maxBatchSize) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Too many queries in the batch (" + batch.size() + ", max " + maxBatchSize + ").");
+                return;
+            }
+            Writer writer = ResponseStreams.open(request, response, gzip);
+            try {
+                doMultiQuery(request, requestSearcher, batch, getParameter(params, "xsltUri"), ResponseStreams.sink(request, writer, BATCH_LIST_ELEMENTS), ROOT_ATTRIBUTES);
+            } finally {
+                writer.close();
+            }
+            return;
+        }
+        String rawStr = getParameter(params, "raw");
         if (Boolean.parseBoolean(rawStr) || transformMap.isEmpty()) {
-            response.setContentType("text/xml");
-            String openSearchResults = DomUtil.domToString(originalDom);
-            pw.print(openSearchResults);
-            pw.flush();
+            // The results are written to the response as they are generated.
+            Writer writer = ResponseStreams.open(request, response, gzip);
+            try {
+                doQuery(request, requestSearcher, params, ResponseStreams.sink(request, writer, XmlResults.LIST_ELEMENTS), ROOT_ATTRIBUTES);
+            } finally {
+                writer.close();
+            }
         } else {
+            response.setCharacterEncoding("utf-8");
+            PrintWriter pw = response.getWriter();
+            Document originalDom = doQuery(request, requestSearcher, params);
+            originalDom.getRootElement()
+                    .addAttribute("SearchEngine","Hounder (hounder.org)")
+                    .addAttribute("DevelopedBy","Flaptor (flaptor.com)");
+
             Pair<Transformer, String> value = transformMap.get(request.getPathInfo());
 //System.out.println("XML HANDLE: path="+request.getPathInfo()+"  value="+value);
             if (null == value) {
@@ -15,6 +15,7 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher.filter;
 
+import java.io.IOException;
 import java.io.Serializable;
 
 import com.flaptor.util.Config;
@@ -57,5 +58,25 @@ public abstract class AFilter implements Serializable {
 	}	
 
 	public abstract org.apache.lucene.search.Filter getLuceneFilter();
+
+	/**
+	 * Estimates how many documents of the reader pass this filter. It is used to decide
+	 * in which order to evaluate the filters of a BooleanFilter, so it has to be much
+	 * cheaper than evaluating the filter.
+	 * This implementation assumes that every document passes.
+	 */
+	protected int estimateCardinality(final org.apache.lucene.index.IndexReader reader) throws IOException {
+		return reader.maxDoc();
+	}
+
+	/**
+	 * Returns the documents of the reader that pass this filter, to be read lazily as they
+	 * are iterated, without evaluating the filter over the whole index. A BooleanFilter uses
+	 * it to intersect a broad filter with the few documents that passed the selective ones.
+	 * This implementation returns null: the filter can only be evaluated as a whole.
+	 */
+	protected org.apache.lucene.search.DocIdSet getLazyDocIdSet(final org.apache.lucene.index.IndexReader reader) throws IOException {
+		return null;
+	}
 }
 
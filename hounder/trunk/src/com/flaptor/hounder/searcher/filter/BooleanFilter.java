@@ -15,6 +15,7 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher.filter;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -23,14 +24,18 @@ import java.util.Set;
 
 import org.apache.log4j.Logger;
 
+import com.flaptor.util.Config;
+
 
 /**
  * Implement a Filter that is the rusult of ANDing a series of filters.
  * This class is "immutable", but only  after the first use of getLuceneFilter.
  * This class is <b>not</b> thread safe.
- * This filter is not cached on it's own, but the filters passed to it may be cached.
- * There would be little gain in caching this class, as it does't generate a lucene filter
- * with it's associated lengthy bitArray.
+ * The filters are evaluated in order of their estimated cardinality, and their results are
+ * combined in compressed form (@see CompressedBooleanFilter).
+ * The lucene filter is cached like the ones of the filters passed to it, and once it has been
+ * used Filter.compositeCacheMinUses times it keeps its result for each index reader, so
+ * frequently used combinations are not evaluated again.
  */
 @SuppressWarnings("serial")
 public final class BooleanFilter extends AFilter implements Serializable {
@@ -77,16 +82,36 @@ public final class BooleanFilter extends AFilter implements Serializable {
 	 */
 	public org.apache.lucene.search.Filter getLuceneFilter() {
 		used = true;
+		org.apache.lucene.search.Filter filter = AFilter.getFilterCache().get(this);
+		if (null != filter) {
+			return filter;
+		}
+		List<AFilter> children = new ArrayList<AFilter>(filters);
 		List<org.apache.lucene.search.Filter> array = new ArrayList<org.apache.lucene.search.Filter>(filters.size());
-		for (AFilter f : filters) {
+		for (AFilter f : children) {
 			array.add(f.getLuceneFilter());
 		}
-		if (type == Type.AND) {
-			return new org.apache.lucene.misc.ChainedFilter(array.toArray(new org.apache.lucene.search.Filter[filters.size()]), org.apache.lucene.misc.ChainedFilter.AND);
-		} else {
-			return new org.apache.lucene.misc.ChainedFilter(array.toArray(new org.apache.lucene.search.Filter[filters.size()]), org.apache.lucene.misc.ChainedFilter.OR);
+		int minUses = Config.getConfig("searcher.properties").getInt("Filter.compositeCacheMinUses");
+		filter = new CompressedBooleanFilter(type, children, array, minUses);
+		AFilter.getFilterCache().put(this, filter);
+		return filter;
+	}
+
+	/**
+	 * An AND passes at most as many documents as its most selective filter, and an OR
+	 * at most as many as all of its filters.
+	 */
+	@Override
+	protected int estimateCardinality(final org.apache.lucene.index.IndexReader reader) throws IOException {
+		long cardinality = (type == Type.AND) ? reader.maxDoc() : 0;
+		for (AFilter f : filters) {
+			if (type == Type.AND) {
+				cardinality = Math.min(cardinality, f.estimateCardinality(reader));
+			} else {
+				cardinality += f.estimateCardinality(reader);
+			}
 		}
-			
+		return (int) Math.min(cardinality, reader.maxDoc());
 	}
 
 	/**
@@ -0,0 +1,217 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.filter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+
+import com.flaptor.util.Statistics;
+
+/**
+ * A lucene filter that ANDs or ORs other filters, combining their results in
+ * compressed form, without expanding them to bitsets of the size of the index.
+ *
+ * The filters of an AND are evaluated from the most selective to the least, using
+ * the cardinality of their cached results or, if they are not cached, the estimate
+ * of their Hounder filter. A filter that is not cached and is expected to match many
+ * more documents than the ones that passed the previous filters is not evaluated
+ * over the whole index if it can be read lazily (@see AFilter#getLazyDocIdSet): it is
+ * leapfrogged over the documents that passed so far. Other filters are evaluated through
+ * their caches, so a broad filter is computed over the whole index only once.
+ * Evaluation stops as soon as no document passes.
+ *
+ * Once the filter has been used <code>minUses</code> times, its result is kept for
+ * each index reader.
+ *
+ * @author Flaptor Development Team
+ */
+@SuppressWarnings("serial")
+final class CompressedBooleanFilter extends Filter {
+
+    // A filter is leapfrogged when it is expected to match this many times more
+    // documents than the ones that passed the previous filters.
+    static final int LEAPFROG_RATIO = 16;
+
+    private final BooleanFilter.Type type;
+    private final List<AFilter> children;
+    private final List<Filter> filters;
+    private final int minUses;
+    private int uses = 0;
+    private transient Map<IndexReader, CompressedDocIdSet> results;
+
+    /**
+     * @param children the Hounder filters, to estimate their cardinality.
+     * @param filters the lucene filters of the children, in the same order.
+     * @param minUses how many times the filter has to be used before its results are kept.
+     */
+    CompressedBooleanFilter(BooleanFilter.Type type, List<AFilter> children, List<Filter> filters, int minUses) {
+        this.type = type;
+        this.children = children;
+        this.filters = filters;
+        this.minUses = minUses;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(IndexReader reader) throws IOException {
+        boolean keep;
+        synchronized (this) {
+            if (null == results) {
+                results = new WeakHashMap<IndexReader, CompressedDocIdSet>();
+            }
+            CompressedDocIdSet result = results.get(reader);
+            if (null != result) {
+                Statistics.getStatistics().notifyEventValue("filterCompositeCacheHit", 1);
+                return result;
+            }
+            keep = ++uses >= minUses;
+        }
+        Statistics.getStatistics().notifyEventValue("filterCompositeCacheHit", 0);
+        CompressedDocIdSet result = (type == BooleanFilter.Type.AND) ? and(reader) : or(reader);
+        if (keep) {
+            synchronized (this) {
+                results.put(reader, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the result for the reader is cached.
+     */
+    synchronized boolean isCached(IndexReader reader) {
+        return null != results && results.containsKey(reader);
+    }
+
+    private CompressedDocIdSet or(IndexReader reader) throws IOException {
+        CompressedDocIdSet result = CompressedDocIdSet.EMPTY;
+        for (Filter filter : filters) {
+            result = result.or(CompressedDocIdSet.of(filter.getDocIdSet(reader)));
+        }
+        return result;
+    }
+
+    private CompressedDocIdSet and(IndexReader reader) throws IOException {
+        if (filters.isEmpty()) {
+            return CompressedDocIdSet.EMPTY;
+        }
+        Step[] plan = plan(reader);
+        CompressedDocIdSet result = CompressedDocIdSet.of(plan[0].filter.getDocIdSet(reader));
+        for (int i = 1; i < plan.length && result.cardinality() > 0; i++) {
+            Step step = plan[i];
+            if (!step.cached && step.cost > (long) result.cardinality() * LEAPFROG_RATIO) {
+                DocIdSet lazy = step.child.getLazyDocIdSet(reader);
+                if (null != lazy) {
+                    result = leapfrog(result, lazy);
+                    continue;
+                }
+            }
+            result = result.and(CompressedDocIdSet.of(step.filter.getDocIdSet(reader)));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the filters in the order they should be evaluated, the cheapest first.
+     */
+    Step[] plan(IndexReader reader) throws IOException {
+        Step[] plan = new Step[filters.size()];
+        for (int i = 0; i < plan.length; i++) {
+            Filter filter = filters.get(i);
+            AFilter child = children.get(i);
+            boolean cached = isCached(filter, reader);
+            int cost = (cached) ? CompressedDocIdSet.of(filter.getDocIdSet(reader)).cardinality() : child.estimateCardinality(reader);
+            plan[i] = new Step(filter, child, cached, cost);
+        }
+        Arrays.sort(plan, new Comparator<Step>() {
+            public int compare(Step s1, Step s2) {
+                return (s1.cost < s2.cost) ? -1 : ((s1.cost == s2.cost) ? 0 : 1);
+            }
+        });
+        return plan;
+    }
+
+    private static boolean isCached(Filter filter, IndexReader reader) throws IOException {
+        if (filter instanceof SegmentCachingFilter) {
+            return ((SegmentCachingFilter) filter).isCached(reader);
+        } else if (filter instanceof CompressedBooleanFilter) {
+            return ((CompressedBooleanFilter) filter).isCached(reader);
+        }
+        return false;
+    }
+
+    /**
+     * Intersects the documents that passed so far with the ones of a filter, advancing
+     * each of them to the next document of the other.
+     */
+    static CompressedDocIdSet leapfrog(CompressedDocIdSet candidates, DocIdSet docs) throws IOException {
+        CompressedDocIdSet.Builder builder = new CompressedDocIdSet.Builder();
+        DocIdSetIterator left = candidates.iterator();
+        DocIdSetIterator right = docs.iterator();
+        boolean more = left.next() && right.next();
+        while (more) {
+            int l = left.doc();
+            int r = right.doc();
+            if (l == r) {
+                builder.add(l);
+                more = left.next() && right.next();
+            } else if (l < r) {
+                more = left.skipTo(r);
+            } else {
+                more = right.skipTo(l);
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    @Deprecated
+    public BitSet bits(IndexReader reader) throws IOException {
+        DocIdSetIterator it = getDocIdSet(reader).iterator();
+        BitSet result = new BitSet(reader.maxDoc());
+        while (it.next()) {
+            result.set(it.doc());
+        }
+        return result;
+    }
+
+    public String toString() {
+        return "CompressedBooleanFilter(" + type + " " + filters + ")";
+    }
+
+    static final class Step {
+        final Filter filter;
+        final AFilter child;
+        final boolean cached;
+        final int cost;
+
+        Step(Filter filter, AFilter child, boolean cached, int cost) {
+            this.filter = filter;
+            this.child = child;
+            this.cached = cached;
+            this.cost = cost;
+        }
+    }
+}
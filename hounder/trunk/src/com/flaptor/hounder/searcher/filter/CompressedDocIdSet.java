@@ -0,0 +1,523 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.filter;
+
+import java.io.IOException;
+
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+
+/**
+ * A compressed, immutable set of document ids.
+ *
+ * Documents are split in chunks of 65536 ids, and each chunk that has documents is
+ * kept in the encoding that takes less memory for its cardinality: a sorted array of
+ * the 16 low bits of its ids when it has up to 4096 of them, and a bitmap of 8 KB
+ * otherwise. Sparse filters take memory proportional to their cardinality instead of
+ * to the size of the index, and dense ones take about the same as a bitset.
+ *
+ * Sets are combined (and, or) directly in compressed form.
+ *
+ * @author Flaptor Development Team
+ */
+final class CompressedDocIdSet extends DocIdSet {
+
+    // Chunks with more documents than this are kept as bitmaps.
+    static final int MAX_ARRAY_SIZE = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    static final CompressedDocIdSet EMPTY = new CompressedDocIdSet(new int[0], new Chunk[0], 0);
+
+    // the high 16 bits of the ids of each chunk, in increasing order.
+    private final int[] keys;
+    private final Chunk[] chunks;
+    private final int size;
+
+    private CompressedDocIdSet(int[] keys, Chunk[] chunks, int size) {
+        this.keys = keys;
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /**
+     * Returns the set of the documents of another DocIdSet.
+     */
+    static CompressedDocIdSet of(DocIdSet docs) throws IOException {
+        if (docs instanceof CompressedDocIdSet) {
+            return (CompressedDocIdSet) docs;
+        }
+        Builder builder = new Builder();
+        DocIdSetIterator it = docs.iterator();
+        while (it.next()) {
+            builder.add(it.doc());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the number of documents in the set.
+     */
+    int cardinality() {
+        return size;
+    }
+
+    boolean contains(int doc) {
+        int i = indexOf(doc >>> 16);
+        return i >= 0 && chunks[i].contains(doc & 0xFFFF);
+    }
+
+    /**
+     * @return an estimate of the memory used by the set, in bytes.
+     */
+    long memory() {
+        long memory = 32 + keys.length * 4L;
+        for (Chunk chunk : chunks) {
+            memory += chunk.memory();
+        }
+        return memory;
+    }
+
+    private int indexOf(int key) {
+        int low = 0;
+        int high = keys.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else if (keys[mid] > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the documents that are in both sets.
+     */
+    CompressedDocIdSet and(CompressedDocIdSet other) {
+        int[] newKeys = new int[Math.min(keys.length, other.keys.length)];
+        Chunk[] newChunks = new Chunk[newKeys.length];
+        int n = 0;
+        int newSize = 0;
+        for (int i = 0, j = 0; i < keys.length && j < other.keys.length;) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Chunk chunk = chunks[i].and(other.chunks[j]);
+                if (chunk.cardinality() > 0) {
+                    newKeys[n] = keys[i];
+                    newChunks[n++] = chunk;
+                    newSize += chunk.cardinality();
+                }
+                i++;
+                j++;
+            }
+        }
+        return new CompressedDocIdSet(trim(newKeys, n), trim(newChunks, n), newSize);
+    }
+
+    /**
+     * @return the documents that are in any of the sets.
+     */
+    CompressedDocIdSet or(CompressedDocIdSet other) {
+        int[] newKeys = new int[keys.length + other.keys.length];
+        Chunk[] newChunks = new Chunk[newKeys.length];
+        int n = 0;
+        int newSize = 0;
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            Chunk chunk;
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                newKeys[n] = keys[i];
+                chunk = chunks[i++];
+            } else if (i == keys.length || keys[i] > other.keys[j]) {
+                newKeys[n] = other.keys[j];
+                chunk = other.chunks[j++];
+            } else {
+                newKeys[n] = keys[i];
+                chunk = chunks[i++].or(other.chunks[j++]);
+            }
+            newChunks[n++] = chunk;
+            newSize += chunk.cardinality();
+        }
+        return new CompressedDocIdSet(trim(newKeys, n), trim(newChunks, n), newSize);
+    }
+
+    private static int[] trim(int[] array, int length) {
+        if (array.length == length) {
+            return array;
+        }
+        int[] trimmed = new int[length];
+        System.arraycopy(array, 0, trimmed, 0, length);
+        return trimmed;
+    }
+
+    private static Chunk[] trim(Chunk[] array, int length) {
+        if (array.length == length) {
+            return array;
+        }
+        Chunk[] trimmed = new Chunk[length];
+        System.arraycopy(array, 0, trimmed, 0, length);
+        return trimmed;
+    }
+
+    @Override
+    public DocIdSetIterator iterator() {
+        return new Iterator();
+    }
+
+    public String toString() {
+        return "CompressedDocIdSet(" + size + " docs, " + memory() + " bytes)";
+    }
+
+
+    /**
+     * Builds a set from documents added in increasing order.
+     */
+    static final class Builder {
+        private int[] keys = new int[16];
+        private Chunk[] chunks = new Chunk[16];
+        private int n = 0;
+        private int size = 0;
+        private int last = -1;
+        // the chunk being built.
+        private int key = -1;
+        private char[] array = new char[MAX_ARRAY_SIZE];
+        private int arraySize = 0;
+        private long[] bitmap = null;
+        private int bitmapSize = 0;
+
+        /**
+         * Adds a document, that must be greater than the ones already added.
+         */
+        void add(int doc) {
+            if (doc <= last) {
+                throw new IllegalArgumentException("documents must be added in increasing order (" + doc + " after " + last + ")");
+            }
+            last = doc;
+            size++;
+            int docKey = doc >>> 16;
+            if (docKey != key) {
+                flush();
+                key = docKey;
+            }
+            char low = (char) (doc & 0xFFFF);
+            if (null != bitmap) {
+                bitmap[low >>> 6] |= 1L << low;
+                bitmapSize++;
+            } else if (arraySize < MAX_ARRAY_SIZE) {
+                array[arraySize++] = low;
+            } else {
+                bitmap = new long[BITMAP_WORDS];
+                for (int i = 0; i < arraySize; i++) {
+                    bitmap[array[i] >>> 6] |= 1L << array[i];
+                }
+                bitmapSize = arraySize;
+                arraySize = 0;
+                bitmap[low >>> 6] |= 1L << low;
+                bitmapSize++;
+            }
+        }
+
+        private void flush() {
+            if (key < 0) {
+                return;
+            }
+            Chunk chunk;
+            if (null != bitmap) {
+                chunk = new BitmapChunk(bitmap, bitmapSize);
+                bitmap = null;
+            } else {
+                char[] values = new char[arraySize];
+                System.arraycopy(array, 0, values, 0, arraySize);
+                chunk = new ArrayChunk(values);
+            }
+            arraySize = 0;
+            if (n == keys.length) {
+                int[] newKeys = new int[n * 2];
+                System.arraycopy(keys, 0, newKeys, 0, n);
+                keys = newKeys;
+                Chunk[] newChunks = new Chunk[n * 2];
+                System.arraycopy(chunks, 0, newChunks, 0, n);
+                chunks = newChunks;
+            }
+            keys[n] = key;
+            chunks[n++] = chunk;
+        }
+
+        CompressedDocIdSet build() {
+            flush();
+            key = -1;
+            return new CompressedDocIdSet(trim(keys, n), trim(chunks, n), size);
+        }
+    }
+
+
+    private final class Iterator extends DocIdSetIterator {
+        private int chunk = -1;
+        private int doc = -1;
+
+        public int doc() {
+            return doc;
+        }
+
+        public boolean next() {
+            return skipTo(doc + 1);
+        }
+
+        public boolean skipTo(int target) {
+            if (chunk == keys.length) {
+                return false;
+            }
+            if (target <= doc) {
+                target = doc + 1;
+            }
+            int key = target >>> 16;
+            if (chunk < 0 || keys[chunk] != key) {
+                int i = indexOf(key);
+                chunk = (i >= 0) ? i : -(i + 1);
+            }
+            int low = target & 0xFFFF;
+            while (chunk < keys.length) {
+                if (keys[chunk] > key) {
+                    low = 0;
+                }
+                int next = chunks[chunk].next(low);
+                if (next >= 0) {
+                    doc = (keys[chunk] << 16) | next;
+                    return true;
+                }
+                chunk++;
+                low = 0;
+            }
+            return false;
+        }
+    }
+
+
+    private static abstract class Chunk {
+        abstract int cardinality();
+        abstract boolean contains(int low);
+        /** @return the smallest value not less than low, or -1. */
+        abstract int next(int low);
+        abstract long memory();
+        abstract Chunk and(Chunk other);
+        abstract Chunk or(Chunk other);
+
+        // the encoding that takes less memory for the cardinality.
+        static Chunk of(long[] bitmap, int cardinality) {
+            if (cardinality > MAX_ARRAY_SIZE) {
+                return new BitmapChunk(bitmap, cardinality);
+            }
+            char[] values = new char[cardinality];
+            int n = 0;
+            for (int w = 0; w < bitmap.length; w++) {
+                long word = bitmap[w];
+                while (0 != word) {
+                    values[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayChunk(values);
+        }
+    }
+
+    private static final class ArrayChunk extends Chunk {
+        private final char[] values;
+
+        ArrayChunk(char[] values) {
+            this.values = values;
+        }
+
+        int cardinality() {
+            return values.length;
+        }
+
+        boolean contains(int low) {
+            return search(low) >= 0;
+        }
+
+        private int search(int low) {
+            int lo = 0;
+            int hi = values.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[mid] < low) {
+                    lo = mid + 1;
+                } else if (values[mid] > low) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(lo + 1);
+        }
+
+        int next(int low) {
+            int i = search(low);
+            if (i < 0) {
+                i = -(i + 1);
+            }
+            return (i < values.length) ? values[i] : -1;
+        }
+
+        long memory() {
+            return 16 + values.length * 2L;
+        }
+
+        Chunk and(Chunk other) {
+            char[] result = new char[values.length];
+            int n = 0;
+            if (other instanceof ArrayChunk) {
+                char[] others = ((ArrayChunk) other).values;
+                for (int i = 0, j = 0; i < values.length && j < others.length;) {
+                    if (values[i] < others[j]) {
+                        i++;
+                    } else if (values[i] > others[j]) {
+                        j++;
+                    } else {
+                        result[n++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (char value : values) {
+                    if (other.contains(value)) {
+                        result[n++] = value;
+                    }
+                }
+            }
+            if (n == values.length) {
+                return this;
+            }
+            char[] trimmed = new char[n];
+            System.arraycopy(result, 0, trimmed, 0, n);
+            return new ArrayChunk(trimmed);
+        }
+
+        Chunk or(Chunk other) {
+            if (other instanceof BitmapChunk) {
+                return other.or(this);
+            }
+            char[] others = ((ArrayChunk) other).values;
+            if (values.length + others.length > MAX_ARRAY_SIZE) {
+                long[] bitmap = new long[BITMAP_WORDS];
+                int cardinality = set(bitmap, values, 0);
+                cardinality = set(bitmap, others, cardinality);
+                return Chunk.of(bitmap, cardinality);
+            }
+            char[] result = new char[values.length + others.length];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < values.length || j < others.length) {
+                if (j == others.length || (i < values.length && values[i] < others[j])) {
+                    result[n++] = values[i++];
+                } else if (i == values.length || values[i] > others[j]) {
+                    result[n++] = others[j++];
+                } else {
+                    result[n++] = values[i++];
+                    j++;
+                }
+            }
+            char[] trimmed = new char[n];
+            System.arraycopy(result, 0, trimmed, 0, n);
+            return new ArrayChunk(trimmed);
+        }
+
+        // sets the values in the bitmap, returning its new cardinality.
+        static int set(long[] bitmap, char[] values, int cardinality) {
+            for (char value : values) {
+                long bit = 1L << value;
+                if (0 == (bitmap[value >>> 6] & bit)) {
+                    bitmap[value >>> 6] |= bit;
+                    cardinality++;
+                }
+            }
+            return cardinality;
+        }
+    }
+
+    private static final class BitmapChunk extends Chunk {
+        private final long[] words;
+        private final int cardinality;
+
+        BitmapChunk(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        int cardinality() {
+            return cardinality;
+        }
+
+        boolean contains(int low) {
+            return 0 != (words[low >>> 6] & (1L << low));
+        }
+
+        int next(int low) {
+            int w = low >>> 6;
+            long word = words[w] & (-1L << low);
+            while (true) {
+                if (0 != word) {
+                    return (w << 6) + Long.numberOfTrailingZeros(word);
+                }
+                if (++w == words.length) {
+                    return -1;
+                }
+                word = words[w];
+            }
+        }
+
+        long memory() {
+            return 16 + words.length * 8L;
+        }
+
+        Chunk and(Chunk other) {
+            if (other instanceof ArrayChunk) {
+                return other.and(this);
+            }
+            long[] others = ((BitmapChunk) other).words;
+            long[] result = new long[BITMAP_WORDS];
+            int n = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                result[w] = words[w] & others[w];
+                n += Long.bitCount(result[w]);
+            }
+            return Chunk.of(result, n);
+        }
+
+        Chunk or(Chunk other) {
+            long[] result = words.clone();
+            if (other instanceof ArrayChunk) {
+                return new BitmapChunk(result, ArrayChunk.set(result, ((ArrayChunk) other).values, cardinality));
+            }
+            long[] others = ((BitmapChunk) other).words;
+            int n = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                result[w] |= others[w];
+                n += Long.bitCount(result[w]);
+            }
+            return new BitmapChunk(result, n);
+        }
+    }
+}
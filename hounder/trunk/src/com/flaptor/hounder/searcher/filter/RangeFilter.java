@@ -15,6 +15,7 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher.filter;
 
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -25,6 +26,11 @@ import java.io.Serializable;
  */
 @SuppressWarnings("serial")
 public class RangeFilter extends AFilter implements Serializable {
+	// How many terms of the range to look at to estimate its cardinality.
+	private static final int MAX_ESTIMATED_TERMS = 1000;
+	// Ranges with more terms than this are not read lazily, merging their postings would cost too much.
+	private static final int MAX_LAZY_TERMS = 64;
+
 	private final String field;
 	private final String from;
 	private final String to;
@@ -58,11 +64,60 @@ public class RangeFilter extends AFilter implements Serializable {
 	}
 
 	/**
-	  Generates a new lucene filter.
+	  Generates a new lucene filter, cached segment by segment.
 	  @return a new lucene filter matching this Hounder filter.
 	 */
 	private org.apache.lucene.search.Filter generateNewLuceneFilter() {
-		return new org.apache.lucene.search.CachingWrapperFilter(new org.apache.lucene.search.RangeFilter(field, from, to, true, true));
+		return new SegmentCachingFilter(this, new org.apache.lucene.search.RangeFilter(field, from, to, true, true));
+	}
+
+	/**
+	  Adds up the document frequencies of the terms of the range. Ranges with too
+	  many terms are assumed to match every document.
+	 */
+	@Override
+	protected int estimateCardinality(final org.apache.lucene.index.IndexReader reader) throws IOException {
+		org.apache.lucene.index.TermEnum terms = reader.terms(new org.apache.lucene.index.Term(field, from));
+		try {
+			int cardinality = 0;
+			for (int i = 0; i < MAX_ESTIMATED_TERMS; i++) {
+				org.apache.lucene.index.Term term = terms.term();
+				if (null == term || !field.equals(term.field()) || term.text().compareTo(to) > 0) {
+					return cardinality;
+				}
+				cardinality += terms.docFreq();
+				if (cardinality >= reader.maxDoc() || !terms.next()) {
+					return Math.min(cardinality, reader.maxDoc());
+				}
+			}
+			return reader.maxDoc();
+		} finally {
+			terms.close();
+		}
+	}
+
+	/**
+	  The merged postings of the terms of the range, if it has only a few of them.
+	 */
+	@Override
+	protected org.apache.lucene.search.DocIdSet getLazyDocIdSet(final org.apache.lucene.index.IndexReader reader) throws IOException {
+		org.apache.lucene.index.TermEnum terms = reader.terms(new org.apache.lucene.index.Term(field, from));
+		try {
+			java.util.List<org.apache.lucene.index.Term> rangeTerms = new java.util.ArrayList<org.apache.lucene.index.Term>();
+			do {
+				org.apache.lucene.index.Term term = terms.term();
+				if (null == term || !field.equals(term.field()) || term.text().compareTo(to) > 0) {
+					return new TermsDocIdSet(reader, rangeTerms);
+				}
+				if (rangeTerms.size() == MAX_LAZY_TERMS) {
+					return null;
+				}
+				rangeTerms.add(term);
+			} while (terms.next());
+			return new TermsDocIdSet(reader, rangeTerms);
+		} finally {
+			terms.close();
+		}
 	}
 
 	/**
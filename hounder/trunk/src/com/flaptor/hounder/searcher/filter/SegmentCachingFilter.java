@@ -0,0 +1,140 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.filter;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+
+/**
+ * A lucene filter that computes another one segment by segment, keeping the bitset of
+ * each segment in the SegmentFilterCache, so a new index reader only computes the
+ * segments that changed.
+ *
+ * Like the CachingWrapperFilter, the bitset of the whole reader is also kept for as long
+ * as the reader is alive.
+ *
+ * @author Flaptor Development Team
+ */
+@SuppressWarnings("serial")
+final class SegmentCachingFilter extends Filter {
+
+    private final AFilter key;
+    private final Filter filter;
+    private transient Map<IndexReader, CompressedDocIdSet> readerBitsets;
+
+    /**
+     * @param key the Hounder filter, that identifies the bitsets in the cache.
+     * @param filter the lucene filter to cache.
+     */
+    SegmentCachingFilter(AFilter key, Filter filter) {
+        this.key = key;
+        this.filter = filter;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(IndexReader reader) throws IOException {
+        synchronized (this) {
+            if (null == readerBitsets) {
+                readerBitsets = new WeakHashMap<IndexReader, CompressedDocIdSet>();
+            }
+            CompressedDocIdSet bits = readerBitsets.get(reader);
+            if (null != bits) {
+                return bits;
+            }
+        }
+        CompressedDocIdSet bits = computeBitSet(reader);
+        synchronized (this) {
+            readerBitsets.put(reader, bits);
+        }
+        return bits;
+    }
+
+    /**
+     * @return true if the result for the reader can be assembled from cached bitsets,
+     *  without evaluating the filter.
+     */
+    boolean isCached(IndexReader reader) throws IOException {
+        synchronized (this) {
+            if (null != readerBitsets && readerBitsets.containsKey(reader)) {
+                return true;
+            }
+        }
+        IndexReader[] segments = SegmentFilterCache.getSegments(reader);
+        if (null == segments) {
+            return false;
+        }
+        SegmentFilterCache cache = SegmentFilterCache.getInstance();
+        for (IndexReader segment : segments) {
+            if (!cache.contains(key, SegmentFilterCache.getSegmentKey(segment))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    @Deprecated
+    public BitSet bits(IndexReader reader) throws IOException {
+        DocIdSetIterator it = getDocIdSet(reader).iterator();
+        BitSet result = new BitSet(reader.maxDoc());
+        while (it.next()) {
+            result.set(it.doc());
+        }
+        return result;
+    }
+
+    private CompressedDocIdSet computeBitSet(IndexReader reader) throws IOException {
+        IndexReader[] segments = SegmentFilterCache.getSegments(reader);
+        if (null == segments) {
+            return CompressedDocIdSet.of(filter.getDocIdSet(reader));
+        }
+        if (segments.length == 1) {
+            return getSegmentBitSet(segments[0]);
+        }
+        CompressedDocIdSet.Builder builder = new CompressedDocIdSet.Builder();
+        int base = 0;
+        for (IndexReader segment : segments) {
+            DocIdSetIterator it = getSegmentBitSet(segment).iterator();
+            while (it.next()) {
+                builder.add(base + it.doc());
+            }
+            base += segment.maxDoc();
+        }
+        return builder.build();
+    }
+
+    private CompressedDocIdSet getSegmentBitSet(IndexReader segment) throws IOException {
+        SegmentFilterCache cache = SegmentFilterCache.getInstance();
+        String segmentKey = SegmentFilterCache.getSegmentKey(segment);
+        CompressedDocIdSet bits = cache.get(key, segmentKey);
+        if (null == bits) {
+            bits = CompressedDocIdSet.of(filter.getDocIdSet(segment));
+            cache.put(key, segmentKey, bits);
+        }
+        return bits;
+    }
+
+    public String toString() {
+        return "SegmentCachingFilter(" + filter + ")";
+    }
+}
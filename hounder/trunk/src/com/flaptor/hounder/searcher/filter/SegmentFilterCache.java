@@ -0,0 +1,245 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.filter;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import com.flaptor.util.Config;
+import com.flaptor.util.Execute;
+import com.flaptor.util.Statistics;
+
+/**
+ * Caches the bitsets of the filters for each segment of the index.
+ *
+ * A segment never changes once written, but for its deletions, so the bitset of a
+ * filter over a segment is valid for as long as the segment and its deletions are the
+ * same. Entries are keyed by the files of the segment (name, length and modification
+ * time, including the deletions file), so the bitsets of the segments that did not
+ * change are reused by the following index generations, which are hard-link copies of
+ * the same files, and only the new segments are computed.
+ *
+ * Bitsets are kept compressed, so their memory depends on their cardinality rather than
+ * on the size of the segment. The cache is bounded by memory, and evicts the least
+ * recently used bitsets.
+ * Configuration strings:
+ *      Filter.segmentCacheMemory the max memory for bitsets, in megabytes.
+ *
+ * @author Flaptor Development Team
+ */
+final class SegmentFilterCache {
+
+    private static final Logger logger = Logger.getLogger(Execute.whoAmI());
+    private static final Statistics statistics = Statistics.getStatistics();
+
+    private static volatile SegmentFilterCache instance = null;
+
+    // Lucene 2.4 does not expose the segments of a reader.
+    private static Class<?> multiSegmentReaderClass;
+    private static Class<?> segmentReaderClass;
+    private static Method getSubReaders;
+    private static Method getSegmentName;
+    private static Method getSegmentInfo;
+    private static Method getSegmentFiles;
+    static {
+        try {
+            multiSegmentReaderClass = Class.forName("org.apache.lucene.index.MultiSegmentReader");
+            segmentReaderClass = Class.forName("org.apache.lucene.index.SegmentReader");
+            getSubReaders = accessible(multiSegmentReaderClass.getDeclaredMethod("getSubReaders"));
+            getSegmentName = accessible(segmentReaderClass.getDeclaredMethod("getSegmentName"));
+            getSegmentInfo = accessible(segmentReaderClass.getDeclaredMethod("getSegmentInfo"));
+            getSegmentFiles = accessible(Class.forName("org.apache.lucene.index.SegmentInfo").getDeclaredMethod("files"));
+        } catch (Exception e) {
+            logger.warn("Cannot access the segments of the index, filters will be cached per index reader: " + e);
+            multiSegmentReaderClass = null;
+            segmentReaderClass = null;
+        }
+    }
+
+    private static Method accessible(Method method) {
+        method.setAccessible(true);
+        return method;
+    }
+
+    private final long maxMemory;
+    private final LinkedHashMap<Key, CompressedDocIdSet> bitsets = new LinkedHashMap<Key, CompressedDocIdSet>(16, 0.75f, true);
+    private long memory = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    SegmentFilterCache(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Returns the cache shared by all the filters. Like the AFilter cache, it is created
+     * on first use, so RMI clients do not need the configuration.
+     */
+    static SegmentFilterCache getInstance() {
+        if (null == instance) {
+            synchronized (SegmentFilterCache.class) {
+                if (null == instance) {
+                    instance = new SegmentFilterCache(Config.getConfig("searcher.properties").getLong("Filter.segmentCacheMemory") * 1024 * 1024);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the segments of the reader, in document id order, or null if they cannot
+     * be told apart.
+     */
+    static IndexReader[] getSegments(IndexReader reader) {
+        if (null == multiSegmentReaderClass) {
+            return null;
+        }
+        try {
+            if (multiSegmentReaderClass.isInstance(reader)) {
+                return (IndexReader[]) getSubReaders.invoke(reader);
+            } else if (segmentReaderClass.isInstance(reader)) {
+                return new IndexReader[] {reader};
+            }
+        } catch (Exception e) {
+            logger.warn("getSegments: " + e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the key that identifies the contents of a segment, and its deletions.
+     */
+    static String getSegmentKey(IndexReader segment) throws IOException {
+        try {
+            Directory dir = segment.directory();
+            StringBuffer key = new StringBuffer();
+            // the files of an FSDirectory identify the segment. Otherwise, it is only
+            // identified within its directory.
+            if (!(dir instanceof FSDirectory)) {
+                key.append(System.identityHashCode(dir)).append('|');
+            }
+            key.append(getSegmentName.invoke(segment)).append('|').append(segment.maxDoc());
+            for (Object file : (List<?>) getSegmentFiles.invoke(getSegmentInfo.invoke(segment))) {
+                String name = (String) file;
+                key.append('|').append(name).append(':').append(dir.fileLength(name)).append(':').append(dir.fileModified(name));
+            }
+            return key.toString();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the bitset of the filter over the segment, or null if it is not cached.
+     * @param filter the Hounder filter that identifies the bitset.
+     */
+    synchronized CompressedDocIdSet get(AFilter filter, String segmentKey) {
+        CompressedDocIdSet bits = bitsets.get(new Key(filter, segmentKey));
+        if (null == bits) {
+            misses++;
+        } else {
+            hits++;
+        }
+        statistics.notifyEventValue("filterSegmentCacheHit", (null == bits) ? 0 : 1);
+        return bits;
+    }
+
+    /**
+     * @return true if the bitset of the filter over the segment is cached. It does not
+     *  count as a hit or a miss, nor as a use of the bitset.
+     */
+    synchronized boolean contains(AFilter filter, String segmentKey) {
+        return bitsets.containsKey(new Key(filter, segmentKey));
+    }
+
+    /**
+     * Stores the bitset of the filter over the segment, evicting the least recently
+     * used bitsets if the cache gets too large.
+     */
+    synchronized void put(AFilter filter, String segmentKey, CompressedDocIdSet bits) {
+        long size = size(bits);
+        if (size > maxMemory) {
+            return;
+        }
+        CompressedDocIdSet old = bitsets.put(new Key(filter, segmentKey), bits);
+        memory += size - ((null == old) ? 0 : size(old));
+        Iterator<Map.Entry<Key, CompressedDocIdSet>> it = bitsets.entrySet().iterator();
+        while (memory > maxMemory && it.hasNext()) {
+            memory -= size(it.next().getValue());
+            it.remove();
+        }
+        statistics.notifyEventValue("filterSegmentCacheMemory", memory);
+    }
+
+    private static long size(CompressedDocIdSet bits) {
+        return bits.memory();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the memory used by the cached bitsets, in bytes.
+     */
+    synchronized long getMemory() {
+        return memory;
+    }
+
+    synchronized void clear() {
+        bitsets.clear();
+        memory = 0;
+    }
+
+    private static final class Key {
+        private final AFilter filter;
+        private final String segment;
+
+        Key(AFilter filter, String segment) {
+            this.filter = filter;
+            this.segment = segment;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) obj;
+            return filter.equals(k.filter) && segment.equals(k.segment);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * filter.hashCode() + segment.hashCode();
+        }
+    }
+}
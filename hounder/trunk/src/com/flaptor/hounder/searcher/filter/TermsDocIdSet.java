@@ -0,0 +1,118 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.filter;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+
+/**
+ * The documents that have any of a list of terms, read lazily from their postings.
+ *
+ * Nothing is read until the set is iterated, and skipTo skips over the postings, so
+ * intersecting it with a few documents reads only a small part of them.
+ *
+ * @author Flaptor Development Team
+ */
+final class TermsDocIdSet extends DocIdSet {
+
+    private final IndexReader reader;
+    private final List<Term> terms;
+
+    TermsDocIdSet(IndexReader reader, List<Term> terms) {
+        this.reader = reader;
+        this.terms = terms;
+    }
+
+    @Override
+    public DocIdSetIterator iterator() {
+        return new Union();
+    }
+
+    /**
+     * Merges the postings of the terms, keeping them ordered by their current document.
+     */
+    private class Union extends DocIdSetIterator {
+        private PriorityQueue<TermDocs> queue = null;
+        private int doc = -1;
+
+        @Override
+        public int doc() {
+            return doc;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (null == queue) {
+                open();
+            } else {
+                advance(doc + 1);
+            }
+            return current();
+        }
+
+        @Override
+        public boolean skipTo(int target) throws IOException {
+            if (null == queue) {
+                open();
+            }
+            advance(target);
+            return current();
+        }
+
+        private void open() throws IOException {
+            queue = new PriorityQueue<TermDocs>(Math.max(1, terms.size()), new Comparator<TermDocs>() {
+                public int compare(TermDocs t1, TermDocs t2) {
+                    return t1.doc() - t2.doc();
+                }
+            });
+            for (Term term : terms) {
+                TermDocs termDocs = reader.termDocs(term);
+                if (termDocs.next()) {
+                    queue.add(termDocs);
+                } else {
+                    termDocs.close();
+                }
+            }
+        }
+
+        private void advance(int target) throws IOException {
+            while (!queue.isEmpty() && queue.peek().doc() < target) {
+                TermDocs termDocs = queue.poll();
+                if (termDocs.skipTo(target)) {
+                    queue.add(termDocs);
+                } else {
+                    termDocs.close();
+                }
+            }
+        }
+
+        private boolean current() {
+            if (queue.isEmpty()) {
+                return false;
+            }
+            doc = queue.peek().doc();
+            return true;
+        }
+    }
+}
@@ -15,6 +15,7 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher.filter;
 
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -50,10 +51,26 @@ public class ValueFilter extends AFilter implements Serializable {
 	}
 
 	/**
-	 Generates the underlying lucene filter for this Hounder filter.
+	 Generates the underlying lucene filter for this Hounder filter, cached segment by segment.
 	*/
 	private org.apache.lucene.search.Filter generateNewLuceneFilter() {
-		return new org.apache.lucene.search.CachingWrapperFilter(new org.apache.lucene.search.QueryWrapperFilter(new org.apache.lucene.search.TermQuery(new org.apache.lucene.index.Term(field, value))));
+		return new SegmentCachingFilter(this, new org.apache.lucene.search.QueryWrapperFilter(new org.apache.lucene.search.TermQuery(new org.apache.lucene.index.Term(field, value))));
+	}
+
+	/**
+	 The documents that have the value.
+	*/
+	@Override
+	protected int estimateCardinality(final org.apache.lucene.index.IndexReader reader) throws IOException {
+		return reader.docFreq(new org.apache.lucene.index.Term(field, value));
+	}
+
+	/**
+	 The postings of the value.
+	*/
+	@Override
+	protected org.apache.lucene.search.DocIdSet getLazyDocIdSet(final org.apache.lucene.index.IndexReader reader) {
+		return new TermsDocIdSet(reader, java.util.Collections.singletonList(new org.apache.lucene.index.Term(field, value)));
 	}
 
 	/**
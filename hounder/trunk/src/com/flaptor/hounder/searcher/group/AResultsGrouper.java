@@ -19,6 +19,9 @@ import java.util.Vector;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.document.MapFieldSelector;
 
 import com.flaptor.hounder.searcher.GroupedSearchResults;
 import com.flaptor.util.Execute;
@@ -36,7 +39,9 @@ import com.flaptor.util.Pair;
  *
  * Classes that extend this class must implement findGroup(Doc),
  * that is in which position of the vector the result should be
- * inserted into.
+ * inserted into. If findGroup needs only some fields of the document,
+ * they should override getKeyFields, so only those fields are loaded
+ * for the documents that do not make it into a group.
  *
  * @author Flaptor Development Team
  */
@@ -48,7 +53,12 @@ public abstract class AResultsGrouper {
     protected Vector<Pair<String,Vector<Document>>> docs = new Vector<Pair<String,Vector<Document>>>();
     // Scores associated with documents
     protected Vector<Vector<Float>> scores = new Vector<Vector<Float>>();
-    private final DocumentProvider provider;
+    protected final DocumentProvider provider;
+
+    // The key fields of the document last passed to findGroup, loaded to group it.
+    private FieldSelector keySelector = null;
+    private String[] keyFields = null;
+    private Document keyDoc = null;
 
 
     public AResultsGrouper(DocumentProvider provider){
@@ -87,11 +97,13 @@ public abstract class AResultsGrouper {
                 denormalize= false;
              }
 
+            keyFields = getKeyFields();
+            keySelector = (null == keyFields) ? null : new MapFieldSelector(keyFields);
+
             for (int j = 0, limit = provider.length(); j < groupCount  && i < limit ; i++) {
 
 
-                Document doc = provider.getDocument(i);
-                Pair<String,Integer> pos = findGroup(doc);
+                Pair<String,Integer> pos = findGroup(i);
 
                 // Check if the group exists already, or it has to be created
                 if (docs.size() == pos.last()) {
@@ -103,6 +115,7 @@ public abstract class AResultsGrouper {
 
                 // Now, add the document on pos if there is room for it.
                 if (docs.get(pos.last()).last().size() < groupSize) {
+                    Document doc = getDocument(i);
                     docs.get(pos.last()).last().add(doc);
                     if (denormalize) {
                         //logger.debug("Not Denormalizing: " + tdocs.scoreDocs[i].score);
@@ -122,6 +135,46 @@ public abstract class AResultsGrouper {
     }
 
 
+    /**
+     * Finds the group of the i-th document of the provider. By default, it loads
+     * the key fields of the document and calls findGroup(Document). Subclasses
+     * that can find the group without loading the document should override it,
+     * together with getDocument(int).
+     */
+    protected Pair<String,Integer> findGroup(int i) throws java.io.IOException {
+        keyDoc = (null == keySelector) ? provider.getDocument(i) : provider.getDocument(i, keySelector);
+        return findGroup(keyDoc);
+    }
+
+    /**
+     * Loads the i-th document to return, after it was passed to findGroup(int).
+     * The document has the key fields, as results are grouped again when they are
+     * merged with other searchers' results.
+     */
+    protected Document getDocument(int i) throws java.io.IOException {
+        if (null == keySelector) {
+            return keyDoc;
+        }
+        Document doc = provider.getDocument(i);
+        if (doc != keyDoc) {
+            for (String field : keyFields) {
+                if (null == doc.getFieldable(field)) {
+                    for (Fieldable f : keyDoc.getFieldables(field)) {
+                        doc.add(f);
+                    }
+                }
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * Returns the fields findGroup needs, or null if it needs the whole document.
+     */
+    protected String[] getKeyFields() {
+        return null;
+    }
+
     // This method has to be implemented on subclasses.
     // Given a document, the subclass has to determine in which position
     // this doc belongs, and which "label" it has.
@@ -18,6 +18,7 @@ package com.flaptor.hounder.searcher.group;
 import java.io.IOException;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
 
 /**
  * @author Flaptor Development Team
@@ -26,6 +27,11 @@ public interface DocumentProvider {
 
     public float getMaxScore();
     public Document getDocument(int index) throws IOException;
+    /**
+     * Returns the document, loading only the fields accepted by the selector.
+     * Providers that hold the documents in memory may return them whole.
+     */
+    public Document getDocument(int index, FieldSelector selector) throws IOException;
     public float getScore(int index);
     public int totalHits();
     public int length();
@@ -0,0 +1,112 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.group;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+
+import com.flaptor.hounder.util.SimHash;
+
+/**
+ * Keeps the SimHash fingerprints of the documents of each index reader in an
+ * array, so they are read from the index only once per reader, like the
+ * FieldCache does for sorting.
+ *
+ * The lock of the cache is only held to find the entry of a reader and field. The
+ * fingerprints are loaded holding the lock of their entry, so searches on other
+ * readers or fields do not wait for them, and once loaded they are read without locking.
+ *
+ * @author Flaptor Development Team
+ */
+final class FingerprintCache {
+
+    // The fingerprints of a field of a reader, loaded the first time they are asked for.
+    private static final class Entry {
+        private volatile boolean loaded = false;
+        private long[] fingerprints;
+    }
+
+    private static final Map<IndexReader, ConcurrentMap<String, Entry>> cache = new WeakHashMap<IndexReader, ConcurrentMap<String, Entry>>();
+
+    private FingerprintCache() {}
+
+    /**
+     * Returns the fingerprints of the documents of the reader, indexed by document id.
+     * Documents without a fingerprint have a 0.
+     * @param field the name of the field that holds the fingerprints.
+     * @return the fingerprints, or null if no document of the reader has one.
+     */
+    static long[] get(IndexReader reader, String field) throws IOException {
+        ConcurrentMap<String, Entry> fields;
+        synchronized (cache) {
+            fields = cache.get(reader);
+            if (null == fields) {
+                fields = new ConcurrentHashMap<String, Entry>();
+                cache.put(reader, fields);
+            }
+        }
+        Entry entry = fields.get(field);
+        if (null == entry) {
+            Entry newEntry = new Entry();
+            entry = fields.putIfAbsent(field, newEntry);
+            if (null == entry) {
+                entry = newEntry;
+            }
+        }
+        if (!entry.loaded) {
+            synchronized (entry) {
+                if (!entry.loaded) {
+                    entry.fingerprints = load(reader, field);
+                    entry.loaded = true;
+                }
+            }
+        }
+        return entry.fingerprints;
+    }
+
+    private static long[] load(IndexReader reader, String field) throws IOException {
+        long[] fingerprints = new long[reader.maxDoc()];
+        boolean found = false;
+        TermEnum terms = reader.terms(new Term(field, ""));
+        TermDocs docs = reader.termDocs();
+        try {
+            do {
+                Term term = terms.term();
+                if (null == term || !field.equals(term.field())) {
+                    break;
+                }
+                long fingerprint = SimHash.parse(term.text());
+                docs.seek(terms);
+                while (docs.next()) {
+                    fingerprints[docs.doc()] = fingerprint;
+                }
+                found = true;
+            } while (terms.next());
+        } finally {
+            docs.close();
+            terms.close();
+        }
+        return found ? fingerprints : null;
+    }
+}
@@ -21,6 +21,7 @@ import java.util.Comparator;
 import java.util.List;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
 
 import com.flaptor.hounder.searcher.GroupedSearchResults;
 import com.flaptor.hounder.searcher.sort.ASort;
@@ -99,6 +100,11 @@ public class GroupedSearchResultsDocumentProvider implements DocumentProvider {
     public Document getDocument(int i) {
         return this.plainDocs.get(i).first();
     }
+
+    // the documents are already in memory.
+    public Document getDocument(int i, FieldSelector selector) {
+        return getDocument(i);
+    }
     public float getScore(int i) {
         return this.plainDocs.get(i).last();
     }
@@ -30,6 +30,12 @@ public class SimpleResultsGrouper extends AResultsGrouper {
         super(provider);
     };
 
+    private static final String[] NO_FIELDS = new String[0];
+
+    protected String[] getKeyFields() {
+        return NO_FIELDS;
+    }
+
     protected Pair<String,Integer> findGroup(Document doc) {
         return new Pair<String,Integer>("",docs.size());
     }
@@ -15,45 +15,105 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher.group;
 
-import java.util.Vector;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldCache;
 
+import com.flaptor.hounder.util.IntIntHashMap;
+import com.flaptor.util.Config;
 import com.flaptor.util.Pair;
 
 /**
+ * Groups documents by the value of a stored field.
+ *
+ * If the field is one of the <code>StoredFieldGroup.ordinalFields</code>, the
+ * group of each document is found by the ordinal of its value in the FieldCache
+ * of the index, the same one a sort by the field uses, so no document is loaded
+ * to group it. Other fields are read from the stored documents.
+ *
  * @author Flaptor Development Team
  */
 public class StoredFieldResultsGrouper extends AResultsGrouper {
 
-    private Vector<String> values = null;
-    private String criteria;
+    private static final Set<String> ordinalFields = new HashSet<String>();
+    static {
+        for (String field : Config.getConfig("searcher.properties").getStringArray("StoredFieldGroup.ordinalFields")) {
+            if (field.trim().length() > 0) {
+                ordinalFields.add(field.trim());
+            }
+        }
+    }
+
+    private final String criteria;
+    // Group position of each value, when grouping by stored values.
+    private final Map<String,Integer> positions = new HashMap<String,Integer>();
+
+    // Group position of each ordinal, when grouping by ordinals.
+    private IntIntHashMap ordinalPositions = null;
+    private FieldCache.StringIndex index = null;
+    private String lastValue = null;
 
     public StoredFieldResultsGrouper(DocumentProvider provider, String criteria){
         super(provider);
         this.criteria = criteria;
-        values = new Vector<String>();
+        if (ordinalFields.contains(criteria) && provider instanceof TopDocsDocumentProvider) {
+            IndexReader reader = ((TopDocsDocumentProvider) provider).getIndexReader();
+            if (null != reader) {
+                try {
+                    index = FieldCache.DEFAULT.getStringIndex(reader, criteria);
+                    ordinalPositions = new IntIntHashMap(16);
+                } catch (IOException e) {
+                    // the stored values will be used.
+                    index = null;
+                }
+            }
+        }
     };
 
 
+    protected String[] getKeyFields() {
+        return new String[] {criteria};
+    }
 
-    protected Pair<String,Integer> findGroup(Document doc) {
-        String fieldValue = doc.get(criteria);
-        if (values.size() == 0 ) {
-            values.add(fieldValue);
-            return new Pair<String,Integer>(fieldValue,0);
+    protected Pair<String,Integer> findGroup(int i) throws IOException {
+        if (null == index) {
+            return super.findGroup(i);
         }
+        int ordinal = index.order[((TopDocsDocumentProvider) provider).getDocId(i)];
+        lastValue = index.lookup[ordinal];
+        int pos = ordinalPositions.get(ordinal, -1);
+        if (pos < 0) {
+            pos = ordinalPositions.size();
+            ordinalPositions.put(ordinal, pos);
+        }
+        return new Pair<String,Integer>(lastValue,pos);
+    }
 
-        // else, check from back to front, against all head signatures
-        for (int i = values.size() - 1; i >= 0 ; i--) {
-
-            if (values.get(i).equals(fieldValue)) {
-                return new Pair<String,Integer>(fieldValue,i);
-            }
+    protected Document getDocument(int i) throws IOException {
+        if (null == index) {
+            return super.getDocument(i);
+        }
+        Document doc = provider.getDocument(i);
+        if (null == doc.getFieldable(criteria) && null != lastValue) {
+            doc.add(new Field(criteria, lastValue, Field.Store.YES, Field.Index.NO));
         }
+        return doc;
+    }
 
-        // if we got here, none matched. insert it at the tail
-        values.add(fieldValue);
-        return new Pair<String,Integer>(fieldValue,values.size() - 1);
+    protected Pair<String,Integer> findGroup(Document doc) {
+        String fieldValue = doc.get(criteria);
+        Integer pos = positions.get(fieldValue);
+        if (null == pos) {
+            pos = positions.size();
+            positions.put(fieldValue, pos);
+        }
+        return new Pair<String,Integer>(fieldValue,pos);
     }
 }
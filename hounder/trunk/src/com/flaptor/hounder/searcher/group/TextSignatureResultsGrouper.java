@@ -15,49 +15,158 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher.group;
 
-import java.util.Vector;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
 
+import com.flaptor.hounder.util.SimHash;
+import com.flaptor.util.Config;
 import com.flaptor.util.Pair;
 import com.flaptor.util.TextSignature;
 
 /**
+ * Groups near duplicate documents.
+ *
+ * Documents indexed with a SimHash fingerprint of the field (see the indexer's
+ * Writer.simHashFields) are grouped by their fingerprints, read from an array
+ * cached per index reader, so their text is never loaded. Two documents are near
+ * duplicates if their fingerprints differ in at most
+ * <code>TextSignatureGroup.maxDistance</code> bits. The groups are found by LSH
+ * banding: the fingerprints are split in maxDistance + 1 bands, and any two
+ * near duplicates share at least one of them, so only the groups that share a
+ * band with the document are checked.
+ *
+ * Documents without a fingerprint are grouped by the TextSignature of the field.
+ *
  * @author Flaptor Development Team
  */
 public class TextSignatureResultsGrouper extends AResultsGrouper {
 
-    private Vector<TextSignature> signatures = null;
-    private float threshold = 0.95f ; //TODO FIXME hardcoded
-    private String criteria;
+    private static final int maxDistance = Math.max(0, Math.min(63, Config.getConfig("searcher.properties").getInt("TextSignatureGroup.maxDistance")));
+    private static final int bands = maxDistance + 1;
+    private static final float threshold = 0.95f ;
+
+    private final String criteria;
+    private final String fingerprintField;
+    private int groups = 0;
+
+    // Groups of the documents without fingerprint, by the signature of their first document.
+    private final Map<Integer,TextSignature> signatures = new HashMap<Integer,TextSignature>();
+
+    // Groups of the documents with fingerprint.
+    private long[] heads = new long[16];
+    private final Map<Long,List<Integer>> buckets = new HashMap<Long,List<Integer>>();
+
+    private long[] fingerprints = null;
+    private long lastFingerprint = 0;
 
     public TextSignatureResultsGrouper(DocumentProvider provider, String criteria){
         super(provider);
         this.criteria = criteria;
-        signatures = new Vector<TextSignature>();
+        this.fingerprintField = SimHash.fieldName(criteria);
+        if (provider instanceof TopDocsDocumentProvider) {
+            IndexReader reader = ((TopDocsDocumentProvider) provider).getIndexReader();
+            if (null != reader) {
+                try {
+                    fingerprints = FingerprintCache.get(reader, fingerprintField);
+                } catch (IOException e) {
+                    // the stored documents will be used.
+                    fingerprints = null;
+                }
+            }
+        }
     };
 
 
+    protected String[] getKeyFields() {
+        return new String[] {fingerprintField, criteria};
+    }
 
-    protected Pair<String,Integer> findGroup(Document doc) {
-        
-        TextSignature signature = new TextSignature(doc.get("text"));
+    protected Pair<String,Integer> findGroup(int i) throws IOException {
+        lastFingerprint = (null == fingerprints) ? 0 : fingerprints[((TopDocsDocumentProvider) provider).getDocId(i)];
+        if (0 == lastFingerprint) {
+            return super.findGroup(i);
+        }
+        return new Pair<String,Integer>(criteria,findGroup(lastFingerprint));
+    }
 
-        if (signatures.size() == 0 ) {
-            signatures.add(signature);
-            return new Pair<String,Integer>(criteria,0);
+    protected Document getDocument(int i) throws IOException {
+        if (0 == lastFingerprint) {
+            return super.getDocument(i);
         }
+        Document doc = provider.getDocument(i);
+        if (null == doc.getFieldable(fingerprintField)) {
+            doc.add(new Field(fingerprintField, SimHash.toString(lastFingerprint), Field.Store.YES, Field.Index.NO));
+        }
+        return doc;
+    }
 
-        // else, check from back to front, against all head signatures
-        for (int i = signatures.size() - 1; i >= 0 ; i--) {
+    protected Pair<String,Integer> findGroup(Document doc) {
+        long fingerprint = SimHash.parse(doc.get(fingerprintField));
+        if (0 != fingerprint) {
+            return new Pair<String,Integer>(criteria,findGroup(fingerprint));
+        }
 
-            if (signatures.get(i).compareTo(signature) > threshold) {
-                return new Pair<String,Integer>(criteria,i);
+        TextSignature signature = new TextSignature(doc.get(criteria));
+        // check from back to front, against all head signatures
+        for (int pos = groups - 1; pos >= 0 ; pos--) {
+            TextSignature head = signatures.get(pos);
+            if (null != head && head.compareTo(signature) > threshold) {
+                return new Pair<String,Integer>(criteria,pos);
             }
         }
 
         // if we got here, none matched. insert it at the tail
-        signatures.add(signature);
-        return new Pair<String,Integer>(criteria,signatures.size() - 1);
+        signatures.put(groups, signature);
+        return new Pair<String,Integer>(criteria,groups++);
+    }
+
+    private int findGroup(long fingerprint) {
+        int found = -1;
+        for (int band = 0; band < bands; band++) {
+            List<Integer> candidates = buckets.get(bucket(fingerprint, band));
+            if (null == candidates) continue;
+            for (int pos : candidates) {
+                if ((found < 0 || pos < found) && SimHash.distance(heads[pos], fingerprint) <= maxDistance) {
+                    found = pos;
+                }
+            }
+        }
+        if (found >= 0) {
+            return found;
+        }
+
+        // none matched. start a new group.
+        int pos = groups++;
+        if (pos >= heads.length) {
+            long[] newHeads = new long[heads.length * 2];
+            System.arraycopy(heads, 0, newHeads, 0, heads.length);
+            heads = newHeads;
+        }
+        heads[pos] = fingerprint;
+        for (int band = 0; band < bands; band++) {
+            Long key = bucket(fingerprint, band);
+            List<Integer> candidates = buckets.get(key);
+            if (null == candidates) {
+                candidates = new ArrayList<Integer>(2);
+                buckets.put(key, candidates);
+            }
+            candidates.add(pos);
+        }
+        return pos;
+    }
+
+    // The key of the bucket of the band of the fingerprint.
+    private static Long bucket(long fingerprint, int band) {
+        int from = band * 64 / bands;
+        int to = (band + 1) * 64 / bands;
+        long bits = (to - from == 64) ? fingerprint : (fingerprint >>> from) & ((1L << (to - from)) - 1);
+        return Long.valueOf(bits * 31 + band);
     }
 }
@@ -18,6 +18,9 @@ package com.flaptor.hounder.searcher.group;
 import java.io.IOException;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Searcher;
 import org.apache.lucene.search.TopDocs;
 
@@ -28,10 +31,20 @@ public class TopDocsDocumentProvider implements DocumentProvider {
 
     private final TopDocs tdocs;
     private final Searcher searcher;
+    private final FieldSelector displaySelector;
 
     public TopDocsDocumentProvider( TopDocs tdocs, Searcher searcher) {
+        this(tdocs, searcher, null);
+    }
+
+    /**
+     * @param displaySelector selects the stored fields to load for the documents returned
+     *  by {@link #getDocument(int)}, or null to load all of them.
+     */
+    public TopDocsDocumentProvider( TopDocs tdocs, Searcher searcher, FieldSelector displaySelector) {
         this.searcher = searcher;
         this.tdocs = tdocs;
+        this.displaySelector = displaySelector;
     }
 
     public int totalHits() {
@@ -39,7 +52,32 @@ public class TopDocsDocumentProvider implements DocumentProvider {
     }
 
     public Document getDocument(int i) throws IOException {
-        return searcher.doc(tdocs.scoreDocs[i].doc);
+        if (null == displaySelector) {
+            return searcher.doc(tdocs.scoreDocs[i].doc);
+        }
+        return searcher.doc(tdocs.scoreDocs[i].doc, displaySelector);
+    }
+
+    public Document getDocument(int i, FieldSelector selector) throws IOException {
+        return searcher.doc(tdocs.scoreDocs[i].doc, selector);
+    }
+
+    /**
+     * @return the lucene id of the i-th document.
+     */
+    public int getDocId(int i) {
+        return tdocs.scoreDocs[i].doc;
+    }
+
+    /**
+     * @return the reader the document ids refer to, or null if the
+     *  searcher is not an IndexSearcher.
+     */
+    public IndexReader getIndexReader() {
+        if (searcher instanceof IndexSearcher) {
+            return ((IndexSearcher) searcher).getIndexReader();
+        }
+        return null;
     }
 
     public float getScore(int i) {
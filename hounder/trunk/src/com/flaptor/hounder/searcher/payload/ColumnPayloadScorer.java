@@ -0,0 +1,53 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.payload;
+
+/**
+ * A PayloadScorer for long payloads that can score the documents of an index
+ * without reading their payloads on every search.
+ *
+ * The payload of each document is decoded once per index reader into a column
+ * of longs, and every hit is then scored from its value in the column.
+ *
+ * @author Flaptor Development Team
+ */
+public interface ColumnPayloadScorer extends PayloadScorer {
+
+    /**
+     * The value in the column of the documents whose payload could not be decoded.
+     * They get a score of 1.
+     */
+    public static final long MISSING = Long.MIN_VALUE;
+
+    /**
+     * Turns a payload into the value kept in the column. It is called once per
+     * document and index reader, so it can do the expensive work.
+     *
+     * @param payload the long stored as the payload of a document.
+     * @return the value to keep in the column.
+     */
+    public long decode(long payload);
+
+    /**
+     * Scores a value of the column. It is called for every hit, so it must be
+     * cheap and not allocate.
+     *
+     * @param value a value returned by decode.
+     * @param now the time of the search, in milliseconds.
+     * @return a float, indicating how much the document should be boosted.
+     */
+    public float score(long value, long now);
+}
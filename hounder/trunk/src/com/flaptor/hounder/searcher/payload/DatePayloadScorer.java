@@ -26,7 +26,7 @@ import org.apache.lucene.search.DefaultSimilarity;
  * performed.
  * @author Flaptor Development Team
  */
-public class DatePayloadScorer extends DefaultSimilarity implements PayloadScorer {
+public class DatePayloadScorer extends DefaultSimilarity implements ColumnPayloadScorer {
 
     private static final long serialVersionUID = 1L;
     private static final Logger logger = Logger.getLogger(com.flaptor.util.Execute.whoAmI());
@@ -38,47 +38,55 @@ public class DatePayloadScorer extends DefaultSimilarity implements PayloadScore
     public float scorePayload(byte[] payload) {
         if (payload.length == 0) return 1f;
         try {
+            return score(decode(new LongPayload(payload).asLong()), System.currentTimeMillis());
+        } catch (Exception e) {
+            logger.error("scorePayload: " + e.getMessage(),e);
+            return 1f;
+        }
+    }
 
-            long date = new LongPayload(payload).asLong() / 1000 ;
-            long now = System.currentTimeMillis() / 1000;
-
-            long diff = Math.abs(now - date);
-            float ret = 1.0f;
+    /**
+     * @return the date of the payload, in seconds.
+     */
+    public long decode(long payload) {
+        return payload / 1000;
+    }
 
-            if (diff < 3600*24*30) {
-                ret = 5.0f; //last month
-            }
+    public float score(long date, long now) {
+        if (MISSING == date) return 1f;
 
-            if (diff < 3600*24*7) {
-                ret = 10.0f; //last week
-            }
+        long diff = Math.abs(now / 1000 - date);
+        float ret = 1.0f;
 
-            if (diff < 3600*48) {
-                ret = 20.0f; // last two days
-            }
+        if (diff < 3600*24*30) {
+            ret = 5.0f; //last month
+        }
 
-            if (diff < 3600*24) {
-                ret = 30.0f; //last day
-            }
+        if (diff < 3600*24*7) {
+            ret = 10.0f; //last week
+        }
 
-            if (diff < 3600*12) {
-                ret = 40.0f; //last 12 hours
-            }
+        if (diff < 3600*48) {
+            ret = 20.0f; // last two days
+        }
 
-            if (diff < 7200) {
-                ret = 60.0f; //last two hours
-            }
+        if (diff < 3600*24) {
+            ret = 30.0f; //last day
+        }
 
-            if (diff < 3600) {
-                ret = 100.0f;
-            }
+        if (diff < 3600*12) {
+            ret = 40.0f; //last 12 hours
+        }
 
-            return ret;
+        if (diff < 7200) {
+            ret = 60.0f; //last two hours
+        }
 
-        } catch (Exception e) {
-            logger.error("scorePayload: " + e.getMessage(),e);
-            return 1f;
+        if (diff < 3600) {
+            ret = 100.0f;
         }
+
+        return ret;
     }
 
     @Override
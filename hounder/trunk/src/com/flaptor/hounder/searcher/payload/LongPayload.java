@@ -62,13 +62,22 @@ public class LongPayload {
 
 
 
+    /**
+     * Decodes the long encoded in the 8 bytes of data that start at offset,
+     * without copying them.
+     */
+    public static long decode(byte[] data, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (data[i] & 0xFFL);
+        }
+        return value;
+    }
+
+
     /** HELPER METHODS */
     private static long getLong(byte[] data) {
-        byte[] data1 = new byte[4];
-        byte[] data2 = new byte[4];
-        System.arraycopy(data, 0, data1, 0, 4);
-        System.arraycopy(data, 4, data2, 0, 4);
-        return ((long)(getInt(data1)) << 32) + (getInt(data2) & 0xFFFFFFFFL);
+        return decode(data, 0);
     }
     private static byte[] getBytes(long value) {
         byte[] temp = new byte[8];
@@ -82,17 +91,5 @@ public class LongPayload {
         temp[7] = (byte)((value >>>  0) & 0xFF);
         return temp;
     }
-    private static int getInt(byte[] data) {
-        int w, x, y, z;
-        w = data[0];
-        x = data[1];
-        y = data[2];
-        z = data[3];
-        if (w < 0) w+=256;
-        if (x < 0) x+=256;
-        if (y < 0) y+=256;
-        if (z < 0) z+=256;
-        return ((w << 24) + (x <<16) + (y <<8) + (z <<0));
-    }
 
 }
@@ -0,0 +1,178 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.payload;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.ComplexExplanation;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Searcher;
+import org.apache.lucene.search.Similarity;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.payloads.BoostingTermQuery;
+
+/**
+ * A BoostingTermQuery that does not read payloads while scoring.
+ *
+ * When the SimilarityForwarder of the searcher has a ColumnPayloadScorer for the
+ * field, the payloads are taken from a column decoded once per index reader, the
+ * scorer is looked up once per query, and every hit is scored against the same
+ * "now", taken when the query starts. The score is the one of the BoostingTermQuery.
+ * For other scorers it behaves exactly like a BoostingTermQuery.
+ *
+ * @author Flaptor Development Team
+ */
+public class PayloadColumnQuery extends BoostingTermQuery {
+
+    private static final long serialVersionUID = 1L;
+
+    public PayloadColumnQuery(Term term) {
+        super(term);
+    }
+
+    @Override
+    protected Weight createWeight(Searcher searcher) throws IOException {
+        Similarity similarity = getSimilarity(searcher);
+        if (similarity instanceof SimilarityForwarder) {
+            PayloadScorer scorer = ((SimilarityForwarder)similarity).getScorer(term.field());
+            if (scorer instanceof ColumnPayloadScorer) {
+                return new ColumnWeight(searcher, (ColumnPayloadScorer)scorer, System.currentTimeMillis());
+            }
+        }
+        return super.createWeight(searcher);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return (null != obj) && obj.getClass() == getClass() && super.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+
+    private class ColumnWeight implements Weight {
+        private static final long serialVersionUID = 1L;
+        private final Similarity similarity;
+        private final ColumnPayloadScorer payloadScorer;
+        private final long now;
+        private final float idf;
+        private float queryWeight;
+        private float queryNorm;
+        private float value;
+
+        ColumnWeight(Searcher searcher, ColumnPayloadScorer payloadScorer, long now) throws IOException {
+            this.similarity = getSimilarity(searcher);
+            this.payloadScorer = payloadScorer;
+            this.now = now;
+            idf = similarity.idf(term, searcher);
+        }
+
+        public Query getQuery() {
+            return PayloadColumnQuery.this;
+        }
+
+        public float getValue() {
+            return value;
+        }
+
+        public float sumOfSquaredWeights() {
+            queryWeight = idf * getBoost();
+            return queryWeight * queryWeight;
+        }
+
+        public void normalize(float norm) {
+            queryNorm = norm;
+            queryWeight *= norm;
+            value = queryWeight * idf;
+        }
+
+        public Scorer scorer(IndexReader reader) throws IOException {
+            TermDocs docs = reader.termDocs(term);
+            if (null == docs) {
+                return null;
+            }
+            long[] column = PayloadColumns.get(reader, term.field(), payloadScorer);
+            return new ColumnScorer(similarity, docs, reader.norms(term.field()), column);
+        }
+
+        public Explanation explain(IndexReader reader, int doc) throws IOException {
+            ColumnScorer scorer = (ColumnScorer)scorer(reader);
+            if (null == scorer || !scorer.skipTo(doc) || scorer.doc() != doc) {
+                return new ComplexExplanation(false, 0f, "no payload on " + term.field());
+            }
+            ComplexExplanation result = new ComplexExplanation(true, scorer.score(), "weight(" + getQuery() + " in " + doc + "), product of:");
+            result.addDetail(new Explanation(queryWeight, "queryWeight, idf=" + idf + " queryNorm=" + queryNorm));
+            result.addDetail(new Explanation(idf * scorer.fieldScore(), "fieldWeight, tf * idf * fieldNorm"));
+            result.addDetail(new Explanation(scorer.payloadScore(), "payload score, from the column of " + term.field()));
+            return result;
+        }
+
+        private class ColumnScorer extends Scorer {
+            private final TermDocs docs;
+            private final byte[] norms;
+            private final long[] column;
+
+            ColumnScorer(Similarity similarity, TermDocs docs, byte[] norms, long[] column) {
+                super(similarity);
+                this.docs = docs;
+                this.norms = norms;
+                this.column = column;
+            }
+
+            public int doc() {
+                return docs.doc();
+            }
+
+            public boolean next() throws IOException {
+                return docs.next();
+            }
+
+            public boolean skipTo(int target) throws IOException {
+                return docs.skipTo(target);
+            }
+
+            public float score() {
+                return value * fieldScore() * payloadScore();
+            }
+
+            // what the SpanScorer of the BoostingTermQuery computes, but the weight.
+            // Every position of the term is a span of length 1.
+            float fieldScore() {
+                float tf = getSimilarity().tf(getSimilarity().sloppyFreq(1) * docs.freq());
+                return (null == norms) ? tf : tf * Similarity.decodeNorm(norms[docs.doc()]);
+            }
+
+            float payloadScore() {
+                return payloadScorer.score(column[docs.doc()], now);
+            }
+
+            public Explanation explain(int doc) throws IOException {
+                if (!skipTo(doc) || doc() != doc) {
+                    return new Explanation(0f, "no payload on " + term.field());
+                }
+                return new Explanation(score(), "payload column score");
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.payload;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermPositions;
+
+/**
+ * Keeps the payloads of the documents of each index reader, decoded by a
+ * ColumnPayloadScorer, in an array of longs, so they are read from the index
+ * only once per reader, like the FieldCache does for sorting.
+ *
+ * @author Flaptor Development Team
+ */
+final class PayloadColumns {
+
+    private static final Map<IndexReader, Map<String, long[]>> cache = new WeakHashMap<IndexReader, Map<String, long[]>>();
+
+    private PayloadColumns() {}
+
+    /**
+     * Returns the decoded payloads of the documents of the reader, indexed by document id.
+     * Documents without a payload have ColumnPayloadScorer.MISSING.
+     * @param field the name of the payload field.
+     * @param scorer the scorer that decodes the payloads of the field.
+     */
+    static long[] get(IndexReader reader, String field, ColumnPayloadScorer scorer) throws IOException {
+        // the decoded values depend on the scorer.
+        String key = field + "/" + scorer.getClass().getName();
+        synchronized (cache) {
+            Map<String, long[]> columns = cache.get(reader);
+            if (null == columns) {
+                columns = new HashMap<String, long[]>();
+                cache.put(reader, columns);
+            }
+            long[] column = columns.get(key);
+            if (null == column) {
+                column = load(reader, field, scorer);
+                columns.put(key, column);
+            }
+            return column;
+        }
+    }
+
+    private static long[] load(IndexReader reader, String field, ColumnPayloadScorer scorer) throws IOException {
+        long[] column = new long[reader.maxDoc()];
+        Arrays.fill(column, ColumnPayloadScorer.MISSING);
+        byte[] payload = new byte[8];
+        // Hounder indexes payloads as a single token, equal to the field name.
+        TermPositions positions = reader.termPositions(new Term(field, field));
+        try {
+            while (positions.next()) {
+                positions.nextPosition();
+                if (positions.isPayloadAvailable() && positions.getPayloadLength() >= 8) {
+                    payload = positions.getPayload(payload, 0);
+                    column[positions.doc()] = scorer.decode(LongPayload.decode(payload, 0));
+                }
+            }
+        } finally {
+            positions.close();
+        }
+        return column;
+    }
+}
@@ -26,7 +26,7 @@ import org.apache.lucene.search.DefaultSimilarity;
  *
  * @author Flaptor Development Team
  */
-public class ScalarPayloadScorer extends DefaultSimilarity implements PayloadScorer {
+public class ScalarPayloadScorer extends DefaultSimilarity implements ColumnPayloadScorer {
 
     private static final long serialVersionUID = 1L;
     private static final Logger logger = Logger.getLogger(com.flaptor.util.Execute.whoAmI());
@@ -47,9 +47,7 @@ public class ScalarPayloadScorer extends DefaultSimilarity implements PayloadSco
         float boost = 1f;
         if (payload.length >= 0) {
             try {
-                long value = new LongPayload(payload).asLong();
-                value = Math.min(value,maxValue);
-                boost = 1f+weight*value/maxValue;
+                boost = score(decode(new LongPayload(payload).asLong()), 0);
             } catch (Exception e) {
                 logger.error("scorePayload: ",e);
             }
@@ -57,6 +55,18 @@ public class ScalarPayloadScorer extends DefaultSimilarity implements PayloadSco
         return boost;
     }
 
+    public long decode(long payload) {
+        return Math.min(payload,maxValue);
+    }
+
+    /**
+     * The score does not depend on the time of the search.
+     */
+    public float score(long value, long now) {
+        if (MISSING == value) return 1f;
+        return 1f+weight*value/maxValue;
+    }
+
     @Override
     public float scorePayload(String fieldName, byte[] payload, int offset, int length) {
          // ignore offset and length parameters... Is this ok?
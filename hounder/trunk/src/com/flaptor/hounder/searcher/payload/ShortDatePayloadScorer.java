@@ -29,7 +29,7 @@ import org.apache.lucene.search.DefaultSimilarity;
  * performed.
  * @author Flaptor Development Team
  */
-public class ShortDatePayloadScorer extends DefaultSimilarity implements PayloadScorer {
+public class ShortDatePayloadScorer extends DefaultSimilarity implements ColumnPayloadScorer {
 
     private static final long serialVersionUID = 1L;
     private static final Logger logger = Logger.getLogger(com.flaptor.util.Execute.whoAmI());
@@ -46,20 +46,7 @@ public class ShortDatePayloadScorer extends DefaultSimilarity implements Payload
         float boost = 1f;
         if (payload.length >= 0) {
             try {
-                long shortDate = new LongPayload(payload).asLong();
-                int year = (int)(shortDate/10000);
-                shortDate -= year*10000;
-                int month = (int)(shortDate/100);
-                shortDate -= month*100;
-                int day = (int)shortDate;
-                cal.clear();
-                cal.set(year,month-1,day);
-                long date = cal.getTimeInMillis();
-                long now = System.currentTimeMillis();
-                float diff = Math.abs(now - date)/(1000L*60*60*24);  // days
-                if (diff+damp == 0) diff += 0.1f;
-                boost = 1f+(weight*damp)/(diff+damp);
-//System.out.println("Paylaod: "+year+"/"+month+"/"+day+"  now="+now+"  date="+date+"  days="+diff+"   ret:"+boost);
+                boost = score(decode(new LongPayload(payload).asLong()), System.currentTimeMillis());
             } catch (Exception e) {
                 logger.error("scorePayload: " + e.getMessage(),e);
             }
@@ -67,6 +54,29 @@ public class ShortDatePayloadScorer extends DefaultSimilarity implements Payload
         return boost;
     }
 
+    /**
+     * @return the date of the payload (in yyyymmdd format), in milliseconds.
+     */
+    public long decode(long shortDate) {
+        int year = (int)(shortDate/10000);
+        shortDate -= year*10000;
+        int month = (int)(shortDate/100);
+        shortDate -= month*100;
+        int day = (int)shortDate;
+        synchronized (cal) {
+            cal.clear();
+            cal.set(year,month-1,day);
+            return cal.getTimeInMillis();
+        }
+    }
+
+    public float score(long date, long now) {
+        if (MISSING == date) return 1f;
+        float diff = Math.abs(now - date)/(1000L*60*60*24);  // days
+        if (diff+damp == 0) diff += 0.1f;
+        return 1f+(weight*damp)/(diff+damp);
+    }
+
     @Override
     public float scorePayload(String fieldName, byte[] payload, int offset, int length) {
          // ignore offset and length parameters... Is this ok?
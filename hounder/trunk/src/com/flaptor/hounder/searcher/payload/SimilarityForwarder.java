@@ -75,11 +75,23 @@ public class SimilarityForwarder extends DefaultSimilarity {
     }
 
 
+    /**
+     * @return the PayloadScorer associated to the field, or null if there is none.
+     */
+    public PayloadScorer getScorer(String fieldName) {
+        return scorers.get(fieldName);
+    }
+
+
     public float scorePayload(String fieldName, byte[] payload, int offset, int length) {
 
         PayloadScorer scorer = scorers.get(fieldName);
         if (null == scorer) {
             return super.scorePayload(fieldName, payload, offset, length);
+        } else if (scorer instanceof ColumnPayloadScorer && length >= 8) {
+            // decode the long in place, without copying the payload.
+            ColumnPayloadScorer columnScorer = (ColumnPayloadScorer)scorer;
+            return columnScorer.score(columnScorer.decode(LongPayload.decode(payload, offset)), System.currentTimeMillis());
         } else {
             // Lucene gives an array that is larger than the length parameter.
             // trim it.
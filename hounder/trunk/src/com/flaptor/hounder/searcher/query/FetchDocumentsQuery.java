@@ -0,0 +1,91 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.query;
+
+import java.util.Arrays;
+
+/**
+ * A query for some documents of an index generation, by their lucene ids, taken from the
+ * results of a {@link HitKeysQuery}. It is the second phase of a distributed search.
+ *
+ * Its results have a group for each document, in the order of the ids. The query it wraps
+ * does not select the documents: it is the one their snippets are made for. The search
+ * fails if the generation is no longer the current one, as the ids are only valid in it.
+ *
+ * @author Flaptor Development Team
+ */
+public class FetchDocumentsQuery extends AQuery {
+
+    private static final long serialVersionUID = 1L;
+    private final AQuery query;
+    private final long generation;
+    private final int[] documentIds;
+
+    /**
+     * @param query the query the documents were found by.
+     * @param generation the index generation the ids belong to.
+     * @param documentIds the lucene ids of the documents to fetch.
+     */
+    public FetchDocumentsQuery(final AQuery query, final long generation, final int[] documentIds) {
+        if (null == query) {
+            throw new IllegalArgumentException("query cannot be null.");
+        }
+        if (null == documentIds) {
+            throw new IllegalArgumentException("documentIds cannot be null.");
+        }
+        this.query = query;
+        this.generation = generation;
+        this.documentIds = documentIds.clone();
+    }
+
+    public org.apache.lucene.search.Query getLuceneQuery() {
+        return query.getLuceneQuery();
+    }
+
+    public AQuery getQuery() {
+        return query;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public int[] getDocumentIds() {
+        return documentIds.clone();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!super.equals(obj)) {
+            return false;
+        }
+        FetchDocumentsQuery q = (FetchDocumentsQuery) obj;
+        return generation == q.generation && Arrays.equals(documentIds, q.documentIds) && query.equals(q.query);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = query.hashCode();
+        hash = 31 * hash + (int) (generation ^ (generation >>> 32));
+        hash = 31 * hash + Arrays.hashCode(documentIds);
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return query.toString();
+    }
+}
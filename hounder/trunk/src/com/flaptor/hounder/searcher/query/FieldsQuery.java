@@ -0,0 +1,83 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A query whose results only carry some of the stored fields of the documents, overriding
+ * the searcher's default (ReloadableIndexSearcher.displayFields). The fields used to sort
+ * the results and the snippeted fields are loaded too.
+ *
+ * It matches and scores the documents as the query it wraps.
+ *
+ * @author Flaptor Development Team
+ */
+public class FieldsQuery extends AQuery {
+
+    private static final long serialVersionUID = 1L;
+    private final AQuery query;
+    private final TreeSet<String> fields;
+
+    /**
+     * @param query the query to run.
+     * @param fields the names of the stored fields to return.
+     */
+    public FieldsQuery(final AQuery query, final String[] fields) {
+        if (null == query) {
+            throw new IllegalArgumentException("query cannot be null.");
+        }
+        if (null == fields || fields.length == 0) {
+            throw new IllegalArgumentException("fields cannot be empty.");
+        }
+        this.query = query;
+        this.fields = new TreeSet<String>(Arrays.asList(fields));
+    }
+
+    public org.apache.lucene.search.Query getLuceneQuery() {
+        return query.getLuceneQuery();
+    }
+
+    public AQuery getQuery() {
+        return query;
+    }
+
+    public Set<String> getFields() {
+        return Collections.unmodifiableSet(fields);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!super.equals(obj)) {
+            return false;
+        }
+        FieldsQuery q = (FieldsQuery) obj;
+        return fields.equals(q.fields) && query.equals(q.query);
+    }
+
+    @Override
+    public int hashCode() {
+        return 37 * query.hashCode() + fields.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return query.toString();
+    }
+}
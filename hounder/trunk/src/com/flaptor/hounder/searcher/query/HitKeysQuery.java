@@ -0,0 +1,70 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.query;
+
+/**
+ * A query whose results only carry the keys of the documents: the stored fields needed
+ * to sort and group them again, and their lucene ids (see
+ * {@link com.flaptor.hounder.searcher.GroupedSearchResults#getDocumentIds(int)}).
+ * It is the first phase of a distributed search: once the results of all the searchers
+ * are merged, only the documents of the page are fetched, with a {@link FetchDocumentsQuery}.
+ *
+ * It matches and scores the documents as the query it wraps. No snippets are made for
+ * its results.
+ *
+ * @author Flaptor Development Team
+ */
+public class HitKeysQuery extends AQuery {
+
+    private static final long serialVersionUID = 1L;
+    private final AQuery query;
+
+    /**
+     * @param query the query to run.
+     */
+    public HitKeysQuery(final AQuery query) {
+        if (null == query) {
+            throw new IllegalArgumentException("query cannot be null.");
+        }
+        this.query = query;
+    }
+
+    public org.apache.lucene.search.Query getLuceneQuery() {
+        return query.getLuceneQuery();
+    }
+
+    public AQuery getQuery() {
+        return query;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!super.equals(obj)) {
+            return false;
+        }
+        return query.equals(((HitKeysQuery) obj).query);
+    }
+
+    @Override
+    public int hashCode() {
+        return 17 * query.hashCode() + 1;
+    }
+
+    @Override
+    public String toString() {
+        return query.toString();
+    }
+}
@@ -15,6 +15,9 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher.query;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 /**
  * @author Flaptor Development Team
  */
@@ -23,19 +26,27 @@ public class LazyParsedQuery extends AQuery {
     private static final long serialVersionUID = 1L;
     private org.apache.lucene.search.Query lq = null;
     private final String queryStr;
+    // The query string with its whitespace normalized, used to compare queries. It is not
+    // serialized, so that the queries keep their serialized form, and is made again when read.
+    private transient String normalizedQueryStr;
 
     public LazyParsedQuery(String queryString) {
         if (null == queryString) {
             throw new IllegalArgumentException("queryString cannot be null.");
         }
         queryStr = queryString;
+        normalizedQueryStr = QueryParser.normalize(queryString);
     }
     
-    
+
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        normalizedQueryStr = QueryParser.normalize(queryStr);
+    }
 
     public  org.apache.lucene.search.Query getLuceneQuery() {
         if (null == lq) {
-            lq = new QueryParser().parse(queryStr);
+            lq = QueryParser.getSharedInstance().parseCached(queryStr);
         }
         return lq;
     }
@@ -50,6 +61,16 @@ public class LazyParsedQuery extends AQuery {
             if (res == null) {
                 res = findLazyParsedQuery(binary.getRightTerm());
             }
+        } else if (query instanceof TimeBudgetQuery) {
+            res = findLazyParsedQuery(((TimeBudgetQuery) query).getQuery());
+        } else if (query instanceof SearchAfterQuery) {
+            res = findLazyParsedQuery(((SearchAfterQuery) query).getQuery());
+        } else if (query instanceof HitKeysQuery) {
+            res = findLazyParsedQuery(((HitKeysQuery) query).getQuery());
+        } else if (query instanceof FieldsQuery) {
+            res = findLazyParsedQuery(((FieldsQuery) query).getQuery());
+        } else if (query instanceof FetchDocumentsQuery) {
+            res = findLazyParsedQuery(((FetchDocumentsQuery) query).getQuery());
         }
         return res;
     }
@@ -62,7 +83,7 @@ public class LazyParsedQuery extends AQuery {
     
     @Override
     public int hashCode() {
-        return queryStr.hashCode();
+        return normalizedQueryStr.hashCode();
     }
 
     @Override
@@ -71,6 +92,6 @@ public class LazyParsedQuery extends AQuery {
             return true;
         if((obj == null) || (obj.getClass() != this.getClass()))
             return false;
-        return queryStr.equals(((LazyParsedQuery)obj).queryStr);
+        return normalizedQueryStr.equals(((LazyParsedQuery)obj).normalizedQueryStr);
     }
 }
@@ -23,7 +23,8 @@ import java.io.Serializable;
  * has the field and the term equal, and associates a payload to it.
  *
  * So, when using payloads, that translates into a lucene BoostingTermQuery
- * with a Term(fieldName,fieldName).
+ * with a Term(fieldName,fieldName), a PayloadColumnQuery, that does not read
+ * the payloads while scoring if their scorer is a ColumnPayloadScorer.
  *
  * Usage:
  * <pre>
@@ -78,7 +79,7 @@ public class PayloadQuery extends AQuery {
      * @see org.apache.lucene.search.Query
      */
     public org.apache.lucene.search.Query getLuceneQuery(){
-        return new org.apache.lucene.search.payloads.BoostingTermQuery(new org.apache.lucene.index.Term(field,field));
+        return new com.flaptor.hounder.searcher.payload.PayloadColumnQuery(new org.apache.lucene.index.Term(field,field));
     }
 
     /**
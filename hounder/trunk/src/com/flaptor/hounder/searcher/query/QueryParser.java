@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
@@ -30,8 +31,10 @@ import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.search.BooleanClause;
 
+import com.flaptor.util.Cache;
 import com.flaptor.util.Config;
 import com.flaptor.util.Execute;
+import com.flaptor.util.LRUCache;
 import com.flaptor.util.Pair;
 
 /**
@@ -39,6 +42,11 @@ import com.flaptor.util.Pair;
  * This class basically uses Lucene's query parser, but adds the extra functionality of specifying
  * the fields and weights of the non-field prefixed terms in the query via the configuration file.
  * The QueryParser is thread-safe.
+ *
+ * Building a QueryParser is expensive, as it reads the synonyms and phrases files, so the searcher
+ * uses a single shared instance (see {@link #getSharedInstance()}), that is rebuilt only when
+ * those files or the parser configuration change. The shared instance also keeps a bounded cache
+ * of parsed queries (see {@link #parseCached(String)}).
  * @author Flaptor Development Team
  */
 public class QueryParser implements Serializable {
@@ -52,11 +60,25 @@ public class QueryParser implements Serializable {
     protected PhraseMatcher phraseMatcher = null;
     protected PhraseAdder phraseAdder = null;
 
+    // The configuration keys that define the parser.
+    private static final String[] CONFIG_KEYS = {"QueryParser.searchFields", "QueryParser.searchFieldWeights",
+        "QueryParser.nonTokenizedFields", "QueryParser.synonymFields", "QueryParser.synonymFile",
+        "QueryParser.phrasesFile", "QueryParser.usePhraseAdder"};
+
+    private static final AtomicReference<QueryParser> sharedInstance = new AtomicReference<QueryParser>(null);
+    private static final Object sharedInstanceLock = new Object();
+    private static volatile long nextSourceCheck = 0;
+
+    // Identifies the configuration and files this parser was built from.
+    private transient final String source;
+    private transient final Cache<String, org.apache.lucene.search.Query> parsedQueries;
+
 	/**
 	  Constructor.
 	  Takes many configuration parameters from the config.
 	 */
 	public QueryParser() {
+	    source = currentSource();
 		analyzer = createAnalyzer();   
         phraseMatcher = createPhraseMatcher();
         phraseAdder = createPhraseAdder();
@@ -75,8 +97,57 @@ public class QueryParser implements Serializable {
             fieldsAndWeights[i] = new Pair<String,Float>(fields[i], Float.parseFloat(weights[i]));
             logger.info(fieldsAndWeights[i]);
         }
+        parsedQueries = new LRUCache<String, org.apache.lucene.search.Query>(searcherConfig.getInt("QueryParser.parsedQueryCacheSize"));
 	}
 
+    /**
+     * Returns the QueryParser shared by all the searches.
+     * Every <code>QueryParser.reloadCheckInterval</code> milliseconds it checks whether the parser
+     * configuration, the synonyms file or the phrases file changed, and if so replaces the shared
+     * instance with a new one built from them. Parsers already handed out keep working.
+     */
+    public static QueryParser getSharedInstance() {
+        QueryParser parser = sharedInstance.get();
+        long now = System.currentTimeMillis();
+        if (null != parser && now < nextSourceCheck) {
+            return parser;
+        }
+        synchronized (sharedInstanceLock) {
+            parser = sharedInstance.get();
+            if (null == parser || now >= nextSourceCheck) {
+                if (null == parser || !parser.source.equals(currentSource())) {
+                    if (null != parser) {
+                        logger.info("getSharedInstance: the parser configuration or its files changed, reloading.");
+                    }
+                    parser = new QueryParser();
+                    sharedInstance.set(parser);
+                }
+                nextSourceCheck = now + searcherConfig.getInt("QueryParser.reloadCheckInterval");
+            }
+            return parser;
+        }
+    }
+
+    /**
+     * Describes the configuration and files a parser built now would use, so it can be compared
+     * against the ones used by an existing parser.
+     */
+    private static String currentSource() {
+        StringBuffer buf = new StringBuffer();
+        for (String key : CONFIG_KEYS) {
+            buf.append(searcherConfig.getString(key)).append('\n');
+        }
+        buf.append(commonConfig.getString("stopwords")).append('\n');
+        buf.append(lastModified(searcherConfig.getString("QueryParser.synonymFile"))).append('\n');
+        buf.append(lastModified(searcherConfig.getString("QueryParser.phrasesFile")));
+        return buf.toString();
+    }
+
+    private static long lastModified(String fileName) {
+        fileName = fileName.trim();
+        return (fileName.length() == 0) ? 0 : new File(fileName).lastModified();
+    }
+
 	/**
 	* Returs a new created analyzer to be used for parsing.
 	* Helper method to be used by the constructor. It create the analyzer that tokenizes
@@ -197,6 +268,49 @@ public class QueryParser implements Serializable {
         }
     }
 
+    /**
+     * Same as {@link #parse(String)}, but keeps the parsed queries in a bounded cache, keyed by the
+     * query string with its whitespace normalized. The returned query is shared with other callers,
+     * and must not be modified.
+     * @throws IllegalArgumentException if the string can not be parsed.
+     */
+    public org.apache.lucene.search.Query parseCached(String queryStr) {
+        if (null == queryStr) {
+            String s = "query string cannot be null";
+            logger.error(s);
+            throw new NullPointerException(s);
+        }
+        String key = normalize(queryStr);
+        org.apache.lucene.search.Query query = parsedQueries.get(key);
+        if (null == query) {
+            query = parse(key);
+            parsedQueries.put(key, query);
+        }
+        return query;
+    }
+
+    /**
+     * Trims the query string and collapses every run of whitespace into a single space.
+     * The lucene query parser treats all of them as separators, so the parsed query is the same.
+     */
+    static String normalize(String queryStr) {
+        StringBuffer buf = new StringBuffer(queryStr.length());
+        boolean space = false;
+        for (int i = 0; i < queryStr.length(); i++) {
+            char c = queryStr.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = buf.length() > 0;
+            } else {
+                if (space) {
+                    buf.append(' ');
+                    space = false;
+                }
+                buf.append(c);
+            }
+        }
+        return buf.toString();
+    }
+
     private String matchPhrases(String query) {
         // check if it makes sense to try to match phrases first
         if (null == phraseMatcher) return query;
@@ -0,0 +1,82 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.query;
+
+import com.flaptor.hounder.searcher.SearchCursor;
+
+/**
+ * A query for the page of results after a cursor, taken from the results of the previous
+ * page (see {@link com.flaptor.hounder.searcher.GroupedSearchResults#getNextCursor()}).
+ * The first result asked for is the first after the cursor, so the searchers only keep
+ * the hits after it instead of collecting all the hits of the previous pages.
+ *
+ * It matches and scores the documents as the query it wraps, which must be the same as
+ * the one of the previous pages, with the same filter, sort and grouping.
+ *
+ * @author Flaptor Development Team
+ */
+public class SearchAfterQuery extends AQuery {
+
+    private static final long serialVersionUID = 1L;
+    private final AQuery query;
+    private final SearchCursor cursor;
+
+    /**
+     * @param query the query to run.
+     * @param cursor the position after which the results start.
+     */
+    public SearchAfterQuery(final AQuery query, final SearchCursor cursor) {
+        if (null == query) {
+            throw new IllegalArgumentException("query cannot be null.");
+        }
+        if (null == cursor) {
+            throw new IllegalArgumentException("cursor cannot be null.");
+        }
+        this.query = query;
+        this.cursor = cursor;
+    }
+
+    public org.apache.lucene.search.Query getLuceneQuery() {
+        return query.getLuceneQuery();
+    }
+
+    public AQuery getQuery() {
+        return query;
+    }
+
+    public SearchCursor getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!super.equals(obj)) {
+            return false;
+        }
+        SearchAfterQuery q = (SearchAfterQuery) obj;
+        return cursor.equals(q.cursor) && query.equals(q.query);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * query.hashCode() + cursor.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return query.toString();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.query;
+
+/**
+ * A query with its own time budget, overriding the searcher's default
+ * (ReloadableIndexSearcher.timeBudget). If the budget runs out while the matching documents
+ * are collected, the search returns the best results found until then, marked as partial.
+ *
+ * It matches and scores the documents as the query it wraps.
+ *
+ * @author Flaptor Development Team
+ */
+public class TimeBudgetQuery extends AQuery {
+
+    private static final long serialVersionUID = 1L;
+    private final AQuery query;
+    private final long timeBudget;
+
+    /**
+     * @param query the query to run.
+     * @param timeBudget the max number of milliseconds to spend collecting its matches.
+     *  0 means no limit.
+     */
+    public TimeBudgetQuery(final AQuery query, final long timeBudget) {
+        if (null == query) {
+            throw new IllegalArgumentException("query cannot be null.");
+        }
+        if (timeBudget < 0) {
+            throw new IllegalArgumentException("timeBudget cannot be negative (" + timeBudget + ").");
+        }
+        this.query = query;
+        this.timeBudget = timeBudget;
+    }
+
+    public org.apache.lucene.search.Query getLuceneQuery() {
+        return query.getLuceneQuery();
+    }
+
+    public AQuery getQuery() {
+        return query;
+    }
+
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!super.equals(obj)) {
+            return false;
+        }
+        TimeBudgetQuery q = (TimeBudgetQuery) obj;
+        return timeBudget == q.timeBudget && query.equals(q.query);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * query.hashCode() + (int) (timeBudget ^ (timeBudget >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return query.toString();
+    }
+}
@@ -17,11 +17,15 @@ package com.flaptor.hounder.searcher.query;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.store.FSDirectory;
 
 import com.flaptor.hounder.searcher.spell.SpellChecker;
+import com.flaptor.hounder.util.DaemonThreadFactory;
 
 
 /**
@@ -43,6 +47,38 @@ public class WordQuerySuggestor extends AQuerySuggestor {
      *          the underlying SpellChecker
      */
     public WordQuerySuggestor(File dictionaryDir) throws IOException{
-        super(new SpellChecker(FSDirectory.getDirectory(dictionaryDir)));
+        this(dictionaryDir, 0);
+    }
+
+    /**
+     * Creates a WordQuerySuggestor that checks every reloadInterval milliseconds
+     * if the dictionary was rebuilt, and if so loads its words again.
+     *
+     * @param dictionaryDir
+     *          A directory that contains an N-Gram index, for
+     *          the underlying SpellChecker
+     * @param reloadInterval
+     *          How often to check the dictionary, in milliseconds. 0 never checks it.
+     */
+    public WordQuerySuggestor(File dictionaryDir, long reloadInterval) throws IOException{
+        this(new SpellChecker(FSDirectory.getDirectory(dictionaryDir)), reloadInterval);
+    }
+
+    private WordQuerySuggestor(final SpellChecker spellChecker, long reloadInterval) throws IOException{
+        super(spellChecker);
+        // load the words now, instead of on the first suggestion.
+        spellChecker.reload();
+        if (reloadInterval > 0) {
+            ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("WordQuerySuggestor"));
+            reloader.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        spellChecker.checkForUpdates();
+                    } catch (IOException e) {
+                        logger.error("could not reload the dictionary: " + e.getMessage(), e);
+                    }
+                }
+            }, reloadInterval, reloadInterval, TimeUnit.MILLISECONDS);
+        }
     }
 }
@@ -16,30 +16,33 @@ limitations under the License.
 package com.flaptor.hounder.searcher.spell;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.WhitespaceAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.search.BooleanClause;
-import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.TopDocCollector;
-import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.store.Directory;
 
 import com.flaptor.hounder.searcher.query.WordSuggestor;
 import com.flaptor.util.Pair;
 
 /**
+ * Suggests words from a dictionary that are similar to a given one.
+ *
+ * The dictionary is stored in an n-gram spell index, and its words are loaded in memory
+ * (see SpellingIndex) the first time a suggestion is asked, so suggestions do not touch
+ * the disk. The words are loaded again when the dictionary is indexed, or when
+ * checkForUpdates finds the spell index was changed by someone else.
+ *
  * @author Flaptor Development Team
  */
 public class SpellChecker implements WordSuggestor{
+    private static final Logger logger = Logger.getLogger(com.flaptor.util.Execute.whoAmI());
+
     /**
      * Field name for each word in the ngram index.
      */
@@ -51,16 +54,12 @@ public class SpellChecker implements WordSuggestor{
      */
     Directory spellindex;
 
-    /**
-     * Boost value for start and end grams
-     */
-    private float bStart=2.0f;
-    private float bEnd=1.0f;
-
-
     private IndexReader reader;
     private float min=0.5f;
 
+    // The words of the spell index, loaded in memory to make suggestions.
+    private final AtomicReference<SpellingIndex> spellingIndex = new AtomicReference<SpellingIndex>();
+
     private void setSpellIndex (Directory spellindex) {
         this.spellindex=spellindex;
     }
@@ -115,51 +114,20 @@ public class SpellChecker implements WordSuggestor{
             return new String[] { word }; // return the word if it exist in the index and i don't want a more popular word
         }
 
-        BooleanQuery query = new BooleanQuery();
-        String[] grams;
-        String key;
-
-        for (int ng=getMin(lengthWord); ng<=getMax(lengthWord); ng++) {
-
-            key="gram"+ng; // form key
-
-            grams=formGrams(word, ng); // form word into ngrams (allow dups too)
-
-            if (grams.length==0) {
-                continue; // hmm
-            }
-            if (bStart>0) { // should we boost prefixes?
-                add(query, "start"+ng, grams[0], bStart); // matches start of word
-
-            }
-            if (bEnd>0) { // should we boost suffixes
-                add(query, "end"+ng, grams[grams.length-1], bEnd); // matches end of word
-
-            }
-            for (int i=0; i<grams.length; i++) {
-                add(query, key, grams[i]);
-            }
-
-        }
-
-        IndexSearcher searcher=new IndexSearcher(this.spellindex);
-        TopDocCollector collector = new TopDocCollector(10 * num_sug); // go thru more than 'maxr' matches in case the distance filter triggers
-        searcher.search(query, collector);
-        ScoreDoc[] scoreDocs = collector.topDocs().scoreDocs;
-
+        SpellingIndex index = getSpellingIndex();
         SuggestWordQueue sugqueue=new SuggestWordQueue(num_sug);
         SuggestWord sugword = new SuggestWord();
-        for (int i = 0; i < scoreDocs.length; i++) {
+        for (int id : index.candidates(word)) {
 
-            Document doc = searcher.doc(i);
-            sugword.string=doc.get(F_WORD); // get orig word)
+            sugword.string=index.getWord(id);
 
             if (sugword.string.equals(word)) {
                 continue; // don't suggest a word for itself, that would be silly
             }
 
-            //edit distance/normalize with the min word length
-            sugword.score= doc.getBoost() * (1.0f-((float) sd.getDistance(sugword.string)/Math.min(sugword.string.length(), lengthWord)));
+            //edit distance/normalize with the min word length. The boost of the words is not used,
+            //as the stored documents of the spell index never kept it.
+            sugword.score= 1.0f-((float) sd.getDistance(sugword.string)/Math.min(sugword.string.length(), lengthWord));
             if (sugword.score<minScore) {
                 continue;
             }
@@ -183,48 +151,52 @@ public class SpellChecker implements WordSuggestor{
             list[i]=((SuggestWord) sugqueue.pop()).string;
         }
 
-        searcher.close();
         return list;
     }
 
     /**
-     * Add a clause to a boolean query.
+     * Returns the in-memory index of the words of the spell index, loading it on first use.
      */
-    private static void add (BooleanQuery q, String k, String v, float boost) {
-        Query tq=new TermQuery(new Term(k, v));
-        tq.setBoost(boost);
-        q.add(new BooleanClause(tq, BooleanClause.Occur.SHOULD));
+    private SpellingIndex getSpellingIndex () throws IOException {
+        SpellingIndex index = spellingIndex.get();
+        if (null == index) {
+            reload();
+            index = spellingIndex.get();
+        }
+        return index;
     }
 
-
     /**
-     * Add a clause to a boolean query.
+     * Loads the words of the spell index into memory again. Suggestions being made keep
+     * using the words loaded before, the next ones use the new words.
+     * @throws IOException
      */
-    private static void add (BooleanQuery q, String k, String v) {
-        q.add(new BooleanClause(new TermQuery(new Term(k, v)), BooleanClause.Occur.SHOULD));
+    public synchronized void reload () throws IOException {
+        SpellingIndex index = SpellingIndex.load(spellindex);
+        spellingIndex.set(index);
+        logger.info("reload: loaded " + index.size() + " words from the spell index.");
     }
 
-
     /**
-     * Form all ngrams for a given word.
-     * @param text the word to parse
-     * @param ng the ngram length e.g. 3
-     * @return an array of all ngrams in the word and note that duplicates are not removed
+     * Reloads the words of the spell index if it changed since they were loaded, for example
+     * because it was built again by a DidYouMeanIndexer.
+     * @return true if the words were reloaded.
+     * @throws IOException
      */
-    private static String[] formGrams (String text, int ng) {
-        int len=text.length();
-        String[] res=new String[len-ng+1];
-        for (int i=0; i<len-ng+1; i++) {
-            res[i]=text.substring(i, i+ng);
+    public boolean checkForUpdates () throws IOException {
+        SpellingIndex index = spellingIndex.get();
+        if (null != index && (!IndexReader.indexExists(spellindex) || IndexReader.getCurrentVersion(spellindex) == index.getVersion())) {
+            return false;
         }
-        return res;
+        reload();
+        return true;
     }
 
-
     public void clearIndex () throws IOException {
         IndexWriter.unlock(spellindex);
         IndexWriter writer=new IndexWriter(spellindex, null, true, IndexWriter.MaxFieldLength.UNLIMITED);
         writer.close();
+        reload();
     }
 
     /**
@@ -277,6 +249,8 @@ public class SpellChecker implements WordSuggestor{
         // close reader
         reader.close();
         reader=null;
+
+        reload();
     }
 
 
@@ -305,7 +279,6 @@ public class SpellChecker implements WordSuggestor{
         Document doc=new Document();
         doc.add(new Field(F_WORD, text, Field.Store.YES, Field.Index.NOT_ANALYZED)); // orig term
         addGram(text, doc, ng1, ng2);
-        doc.add(new Field("boost",Float.toString(boost),Field.Store.YES,Field.Index.NO));
         doc.setBoost(boost);
         return doc;
     }
@@ -0,0 +1,201 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.spell;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.Directory;
+
+/**
+ * An in-memory index of the words of a dictionary, that finds the words within a small
+ * edit distance of a given one.
+ *
+ * It is a symmetric delete index: every word is stored under all the strings obtained by
+ * deleting up to MAX_EDIT_DISTANCE characters of its first PREFIX_LENGTH characters. The
+ * candidates for a word are the words stored under its own deletes, so finding them takes
+ * a few hash lookups, and only their real edit distance is left to compute.
+ *
+ * Instances are immutable, so they can be shared by any number of threads and replaced
+ * by a new one when the dictionary changes.
+ *
+ * @author Flaptor Development Team
+ */
+final class SpellingIndex {
+
+    /** The max number of deletes (and thus of edits) between a word and its candidates. */
+    static final int MAX_EDIT_DISTANCE = 2;
+    /** Only the deletes of the first PREFIX_LENGTH characters are stored, to bound the memory. */
+    static final int PREFIX_LENGTH = 7;
+
+    private static final int[] NO_CANDIDATES = new int[0];
+
+    private final String[] words;
+    private final Map<String, int[]> deletes;
+    // The version of the spell index this was loaded from, or -1.
+    private final long version;
+
+    private SpellingIndex(String[] words, Map<String, int[]> deletes, long version) {
+        this.words = words;
+        this.deletes = deletes;
+        this.version = version;
+    }
+
+    /**
+     * Builds the index of the words of a dictionary. Repeated words are only stored once.
+     */
+    static SpellingIndex build(Iterable<String> dictionary) {
+        return build(dictionary, -1);
+    }
+
+    private static SpellingIndex build(Iterable<String> dictionary, long version) {
+        List<String> words = new ArrayList<String>();
+        Map<String, List<Integer>> deletes = new HashMap<String, List<Integer>>();
+        Set<String> seen = new HashSet<String>();
+        Set<String> wordDeletes = new HashSet<String>();
+        for (String word : dictionary) {
+            if (!seen.add(word)) {
+                continue;
+            }
+            int id = words.size();
+            words.add(word);
+            wordDeletes.clear();
+            addDeletes(prefix(word), 0, wordDeletes);
+            for (String delete : wordDeletes) {
+                List<Integer> ids = deletes.get(delete);
+                if (null == ids) {
+                    ids = new ArrayList<Integer>(1);
+                    deletes.put(delete, ids);
+                }
+                ids.add(id);
+            }
+        }
+
+        Map<String, int[]> deleteArrays = new HashMap<String, int[]>(deletes.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<Integer>> e : deletes.entrySet()) {
+            List<Integer> ids = e.getValue();
+            int[] array = new int[ids.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = ids.get(i);
+            }
+            deleteArrays.put(e.getKey(), array);
+        }
+        return new SpellingIndex(words.toArray(new String[words.size()]), deleteArrays, version);
+    }
+
+    /**
+     * Loads the words of a spell index, as written by {@link SpellChecker#indexDictionary(Dictionary)}.
+     * An empty index is returned if the directory has no spell index.
+     */
+    static SpellingIndex load(Directory spellIndex) throws IOException {
+        if (!IndexReader.indexExists(spellIndex)) {
+            return build(new ArrayList<String>(), -1);
+        }
+        IndexReader reader = IndexReader.open(spellIndex);
+        try {
+            FieldSelector selector = new MapFieldSelector(new String[] {SpellChecker.F_WORD});
+            List<String> dictionary = new ArrayList<String>(reader.numDocs());
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                if (reader.isDeleted(i)) {
+                    continue;
+                }
+                dictionary.add(reader.document(i, selector).get(SpellChecker.F_WORD));
+            }
+            return build(dictionary, reader.getVersion());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String prefix(String word) {
+        return (word.length() > PREFIX_LENGTH) ? word.substring(0, PREFIX_LENGTH) : word;
+    }
+
+    // Adds the string and every string obtained deleting up to MAX_EDIT_DISTANCE - distance chars of it.
+    private static void addDeletes(String string, int distance, Set<String> deletes) {
+        if (!deletes.add(string) || distance == MAX_EDIT_DISTANCE || string.length() <= 1) {
+            return;
+        }
+        for (int i = 0; i < string.length(); i++) {
+            addDeletes(string.substring(0, i) + string.substring(i + 1), distance + 1, deletes);
+        }
+    }
+
+    /**
+     * Returns the ids of the words that may be within MAX_EDIT_DISTANCE edits of the given one.
+     * All of those words are returned, along with some others: the caller has to compute the
+     * real distance of each.
+     */
+    int[] candidates(String word) {
+        Set<String> wordDeletes = new HashSet<String>();
+        addDeletes(prefix(word), 0, wordDeletes);
+        int[] found = null;
+        int count = 0;
+        Set<Integer> seen = new HashSet<Integer>();
+        for (String delete : wordDeletes) {
+            int[] ids = deletes.get(delete);
+            if (null == ids) {
+                continue;
+            }
+            for (int id : ids) {
+                if (Math.abs(words[id].length() - word.length()) > MAX_EDIT_DISTANCE || !seen.add(id)) {
+                    continue;
+                }
+                if (null == found) {
+                    found = new int[Math.max(ids.length, 16)];
+                } else if (count == found.length) {
+                    int[] grown = new int[count * 2];
+                    System.arraycopy(found, 0, grown, 0, count);
+                    found = grown;
+                }
+                found[count++] = id;
+            }
+        }
+        if (0 == count) {
+            return NO_CANDIDATES;
+        }
+        int[] result = new int[count];
+        System.arraycopy(found, 0, result, 0, count);
+        return result;
+    }
+
+    String getWord(int id) {
+        return words[id];
+    }
+
+    /**
+     * @return the number of words in the index.
+     */
+    int size() {
+        return words.length;
+    }
+
+    /**
+     * @return the version of the spell index this was loaded from, or -1 if it was built from
+     *  a dictionary or there was no spell index.
+     */
+    long getVersion() {
+        return version;
+    }
+}
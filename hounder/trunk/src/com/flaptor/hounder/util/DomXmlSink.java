@@ -0,0 +1,71 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.util;
+
+import java.util.Map;
+
+import org.dom4j.Branch;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.QName;
+
+/**
+ * Builds a dom4j document from the events it receives.
+ * @author Flaptor Development Team
+ */
+public class DomXmlSink implements XmlSink {
+
+    private final Document dom = DocumentHelper.createDocument();
+    private Element current = null;
+
+    public void processingInstruction(String target, Map<String,String> data) {
+        dom.addProcessingInstruction(target, data);
+    }
+
+    public void startElement(String name) {
+        Branch parent = (null == current) ? dom : current;
+        int colon = name.indexOf(':');
+        Namespace ns = (colon > 0 && null != current) ? current.getNamespaceForPrefix(name.substring(0, colon)) : null;
+        current = (null == ns) ? parent.addElement(name) : parent.addElement(QName.get(name.substring(colon + 1), ns));
+    }
+
+    public void namespace(String prefix, String uri) {
+        current.add(DocumentHelper.createNamespace(prefix, uri));
+    }
+
+    public void attribute(String name, String value) {
+        current.addAttribute(name, value);
+    }
+
+    public void text(String text) {
+        current.addText(null == text ? "" : text);
+    }
+
+    public void endElement() {
+        current = current.getParent();
+    }
+
+    public void endDocument() {}
+
+    /**
+     * @return the document built so far.
+     */
+    public Document getDocument() {
+        return dom;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.flaptor.util.Pair;
+
+/**
+ * Keeps track of the most frequent items of a stream using a bounded amount of memory.
+ *
+ * This is the Space-Saving algorithm: at most <code>capacity</code> items are counted,
+ * and when a new item arrives and there is no room left, it replaces the item with the
+ * lowest count, inheriting that count. Items that are really frequent are never
+ * evicted, and their counts overestimate the real ones by at most the count they
+ * inherited.
+ *
+ * The counters are kept in a stream summary: a list of buckets in ascending order of
+ * count, each with the counters that have its count. Counting an item moves its counter
+ * to the next bucket, and the item to replace is any of the first bucket, so both take
+ * constant time. All the methods are synchronized.
+ *
+ * @author Flaptor Development Team
+ */
+public class HeavyHitters<T> {
+
+    // The counters with the same count.
+    private static final class Bucket<T> {
+        final long count;
+        Bucket<T> prev;
+        Bucket<T> next;
+        Counter<T> counters;
+
+        Bucket(long count) {
+            this.count = count;
+        }
+    }
+
+    private static final class Counter<T> {
+        T item;
+        Bucket<T> bucket;
+        Counter<T> prev;
+        Counter<T> next;
+    }
+
+    private final int capacity;
+    private final Map<T, Counter<T>> counters;
+    // the bucket with the lowest count.
+    private Bucket<T> first = null;
+    private long total = 0;
+
+    /**
+     * @param capacity the max number of items to track.
+     */
+    public HeavyHitters(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive (" + capacity + ")");
+        }
+        this.capacity = capacity;
+        counters = new HashMap<T, Counter<T>>(capacity * 2);
+    }
+
+    /**
+     * Counts one occurrence of the item.
+     */
+    public synchronized void add(T item) {
+        Counter<T> counter = counters.get(item);
+        if (null == counter) {
+            if (counters.size() >= capacity) {
+                // the item replaces one with the lowest count, and inherits it.
+                counter = first.counters;
+                counters.remove(counter.item);
+            } else {
+                counter = new Counter<T>();
+                if (null == first || first.count != 0) {
+                    insertAfter(null, new Bucket<T>(0));
+                }
+                attach(counter, first);
+            }
+            counter.item = item;
+            counters.put(item, counter);
+        }
+        increment(counter);
+        total++;
+    }
+
+    // Moves the counter to the bucket of the next count.
+    private void increment(Counter<T> counter) {
+        Bucket<T> bucket = counter.bucket;
+        long count = bucket.count + 1;
+        Bucket<T> next = bucket.next;
+        if (null == next || next.count != count) {
+            next = new Bucket<T>(count);
+            insertAfter(bucket, next);
+        }
+        detach(counter);
+        attach(counter, next);
+    }
+
+    // Inserts the bucket after the given one, or first if it is null.
+    private void insertAfter(Bucket<T> bucket, Bucket<T> inserted) {
+        inserted.prev = bucket;
+        inserted.next = (null == bucket) ? first : bucket.next;
+        if (null != inserted.next) {
+            inserted.next.prev = inserted;
+        }
+        if (null == bucket) {
+            first = inserted;
+        } else {
+            bucket.next = inserted;
+        }
+    }
+
+    private void attach(Counter<T> counter, Bucket<T> bucket) {
+        counter.bucket = bucket;
+        counter.prev = null;
+        counter.next = bucket.counters;
+        if (null != bucket.counters) {
+            bucket.counters.prev = counter;
+        }
+        bucket.counters = counter;
+    }
+
+    // Takes the counter out of its bucket, and drops the bucket if it is left empty.
+    private void detach(Counter<T> counter) {
+        Bucket<T> bucket = counter.bucket;
+        if (null != counter.prev) {
+            counter.prev.next = counter.next;
+        } else {
+            bucket.counters = counter.next;
+        }
+        if (null != counter.next) {
+            counter.next.prev = counter.prev;
+        }
+        if (null == bucket.counters) {
+            if (null != bucket.prev) {
+                bucket.prev.next = bucket.next;
+            } else {
+                first = bucket.next;
+            }
+            if (null != bucket.next) {
+                bucket.next.prev = bucket.prev;
+            }
+        }
+    }
+
+    /**
+     * Returns the most frequent items, with their estimated counts, most frequent first.
+     * @param n the max number of items to return.
+     */
+    public synchronized List<Pair<T, Long>> top(int n) {
+        List<Pair<T, Long>> items = new ArrayList<Pair<T, Long>>(counters.size());
+        for (Bucket<T> bucket = first; null != bucket; bucket = bucket.next) {
+            for (Counter<T> counter = bucket.counters; null != counter; counter = counter.next) {
+                items.add(new Pair<T, Long>(counter.item, bucket.count));
+            }
+        }
+        Collections.reverse(items);
+        return (items.size() > n) ? new ArrayList<Pair<T, Long>>(items.subList(0, n)) : items;
+    }
+
+    /**
+     * Returns the sum of the counts of all the tracked items.
+     */
+    public synchronized long total() {
+        return total;
+    }
+
+    /**
+     * Halves every count, dropping the items that reach zero, so that the
+     * counts reflect recent frequencies.
+     */
+    public synchronized void decay() {
+        List<Pair<T, Long>> items = top(counters.size());
+        Collections.sort(items, new Comparator<Pair<T, Long>>() {
+            public int compare(Pair<T, Long> p1, Pair<T, Long> p2) {
+                return p1.last().compareTo(p2.last());
+            }
+        });
+        counters.clear();
+        first = null;
+        total = 0;
+        Bucket<T> last = null;
+        for (Pair<T, Long> item : items) {
+            long count = item.last() / 2;
+            if (count == 0) {
+                continue;
+            }
+            if (null == last || last.count != count) {
+                Bucket<T> bucket = new Bucket<T>(count);
+                insertAfter(last, bucket);
+                last = bucket;
+            }
+            Counter<T> counter = new Counter<T>();
+            counter.item = item.first();
+            attach(counter, last);
+            counters.put(counter.item, counter);
+            total += count;
+        }
+    }
+
+    /**
+     * @return the number of items currently tracked.
+     */
+    public synchronized int size() {
+        return counters.size();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes an XML document as compact JSON to a stream, as its events arrive.
+ *
+ * The root element becomes the top level object. An element with text becomes a string
+ * member, an element with attributes or child elements becomes an object member, and an
+ * empty element becomes null. Consecutive elements whose name is in the list names become
+ * a single array member. Namespace prefixes and processing instructions are dropped.
+ *
+ * @author Flaptor Development Team
+ */
+public class JsonStreamWriter implements XmlSink {
+
+    private final Writer out;
+    private final Set<String> listNames;
+    private final ArrayList<Frame> frames = new ArrayList<Frame>();
+
+    // The state of an open element.
+    private static class Frame {
+        // true once the value of the element has been started as an object.
+        boolean object = false;
+        boolean text = false;
+        int members = 0;
+        // The name of the array member that is open in this object, if any.
+        String openList = null;
+    }
+
+    /**
+     * @param out where to write the document.
+     * @param listNames the names of the elements that repeat, and are written as arrays.
+     */
+    public JsonStreamWriter(Writer out, Set<String> listNames) {
+        this.out = out;
+        this.listNames = listNames;
+    }
+
+    public void processingInstruction(String target, Map<String,String> data) {}
+
+    public void namespace(String prefix, String uri) {}
+
+    public void startElement(String name) throws IOException {
+        if (!frames.isEmpty()) {
+            Frame parent = startObject();
+            String local = name.substring(name.indexOf(':') + 1);
+            if (null != parent.openList && !parent.openList.equals(local)) {
+                closeList(parent);
+            }
+            if (!listNames.contains(local)) {
+                member(parent, local);
+            } else if (local.equals(parent.openList)) {
+                out.write(',');
+            } else {
+                member(parent, local);
+                out.write('[');
+                parent.openList = local;
+            }
+        }
+        frames.add(new Frame());
+    }
+
+    public void attribute(String name, String value) throws IOException {
+        if (null != value) {
+            member(startObject(), name);
+            string(value);
+        }
+    }
+
+    public void text(String text) throws IOException {
+        Frame frame = frames.get(frames.size() - 1);
+        if (frame.object) {
+            member(frame, "text");
+        }
+        frame.text = true;
+        string(null == text ? "" : text);
+    }
+
+    public void endElement() throws IOException {
+        Frame frame = frames.remove(frames.size() - 1);
+        if (frame.object) {
+            closeList(frame);
+            out.write('}');
+        } else if (!frame.text) {
+            out.write("null");
+        }
+    }
+
+    public void endDocument() throws IOException {
+        out.flush();
+    }
+
+    // Makes sure the value of the current element is an object, and returns its frame.
+    private Frame startObject() throws IOException {
+        Frame frame = frames.get(frames.size() - 1);
+        if (frame.text) {
+            throw new IllegalStateException("content added to an element with text");
+        }
+        if (!frame.object) {
+            out.write('{');
+            frame.object = true;
+        }
+        return frame;
+    }
+
+    private void closeList(Frame frame) throws IOException {
+        if (null != frame.openList) {
+            out.write(']');
+            frame.openList = null;
+        }
+    }
+
+    private void member(Frame frame, String name) throws IOException {
+        closeList(frame);
+        if (frame.members++ > 0) {
+            out.write(',');
+        }
+        string(name);
+        out.write(':');
+    }
+
+    private void string(String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                case '\b': out.write("\\b"); break;
+                case '\f': out.write("\\f"); break;
+                default:
+                    // The line separators are valid JSON, but not valid javascript.
+                    if (c < 32 || c == '\u2028' || c == '\u2029') {
+                        String hex = Integer.toHexString(c);
+                        out.write("\\u");
+                        for (int j = hex.length(); j < 4; j++) {
+                            out.write('0');
+                        }
+                        out.write(hex);
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
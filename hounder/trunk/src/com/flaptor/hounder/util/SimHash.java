@@ -0,0 +1,132 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.util;
+
+/**
+ * 64 bit SimHash fingerprints of texts, to find near duplicates.
+ *
+ * Each word of the text is hashed to 64 bits, and each bit of the fingerprint
+ * is set if most of the words have that bit set. Similar texts get fingerprints
+ * that differ in few bits, so the number of different bits (the hamming distance)
+ * measures how different two texts are.
+ *
+ * The fingerprint of a field is indexed, but not stored, as a field named
+ * <code>simhash_&lt;field&gt;</code>, written in hexadecimal. The searcher reads it
+ * from the terms, and adds it to the results it groups by it, so they can be
+ * grouped again when merged. It is not part of the results shown to the users.
+ *
+ * @author Flaptor Development Team
+ */
+public final class SimHash {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private SimHash() {}
+
+    /**
+     * @return the name of the field that holds the fingerprint of the given field.
+     */
+    public static String fieldName(String field) {
+        return "simhash_" + field;
+    }
+
+    /**
+     * @return true if the field holds the fingerprint of another field.
+     */
+    public static boolean isFieldName(String name) {
+        return name.startsWith("simhash_");
+    }
+
+    /**
+     * Computes the fingerprint of a text. Words are sequences of letters and digits,
+     * compared ignoring case.
+     * @return the fingerprint, or 0 if the text has no words.
+     */
+    public static long fingerprint(String text) {
+        if (null == text) {
+            return 0;
+        }
+        int[] weights = new int[64];
+        boolean empty = true;
+        long hash = FNV_OFFSET;
+        boolean inWord = false;
+        for (int i = 0, len = text.length(); i <= len; i++) {
+            char c = (i < len) ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                hash = (hash ^ Character.toLowerCase(c)) * FNV_PRIME;
+                inWord = true;
+            } else if (inWord) {
+                long h = mix(hash);
+                for (int bit = 0; bit < 64; bit++) {
+                    weights[bit] += ((h >>> bit) & 1L) != 0 ? 1 : -1;
+                }
+                empty = false;
+                hash = FNV_OFFSET;
+                inWord = false;
+            }
+        }
+        if (empty) {
+            return 0;
+        }
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return the number of bits in which the fingerprints differ.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * @return the fingerprint as stored in the index.
+     */
+    public static String toString(long fingerprint) {
+        String hex = Long.toHexString(fingerprint);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * @return the fingerprint stored in the index, or 0 if it is not a valid one.
+     */
+    public static long parse(String stored) {
+        if (null == stored || stored.length() != 16) {
+            return 0;
+        }
+        try {
+            return (Long.parseLong(stored.substring(0, 8), 16) << 32) | Long.parseLong(stored.substring(8), 16);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // spreads the bits of the FNV hash, whose high bits depend little on the last chars.
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.util;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Receives an XML document as a sequence of events, so the same code can
+ * build a DOM tree or write the document straight to a stream.
+ *
+ * Elements contain either text or other elements, never both. Namespaces and
+ * attributes must be declared before the content of their element.
+ *
+ * @author Flaptor Development Team
+ */
+public interface XmlSink {
+
+    /**
+     * Adds a processing instruction before the root element.
+     * @param data the pseudo attributes of the instruction.
+     */
+    void processingInstruction(String target, Map<String,String> data) throws IOException;
+
+    /**
+     * Opens an element inside the current one.
+     * @param name the name of the element, optionally qualified with a declared prefix ("prefix:name").
+     */
+    void startElement(String name) throws IOException;
+
+    /**
+     * Declares a namespace on the current element.
+     */
+    void namespace(String prefix, String uri) throws IOException;
+
+    /**
+     * Adds an attribute to the current element. Null values are ignored.
+     */
+    void attribute(String name, String value) throws IOException;
+
+    /**
+     * Sets the text of the current element. Null is taken as an empty text.
+     */
+    void text(String text) throws IOException;
+
+    /**
+     * Closes the current element.
+     */
+    void endElement() throws IOException;
+
+    /**
+     * Signals that the root element has been closed.
+     */
+    void endDocument() throws IOException;
+}
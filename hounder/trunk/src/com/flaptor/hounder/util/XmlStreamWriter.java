@@ -0,0 +1,188 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.dom4j.DocumentHelper;
+
+/**
+ * Writes an XML document to a stream as its events arrive, without building it in memory.
+ *
+ * The output is byte for byte what DomUtil.domToString (dom4j's pretty print) produces
+ * for the same document: two space indentation, texts with their whitespace collapsed,
+ * and empty elements closed with "/>".
+ *
+ * @author Flaptor Development Team
+ */
+public class XmlStreamWriter implements XmlSink {
+
+    private static final String INDENT = "  ";
+
+    private final Writer out;
+    private final ArrayList<String> openElements = new ArrayList<String>();
+    private boolean started = false;
+    // Whether the start tag of the current element is still waiting for its ">".
+    private boolean tagOpen = false;
+    // Whether the current element has text, so its end tag goes on the same line.
+    private boolean hasText = false;
+
+    /**
+     * @param out where to write the document. It should encode in UTF-8, as declared.
+     */
+    public XmlStreamWriter(Writer out) {
+        this.out = out;
+    }
+
+    private void startDocument() throws IOException {
+        if (!started) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            started = true;
+        }
+    }
+
+    public void processingInstruction(String target, Map<String,String> data) throws IOException {
+        startDocument();
+        out.write("<?");
+        out.write(target);
+        out.write(' ');
+        out.write(DocumentHelper.createProcessingInstruction(target, data).getText());
+        out.write("?>\n");
+    }
+
+    public void startElement(String name) throws IOException {
+        startDocument();
+        if (hasText) {
+            throw new IllegalStateException("element " + name + " added to an element with text");
+        }
+        closeStartTag();
+        newLine(openElements.size());
+        out.write('<');
+        out.write(name);
+        openElements.add(name);
+        tagOpen = true;
+    }
+
+    public void namespace(String prefix, String uri) throws IOException {
+        attribute("xmlns:" + prefix, uri);
+    }
+
+    public void attribute(String name, String value) throws IOException {
+        if (!tagOpen) {
+            throw new IllegalStateException("attribute " + name + " added after the content of its element");
+        }
+        if (null != value) {
+            out.write(' ');
+            out.write(name);
+            out.write("=\"");
+            escape(value, true);
+            out.write('"');
+        }
+    }
+
+    public void text(String text) throws IOException {
+        if (!tagOpen) {
+            throw new IllegalStateException("text added to an element with content");
+        }
+        closeStartTag();
+        hasText = true;
+        if (null != text) {
+            escape(text, false);
+        }
+    }
+
+    public void endElement() throws IOException {
+        String name = openElements.remove(openElements.size() - 1);
+        if (tagOpen) {
+            out.write("/>");
+            tagOpen = false;
+        } else {
+            if (!hasText) {
+                newLine(openElements.size());
+            }
+            out.write("</");
+            out.write(name);
+            out.write('>');
+        }
+        hasText = false;
+    }
+
+    public void endDocument() throws IOException {
+        out.write('\n');
+        out.flush();
+    }
+
+    private void closeStartTag() throws IOException {
+        if (tagOpen) {
+            out.write('>');
+            tagOpen = false;
+        }
+    }
+
+    private void newLine(int level) throws IOException {
+        out.write('\n');
+        for (int i = 0; i < level; i++) {
+            out.write(INDENT);
+        }
+    }
+
+    /**
+     * Writes a text escaping the markup and the control characters. Attribute values are
+     * written as they are, element texts are trimmed and their whitespace runs collapsed.
+     */
+    private void escape(String text, boolean attribute) throws IOException {
+        boolean pendingSpace = false;
+        boolean written = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!attribute && (c == ' ' || c == '\t' || c == '\n' || c == '\r')) {
+                pendingSpace = written;
+                continue;
+            }
+            if (pendingSpace) {
+                out.write(' ');
+                pendingSpace = false;
+            }
+            written = true;
+            switch (c) {
+                case '<': out.write("&lt;"); break;
+                case '>': out.write("&gt;"); break;
+                case '&': out.write("&amp;"); break;
+                case '"':
+                    if (attribute) {
+                        out.write("&quot;");
+                    } else {
+                        out.write(c);
+                    }
+                    break;
+                case '\t':
+                case '\n':
+                case '\r':
+                    out.write(c);
+                    break;
+                default:
+                    if (c < 32) {
+                        out.write("&#" + (int) c + ";");
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.analysis.Token;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Payload;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermPositions;
+
+import com.flaptor.util.FileUtil;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class StaticRankSortingReaderTest extends TestCase {
+    private static final int DOCS = 50;
+
+    File dir;
+    Index index;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        filterOutput("There is no index descriptor on index.properties. using default");
+        dir = FileUtil.createTempDir("junit", ".tmp");
+        index = Index.createIndex(new File(dir, "index"));
+        IndexWriter writer = index.getWriter();
+        for (int i = 0; i < DOCS; i++) {
+            Document doc = new Document();
+            doc.add(new Field("id", String.valueOf(i), Field.Store.YES, Field.Index.NOT_ANALYZED));
+            doc.add(new Field("rank", String.valueOf(rank(i)), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+            doc.add(new Field("text", "common w" + (i % 5), Field.Store.NO, Field.Index.ANALYZED));
+            doc.add(new Field("payload", new PayloadStream(i)));
+            writer.addDocument(doc);
+        }
+        writer.close();
+        IndexReader reader = index.getReader();
+        reader.deleteDocuments(new Term("id", "3"));
+        reader.close();
+    }
+
+    @Override
+    protected void tearDown() {
+        index.close();
+        unfilterOutput();
+        FileUtil.deleteDir(dir);
+    }
+
+    private static float rank(int id) {
+        return (id * 7) % DOCS + 1;
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testDocumentsSortedByRank() throws IOException {
+        index.sortByStaticRank("rank");
+        IndexReader reader = index.getReader();
+        try {
+            assertFalse("deleted documents should be dropped", reader.hasDeletions());
+            assertEquals(DOCS - 1, reader.maxDoc());
+            float lastRank = Float.MAX_VALUE;
+            for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                Document document = reader.document(doc);
+                int id = Integer.parseInt(document.get("id"));
+                assertTrue(id != 3);
+                assertEquals(rank(id), Float.parseFloat(document.get("rank")));
+                assertTrue("documents should be in descending rank", rank(id) < lastRank);
+                lastRank = rank(id);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testPostingsFollowDocuments() throws IOException {
+        index.sortByStaticRank("rank");
+        IndexReader reader = index.getReader();
+        try {
+            TermPositions postings = reader.termPositions(new Term("text", "w2"));
+            int count = 0;
+            int lastDoc = -1;
+            while (postings.next()) {
+                assertTrue(postings.doc() > lastDoc);
+                lastDoc = postings.doc();
+                assertEquals(2, Integer.parseInt(reader.document(postings.doc()).get("id")) % 5);
+                assertEquals(1, postings.nextPosition());
+                count++;
+            }
+            assertEquals(DOCS / 5, count);
+
+            postings.seek(new Term("payload", "x"));
+            count = 0;
+            while (postings.next()) {
+                postings.nextPosition();
+                assertTrue(postings.isPayloadAvailable());
+                byte[] payload = postings.getPayload(null, 0);
+                assertEquals(Integer.parseInt(reader.document(postings.doc()).get("id")), payload[0]);
+                count++;
+            }
+            assertEquals(DOCS - 1, count);
+            postings.close();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testSortIsRecorded() throws IOException {
+        IndexReader reader = index.getReader();
+        assertFalse(index.isSortedByStaticRank("rank", reader));
+        reader.close();
+
+        index.sortByStaticRank("rank");
+        reader = index.getReader();
+        assertTrue(index.isSortedByStaticRank("rank", reader));
+        assertFalse("the index is not sorted by other fields", index.isSortedByStaticRank("id", reader));
+        reader.close();
+
+        IndexWriter writer = index.getWriter();
+        Document doc = new Document();
+        doc.add(new Field("rank", String.valueOf(DOCS + 1), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        writer.addDocument(doc);
+        writer.close();
+        reader = index.getReader();
+        assertFalse("documents added after sorting may be out of order", index.isSortedByStaticRank("rank", reader));
+        reader.close();
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testPostingsLongerThanWindow() throws IOException {
+        int docs = StaticRankSortingReader.WINDOW * 2 + 100;
+        Index big = Index.createIndex(new File(dir, "big"));
+        try {
+            IndexWriter writer = big.getWriter();
+            for (int i = 0; i < docs; i++) {
+                Document doc = new Document();
+                doc.add(new Field("id", String.valueOf(i), Field.Store.YES, Field.Index.NOT_ANALYZED));
+                doc.add(new Field("rank", String.valueOf((i * 7919L) % docs), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+                StringBuilder text = new StringBuilder();
+                for (int j = 0; j <= i % 3; j++) {
+                    text.append("common ");
+                }
+                doc.add(new Field("text", text.toString(), Field.Store.NO, Field.Index.ANALYZED));
+                doc.add(new Field("payload", new PayloadStream(i)));
+                writer.addDocument(doc);
+            }
+            writer.close();
+            big.sortByStaticRank("rank");
+
+            IndexReader reader = big.getReader();
+            try {
+                TermPositions postings = reader.termPositions(new Term("text", "common"));
+                int count = 0;
+                int lastDoc = -1;
+                while (postings.next()) {
+                    assertTrue(postings.doc() > lastDoc);
+                    lastDoc = postings.doc();
+                    int id = Integer.parseInt(reader.document(postings.doc()).get("id"));
+                    assertEquals(id % 3 + 1, postings.freq());
+                    for (int j = 0; j < postings.freq(); j++) {
+                        assertEquals(j, postings.nextPosition());
+                    }
+                    count++;
+                }
+                assertEquals(docs, count);
+
+                postings.seek(new Term("payload", "x"));
+                count = 0;
+                while (postings.next()) {
+                    postings.nextPosition();
+                    int id = Integer.parseInt(reader.document(postings.doc()).get("id"));
+                    assertEquals((byte) id, postings.getPayload(null, 0)[0]);
+                    count++;
+                }
+                assertEquals(docs, count);
+                postings.close();
+            } finally {
+                reader.close();
+            }
+        } finally {
+            big.close();
+        }
+    }
+
+    // A single "x" token, with the document id as payload.
+    private static class PayloadStream extends TokenStream {
+        private final int id;
+        private boolean done = false;
+
+        PayloadStream(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public Token next(Token reusableToken) {
+            if (done) {
+                return null;
+            }
+            done = true;
+            reusableToken.reinit("x", 0, 1);
+            reusableToken.setPayload(new Payload(new byte[] {(byte) id}));
+            return reusableToken;
+        }
+    }
+}
@@ -15,9 +15,13 @@ limitations under the License.
 */
 package com.flaptor.hounder.indexer;
 
+import java.util.List;
+
 import com.flaptor.hounder.searcher.GroupedSearchResults;
 import com.flaptor.hounder.searcher.ISearcher;
+import com.flaptor.hounder.searcher.MultiSearchResults;
 import com.flaptor.hounder.searcher.QueriesInProgressSearcher;
+import com.flaptor.hounder.searcher.QueryParams;
 import com.flaptor.hounder.searcher.SearcherException;
 import com.flaptor.hounder.searcher.filter.AFilter;
 import com.flaptor.hounder.searcher.group.AGroup;
@@ -49,6 +53,14 @@ public class QueriesInProgressTest extends TestCase {
             }
         }
 
+        public int countHits(AQuery query, AFilter filter) {
+            return 0;
+        }
+
+        public MultiSearchResults multiSearch(List<QueryParams> queries) {
+            return MultiSearchResults.searchEach(this, queries);
+        }
+
         @Override
         public void requestStop() {
             running = false;
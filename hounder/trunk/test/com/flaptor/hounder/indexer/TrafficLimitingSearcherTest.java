@@ -15,10 +15,13 @@ limitations under the License.
  */
 package com.flaptor.hounder.indexer;
 
+import java.util.List;
 import java.util.Random;
 
 import com.flaptor.hounder.searcher.GroupedSearchResults;
 import com.flaptor.hounder.searcher.ISearcher;
+import com.flaptor.hounder.searcher.MultiSearchResults;
+import com.flaptor.hounder.searcher.QueryParams;
 import com.flaptor.hounder.searcher.SearcherException;
 import com.flaptor.hounder.searcher.TrafficLimitingSearcher;
 import com.flaptor.hounder.searcher.filter.AFilter;
@@ -64,6 +67,14 @@ public class TrafficLimitingSearcherTest extends TestCase {
             ThreadUtil.sleep(random ? new Random().nextInt(waitingTime) : waitingTime);
             synchronized(this) {queriesInProgress--;return new GroupedSearchResults();}
         }
+
+        public int countHits(AQuery query, AFilter filter) {
+            return 0;
+        }
+
+        public MultiSearchResults multiSearch(List<QueryParams> queries) {
+            return MultiSearchResults.searchEach(this, queries);
+        }
     }
 
     private static class AlwaysFailSearcher implements ISearcher {
@@ -85,6 +96,14 @@ public class TrafficLimitingSearcherTest extends TestCase {
         public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup group, int groupSize, AFilter filter, ASort sort) throws SearcherException {
             throw new SearcherException("I always fail");
         }
+
+        public int countHits(AQuery query, AFilter filter) throws SearcherException {
+            throw new SearcherException("I always fail");
+        }
+
+        public MultiSearchResults multiSearch(List<QueryParams> queries) {
+            return MultiSearchResults.searchEach(this, queries);
+        }
     }
 
     private int queriesDone = 0;
@@ -211,5 +230,25 @@ public class TrafficLimitingSearcherTest extends TestCase {
         }
     }
 
-
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testCountsAreLimited() throws Exception {
+        WaitingSearcher baseSearcher = new WaitingSearcher(500, false);
+        final TrafficLimitingSearcher searcher = new TrafficLimitingSearcher(baseSearcher, 1, 5000);
+        Thread searchThread = new Thread() {
+            public void run() {
+                try {
+                    searcher.search(null, 0, 1, null, 1, null, null);
+                } catch (SearcherException e) {
+                    fail(e.getMessage());
+                }
+            }
+        };
+        searchThread.start();
+        com.flaptor.util.Execute.sleep(100);
+        long start = System.currentTimeMillis();
+        searcher.countHits(null, null);
+        assertTrue("the count should have waited for the search to end", System.currentTimeMillis() - start >= 300);
+        searchThread.join();
+        assertEquals(0, searcher.getSimultaneousQueries());
+    }
 }
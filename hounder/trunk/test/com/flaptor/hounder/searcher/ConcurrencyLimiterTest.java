@@ -0,0 +1,184 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.flaptor.util.Execute;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class ConcurrencyLimiterTest extends TestCase {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // Runs n queries at the same time (or as many as the limit allows), taking the given latency.
+    private void run(ConcurrencyLimiter limiter, int n, long latency) throws Exception {
+        n = Math.min(n, limiter.getLimit());
+        for (int i = 0; i < n; i++) {
+            limiter.acquire();
+        }
+        for (int i = 0; i < n; i++) {
+            limiter.release(latency);
+        }
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testLimitFollowsLatency() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 20, 1000, 2);
+        assertEquals("the limit should start at the max", 20, limiter.getLimit());
+        for (int i = 0; i < 20; i++) {
+            run(limiter, 10, 10 * MS);
+        }
+        assertEquals("the limit should stay while the latency does", 20, limiter.getLimit());
+        assertEquals("the queue should hold what can be served in time", 20 * 1000 / 10, limiter.getMaxQueueSize(), 100);
+
+        for (int i = 0; i < 20; i++) {
+            run(limiter, 10, 100 * MS);
+        }
+        assertTrue("the limit should go down when the latency grows, was " + limiter.getLimit(), limiter.getLimit() < 10);
+        assertTrue("the queue should shrink too, was " + limiter.getMaxQueueSize(), limiter.getMaxQueueSize() < 100);
+
+        for (int i = 0; i < 50; i++) {
+            run(limiter, 20, 10 * MS);
+        }
+        assertEquals("the limit should recover when the latency goes back", 20, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testLimitDoesNotGrowWhenNotUsed() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 50, 1000, 2);
+        for (int i = 0; i < 20; i++) {
+            run(limiter, 10, 100 * MS);
+        }
+        run(limiter, 10, 10 * MS);
+        int limit = limiter.getLimit();
+        for (int i = 0; i < 50; i++) {
+            run(limiter, 1, 10 * MS);
+        }
+        assertEquals("a single query at a time should not raise the limit", limit, limiter.getLimit());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testEarlyAndLateDrop() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 200, 2);
+        limiter.acquire();
+        int queue = limiter.getMaxQueueSize();
+        for (int i = 0; i < queue; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        limiter.acquire();
+                        limiter.release(-1);
+                    } catch (SearcherException e) {
+                        assertTrue(e.getMessage().contains("lateDrop"));
+                    }
+                }
+            }.start();
+        }
+        Execute.sleep(100);
+        try {
+            limiter.acquire();
+            fail("the queue should be full");
+        } catch (SearchTimeoutException e) {
+            assertTrue(e.getMessage().contains("earlyDrop"));
+        }
+        Execute.sleep(300);
+        assertEquals("every waiting query should have been dropped", queue + 1, limiter.getRejected());
+        limiter.release(-1);
+        limiter.acquire();
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testLanesShareByWeight() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 8, 5000, 2, new int[] {4, 1});
+        final List<Integer> served = Collections.synchronizedList(new ArrayList<Integer>());
+        // all the slots but one stay taken, so the waiting queries run one at a time.
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire();
+        }
+        assertTrue(limiter.getMaxQueueSize() >= 20);
+        List<Thread> threads = new ArrayList<Thread>();
+        // the expensive queries arrive first.
+        for (final int lane : new int[] {1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        limiter.acquire(lane);
+                        served.add(lane);
+                        limiter.release(-1);
+                    } catch (SearcherException e) {
+                        fail(e.getMessage());
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+            Execute.sleep(5);
+        }
+        Execute.sleep(100);
+        limiter.release(-1);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int expensive = 0;
+        for (int lane : served.subList(0, 10)) {
+            expensive += lane;
+        }
+        assertTrue("the cheap lane should get most of the first turns, got " + served, expensive <= 3);
+        assertEquals(20, served.size());
+        assertEquals(7, limiter.getInFlight());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testBatchTakesSlots() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 4, 5000, 2);
+        assertEquals("a batch takes at most the limit", 4, limiter.acquire(0, 10));
+        limiter.release(4, -1);
+        assertEquals(3, limiter.acquire(0, 3));
+        final List<Integer> served = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final int slots : new int[] {2, 1}) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        served.add(limiter.acquire(0, slots));
+                    } catch (SearcherException e) {
+                        fail(e.getMessage());
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+            Execute.sleep(50);
+        }
+        assertTrue("the single query should wait behind the batch, got " + served, served.isEmpty());
+        limiter.release(3, -1);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(2, served.size());
+        assertEquals(3, limiter.getInFlight());
+    }
+}
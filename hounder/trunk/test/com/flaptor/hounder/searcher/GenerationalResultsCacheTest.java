@@ -0,0 +1,126 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.util.List;
+
+import com.flaptor.hounder.searcher.filter.AFilter;
+import com.flaptor.hounder.searcher.group.AGroup;
+import com.flaptor.hounder.searcher.group.NoGroup;
+import com.flaptor.hounder.searcher.query.AQuery;
+import com.flaptor.hounder.searcher.query.FetchDocumentsQuery;
+import com.flaptor.hounder.searcher.query.HitKeysQuery;
+import com.flaptor.hounder.searcher.query.TermQuery;
+import com.flaptor.hounder.searcher.sort.ASort;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class GenerationalResultsCacheTest extends TestCase {
+
+    // Returns empty results from the generation it is told.
+    private static class GenerationSearcher implements ISearcher {
+        volatile long generation = 1;
+        int searches = 0;
+
+        public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup group, int groupSize, AFilter filter, ASort sort) {
+            searches++;
+            GroupedSearchResults res = new GroupedSearchResults();
+            res.setIndexGeneration(generation);
+            return res;
+        }
+
+        public int countHits(AQuery query, AFilter filter) {
+            return 0;
+        }
+
+        public MultiSearchResults multiSearch(List<QueryParams> queries) {
+            return MultiSearchResults.searchEach(this, queries);
+        }
+
+        public void requestStop() {}
+
+        public boolean isStopped() {
+            return true;
+        }
+    }
+
+    private QueryParams params(String term) {
+        return new QueryParams(new TermQuery("text", term), 0, 10, new NoGroup(), 1, null, null);
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testResultsCarriedAcrossGenerations() throws Exception {
+        GenerationSearcher searcher = new GenerationSearcher();
+        GenerationalResultsCache cache = new GenerationalResultsCache(10, searcher, 1);
+        cache.generationChanged(1);
+
+        GroupedSearchResults hot = params("hot").executeInSearcher(searcher);
+        GroupedSearchResults cold = params("cold").executeInSearcher(searcher);
+        cache.put(params("hot"), hot);
+        cache.put(params("cold"), cold);
+        assertSame(hot, cache.get(params("hot")));
+        assertSame(hot, cache.get(params("hot")));
+
+        searcher.generation = 2;
+        List<Runnable> tasks = cache.getWarmingTasks(2);
+        assertEquals("only the hottest query should be warmed", 1, tasks.size());
+        for (Runnable task : tasks) {
+            task.run();
+        }
+        assertSame("warmed results should not be visible before the generation goes live", hot, cache.get(params("hot")));
+
+        cache.generationChanged(2);
+        GroupedSearchResults warmed = cache.get(params("hot"));
+        assertNotNull("the hot query should have been carried to the new generation", warmed);
+        assertEquals(2, warmed.getIndexGeneration());
+        assertNull("the cold query should have been dropped", cache.get(params("cold")));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testStaleResultsNotStored() {
+        GenerationalResultsCache cache = new GenerationalResultsCache(10, new GenerationSearcher(), 1);
+        cache.generationChanged(3);
+        GroupedSearchResults stale = new GroupedSearchResults();
+        stale.setIndexGeneration(2);
+        cache.put(params("foo"), stale);
+        assertNull(cache.get(params("foo")));
+        GroupedSearchResults fresh = new GroupedSearchResults();
+        fresh.setIndexGeneration(3);
+        cache.put(params("foo"), fresh);
+        assertSame(fresh, cache.get(params("foo")));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testSearchPhasesNotCached() throws Exception {
+        GenerationSearcher searcher = new GenerationSearcher();
+        GenerationalResultsCache cache = new GenerationalResultsCache(10, searcher, 1);
+        cache.generationChanged(1);
+        CacheSearcher cacheSearcher = new CacheSearcher(searcher, cache);
+        AQuery keys = new HitKeysQuery(new TermQuery("text", "foo"));
+        AQuery fetch = new FetchDocumentsQuery(new TermQuery("text", "foo"), 1, new int[] {1, 2});
+        for (int i = 0; i < 2; i++) {
+            cacheSearcher.search(keys, 0, 10, new NoGroup(), 1, null, null);
+            cacheSearcher.search(fetch, 0, 10, new NoGroup(), 1, null, null);
+        }
+        assertEquals("every phase should reach the searcher", 4, searcher.searches);
+        assertEquals(0, cache.size());
+        cacheSearcher.search(new TermQuery("text", "foo"), 0, 10, new NoGroup(), 1, null, null);
+        assertEquals(1, cache.size());
+    }
+}
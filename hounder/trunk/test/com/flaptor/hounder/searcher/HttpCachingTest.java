@@ -0,0 +1,153 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.flaptor.hounder.searcher.filter.AFilter;
+import com.flaptor.hounder.searcher.group.AGroup;
+import com.flaptor.hounder.searcher.group.NoGroup;
+import com.flaptor.hounder.searcher.query.AQuery;
+import com.flaptor.hounder.searcher.query.TermQuery;
+import com.flaptor.hounder.searcher.sort.ASort;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class HttpCachingTest extends TestCase {
+
+    private static class CountingSearcher implements ISearcher {
+        int searches = 0;
+        boolean partial = false;
+
+        public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup group, int groupSize, AFilter filter, ASort sort) {
+            searches++;
+            GroupedSearchResults res = new GroupedSearchResults();
+            res.setPartial(partial);
+            return res;
+        }
+
+        public int countHits(AQuery query, AFilter filter) {
+            return 0;
+        }
+
+        public MultiSearchResults multiSearch(List<QueryParams> queries) {
+            return MultiSearchResults.searchEach(this, queries);
+        }
+
+        public void requestStop() {}
+
+        public boolean isStopped() {
+            return true;
+        }
+    }
+
+    private final Map<String,String> requestHeaders = new HashMap<String,String>();
+    private final Map<String,String[]> params = new HashMap<String,String[]>();
+    private final Map<String,String> responseHeaders = new HashMap<String,String>();
+    private final AtomicInteger status = new AtomicInteger(200);
+
+    private final HttpServletRequest request = MockHttp.request(requestHeaders, params);
+    private final HttpServletResponse response = MockHttp.response(responseHeaders, status);
+
+    private void search(HttpCaching caching, ISearcher searcher) throws SearcherException {
+        caching.forRequest(searcher, request, response).search(new TermQuery("text", "foo"), 0, 10, new NoGroup(), 1, null, null);
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testNotModifiedUntilGenerationChanges() throws Exception {
+        CountingSearcher searcher = new CountingSearcher();
+        HttpCaching caching = new HttpCaching(60000);
+        params.put("query", new String[] {"foo"});
+
+        search(caching, searcher);
+        assertNull("there should be no ETag before an index is live", responseHeaders.get("ETag"));
+
+        caching.generationChanged(1);
+        search(caching, searcher);
+        String etag = responseHeaders.get("ETag");
+        assertNotNull(etag);
+        assertTrue(responseHeaders.get("Cache-Control").startsWith("public, max-age="));
+
+        responseHeaders.clear();
+        requestHeaders.put("If-None-Match", "\"other\", " + etag);
+        assertTrue(caching.notModified(request, response));
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status.get());
+        assertEquals(etag, responseHeaders.get("ETag"));
+
+        params.put("query", new String[] {"bar"});
+        assertFalse("other parameters should not match the ETag", caching.notModified(request, response));
+        params.put("query", new String[] {"foo"});
+        caching.generationChanged(2);
+        assertFalse("a new generation should not match the ETag", caching.notModified(request, response));
+        assertEquals(2, searcher.searches);
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testPartialResultsNotTagged() throws Exception {
+        CountingSearcher searcher = new CountingSearcher();
+        searcher.partial = true;
+        HttpCaching caching = new HttpCaching(0);
+        caching.generationChanged(1);
+        search(caching, searcher);
+        assertNull(responseHeaders.get("ETag"));
+        searcher.partial = false;
+        search(caching, searcher);
+        assertNotNull(responseHeaders.get("ETag"));
+        assertEquals("without an update interval the clients should revalidate", "no-cache", responseHeaders.get("Cache-Control"));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testParametersWithSameHashCode() throws Exception {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        CountingSearcher searcher = new CountingSearcher();
+        HttpCaching caching = new HttpCaching(60000);
+        caching.generationChanged(1);
+        params.put("query", new String[] {"Aa"});
+        search(caching, searcher);
+        String etag = responseHeaders.get("ETag");
+        assertTrue("the ETag should carry a digest of the parameters", etag.matches("W/\"[0-9a-z]+-1-[0-9A-F]{32}\""));
+
+        requestHeaders.put("If-None-Match", etag);
+        params.put("query", new String[] {"BB"});
+        assertFalse("parameters with the same hash code should not match the ETag", caching.notModified(request, response));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testParametersWithSeparators() throws Exception {
+        CountingSearcher searcher = new CountingSearcher();
+        HttpCaching caching = new HttpCaching(60000);
+        caching.generationChanged(1);
+        params.put("q", new String[] {"a&r=c"});
+        search(caching, searcher);
+        String etag = responseHeaders.get("ETag");
+        assertNotNull(etag);
+
+        requestHeaders.put("If-None-Match", etag);
+        assertTrue(caching.notModified(request, response));
+        params.put("q", new String[] {"a"});
+        params.put("r", new String[] {"c"});
+        assertFalse("parameters split differently should not match the ETag", caching.notModified(request, response));
+    }
+}
@@ -0,0 +1,67 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class LeaseLimiterTest extends TestCase {
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testDefaultLimits() {
+        LeaseLimiter limiter = new LeaseLimiter(4, 0, 0);
+        assertEquals("the limit should start at the number of cores", 4, limiter.getLimit());
+        limiter = new LeaseLimiter(4, 6, 0);
+        assertEquals("the limit should never be below minLeases", 6, limiter.getLimit());
+        limiter = new LeaseLimiter(4, 1, 2);
+        assertEquals("the limit should never be above maxLeases", 2, limiter.getLimit());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testTimeout() throws Exception {
+        LeaseLimiter limiter = new LeaseLimiter(2, 2, 2);
+        limiter.acquire(10);
+        limiter.acquire(10);
+        assertEquals(2, limiter.getLeasesInUse());
+        long start = System.currentTimeMillis();
+        try {
+            limiter.acquire(50);
+            fail("a third lease should not be granted");
+        } catch (SearchTimeoutException e) {
+            assertTrue("should have waited for the timeout", System.currentTimeMillis() - start >= 45);
+        }
+        limiter.release(0, -1);
+        limiter.acquire(10);
+        assertEquals(2, limiter.getLeasesInUse());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testWaitsForRelease() throws Exception {
+        final LeaseLimiter limiter = new LeaseLimiter(1, 1, 1);
+        limiter.acquire(0);
+        new Thread() {
+            public void run() {
+                com.flaptor.util.Execute.sleep(100);
+                limiter.release(0, -1);
+            }
+        }.start();
+        limiter.acquire(5000);
+        assertEquals(1, limiter.getLeasesInUse());
+    }
+}
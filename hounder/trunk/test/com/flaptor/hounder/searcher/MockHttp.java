@@ -0,0 +1,80 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Stubs of the servlet requests and responses, for the tests of the http handlers.
+ *
+ * @author Flaptor Development Team
+ */
+public final class MockHttp {
+
+    private MockHttp() {}
+
+    /**
+     * Returns a request without headers nor parameters.
+     */
+    public static HttpServletRequest request() {
+        return request(Collections.<String,String>emptyMap(), Collections.<String,String[]>emptyMap());
+    }
+
+    /**
+     * Returns a request that reads its headers and parameters from the given maps, as they
+     * are when it is asked for them. Any other method returns null.
+     */
+    public static HttpServletRequest request(final Map<String,String> headers, final Map<String,String[]> params) {
+        return (HttpServletRequest) Proxy.newProxyInstance(MockHttp.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getHeader".equals(method.getName())) {
+                    return headers.get(args[0]);
+                }
+                if ("getParameterMap".equals(method.getName())) {
+                    return params;
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Returns a response that writes the headers and the status it is given to the given
+     * map and integer. Any other method does nothing.
+     */
+    public static HttpServletResponse response(final Map<String,String> headers, final AtomicInteger status) {
+        return (HttpServletResponse) Proxy.newProxyInstance(MockHttp.class.getClassLoader(),
+                new Class<?>[] {HttpServletResponse.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("setHeader".equals(method.getName())) {
+                    headers.put((String) args[0], (String) args[1]);
+                } else if ("setStatus".equals(method.getName())) {
+                    status.set((Integer) args[0]);
+                }
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,153 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+
+import com.flaptor.hounder.searcher.filter.AFilter;
+import com.flaptor.hounder.searcher.group.AGroup;
+import com.flaptor.hounder.searcher.group.NoGroup;
+import com.flaptor.hounder.searcher.query.AQuery;
+import com.flaptor.hounder.searcher.query.LazyParsedQuery;
+import com.flaptor.hounder.searcher.query.TermQuery;
+import com.flaptor.hounder.searcher.sort.ASort;
+import com.flaptor.hounder.util.DomXmlSink;
+import com.flaptor.util.LRUCache;
+import com.flaptor.util.Pair;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class MultiSearchTest extends TestCase {
+
+    // Answers every query with as many results as the length of its text, and fails the query "fail".
+    private static class BatchSearcher implements ISearcher {
+        final List<Integer> batchSizes = new ArrayList<Integer>();
+
+        public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup group, int groupSize, AFilter filter, ASort sort) throws SearcherException {
+            String text = (query instanceof LazyParsedQuery) ? ((LazyParsedQuery) query).getQueryString() : query.toString();
+            if ("fail".equals(text)) {
+                throw new SearcherException("failed on purpose");
+            }
+            return new GroupedSearchResults(new Vector<Pair<String,Vector<org.apache.lucene.document.Document>>>(), text.length(), firstResult, firstResult, new Vector<Vector<Float>>());
+        }
+
+        public int countHits(AQuery query, AFilter filter) {
+            return 0;
+        }
+
+        public MultiSearchResults multiSearch(List<QueryParams> queries) {
+            batchSizes.add(queries.size());
+            return MultiSearchResults.searchEach(this, queries);
+        }
+
+        public void requestStop() {}
+
+        public boolean isStopped() {
+            return true;
+        }
+    }
+
+    private QueryParams params(String term) {
+        return new QueryParams(new TermQuery("text", term), 0, 10, new NoGroup(), 1, null, null);
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testTimeBudgetParam() {
+        assertEquals(-1, XmlSearchHandler.parseTimeBudget(null, 1000));
+        assertEquals(-1, XmlSearchHandler.parseTimeBudget("soon", 1000));
+        assertEquals("0 would disable the budget", -1, XmlSearchHandler.parseTimeBudget("0", 1000));
+        assertEquals(-1, XmlSearchHandler.parseTimeBudget("-5", 1000));
+        assertEquals(200, XmlSearchHandler.parseTimeBudget("200", 1000));
+        assertEquals("longer budgets should fall back to the default", -1, XmlSearchHandler.parseTimeBudget("100000", 1000));
+        assertEquals(100000, XmlSearchHandler.parseTimeBudget("100000", 0));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testBatchParams() {
+        Map<String,String[]> params = new HashMap<String,String[]>();
+        params.put("hitsPerPage", new String[] {"5"});
+        params.put("query.1", new String[] {"second"});
+        params.put("query.0", new String[] {"first"});
+        params.put("hitsPerPage.1", new String[] {"20"});
+        List<Map<String,String[]>> batch = XmlSearchHandler.batchParams(params);
+        assertEquals(2, batch.size());
+        assertEquals("first", batch.get(0).get("query")[0]);
+        assertEquals("5", batch.get(0).get("hitsPerPage")[0]);
+        assertEquals("second", batch.get(1).get("query")[0]);
+        assertEquals("the suffixed parameter should override the shared one", "20", batch.get(1).get("hitsPerPage")[0]);
+
+        params.clear();
+        params.put("query", new String[] {"single"});
+        assertNull(XmlSearchHandler.batchParams(params));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testCacheSearcherSendsOnlyMisses() throws Exception {
+        BatchSearcher base = new BatchSearcher();
+        CacheSearcher searcher = new CacheSearcher(base, new LRUCache<QueryParams, GroupedSearchResults>(10));
+        List<QueryParams> queries = new ArrayList<QueryParams>();
+        queries.add(params("a"));
+        queries.add(params("b"));
+        MultiSearchResults first = searcher.multiSearch(queries);
+        assertTrue(first.isOk(0) && first.isOk(1));
+
+        queries.add(params("c"));
+        MultiSearchResults second = searcher.multiSearch(queries);
+        assertEquals(3, second.size());
+        assertSame(first.getResults(0), second.getResults(0));
+        assertSame(first.getResults(1), second.getResults(1));
+        assertTrue(second.isOk(2));
+        assertEquals("only the query missing from the cache should be searched", Integer.valueOf(1), base.batchSizes.get(1));
+
+        queries.clear();
+        queries.add(params("a"));
+        searcher.multiSearch(queries);
+        assertEquals("a batch answered by the cache should not reach the base searcher", 2, base.batchSizes.size());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testStatusPerQuery() throws Exception {
+        List<Map<String,String[]>> queries = new ArrayList<Map<String,String[]>>();
+        for (String query : new String[] {"foo", "fail", "barbaz"}) {
+            Map<String,String[]> params = new HashMap<String,String[]>();
+            params.put("query", new String[] {query});
+            queries.add(params);
+        }
+        DomXmlSink sink = new DomXmlSink();
+        XmlSearchHandler.doMultiQuery(MockHttp.request(), new BatchSearcher(), queries, null, sink, null);
+        Document dom = sink.getDocument();
+        assertEquals("MultiSearchResults", dom.getRootElement().getName());
+        List<?> results = dom.getRootElement().elements("SearchResults");
+        assertEquals(3, results.size());
+        assertEquals("0", ((Element) results.get(0)).elementText("status"));
+        assertEquals("3", ((Element) results.get(0)).elementText("totalResults"));
+        assertEquals("a failed query should not fail the others", "200", ((Element) results.get(1)).elementText("status"));
+        assertEquals("failed on purpose", ((Element) results.get(1)).elementText("statusDesc"));
+        assertEquals("0", ((Element) results.get(2)).elementText("status"));
+        assertEquals("6", ((Element) results.get(2)).elementText("totalResults"));
+        assertEquals("barbaz", ((Element) results.get(2)).elementText("query"));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.util.List;
+import java.util.Vector;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+
+import com.flaptor.hounder.searcher.filter.AFilter;
+import com.flaptor.hounder.searcher.group.AGroup;
+import com.flaptor.hounder.searcher.group.NoGroup;
+import com.flaptor.hounder.searcher.query.AQuery;
+import com.flaptor.hounder.searcher.query.TermQuery;
+import com.flaptor.hounder.searcher.sort.ASort;
+import com.flaptor.util.Pair;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * Tests that the snippets built in parallel are the ones built sequentially.
+ *
+ * @author Flaptor Development Team
+ */
+public class ParallelSnippetsTest extends TestCase {
+
+    private static final int DOCS = 40;
+
+    /**
+     * Returns documents that share a phrase with the query term twice, and have
+     * another one of their own with it once.
+     */
+    private static class SharedPhraseSearcher implements ISearcher {
+        public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup group, int groupSize, AFilter filter, ASort sort) {
+            Vector<Pair<String, Vector<Document>>> groups = new Vector<Pair<String, Vector<Document>>>();
+            Vector<Vector<Float>> scores = new Vector<Vector<Float>>();
+            for (int i = 0; i < DOCS; i++) {
+                Document doc = new Document();
+                doc.add(new Field("text", "the common header has word twice word here. then document number " + i
+                        + " has the word once in it.", Field.Store.YES, Field.Index.NO));
+                Vector<Document> docs = new Vector<Document>();
+                docs.add(doc);
+                groups.add(new Pair<String, Vector<Document>>(String.valueOf(i), docs));
+                Vector<Float> groupScores = new Vector<Float>();
+                groupScores.add(1f);
+                scores.add(groupScores);
+            }
+            return new GroupedSearchResults(groups, DOCS, 0, DOCS, scores);
+        }
+
+        public int countHits(AQuery query, AFilter filter) {
+            return DOCS;
+        }
+
+        public MultiSearchResults multiSearch(List<QueryParams> queries) {
+            return MultiSearchResults.searchEach(this, queries);
+        }
+
+        public void requestStop() {}
+
+        public boolean isStopped() {
+            return true;
+        }
+    }
+
+    private String[] snippets(int threads) throws SearcherException {
+        SnippetSearcher searcher = new SnippetSearcher(new SharedPhraseSearcher(), new String[] {"text"}, new int[] {20},
+                "...", "[.!?]", false, "<B>", "</B>", threads, 0);
+        try {
+            GroupedSearchResults res = searcher.search(new TermQuery("text", "word"), 0, DOCS, new NoGroup(), 1, null, null);
+            String[] snippets = new String[res.groups()];
+            for (int i = 0; i < snippets.length; i++) {
+                snippets[i] = res.getGroup(i).last().get(0).get(SnippetSearcher.SNIPPET_FIELDNAME_PREFIX + "text");
+            }
+            return snippets;
+        } finally {
+            searcher.requestStop();
+        }
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testRepeatedPhrasesFollowDocumentOrder() throws Exception {
+        String[] sequential = snippets(0);
+        assertTrue("the first document should get the shared phrase", sequential[0].contains("common header"));
+        for (int i = 1; i < sequential.length; i++) {
+            assertFalse("the shared phrase should not be repeated", sequential[i].contains("common header"));
+        }
+        for (int run = 0; run < 10; run++) {
+            String[] parallel = snippets(4);
+            for (int i = 0; i < sequential.length; i++) {
+                assertEquals("the snippets should not depend on the order of the threads", sequential[i], parallel[i]);
+            }
+        }
+    }
+}
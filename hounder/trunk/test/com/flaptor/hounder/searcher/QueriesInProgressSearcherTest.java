@@ -0,0 +1,200 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+
+import com.flaptor.hounder.searcher.filter.AFilter;
+import com.flaptor.hounder.searcher.group.AGroup;
+import com.flaptor.hounder.searcher.group.NoGroup;
+import com.flaptor.hounder.searcher.query.AQuery;
+import com.flaptor.hounder.searcher.query.TermQuery;
+import com.flaptor.hounder.searcher.sort.ASort;
+import com.flaptor.util.Pair;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class QueriesInProgressSearcherTest extends TestCase {
+
+    private static final int TOTAL = 1000;
+
+    // Returns ungrouped results numbered by their position, once it is let go.
+    private static class BlockingSearcher implements ISearcher {
+        final CountDownLatch go = new CountDownLatch(1);
+        final AtomicInteger searches = new AtomicInteger(0);
+        final List<String> windows = new Vector<String>();
+        volatile boolean fail = false;
+
+        public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup group, int groupSize, AFilter filter, ASort sort) throws SearcherException {
+            searches.incrementAndGet();
+            windows.add(firstResult + "+" + count);
+            try {
+                go.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new SearcherException(e);
+            }
+            if (fail) {
+                throw new SearcherException("failed");
+            }
+            Vector<Pair<String,Vector<Document>>> groups = new Vector<Pair<String,Vector<Document>>>();
+            Vector<Vector<Float>> scores = new Vector<Vector<Float>>();
+            for (int i = firstResult; i < firstResult + count; i++) {
+                Document doc = new Document();
+                doc.add(new Field("pos", String.valueOf(i), Field.Store.YES, Field.Index.NO));
+                Vector<Document> docs = new Vector<Document>();
+                docs.add(doc);
+                groups.add(new Pair<String,Vector<Document>>(String.valueOf(i), docs));
+                Vector<Float> score = new Vector<Float>();
+                score.add((float) (TOTAL - i));
+                scores.add(score);
+            }
+            return new GroupedSearchResults(groups, TOTAL, firstResult, firstResult + count, scores);
+        }
+
+        public int countHits(AQuery query, AFilter filter) {
+            return TOTAL;
+        }
+
+        public MultiSearchResults multiSearch(List<QueryParams> queries) {
+            return MultiSearchResults.searchEach(this, queries);
+        }
+
+        public void requestStop() {}
+
+        public boolean isStopped() {
+            return true;
+        }
+    }
+
+    // Sends a query from its own thread, keeping its results or exception.
+    private static class Query extends Thread {
+        final ISearcher searcher;
+        final int first;
+        final int count;
+        volatile GroupedSearchResults results = null;
+        volatile Exception exception = null;
+
+        Query(ISearcher searcher, int first, int count) {
+            this.searcher = searcher;
+            this.first = first;
+            this.count = count;
+            start();
+        }
+
+        public void run() {
+            try {
+                results = searcher.search(new TermQuery("text", "foo"), first, count, new NoGroup(), 1, null, null);
+            } catch (Exception e) {
+                exception = e;
+            }
+        }
+    }
+
+    private void waitForSearches(BlockingSearcher base, int searches) throws Exception {
+        for (int i = 0; i < 100 && base.searches.get() < searches; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(searches, base.searches.get());
+    }
+
+    private List<Query> sendAndWait(ISearcher searcher, int[][] pages) throws Exception {
+        List<Query> queries = new ArrayList<Query>();
+        for (int[] page : pages) {
+            queries.add(new Query(searcher, page[0], page[1]));
+        }
+        // Give the queries time to join the one in progress.
+        Thread.sleep(200);
+        return queries;
+    }
+
+    private void join(List<Query> queries) throws Exception {
+        for (Query q : queries) {
+            q.join(10000);
+        }
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testIdenticalQueriesShareOneSearch() throws Exception {
+        BlockingSearcher base = new BlockingSearcher();
+        QueriesInProgressSearcher searcher = new QueriesInProgressSearcher(base);
+        List<Query> queries = sendAndWait(searcher, new int[][] {{0, 10}, {0, 10}, {0, 10}, {0, 10}});
+        base.go.countDown();
+        join(queries);
+        assertEquals(1, base.searches.get());
+        for (Query q : queries) {
+            assertNull(q.exception);
+            assertSame(queries.get(0).results, q.results);
+        }
+        assertTrue(searcher.inProgress.isEmpty());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testPagesAreSlicedFromAWiderSearch() throws Exception {
+        BlockingSearcher base = new BlockingSearcher();
+        QueriesInProgressSearcher searcher = new QueriesInProgressSearcher(base, 100);
+        List<Query> queries = sendAndWait(searcher, new int[][] {{0, 10}});
+        waitForSearches(base, 1);
+        // Not covered by the first one, so it starts a search for both pages.
+        queries.addAll(sendAndWait(searcher, new int[][] {{10, 10}}));
+        waitForSearches(base, 2);
+        assertEquals("0+20", base.windows.get(1));
+        // Covered by the second search.
+        queries.addAll(sendAndWait(searcher, new int[][] {{5, 10}, {15, 5}}));
+        // Too wide to be merged.
+        queries.addAll(sendAndWait(searcher, new int[][] {{200, 10}}));
+        base.go.countDown();
+        join(queries);
+        assertEquals(3, base.searches.get());
+        for (Query q : queries) {
+            assertNull(q.exception);
+            assertEquals(q.count, q.results.groups());
+            assertEquals(TOTAL, q.results.totalResults());
+            assertEquals(q.first + q.count, q.results.lastDocumentOffset());
+            for (int i = 0; i < q.count; i++) {
+                assertEquals(String.valueOf(q.first + i), q.results.getGroup(i).last().get(0).get("pos"));
+                assertEquals((float) (TOTAL - q.first - i), q.results.getGroupScore(i).get(0));
+            }
+        }
+        assertTrue(searcher.inProgress.isEmpty());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testExceptionsReachEveryQuery() throws Exception {
+        BlockingSearcher base = new BlockingSearcher();
+        base.fail = true;
+        QueriesInProgressSearcher searcher = new QueriesInProgressSearcher(base, 100);
+        List<Query> queries = sendAndWait(searcher, new int[][] {{0, 10}, {0, 10}, {5, 5}});
+        base.go.countDown();
+        join(queries);
+        assertEquals(1, base.searches.get());
+        for (Query q : queries) {
+            assertNull(q.results);
+            assertTrue(q.exception instanceof SearcherException);
+        }
+        assertTrue(searcher.inProgress.isEmpty());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import com.flaptor.hounder.searcher.query.AndQuery;
+import com.flaptor.hounder.searcher.query.RangeQuery;
+import com.flaptor.hounder.searcher.query.TermQuery;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class QueryCostEstimatorTest extends TestCase {
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testEstimateWithoutLocalIndex() {
+        QueryCostEstimator estimator = new QueryCostEstimator(null, new long[] {100000, 1000000});
+        assertEquals(3, estimator.getLanes());
+
+        long single = estimator.estimate(new TermQuery("text", "foo"), 0, 10, 1);
+        assertEquals(QueryCostEstimator.UNKNOWN_DOC_FREQ + 10 * QueryCostEstimator.DOCUMENT_COST, single);
+        assertEquals(0, estimator.getLane(single));
+
+        long two = estimator.estimate(new AndQuery(new TermQuery("text", "foo"), new TermQuery("text", "bar")), 0, 10, 1);
+        assertEquals(single + QueryCostEstimator.UNKNOWN_DOC_FREQ, two);
+
+        long deep = estimator.estimate(new TermQuery("text", "foo"), 1000, 10, 5);
+        assertEquals(1, estimator.getLane(deep));
+
+        long range = estimator.estimate(new RangeQuery("date", "a", "z", true, true), 0, 10, 1);
+        assertEquals("ranges should be assumed to match everything", 2, estimator.getLane(range));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testLaneBoundaries() {
+        QueryCostEstimator estimator = new QueryCostEstimator(null, new long[] {10, 20});
+        assertEquals(0, estimator.getLane(10));
+        assertEquals(1, estimator.getLane(11));
+        assertEquals(1, estimator.getLane(20));
+        assertEquals(2, estimator.getLane(21));
+        try {
+            new QueryCostEstimator(null, new long[] {20, 10});
+            fail("unsorted lane costs should not be accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
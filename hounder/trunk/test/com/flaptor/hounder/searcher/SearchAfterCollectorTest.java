@@ -0,0 +1,122 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocCollector;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocCollector;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class SearchAfterCollectorTest extends TestCase {
+    private static final int DOCS = 500;
+    private static final int PAGE = 7;
+
+    private IndexSearcher createSearcher() throws IOException {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < DOCS; i++) {
+            Document doc = new Document();
+            // few different boosts and values, so that there are many ties.
+            doc.setBoost(1 + i % 4);
+            doc.add(new Field("num", Integer.toString(i % 13), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+            doc.add(new Field("text", (i % 3 == 0) ? "common rare" : "common", Field.Store.NO, Field.Index.ANALYZED));
+            writer.addDocument(doc);
+        }
+        writer.close();
+        return new IndexSearcher(dir);
+    }
+
+    // Pages through the results with cursors, and checks them against the results of a single search.
+    private void checkPages(IndexSearcher searcher, Query query, Sort sort) throws IOException {
+        TopDocs expected = (null == sort) ? searcher.search(query, null, DOCS) : searcher.search(query, null, DOCS, sort);
+        int taken = 0;
+        ScoreDoc last = null;
+        while (taken < expected.totalHits) {
+            TopDocCollector collector = (null == sort) ? new TopDocCollector(PAGE) : new TopFieldDocCollector(searcher.getIndexReader(), sort, PAGE);
+            SearchAfterCollector afterCollector = null;
+            if (null == last) {
+                searcher.search(query, null, collector);
+            } else {
+                afterCollector = new SearchAfterCollector(collector, last.doc, last.score, searcher.getIndexReader(), sort);
+                searcher.search(query, null, afterCollector);
+            }
+            TopDocs page = collector.topDocs();
+            assertTrue("every page should have results until the last one", page.scoreDocs.length > 0);
+            for (ScoreDoc hit : page.scoreDocs) {
+                assertEquals("result " + taken, expected.scoreDocs[taken].doc, hit.doc);
+                taken++;
+            }
+            int skipped = (null == afterCollector) ? 0 : afterCollector.getSkipped();
+            assertEquals(expected.totalHits, page.totalHits + skipped);
+            last = page.scoreDocs[page.scoreDocs.length - 1];
+        }
+        assertEquals(expected.totalHits, taken);
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testPagesByScore() throws IOException {
+        IndexSearcher searcher = createSearcher();
+        checkPages(searcher, new TermQuery(new Term("text", "rare")), null);
+        searcher.close();
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testPagesBySort() throws IOException {
+        IndexSearcher searcher = createSearcher();
+        Query query = new TermQuery(new Term("text", "common"));
+        checkPages(searcher, query, new Sort(new SortField("num", SortField.INT, true)));
+        checkPages(searcher, query, new Sort(new SortField[] {new SortField("num", SortField.INT), SortField.FIELD_SCORE}));
+        searcher.close();
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testCursorString() {
+        SearchCursor cursor = new SearchCursor(new SearchCursor.Position[] {
+                new SearchCursor.Position(12, 30, 0.75f, 1234),
+                new SearchCursor.Position(3, 0, 0, SearchCursor.Position.NO_DOC),
+                new SearchCursor.Position(7, 25, -1.5f, 0)});
+        SearchCursor parsed = SearchCursor.parse(cursor.toString());
+        assertEquals(cursor, parsed);
+        assertEquals(55, parsed.getOffset());
+        assertEquals(0.75f, parsed.getPosition(0).getScore(), 0f);
+        assertEquals(SearchCursor.Position.NO_DOC, parsed.getPosition(1).getDoc());
+        try {
+            SearchCursor.parse("not a cursor");
+            fail("a garbage cursor should not be parsed");
+        } catch (IllegalArgumentException e) {
+            // expected.
+        }
+    }
+}
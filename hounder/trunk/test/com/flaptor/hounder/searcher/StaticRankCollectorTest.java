@@ -0,0 +1,150 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class StaticRankCollectorTest extends TestCase {
+    private static final int DOCS = 2000;
+    private static final int HITS = 10;
+
+    private IndexSearcher createSearcher(boolean sorted) throws IOException {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < DOCS; i++) {
+            float rank = sorted ? DOCS - i : 1 + (i * 7) % DOCS;
+            Document doc = new Document();
+            doc.setBoost(rank);
+            doc.add(new Field("rank", Float.toString(rank), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+            doc.add(new Field("text", (i % 3 == 0) ? "common rare" : "common", Field.Store.NO, Field.Index.ANALYZED));
+            // the score to static rank ratio varies with the length and the term frequency.
+            StringBuffer words = new StringBuffer();
+            for (int j = 0; j <= i % 4; j++) {
+                words.append("word ");
+            }
+            for (int j = 0; j < (i * 3) % 11; j++) {
+                words.append("filler ");
+            }
+            if (i % 5 == 0) {
+                words.append("other");
+            }
+            doc.add(new Field("words", words.toString(), Field.Store.NO, Field.Index.ANALYZED));
+            writer.addDocument(doc);
+        }
+        writer.close();
+        return new IndexSearcher(dir);
+    }
+
+    private void assertSameTopDocs(TopDocs expected, TopDocs actual) {
+        assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+        for (int i = 0; i < expected.scoreDocs.length; i++) {
+            assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+            assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0.0001f);
+        }
+    }
+
+    private StaticRankCollector search(IndexSearcher searcher, Query query) throws IOException {
+        float[] ranks = FieldCache.DEFAULT.getFloats(searcher.getIndexReader(), "rank");
+        float maxRatio = StaticRankBound.get(searcher, searcher.rewrite(query), ranks);
+        assertTrue("the query should be bounded", maxRatio >= 0);
+        StaticRankCollector collector = new StaticRankCollector(HITS, ranks, maxRatio);
+        try {
+            searcher.search(query, null, collector);
+        } catch (StaticRankCollector.TerminatedException e) {
+            // expected on sorted indexes.
+        }
+        return collector;
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testStopsEarlyOnSortedIndex() throws IOException {
+        IndexSearcher searcher = createSearcher(true);
+        Query query = new TermQuery(new Term("text", "rare"));
+        TopDocs expected = searcher.search(query, null, HITS);
+        StaticRankCollector collector = search(searcher, query);
+        assertTrue("the search should have stopped early", collector.isTerminated());
+        TopDocs actual = collector.topDocs(searcher.getIndexReader().maxDoc());
+        assertSameTopDocs(expected, actual);
+        assertTrue("the total hits should be estimated", Math.abs(actual.totalHits - expected.totalHits) < expected.totalHits / 10);
+        searcher.close();
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testScansUnsortedIndex() throws IOException {
+        IndexSearcher searcher = createSearcher(false);
+        Query query = new TermQuery(new Term("text", "common"));
+        TopDocs expected = searcher.search(query, null, HITS);
+        StaticRankCollector collector = search(searcher, query);
+        assertFalse("the search should not stop on an unsorted index", collector.isTerminated());
+        TopDocs actual = collector.topDocs(searcher.getIndexReader().maxDoc());
+        assertSameTopDocs(expected, actual);
+        assertEquals(expected.totalHits, actual.totalHits);
+        searcher.close();
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testVaryingScoresToRanks() throws IOException {
+        IndexSearcher searcher = createSearcher(true);
+        BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(new Term("words", "word")), BooleanClause.Occur.MUST);
+        TermQuery other = new TermQuery(new Term("words", "other"));
+        other.setBoost(3);
+        query.add(other, BooleanClause.Occur.SHOULD);
+        query.add(new TermQuery(new Term("text", "rare")), BooleanClause.Occur.SHOULD);
+        query.add(new TermQuery(new Term("words", "missing")), BooleanClause.Occur.MUST_NOT);
+        TopDocs expected = searcher.search(query, null, HITS);
+        StaticRankCollector collector = search(searcher, query);
+        assertTrue("the search should have stopped early", collector.isTerminated());
+        assertSameTopDocs(expected, collector.topDocs(searcher.getIndexReader().maxDoc()));
+        searcher.close();
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testUnboundedQueries() throws IOException {
+        IndexSearcher searcher = createSearcher(true);
+        float[] ranks = FieldCache.DEFAULT.getFloats(searcher.getIndexReader(), "rank");
+        PhraseQuery phrase = new PhraseQuery();
+        phrase.add(new Term("text", "common"));
+        phrase.add(new Term("text", "rare"));
+        assertEquals(-1f, StaticRankBound.get(searcher, phrase, ranks));
+        BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(new Term("text", "common")), BooleanClause.Occur.MUST);
+        query.add(phrase, BooleanClause.Occur.SHOULD);
+        assertEquals(-1f, StaticRankBound.get(searcher, query, ranks));
+        searcher.close();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.util.List;
+import java.util.Vector;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.flaptor.hounder.searcher.filter.AFilter;
+import com.flaptor.hounder.searcher.group.AGroup;
+import com.flaptor.hounder.searcher.query.AQuery;
+import com.flaptor.hounder.searcher.query.TermQuery;
+import com.flaptor.hounder.searcher.sort.ASort;
+import com.flaptor.util.Pair;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class TermVectorOffsetsTest extends TestCase {
+
+    private static final String FILLER = "some words that say nothing about the query, repeated to make the text long. ";
+
+    private String longText() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            sb.append(FILLER);
+        }
+        sb.append("Hounder builds this snippet from the offsets of the term vector. ");
+        for (int i = 0; i < 50; i++) {
+            sb.append(FILLER);
+        }
+        return sb.toString();
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testOffsets() throws Exception {
+        String text = longText();
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+        Document doc = new Document();
+        doc.add(new Field("text", text, Field.Store.YES, Field.Index.ANALYZED, Field.TermVector.WITH_POSITIONS_OFFSETS));
+        doc.add(new Field("title", "no vectors here", Field.Store.YES, Field.Index.ANALYZED));
+        writer.addDocument(doc);
+        writer.close();
+
+        IndexReader reader = IndexReader.open(dir);
+        TermVectorOffsets offsets = new TermVectorOffsets(new org.apache.lucene.search.TermQuery(new Term("text", "snippet")), new String[] {"text", "title"});
+        Document result = reader.document(0);
+        offsets.addOffsets(reader, 0, result);
+        reader.close();
+
+        assertNull("fields without term vectors should get no offsets", result.get(SnippetSearcher.OFFSETS_FIELDNAME_PREFIX + "title"));
+        int[] found = TermVectorOffsets.decode(result.get(SnippetSearcher.OFFSETS_FIELDNAME_PREFIX + "text"));
+        assertEquals(2, found.length);
+        assertEquals("snippet", text.substring(found[0], found[1]));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testSnippetFromOffsets() throws Exception {
+        final String text = longText();
+        final int start = text.indexOf("snippet");
+        ISearcher base = new ISearcher() {
+            public GroupedSearchResults search(AQuery query, int firstResult, int count, AGroup group, int groupSize, AFilter filter, ASort sort) {
+                Document doc = new Document();
+                doc.add(new Field("text", text, Field.Store.YES, Field.Index.NO));
+                doc.add(new Field(SnippetSearcher.OFFSETS_FIELDNAME_PREFIX + "text", start + ":" + (start + 7), Field.Store.YES, Field.Index.NO));
+                Vector<Document> groupDocs = new Vector<Document>();
+                groupDocs.add(doc);
+                Vector<Pair<String,Vector<Document>>> docs = new Vector<Pair<String,Vector<Document>>>();
+                docs.add(new Pair<String,Vector<Document>>("", groupDocs));
+                Vector<Vector<Float>> scores = new Vector<Vector<Float>>();
+                Vector<Float> groupScores = new Vector<Float>();
+                groupScores.add(1f);
+                scores.add(groupScores);
+                return new GroupedSearchResults(docs, 1, 0, 1, scores);
+            }
+            public int countHits(AQuery query, AFilter filter) {
+                return 1;
+            }
+
+            public MultiSearchResults multiSearch(List<QueryParams> queries) {
+                return MultiSearchResults.searchEach(this, queries);
+            }
+            public void requestStop() {}
+            public boolean isStopped() {
+                return true;
+            }
+        };
+        SnippetSearcher searcher = new SnippetSearcher(base, new String[] {"text"}, new int[] {100}, "...", "[.!?\\n]", false, "<B>", "</B>");
+        GroupedSearchResults res = searcher.search(new TermQuery("text", "snippet"), 0, 10, null, 1, null, null);
+        Document doc = res.getGroup(0).last().get(0);
+        String snippet = doc.get(SnippetSearcher.SNIPPET_FIELDNAME_PREFIX + "text");
+        assertTrue(snippet, snippet.contains("this <B>snippet</B> from"));
+        assertTrue(snippet, snippet.length() < 400);
+        assertNull("the offsets should not be returned", doc.get(SnippetSearcher.OFFSETS_FIELDNAME_PREFIX + "text"));
+    }
+}
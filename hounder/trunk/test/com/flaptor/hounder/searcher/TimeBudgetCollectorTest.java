@@ -0,0 +1,105 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.HitCollector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.flaptor.util.Execute;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class TimeBudgetCollectorTest extends TestCase {
+    private static final int DOCS = 2000;
+
+    private IndexSearcher searcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < DOCS; i++) {
+            Document doc = new Document();
+            doc.add(new Field("text", "common", Field.Store.NO, Field.Index.ANALYZED));
+            writer.addDocument(doc);
+        }
+        writer.close();
+        searcher = new IndexSearcher(dir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        searcher.close();
+        super.tearDown();
+    }
+
+    // Counts the hits, taking a while with each.
+    private static class SlowCollector extends HitCollector {
+        private final long sleep;
+        int hits = 0;
+
+        SlowCollector(long sleep) {
+            this.sleep = sleep;
+        }
+
+        @Override
+        public void collect(int doc, float score) {
+            hits++;
+            if (sleep > 0) {
+                Execute.sleep(sleep);
+            }
+        }
+    }
+
+    private TimeBudgetCollector search(HitCollector collector, long timeBudget) throws IOException {
+        TimeBudgetCollector budget = new TimeBudgetCollector(collector, timeBudget);
+        try {
+            searcher.search(new TermQuery(new Term("text", "common")), null, budget);
+        } catch (TimeBudgetCollector.TimeExceededException e) {
+            assertTrue(budget.isExceeded());
+        }
+        return budget;
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testStopsWhenTimeIsUp() throws IOException {
+        SlowCollector slow = new SlowCollector(1);
+        TimeBudgetCollector budget = search(slow, 50);
+        assertTrue("the search should have run out of time", budget.isExceeded());
+        assertEquals("the clock should be checked every CHECK_INTERVAL hits", TimeBudgetCollector.CHECK_INTERVAL, slow.hits);
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testCollectsAllWithinBudget() throws IOException {
+        SlowCollector fast = new SlowCollector(0);
+        TimeBudgetCollector budget = search(fast, 10000);
+        assertFalse(budget.isExceeded());
+        assertEquals(DOCS, fast.hits);
+    }
+}
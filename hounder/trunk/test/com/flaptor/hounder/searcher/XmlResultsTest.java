@@ -0,0 +1,118 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher;
+
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+
+import com.flaptor.hounder.searcher.query.LazyParsedQuery;
+import com.flaptor.hounder.util.JsonStreamWriter;
+import com.flaptor.hounder.util.XmlStreamWriter;
+import com.flaptor.util.DomUtil;
+import com.flaptor.util.Pair;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class XmlResultsTest extends TestCase {
+
+    private Document doc(String title, String text) {
+        Document doc = new Document();
+        doc.add(new Field("title", title, Field.Store.YES, Field.Index.NO));
+        doc.add(new Field("link", "http://example.com/?a=1&b=\"2\"", Field.Store.YES, Field.Index.NO));
+        doc.add(new Field("text", text, Field.Store.YES, Field.Index.NO));
+        return doc;
+    }
+
+    private GroupedSearchResults results() {
+        Vector<Pair<String,Vector<Document>>> groups = new Vector<Pair<String,Vector<Document>>>();
+        Vector<Vector<Float>> scores = new Vector<Vector<Float>>();
+        Vector<Document> first = new Vector<Document>();
+        first.add(doc("Fish & <chips>", "  some\ttext  with\n whitespace "));
+        first.add(doc("", "control\u0001 and \f chars, \u00e9l\u00e8ve \"quoted\" 'single'"));
+        groups.add(new Pair<String,Vector<Document>>("a&\"b\"", first));
+        scores.add(new Vector<Float>());
+        Vector<Document> second = new Vector<Document>();
+        second.add(doc("   ", ""));
+        groups.add(new Pair<String,Vector<Document>>("c", second));
+        scores.add(new Vector<Float>());
+        GroupedSearchResults sr = new GroupedSearchResults(groups, 3, 0, 2, scores);
+        sr.setSuggestedQuery(new LazyParsedQuery("fish & chips"));
+        sr.setPartial(true);
+        return sr;
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testStreamedXmlIdenticalToDom() throws Exception {
+        Map<String,String[]> params = new HashMap<String,String[]>();
+        params.put("query", new String[] {"ignored, already there"});
+        params.put("lang", new String[] {"en < es"});
+        GroupedSearchResults sr = results();
+        Map<String,String> rootAttributes = new LinkedHashMap<String,String>();
+        rootAttributes.put("SearchEngine", "Hounder");
+        rootAttributes.put("DevelopedBy", "Flaptor");
+
+        org.dom4j.Document dom = XmlResults.buildXml("fish  &  chips", 10, 20, "date:long", sr, 0, "OK", "/style.xsl", "date", "1", null, params);
+        dom.getRootElement().addAttribute("SearchEngine", "Hounder").addAttribute("DevelopedBy", "Flaptor");
+        StringWriter streamed = new StringWriter();
+        XmlResults.write(new XmlStreamWriter(streamed), "fish  &  chips", 10, 20, "date:long", sr, 0, "OK", "/style.xsl", "date", "1", null, params, rootAttributes);
+        assertEquals(DomUtil.domToString(dom), streamed.toString());
+
+        streamed = new StringWriter();
+        XmlResults.write(new XmlStreamWriter(streamed), "", 0, 0, null, new GroupedSearchResults(), 200, "error", null, null, null, null, null, null);
+        assertEquals(DomUtil.domToString(XmlResults.buildXml("", 0, 0, null, new GroupedSearchResults(), 200, "error", null, null, null, null, null)), streamed.toString());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testStreamedOpenSearchIdenticalToDom() throws Exception {
+        GroupedSearchResults sr = results();
+        for (boolean useXslt : new boolean[] {false, true}) {
+            org.dom4j.Document dom = OpenSearch.buildDom_1_0("http://host", "search.jsp", "opensearch.jsp", "&tz=1", "fish & chips", 0, 10, sr, 0, "OK", useXslt);
+            StringWriter streamed = new StringWriter();
+            OpenSearch.write_1_0(new XmlStreamWriter(streamed), "http://host", "search.jsp", "opensearch.jsp", "&tz=1", "fish & chips", 0, 10, sr, 0, "OK", useXslt);
+            assertEquals(DomUtil.domToString(dom), streamed.toString());
+        }
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testJson() throws Exception {
+        Vector<Pair<String,Vector<Document>>> groups = new Vector<Pair<String,Vector<Document>>>();
+        Vector<Vector<Float>> scores = new Vector<Vector<Float>>();
+        for (String name : new String[] {"x", "y"}) {
+            Vector<Document> docs = new Vector<Document>();
+            docs.add(doc(name, "line\none"));
+            groups.add(new Pair<String,Vector<Document>>(name, docs));
+            scores.add(new Vector<Float>());
+        }
+        GroupedSearchResults sr = new GroupedSearchResults(groups, 2, 0, 2, scores);
+        StringWriter json = new StringWriter();
+        XmlResults.write(new JsonStreamWriter(json, XmlResults.LIST_ELEMENTS), "q", 0, 10, null, sr, 0, "OK", "/style.xsl", "date", "1", "2", null, null);
+        String result = "{\"title\":\"%s\",\"link\":\"http://example.com/?a=1&b=\\\"2\\\"\",\"text\":\"line\\none\"}";
+        assertEquals("{\"totalResults\":\"2\",\"totalGroupsEstimation\":\"2\",\"startIndex\":\"0\",\"itemsPerPage\":\"10\",\"query\":\"q\","
+                + "\"filter\":{\"field\":\"date\",\"start\":\"1\",\"end\":\"2\"},\"status\":\"0\",\"statusDesc\":\"OK\","
+                + "\"group\":[{\"name\":\"x\",\"result\":[" + String.format(result, "x") + "]},"
+                + "{\"name\":\"y\",\"result\":[" + String.format(result, "y") + "]}]}",
+                json.toString());
+    }
+}
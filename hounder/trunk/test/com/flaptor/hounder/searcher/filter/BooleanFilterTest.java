@@ -0,0 +1,188 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.filter;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class BooleanFilterTest extends TestCase {
+
+    private static final int DOCS = 1000;
+    private RAMDirectory dir;
+    private IndexReader reader;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < DOCS; i++) {
+            Document doc = new Document();
+            doc.add(new Field("rare", (i % 100 == 0) ? "yes" : "no", Field.Store.NO, Field.Index.NOT_ANALYZED));
+            doc.add(new Field("parity", (i % 2 == 0) ? "even" : "odd", Field.Store.NO, Field.Index.NOT_ANALYZED));
+            doc.add(new Field("number", String.format("%04d", i), Field.Store.NO, Field.Index.NOT_ANALYZED));
+            writer.addDocument(doc);
+        }
+        writer.close();
+        reader = IndexReader.open(dir);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        reader.close();
+        super.tearDown();
+    }
+
+    private int count(AFilter filter) throws Exception {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        return searcher.search(new MatchAllDocsQuery(), filter.getLuceneFilter(), DOCS).totalHits;
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testEstimates() throws Exception {
+        assertEquals(10, new ValueFilter("rare", "yes").estimateCardinality(reader));
+        assertEquals(100, new RangeFilter("number", "0100", "0199").estimateCardinality(reader));
+        assertEquals("ranges with too many terms should match everything", DOCS, new RangeFilter("number", "0000", "9999").estimateCardinality(reader));
+        BooleanFilter and = new BooleanFilter(BooleanFilter.Type.AND).addFilter(new ValueFilter("rare", "yes")).addFilter(new ValueFilter("parity", "odd"));
+        assertEquals(10, and.estimateCardinality(reader));
+        BooleanFilter or = new BooleanFilter(BooleanFilter.Type.OR).addFilter(new ValueFilter("rare", "yes")).addFilter(new ValueFilter("parity", "odd"));
+        assertEquals(510, or.estimateCardinality(reader));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testMostSelectiveFirst() throws Exception {
+        BooleanFilter filter = new BooleanFilter(BooleanFilter.Type.AND)
+            .addFilter(new ValueFilter("parity", "even"))
+            .addFilter(new RangeFilter("number", "0100", "0199"))
+            .addFilter(new ValueFilter("rare", "yes"));
+        CompressedBooleanFilter lucene = (CompressedBooleanFilter) filter.getLuceneFilter();
+        CompressedBooleanFilter.Step[] plan = lucene.plan(reader);
+        assertEquals(10, plan[0].cost);
+        assertEquals(100, plan[1].cost);
+        assertEquals(500, plan[2].cost);
+        assertEquals(1, count(filter));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testLeapfrog() throws Exception {
+        AFilter rare = new ValueFilter("rare", "yes");
+        AFilter odd = new ValueFilter("parity", "odd");
+        AFilter even = new ValueFilter("parity", "even");
+        assertEquals(0, count(new BooleanFilter(BooleanFilter.Type.AND).addFilter(rare).addFilter(odd)));
+        assertEquals(10, count(new BooleanFilter(BooleanFilter.Type.AND).addFilter(rare).addFilter(even)));
+        assertTrue(((SegmentCachingFilter) rare.getLuceneFilter()).isCached(reader));
+        assertFalse("the broad filter should have been leapfrogged, not evaluated",
+                ((SegmentCachingFilter) even.getLuceneFilter()).isCached(reader));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testLeapfrogIsLazy() throws Exception {
+        CountingFilter even = new CountingFilter(new ValueFilter("parity", "even"));
+        CountingFilter range = new CountingFilter(new RangeFilter("number", "0000", "0049"));
+        assertEquals(10, count(new BooleanFilter(BooleanFilter.Type.AND).addFilter(new ValueFilter("rare", "yes")).addFilter(even)));
+        assertEquals(1, count(new BooleanFilter(BooleanFilter.Type.AND).addFilter(new ValueFilter("number", "0000")).addFilter(range)));
+        assertEquals("the broad filter should not be evaluated over the whole index", 0, even.evaluations);
+        assertEquals("the broad filter should not be evaluated over the whole index", 0, range.evaluations);
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testBroadFilterIsCached() throws Exception {
+        AFilter all = new RangeFilter("number", "0000", "9999");
+        assertNull("a range with so many terms should not be read lazily", all.getLazyDocIdSet(reader));
+        assertEquals(10, count(new BooleanFilter(BooleanFilter.Type.AND).addFilter(new ValueFilter("rare", "yes")).addFilter(all)));
+        assertTrue("a broad filter that is evaluated should be cached",
+                ((SegmentCachingFilter) all.getLuceneFilter()).isCached(reader));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testLazyDocIdSets() throws Exception {
+        AFilter[] filters = {new ValueFilter("parity", "odd"), new RangeFilter("number", "0100", "0149"), new ValueFilter("parity", "none")};
+        for (AFilter filter : filters) {
+            DocIdSetIterator evaluated = filter.getLuceneFilter().getDocIdSet(reader).iterator();
+            DocIdSetIterator lazy = filter.getLazyDocIdSet(reader).iterator();
+            while (evaluated.next()) {
+                assertTrue(lazy.next());
+                assertEquals(evaluated.doc(), lazy.doc());
+            }
+            assertFalse(lazy.next());
+        }
+        DocIdSetIterator odd = new ValueFilter("parity", "odd").getLazyDocIdSet(reader).iterator();
+        assertTrue(odd.skipTo(500));
+        assertEquals(501, odd.doc());
+        assertFalse(odd.skipTo(DOCS));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testCompositeCaching() throws Exception {
+        BooleanFilter filter = new BooleanFilter(BooleanFilter.Type.OR)
+            .addFilter(new ValueFilter("rare", "yes"))
+            .addFilter(new RangeFilter("number", "0000", "0009"));
+        CompressedBooleanFilter lucene = (CompressedBooleanFilter) filter.getLuceneFilter();
+        assertEquals(19, count(filter));
+        assertFalse("a filter used once should not be cached", lucene.isCached(reader));
+        assertEquals(19, count(filter));
+        assertTrue(lucene.isCached(reader));
+        BooleanFilter equal = new BooleanFilter(BooleanFilter.Type.OR)
+            .addFilter(new RangeFilter("number", "0000", "0009"))
+            .addFilter(new ValueFilter("rare", "yes"));
+        assertSame("equal filters should share their results", lucene, equal.getLuceneFilter());
+    }
+
+    /**
+     * Counts how many times a filter is evaluated as a whole.
+     */
+    @SuppressWarnings("serial")
+    private static class CountingFilter extends AFilter {
+        private final AFilter filter;
+        private int evaluations = 0;
+
+        CountingFilter(AFilter filter) {
+            this.filter = filter;
+        }
+
+        public Filter getLuceneFilter() {
+            return new Filter() {
+                public DocIdSet getDocIdSet(IndexReader reader) throws java.io.IOException {
+                    evaluations++;
+                    return filter.getLuceneFilter().getDocIdSet(reader);
+                }
+            };
+        }
+
+        protected int estimateCardinality(IndexReader reader) throws java.io.IOException {
+            return filter.estimateCardinality(reader);
+        }
+
+        protected DocIdSet getLazyDocIdSet(IndexReader reader) throws java.io.IOException {
+            return filter.getLazyDocIdSet(reader);
+        }
+    }
+}
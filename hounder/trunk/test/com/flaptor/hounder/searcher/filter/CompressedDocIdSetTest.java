@@ -0,0 +1,110 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.filter;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.apache.lucene.search.DocIdSetIterator;
+
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class CompressedDocIdSetTest extends TestCase {
+
+    private static final int MAX_DOC = 300000;
+    private final Random random = new Random(17);
+
+    // Sparse and dense regions, so both encodings are used.
+    private BitSet randomBits() {
+        BitSet bits = new BitSet(MAX_DOC);
+        for (int doc = 0; doc < MAX_DOC; doc++) {
+            double density = ((doc >>> 16) % 2 == 0) ? 0.01 : 0.5;
+            if (random.nextDouble() < density) {
+                bits.set(doc);
+            }
+        }
+        return bits;
+    }
+
+    private CompressedDocIdSet compress(BitSet bits) {
+        CompressedDocIdSet.Builder builder = new CompressedDocIdSet.Builder();
+        for (int doc = bits.nextSetBit(0); doc >= 0; doc = bits.nextSetBit(doc + 1)) {
+            builder.add(doc);
+        }
+        return builder.build();
+    }
+
+    private void assertSameDocs(BitSet expected, CompressedDocIdSet actual) throws Exception {
+        assertEquals(expected.cardinality(), actual.cardinality());
+        DocIdSetIterator it = actual.iterator();
+        for (int doc = expected.nextSetBit(0); doc >= 0; doc = expected.nextSetBit(doc + 1)) {
+            assertTrue(it.next());
+            assertEquals(doc, it.doc());
+            assertTrue(actual.contains(doc));
+        }
+        assertFalse(it.next());
+        assertFalse(it.next());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testAndOr() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            BitSet a = randomBits();
+            BitSet b = randomBits();
+            CompressedDocIdSet ca = compress(a);
+            CompressedDocIdSet cb = compress(b);
+            assertSameDocs(a, ca);
+
+            BitSet and = (BitSet) a.clone();
+            and.and(b);
+            assertSameDocs(and, ca.and(cb));
+            BitSet or = (BitSet) a.clone();
+            or.or(b);
+            assertSameDocs(or, ca.or(cb));
+        }
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testSkipTo() throws Exception {
+        BitSet bits = randomBits();
+        CompressedDocIdSet set = compress(bits);
+        for (int target = 0; target < MAX_DOC; target += 1 + random.nextInt(5000)) {
+            DocIdSetIterator it = set.iterator();
+            int expected = bits.nextSetBit(target);
+            assertEquals(expected >= 0, it.skipTo(target));
+            if (expected >= 0) {
+                assertEquals(expected, it.doc());
+            }
+        }
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testMemoryDependsOnCardinality() throws Exception {
+        CompressedDocIdSet.Builder builder = new CompressedDocIdSet.Builder();
+        for (int doc = 0; doc < 50000000; doc += 10000) {
+            builder.add(doc);
+        }
+        CompressedDocIdSet sparse = builder.build();
+        assertEquals(5000, sparse.cardinality());
+        assertTrue("a sparse set should not take a bit per document", sparse.memory() < 50000000 / 8 / 100);
+        assertEquals(0, CompressedDocIdSet.EMPTY.cardinality());
+        assertFalse(CompressedDocIdSet.EMPTY.iterator().next());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.filter;
+
+import java.io.File;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import com.flaptor.util.FileUtil;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class SegmentCachingFilterTest extends TestCase {
+
+    private File tmpDir;
+    private Directory dir;
+    private int docs = 0;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        tmpDir = FileUtil.createTempDir("junit", ".tmp");
+        dir = FSDirectory.getDirectory(tmpDir);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        dir.close();
+        FileUtil.deleteDir(tmpDir);
+        super.tearDown();
+    }
+
+    // Adds a segment of 10 documents, without merging the existing ones.
+    private void addSegment() throws Exception {
+        IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), 0 == docs, IndexWriter.MaxFieldLength.UNLIMITED);
+        writer.setMergeFactor(100);
+        for (int i = 0; i < 10; i++, docs++) {
+            Document doc = new Document();
+            doc.add(new Field("id", String.valueOf(docs), Field.Store.YES, Field.Index.NOT_ANALYZED));
+            doc.add(new Field("category", (docs % 2 == 0) ? "even" : "odd", Field.Store.NO, Field.Index.NOT_ANALYZED));
+            doc.add(new Field("number", String.format("%03d", docs), Field.Store.NO, Field.Index.NOT_ANALYZED));
+            writer.addDocument(doc);
+        }
+        writer.close();
+    }
+
+    private int count(AFilter filter) throws Exception {
+        IndexSearcher searcher = new IndexSearcher(dir);
+        try {
+            return searcher.search(new MatchAllDocsQuery(), filter.getLuceneFilter(), docs + 1).totalHits;
+        } finally {
+            searcher.close();
+        }
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testOnlyChangedSegmentsAreComputed() throws Exception {
+        SegmentFilterCache cache = SegmentFilterCache.getInstance();
+        AFilter even = new ValueFilter("category", "even");
+        AFilter range = new RangeFilter("number", "005", "024");
+        addSegment();
+        addSegment();
+        addSegment();
+
+        long misses = cache.getMisses();
+        long hits = cache.getHits();
+        assertEquals(15, count(even));
+        assertEquals(20, count(range));
+        assertEquals("every segment should have been computed", misses + 6, cache.getMisses());
+        assertEquals(hits, cache.getHits());
+        assertTrue(cache.getMemory() > 0);
+
+        addSegment();
+        assertEquals(20, count(even));
+        assertEquals(20, count(range));
+        assertEquals("only the new segment should have been computed", misses + 8, cache.getMisses());
+        assertEquals(hits + 6, cache.getHits());
+
+        // deleting a document changes its segment.
+        IndexReader reader = IndexReader.open(dir);
+        reader.deleteDocuments(new Term("id", "6"));
+        reader.close();
+        assertEquals(19, count(even));
+        assertEquals(19, count(range));
+        assertEquals("only the segment with deletions should have been computed", misses + 10, cache.getMisses());
+        assertEquals(hits + 12, cache.getHits());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testBooleanFilter() throws Exception {
+        addSegment();
+        addSegment();
+        AFilter even = new ValueFilter("category", "even");
+        AFilter range = new RangeFilter("number", "005", "014");
+        assertEquals(5, count(new BooleanFilter(BooleanFilter.Type.AND).addFilter(even).addFilter(range)));
+        assertEquals(15, count(new BooleanFilter(BooleanFilter.Type.OR).addFilter(even).addFilter(range)));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testMemoryBound() throws Exception {
+        addSegment();
+        addSegment();
+        IndexReader reader = IndexReader.open(dir);
+        IndexReader[] segments = SegmentFilterCache.getSegments(reader);
+        assertEquals(2, segments.length);
+        long size = CompressedDocIdSet.EMPTY.memory();
+        SegmentFilterCache cache = new SegmentFilterCache(size);
+        AFilter filter = new ValueFilter("category", "even");
+        for (IndexReader segment : segments) {
+            cache.put(filter, SegmentFilterCache.getSegmentKey(segment), CompressedDocIdSet.EMPTY);
+        }
+        assertEquals("only one bitset fits", size, cache.getMemory());
+        assertNull(cache.get(filter, SegmentFilterCache.getSegmentKey(segments[0])));
+        assertNotNull(cache.get(filter, SegmentFilterCache.getSegmentKey(segments[1])));
+        reader.close();
+    }
+}
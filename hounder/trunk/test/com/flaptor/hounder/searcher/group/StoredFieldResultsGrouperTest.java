@@ -0,0 +1,95 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.group;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.flaptor.hounder.searcher.GroupedSearchResults;
+import com.flaptor.util.Config;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class StoredFieldResultsGrouperTest extends TestCase {
+
+    private RAMDirectory dir;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        // site is grouped by ordinals, host (with the same values) by stored values.
+        Config.getConfig("searcher.properties").set("StoredFieldGroup.ordinalFields", "site");
+        dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < 10; i++) {
+            Document doc = new Document();
+            doc.add(new Field("site", "site" + (i % 3), Field.Store.YES, Field.Index.NOT_ANALYZED));
+            doc.add(new Field("host", "site" + (i % 3), Field.Store.YES, Field.Index.NO));
+            doc.add(new Field("title", "title" + i, Field.Store.YES, Field.Index.NOT_ANALYZED));
+            doc.add(new Field("text", "a long text that should not be loaded", Field.Store.YES, Field.Index.ANALYZED));
+            writer.addDocument(doc);
+        }
+        writer.close();
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testProjectedDocuments() throws Exception {
+        IndexSearcher searcher = new IndexSearcher(dir);
+        TopDocs tdocs = searcher.search(new MatchAllDocsQuery(), null, 10);
+        DocumentProvider provider = new TopDocsDocumentProvider(tdocs, searcher, new MapFieldSelector(new String[] {"title"}));
+        GroupedSearchResults results = new StoredFieldGroup("site").getGrouper(provider).group(5, 2, 0);
+        searcher.close();
+
+        assertEquals(3, results.groups());
+        for (int i = 0; i < results.groups(); i++) {
+            assertEquals(2, results.getGroup(i).last().size());
+            for (Document doc : results.getGroup(i).last()) {
+                assertNotNull("the display fields should be loaded", doc.get("title"));
+                assertEquals("the group key should be kept", results.getGroup(i).first(), doc.get("site"));
+                assertNull("fields not requested should not be loaded", doc.get("text"));
+            }
+        }
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testOrdinalsGroupLikeStoredValues() throws Exception {
+        IndexSearcher searcher = new IndexSearcher(dir);
+        TopDocs tdocs = searcher.search(new MatchAllDocsQuery(), null, 10);
+        for (int groupSize = 1; groupSize < 5; groupSize++) {
+            GroupedSearchResults byOrdinal = new StoredFieldGroup("site").getGrouper(new TopDocsDocumentProvider(tdocs, searcher)).group(2, groupSize, 1);
+            GroupedSearchResults byValue = new StoredFieldGroup("host").getGrouper(new TopDocsDocumentProvider(tdocs, searcher)).group(2, groupSize, 1);
+            assertEquals(byValue.groups(), byOrdinal.groups());
+            for (int i = 0; i < byValue.groups(); i++) {
+                assertEquals(byValue.getGroup(i).first(), byOrdinal.getGroup(i).first());
+                assertEquals(byValue.getGroup(i).last().size(), byOrdinal.getGroup(i).last().size());
+                for (int j = 0; j < byValue.getGroup(i).last().size(); j++) {
+                    assertEquals(byValue.getGroup(i).last().get(j).get("title"), byOrdinal.getGroup(i).last().get(j).get("title"));
+                }
+            }
+        }
+        searcher.close();
+    }
+}
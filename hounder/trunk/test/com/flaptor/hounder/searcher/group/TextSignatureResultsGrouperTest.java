@@ -0,0 +1,75 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.group;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.flaptor.hounder.searcher.GroupedSearchResults;
+import com.flaptor.hounder.util.SimHash;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class TextSignatureResultsGrouperTest extends TestCase {
+
+    private static final String PAGE = "Hounder is a complete search system, it includes a crawler, an indexer and a searcher. "
+        + "It is simple to install and configure, it scales to millions of documents and it is easy to integrate "
+        + "with other applications through its xml and rmi interfaces. The searcher groups near duplicate documents "
+        + "by the fingerprint of their text, that is computed when they are indexed.";
+
+    private static final String[] TEXTS = {
+        PAGE,
+        PAGE.replace("millions", "billions"),
+        "A completely different document, about crawling the web and parsing html pages into plain text for the indexer, "
+        + "that has nothing in common with the other ones except for a few words that every english text uses.",
+    };
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testGroupByFingerprints() throws Exception {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < 9; i++) {
+            String text = TEXTS[i % 3];
+            Document doc = new Document();
+            doc.add(new Field("title", "title" + i, Field.Store.YES, Field.Index.NOT_ANALYZED));
+            doc.add(new Field("text", text, Field.Store.YES, Field.Index.ANALYZED));
+            doc.add(new Field(SimHash.fieldName("text"), SimHash.toString(SimHash.fingerprint(text)), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+            writer.addDocument(doc);
+        }
+        writer.close();
+
+        IndexSearcher searcher = new IndexSearcher(dir);
+        TopDocs tdocs = searcher.search(new MatchAllDocsQuery(), null, 9);
+        GroupedSearchResults results = new TextSignatureGroup().getGrouper(new TopDocsDocumentProvider(tdocs, searcher)).group(5, 10, 0);
+        searcher.close();
+
+        assertEquals("the first two texts should be grouped together", 2, results.groups());
+        assertEquals(6, results.getGroup(0).last().size());
+        assertEquals(3, results.getGroup(1).last().size());
+        for (Document doc : results.getGroup(0).last()) {
+            assertNotNull("the fingerprint should be returned, to group results again when merging", doc.get(SimHash.fieldName("text")));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.payload;
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.HitCollector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.payloads.BoostingTermQuery;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.flaptor.hounder.indexer.FixedValueTokenStream;
+import com.flaptor.util.Config;
+import com.flaptor.util.Execute;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class PayloadColumnQueryTest extends TestCase {
+
+    private static final Logger logger = Logger.getLogger(Execute.whoAmI());
+
+    private static final long HOUR = 3600 * 1000L;
+
+    private IndexSearcher searcher;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        Config.getConfig("searcher.properties").set("boost.payload.weight", "2");
+        Config.getConfig("searcher.properties").set("boost.payload.max.value", "100");
+        searcher = buildSearcher(100);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        searcher.close();
+        super.tearDown();
+    }
+
+    // Every document has a date and a boost payload, and one every 10 has no other payload.
+    private IndexSearcher buildSearcher(int docs) throws IOException {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < docs; i++) {
+            Document doc = new Document();
+            doc.add(new Field("text", "word" + (i % 3), Field.Store.NO, Field.Index.ANALYZED));
+            // half an hour off the hour, so "now" moving during the test does not change the scores.
+            doc.add(new Field("date", new FixedValueTokenStream("date", now - (i % 50) * HOUR - HOUR / 2)));
+            doc.add(new Field("boost", new FixedValueTokenStream("boost", i * 3)));
+            if (i % 10 == 0) {
+                doc.add(new Field("other", new FixedValueTokenStream("other", i)));
+            }
+            writer.addDocument(doc);
+        }
+        writer.close();
+        IndexSearcher searcher = new IndexSearcher(dir);
+        Config config = Config.getEmptyConfig();
+        config.set("SimilarityForwarder.scorers", "date:" + DatePayloadScorer.class.getName() + ",boost:" + ScalarPayloadScorer.class.getName());
+        searcher.setSimilarity(new SimilarityForwarder(config));
+        return searcher;
+    }
+
+    private float[] scores(Query query) throws IOException {
+        final float[] scores = new float[searcher.maxDoc()];
+        searcher.search(query, new HitCollector() {
+            public void collect(int doc, float score) {
+                scores[doc] = score;
+            }
+        });
+        return scores;
+    }
+
+    private void assertSameScores(String field) throws IOException {
+        Term term = new Term(field, field);
+        float[] expected = scores(new BoostingTermQuery(term));
+        float[] actual = scores(new PayloadColumnQuery(term));
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(field + " payload score of doc " + i, expected[i], actual[i], expected[i] * 1e-5f);
+        }
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testScoresLikeBoostingTermQuery() throws Exception {
+        Term date = new Term("date", "date");
+        assertNotSame("the payload columns should be used", new BoostingTermQuery(date).weight(searcher).getClass(),
+                new PayloadColumnQuery(date).weight(searcher).getClass());
+        assertSameScores("date");
+        assertSameScores("boost");
+        // without a ColumnPayloadScorer it is a BoostingTermQuery.
+        assertSameScores("other");
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testDecodeInPlace() {
+        byte[] payload = new byte[12];
+        System.arraycopy(new LongPayload(-1234567890123L).asPayload().toByteArray(), 0, payload, 3, 8);
+        assertEquals(-1234567890123L, LongPayload.decode(payload, 3));
+    }
+
+    /**
+     * Measures the cost per hit of scoring payloads, reading them from the postings
+     * on every hit (BoostingTermQuery) and from the columns (PayloadColumnQuery). The
+     * columns should be no slower, within a tolerance for the noise of the measure.
+     */
+    @TestInfo(testType = TestInfo.TestType.SYSTEM)
+    public void testCostPerHit() throws Exception {
+        searcher.close();
+        searcher = buildSearcher(200000);
+        Term term = new Term("date", "date");
+        long before = Long.MAX_VALUE;
+        long after = Long.MAX_VALUE;
+        // the best of some rounds, so the first ones warm up the jvm.
+        for (int round = 0; round < 3; round++) {
+            before = Math.min(before, nanosPerHit(new BoostingTermQuery(term), 20));
+            after = Math.min(after, nanosPerHit(new PayloadColumnQuery(term), 20));
+        }
+        logger.info("payload scoring, ns per hit: BoostingTermQuery=" + before + " PayloadColumnQuery=" + after);
+        assertTrue("scoring from the columns should be no slower (" + after + " ns per hit) than from the postings ("
+                + before + " ns per hit)", after <= before * 1.2);
+    }
+
+    private long nanosPerHit(Query query, int runs) throws IOException {
+        final int[] hits = new int[1];
+        HitCollector collector = new HitCollector() {
+            public void collect(int doc, float score) {
+                hits[0]++;
+            }
+        };
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            searcher.search(query, collector);
+        }
+        return (System.nanoTime() - start) / hits[0];
+    }
+}
@@ -0,0 +1,46 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.query;
+
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class FetchDocumentsQueryTest extends TestCase {
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testEqualsObject() {
+        TermQuery query = new TermQuery("foo", "bar");
+        int[] ids = new int[] {3, 1, 2};
+        FetchDocumentsQuery f1 = new FetchDocumentsQuery(query, 5, ids);
+        assertEquals("testing against itself", f1, f1);
+
+        FetchDocumentsQuery f2 = new FetchDocumentsQuery(new TermQuery("foo", "bar"), 5, new int[] {3, 1, 2});
+        assertEquals(f1, f2);
+        assertEquals(f1.hashCode(), f2.hashCode());
+
+        ids[0] = 4;
+        assertEquals("the ids should be copied", f1, f2);
+        assertFalse("the order of the ids matters", f1.equals(new FetchDocumentsQuery(query, 5, new int[] {1, 2, 3})));
+        assertFalse(f1.equals(new FetchDocumentsQuery(query, 6, new int[] {3, 1, 2})));
+        assertFalse(f1.equals(new HitKeysQuery(query)));
+        assertFalse(new HitKeysQuery(query).equals(query));
+        assertEquals(new HitKeysQuery(query), new HitKeysQuery(new TermQuery("foo", "bar")));
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.query;
+
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class FieldsQueryTest extends TestCase {
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testEqualsObject() {
+        TermQuery query = new TermQuery("foo", "bar");
+        FieldsQuery f1 = new FieldsQuery(query, new String[] {"title", "url"});
+        assertEquals("testing against itself", f1, f1);
+
+        FieldsQuery f2 = new FieldsQuery(new TermQuery("foo", "bar"), new String[] {"url", "title", "url"});
+        assertEquals("the order and repetitions of the fields do not matter", f1, f2);
+        assertEquals(f1.hashCode(), f2.hashCode());
+
+        assertFalse(f1.equals(new FieldsQuery(query, new String[] {"title"})));
+        assertFalse(f1.equals(new FieldsQuery(new TermQuery("foo", "baz"), new String[] {"title", "url"})));
+        assertFalse(f1.equals(query));
+        assertFalse(f1.equals(new TimeBudgetQuery(query, 100)));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testFindLazyParsedQuery() {
+        LazyParsedQuery lazy = new LazyParsedQuery("foo bar");
+        AQuery query = new FieldsQuery(new TimeBudgetQuery(lazy, 100), new String[] {"title"});
+        assertSame(lazy, LazyParsedQuery.findLazyParsedQuery(query));
+        assertSame(lazy, LazyParsedQuery.findLazyParsedQuery(new HitKeysQuery(query)));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testNoFields() {
+        try {
+            new FieldsQuery(new TermQuery("foo", "bar"), new String[0]);
+            fail("a query without fields should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected.
+        }
+    }
+}
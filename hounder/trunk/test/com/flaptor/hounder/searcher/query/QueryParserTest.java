@@ -15,7 +15,11 @@ limitations under the License.
 */
 package com.flaptor.hounder.searcher.query;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 
 import com.flaptor.util.Config;
 import com.flaptor.util.FileUtil;
@@ -152,6 +156,46 @@ public class QueryParserTest extends TestCase {
         assertFalse(query.toString() + " has been expanded, but does not contain expandable fields ( title != text)", query.toString().matches(".*bar.*"));
     }
 
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testParseCached() {
+        org.apache.lucene.search.Query q = qp.parseCached("foo bar");
+        assertEquals(qp.parse("foo bar"), q);
+        assertSame("whitespace variants should share the parsed query", q, qp.parseCached("  foo \t bar "));
+        assertFalse(q.equals(qp.parseCached("foo baz")));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testSerializedQueriesCompare() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new LazyParsedQuery("  foo \t bar "));
+        out.close();
+        Object read = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(new LazyParsedQuery("foo bar"), read);
+        assertEquals(new LazyParsedQuery("foo bar").hashCode(), read.hashCode());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testSharedInstanceReload() throws Exception {
+        Config config = Config.getConfig("searcher.properties");
+        config.set("QueryParser.reloadCheckInterval", "0");
+        QueryParser shared = QueryParser.getSharedInstance();
+        assertSame("the shared parser should not be rebuilt if nothing changed", shared, QueryParser.getSharedInstance());
+
+        String synonymFile = dir.getAbsolutePath()+File.separator+"synonyms2.txt";
+        TestUtils.writeFile(synonymFile,"foo=baz");
+        config.set("QueryParser.synonymFile",synonymFile);
+        // the change is noticed once the check interval that was in effect expires.
+        long deadline = System.currentTimeMillis() + 10000;
+        QueryParser reloaded = QueryParser.getSharedInstance();
+        while (reloaded == shared && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            reloaded = QueryParser.getSharedInstance();
+        }
+        assertNotSame("the shared parser should be rebuilt when the synonym file changes", shared, reloaded);
+        assertTrue(new LazyParsedQuery("text:foo").toString().matches(".*text:baz.*"));
+    }
+
     public static void main(String[] args) throws Exception {
         QueryParserTest t = new QueryParserTest();
         t.setUp();
@@ -16,12 +16,15 @@ limitations under the License.
 package com.flaptor.hounder.searcher.query;
 
 import java.io.File;
+import java.util.List;
 import java.util.Vector;
 
 import org.apache.lucene.document.Document;
 
 import com.flaptor.hounder.searcher.GroupedSearchResults;
 import com.flaptor.hounder.searcher.ISearcher;
+import com.flaptor.hounder.searcher.MultiSearchResults;
+import com.flaptor.hounder.searcher.QueryParams;
 import com.flaptor.hounder.searcher.SuggestQuerySearcher;
 import com.flaptor.hounder.searcher.filter.AFilter;
 import com.flaptor.hounder.searcher.group.AGroup;
@@ -62,6 +65,7 @@ public class SynonymQuerySuggestorTest extends TestCase {
     
     @Override
     protected void tearDown() throws Exception {
+        suggestSearcher.requestStop();
         super.tearDown();
         FileUtil.deleteDir(dir);
     }
@@ -74,6 +78,7 @@ public class SynonymQuerySuggestorTest extends TestCase {
         GroupedSearchResults gsr = suggestSearcher.search(query,0,10,new NoGroup(),1,null,null);
 System.out.println("Suggests: "+gsr.getSuggestedQuery().toString());
         assertTrue(gsr.getSuggestedQuery().toString().contains("bar"));
+        assertEquals("the suggestions should only be counted", 1, ((SearcherStub) baseSearcher).searches);
     }    
 
     @TestInfo(testType = TestInfo.TestType.UNIT)
@@ -89,6 +94,7 @@ System.out.println("Suggests: "+gsr.getSuggestedQuery().toString());
 
     private class SearcherStub implements ISearcher {
         private volatile boolean isRunning = true;
+        private volatile int searches = 0;
 
         @Override
         public void requestStop() {
@@ -103,7 +109,7 @@ System.out.println("Suggests: "+gsr.getSuggestedQuery().toString());
 
         // every query, that does not contain "bar", will return empty
         public GroupedSearchResults search(AQuery query, int firstResult, int groupCount, AGroup groupBy, int groupSize,AFilter filter, ASort sort) throws com.flaptor.hounder.searcher.SearcherException {
-       
+            searches++;
             if (!query.toString().contains("bar")) {
                 return new GroupedSearchResults();
             }
@@ -121,6 +127,14 @@ System.out.println("Suggests: "+gsr.getSuggestedQuery().toString());
             return new GroupedSearchResults(vec,1000,0,11,scores);
             
         }
+
+        public int countHits(AQuery query, AFilter filter) {
+            return query.toString().contains("bar") ? 1000 : 0;
+        }
+
+        public MultiSearchResults multiSearch(List<QueryParams> queries) {
+            return MultiSearchResults.searchEach(this, queries);
+        }
     }
 
 }
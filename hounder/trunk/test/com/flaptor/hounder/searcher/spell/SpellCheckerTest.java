@@ -0,0 +1,119 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.searcher.spell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class SpellCheckerTest extends TestCase {
+
+    // An index where every word is in the same number of documents.
+    private Directory createIndex(String... words) throws Exception {
+        Directory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+        StringBuffer text = new StringBuffer();
+        for (String word : words) {
+            text.append(word).append(' ');
+        }
+        for (int i = 0; i < 3; i++) {
+            Document doc = new Document();
+            doc.add(new Field("content", text.toString(), Field.Store.NO, Field.Index.ANALYZED));
+            writer.addDocument(doc);
+        }
+        writer.close();
+        return dir;
+    }
+
+    private void indexDictionary(Directory spellDir, String... words) throws Exception {
+        IndexReader reader = IndexReader.open(createIndex(words));
+        new SpellChecker(spellDir).indexDictionary(new Dictionary(reader, "content"));
+        reader.close();
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testCandidates() {
+        SpellingIndex index = SpellingIndex.build(Arrays.asList("searcher", "search", "seaweed", "indexer", "searcher"));
+        assertEquals("repeated words should be stored once", 4, index.size());
+        List<String> candidates = new ArrayList<String>();
+        for (int id : index.candidates("saerch")) {
+            candidates.add(index.getWord(id));
+        }
+        assertTrue(candidates.contains("search"));
+        assertTrue(candidates.contains("searcher"));
+        assertFalse(candidates.contains("indexer"));
+        assertEquals(0, index.candidates("xyz").length);
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testSuggestAndReload() throws Exception {
+        Directory spellDir = new RAMDirectory();
+        indexDictionary(spellDir, "hounder", "searcher", "indexer");
+        SpellChecker spellChecker = new SpellChecker(spellDir);
+        assertEquals("searcher", spellChecker.suggestWords("seracher")[0]);
+        assertEquals("indexer", spellChecker.suggestWords("idnexer")[0]);
+        assertEquals(0, spellChecker.suggestWords("spidre").length);
+        assertFalse("the dictionary did not change", spellChecker.checkForUpdates());
+
+        // someone else adds words to the dictionary.
+        indexDictionary(spellDir, "crawler", "spider");
+        assertEquals("the new words should not be seen before reloading", 0, spellChecker.suggestWords("spidre").length);
+        assertTrue(spellChecker.checkForUpdates());
+        assertEquals("spider", spellChecker.suggestWords("spidre")[0]);
+        assertEquals("searcher", spellChecker.suggestWords("seracher")[0]);
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testPopularityDoesNotOutrankDistance() throws Exception {
+        Directory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+        // most words are in a single document, so the frequent ones get a large boost.
+        StringBuffer rareWords = new StringBuffer();
+        for (int i = 0; i < 50; i++) {
+            rareWords.append("filler").append(i).append(' ');
+        }
+        for (int i = 0; i < 20; i++) {
+            Document doc = new Document();
+            String text = (i < 2) ? "searcher searches" : "searches";
+            doc.add(new Field("content", (i == 0) ? text + " " + rareWords : text, Field.Store.NO, Field.Index.ANALYZED));
+            writer.addDocument(doc);
+        }
+        writer.close();
+        IndexReader reader = IndexReader.open(dir);
+        Directory spellDir = new RAMDirectory();
+        new SpellChecker(spellDir).indexDictionary(new Dictionary(reader, "content"));
+        reader.close();
+
+        String[] suggestions = new SpellChecker(spellDir).suggestSimilar("sercher", 2);
+        assertEquals(2, suggestions.length);
+        assertEquals("the closest word should come first, however rare", "searcher", suggestions[0]);
+        assertEquals("searches", suggestions[1]);
+    }
+}
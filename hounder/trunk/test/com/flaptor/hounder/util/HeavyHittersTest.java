@@ -0,0 +1,99 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.flaptor.util.Pair;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class HeavyHittersTest extends TestCase {
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testFrequentItemsSurvive() {
+        // Space-Saving only guarantees to keep the items more frequent than total / capacity.
+        HeavyHitters<String> hh = new HeavyHitters<String>(10);
+        for (int i = 0; i < 1000; i++) {
+            hh.add("hot");
+            if (i % 2 == 0) {
+                hh.add("warm");
+            }
+            hh.add("cold" + i);
+        }
+        assertEquals(10, hh.size());
+        List<Pair<String, Long>> top = hh.top(2);
+        assertEquals(2, top.size());
+        assertEquals("hot", top.get(0).first());
+        assertEquals("warm", top.get(1).first());
+        assertTrue(top.get(0).last() >= 1000);
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testDecay() {
+        HeavyHitters<String> hh = new HeavyHitters<String>(10);
+        for (int i = 0; i < 4; i++) {
+            hh.add("a");
+        }
+        hh.add("b");
+        assertEquals(5, hh.total());
+        hh.decay();
+        assertEquals("items whose count reaches zero should be dropped", 1, hh.size());
+        assertEquals(2, hh.total());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testReplacedItemInheritsLowestCount() {
+        HeavyHitters<String> hh = new HeavyHitters<String>(2);
+        hh.add("a");
+        hh.add("a");
+        hh.add("b");
+        hh.add("c");
+        assertEquals(2, hh.size());
+        List<Pair<String, Long>> top = hh.top(2);
+        assertEquals(2L, top.get(0).last().longValue());
+        assertEquals(2L, top.get(1).last().longValue());
+        assertEquals(4, hh.total());
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testConcurrentAddsAreCounted() throws Exception {
+        final HeavyHitters<String> hh = new HeavyHitters<String>(4);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        hh.add("item" + (i % 4));
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000, hh.total());
+        for (Pair<String, Long> item : hh.top(4)) {
+            assertEquals(20000L, item.last().longValue());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+Copyright 2008 Flaptor (flaptor.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.flaptor.hounder.util;
+
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class IntIntHashMapTest extends TestCase {
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testPutGet() {
+        IntIntHashMap map = new IntIntHashMap(2);
+        for (int i = 0; i < 1000; i++) {
+            map.put(i * 7, i);
+        }
+        map.put(0, -5);
+        assertEquals(1000, map.size());
+        assertEquals(-5, map.get(0, -1));
+        for (int i = 1; i < 1000; i++) {
+            assertEquals(i, map.get(i * 7, -1));
+        }
+        assertEquals(-1, map.get(3, -1));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+Copyright 2008 Flaptor (flaptor.com) 
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License.
+*/
+package com.flaptor.hounder.util;
+
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+
+/**
+ * @author Flaptor Development Team
+ */
+public class SimHashTest extends TestCase {
+
+    private static final String TEXT = "Hounder is a complete search system, it includes a crawler, an indexer and a searcher. "
+        + "It is simple to install and configure, it scales to millions of documents and it is easy to integrate "
+        + "with other applications through its xml and rmi interfaces.";
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testNearDuplicates() {
+        long original = SimHash.fingerprint(TEXT);
+        long changed = SimHash.fingerprint(TEXT.replace("millions", "billions"));
+        long other = SimHash.fingerprint("The quick brown fox jumps over the lazy dog, while the cat sleeps near the fire.");
+        assertEquals(original, SimHash.fingerprint(TEXT.toUpperCase()));
+        assertTrue(SimHash.distance(original, changed) <= 3);
+        assertTrue(SimHash.distance(original, other) > 10);
+        assertEquals(0, SimHash.fingerprint(" ,.; "));
+    }
+
+    @TestInfo(testType = TestInfo.TestType.UNIT)
+    public void testStoredForm() {
+        for (long fingerprint : new long[] {1L, -1L, SimHash.fingerprint(TEXT), Long.MIN_VALUE}) {
+            String stored = SimHash.toString(fingerprint);
+            assertEquals(16, stored.length());
+            assertEquals(fingerprint, SimHash.parse(stored));
+        }
+        assertEquals(0, SimHash.parse("not a fingerprint"));
+    }
+}